@@ -0,0 +1,144 @@
+package com.ci;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded in-memory cache of build entries by commit SHA, evicting the least recently used entries
+ * when either the number of entries or their estimated size in memory exceeds its limit.
+ * <p>
+ * The cache is filled on reads and invalidated on writes. To keep a read that raced with a write from caching
+ * what it read before the write, a reader takes a {@link #stamp()} before reading the database and the entry
+ * is only cached if no entry has been invalidated since.
+ */
+public class BuildCache {
+
+    /**
+     * Counters of the cache.
+     * @param hits lookups answered from the cache
+     * @param misses lookups that had to read the database
+     * @param evictions entries evicted to stay within the limits
+     * @param entries number of cached entries
+     * @param weight estimated size of the cached entries in bytes
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long weight) {}
+
+    private final int maxEntries;
+    private final long maxWeight;
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, BuildEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long stamp;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a cache.
+     * @param maxEntries maximum number of entries, 0 disables the cache
+     * @param maxWeight maximum estimated size of the entries in bytes
+     */
+    public BuildCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Creates a cache with the limits taken from the system properties ci.cache.entries (default 1024)
+     * and ci.cache.bytes (default 16 MiB).
+     */
+    public BuildCache() {
+        this(Integer.getInteger("ci.cache.entries", 1024), Long.getLong("ci.cache.bytes", 16L << 20));
+    }
+
+    /**
+     * Looks up a build, counting a hit or a miss.
+     * @param sha commit SHA
+     * @return a copy of the cached entry, or null if it is not cached
+     */
+    public synchronized BuildEntry get(String sha) {
+        BuildEntry entry = entries.get(sha);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        // entries are mutable, neither the caller's nor the cached instance may be shared
+        return entry.copy();
+    }
+
+    /**
+     * Returns the current stamp, to be taken before reading an entry from the database and passed to {@link #put}.
+     * @return the stamp
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Caches an entry read from the database, unless an entry has been invalidated since the stamp was taken.
+     * @param sha commit SHA
+     * @param entry the entry
+     * @param stamp the stamp taken before the entry was read
+     */
+    public synchronized void put(String sha, BuildEntry entry, long stamp) {
+        long entryWeight = weigh(entry);
+        if (stamp != this.stamp || maxEntries < 1 || entryWeight > maxWeight) {
+            return;
+        }
+        BuildEntry previous = entries.put(sha, entry.copy());
+        if (previous != null) {
+            weight -= weigh(previous);
+        }
+        weight += entryWeight;
+        Iterator<Map.Entry<String, BuildEntry>> lru = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            BuildEntry evicted = lru.next().getValue();
+            lru.remove();
+            weight -= weigh(evicted);
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the entry of a build, called when the build is written.
+     * @param sha commit SHA
+     */
+    public synchronized void invalidate(String sha) {
+        stamp++;
+        BuildEntry removed = entries.remove(sha);
+        if (removed != null) {
+            weight -= weigh(removed);
+        }
+    }
+
+    /**
+     * Removes all entries, called when builds are written without knowing their SHAs, e.g. a dropped partition.
+     */
+    public synchronized void clear() {
+        stamp++;
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Returns the counters of the cache.
+     * @return the counters
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), weight);
+    }
+
+    /**
+     * Estimates the memory used by an entry: the object headers and fields, and two bytes per character of its strings.
+     */
+    static long weigh(BuildEntry entry) {
+        return 96 + 2L * (length(entry.sha) + length(entry.branch) + length(entry.buildResult)
+            + length(entry.buildDescription) + length(entry.buildDate) + length(entry.treeHash));
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
@@ -0,0 +1,175 @@
+package com.ci;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Position of the last build of a page, the opaque nextCursor of a {@link BuildPage}. Builds are listed newest first:
+ * builds with a date by date, then id, both descending, followed by the builds without a date by descending id.
+ * A date that doesn't start with a month (see {@link BuildPartitions#partitionOf}) counts as no date.
+ * <p>
+ * The builds of a time range are listed by queued time, then id, both descending; the cursor of their pages holds
+ * the queued time in epoch milliseconds in place of the date.
+ */
+record BuildCursor(String date, long id) {
+
+    /** The order of the builds of a listing. */
+    static final Comparator<BuildEntry> NEWEST_FIRST = Comparator
+        .comparing((BuildEntry build) -> undated(build.buildDate))
+        .thenComparing(build -> undated(build.buildDate) ? "" : build.buildDate, Comparator.reverseOrder())
+        .thenComparing(build -> build.id, Comparator.reverseOrder());
+
+    /** The order of the builds of a time range. */
+    static final Comparator<BuildEntry> LATEST_QUEUED_FIRST = Comparator
+        .comparing((BuildEntry build) -> build.queuedAt, Comparator.reverseOrder())
+        .thenComparing(build -> build.id, Comparator.reverseOrder());
+
+    private static boolean undated(String date) {
+        return BuildPartitions.partitionOf(date).equals(BuildPartitions.UNDATED);
+    }
+
+    /**
+     * Returns the cursor of a build.
+     * @param build the last build of a page
+     * @return the cursor
+     */
+    static BuildCursor of(BuildEntry build) {
+        return new BuildCursor(build.buildDate, build.id);
+    }
+
+    String encode() {
+        String key = date == null ? Long.toString(id) : id + ":" + date;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor.
+     * @param token a nextCursor, null or empty for the first page
+     * @return the cursor, or null for the first page
+     * @throws IllegalArgumentException if the token is not a cursor
+     */
+    static BuildCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int colon = key.indexOf(':');
+            return colon < 0
+                ? new BuildCursor(null, Long.parseLong(key))
+                : new BuildCursor(key.substring(colon + 1), Long.parseLong(key.substring(0, colon)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+    }
+
+    /**
+     * Decodes the cursor of a page of a time range.
+     * @param token a nextCursor of a page of a time range, null or empty for the first page
+     * @return the cursor, or null for the first page
+     * @throws IllegalArgumentException if the token is not a cursor of a time range
+     */
+    static BuildCursor decodeRange(String token) {
+        BuildCursor cursor = decode(token);
+        if (cursor != null) {
+            try {
+                Long.parseLong(String.valueOf(cursor.date()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + token, e);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the queued time held by the cursor of a page of a time range.
+     * @return the epoch milliseconds
+     */
+    long queuedAt() {
+        return Long.parseLong(date);
+    }
+
+    /**
+     * Checks the size of a page.
+     * @param limit maximum number of builds of a page
+     * @throws IllegalArgumentException if the limit is less than 1
+     */
+    static void checkLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + limit);
+        }
+    }
+
+    /**
+     * Builds the page after a cursor from builds held in memory, for the stores without an index on the date.
+     * @param builds the builds to list, in any order
+     * @param token the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of builds of the page
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    static BuildPage page(Collection<BuildEntry> builds, String token, int limit) {
+        checkLimit(limit);
+        BuildCursor cursor = decode(token);
+        BuildEntry last = cursor == null ? null : new BuildEntry((int) cursor.id(), null, null, null, null, cursor.date());
+        List<BuildEntry> page = new ArrayList<>();
+        builds.stream()
+            .filter(build -> last == null || NEWEST_FIRST.compare(last, build) < 0)
+            .sorted(NEWEST_FIRST)
+            .limit(limit + 1L)
+            .forEach(page::add);
+        return toPage(page, limit);
+    }
+
+    /**
+     * Builds the page after a cursor of the builds queued within a time range from builds held in memory,
+     * for the stores without an index on the queued time.
+     * @param builds the builds, in any order
+     * @param from the start of the range, inclusive, in epoch milliseconds
+     * @param to the end of the range, exclusive, in epoch milliseconds
+     * @param token the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of builds of the page
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    static BuildPage rangePage(Collection<BuildEntry> builds, long from, long to, String token, int limit) {
+        checkLimit(limit);
+        BuildCursor cursor = decodeRange(token);
+        List<BuildEntry> page = new ArrayList<>();
+        builds.stream()
+            .filter(build -> BuildTimes.queuedWithin(build, from, to))
+            .filter(build -> cursor == null || build.queuedAt < cursor.queuedAt()
+                || (build.queuedAt == cursor.queuedAt() && build.id < cursor.id()))
+            .sorted(LATEST_QUEUED_FIRST)
+            .limit(limit + 1L)
+            .forEach(page::add);
+        return toRangePage(page, limit);
+    }
+
+    /**
+     * Turns up to limit + 1 builds of a time range, latest queued first, into a page.
+     */
+    static BuildPage toRangePage(List<BuildEntry> builds, int limit) {
+        if (builds.size() <= limit) {
+            return new BuildPage(builds, null);
+        }
+        builds.remove(limit);
+        BuildEntry last = builds.get(limit - 1);
+        return new BuildPage(builds, new BuildCursor(Long.toString(last.queuedAt), last.id).encode());
+    }
+
+    /**
+     * Turns up to limit + 1 builds in listing order into a page, the extra build telling whether there is a next page.
+     */
+    static BuildPage toPage(List<BuildEntry> builds, int limit) {
+        if (builds.size() <= limit) {
+            return new BuildPage(builds, null);
+        }
+        builds.remove(limit);
+        return new BuildPage(builds, of(builds.get(limit - 1)).encode());
+    }
+}
@@ -2,7 +2,10 @@ package com.ci;
 
 /**
  * The BuildEntry class represents a single build entry in the database.
- * It contains information about the commit SHA, branch, build result, description, and date of the build.
+ * It contains information about the commit SHA, branch, build result, description, and date of the build,
+ * the git tree hash of the commit once it is known, and the number of the latest attempt at building the commit.
+ * The times the build was queued (its date), started and finished are epoch milliseconds, null while unknown,
+ * see {@link BuildTimes}.
  */
 public class BuildEntry {
     public int id;
@@ -11,15 +14,39 @@ public class BuildEntry {
     public String buildResult;
     public String buildDescription;
     public String buildDate;
+    public String treeHash;
+    public int attempt;
+    public Long queuedAt;
+    public Long startedAt;
+    public Long finishedAt;
 
     
     public BuildEntry(int id, String sha, String branch, String result, String description, String date) {
+        this(id, sha, branch, result, description, date, null, 1);
+    }
+
+    public BuildEntry(int id, String sha, String branch, String result, String description, String date,
+            String treeHash, int attempt) {
         this.id = id;
         this.sha = sha;
         this.branch = branch;
         this.buildResult = result;
         this.buildDescription = description;
         this.buildDate = date;
+        this.treeHash = treeHash;
+        this.attempt = attempt;
+        this.queuedAt = BuildTimes.parse(date);
+    }
+
+    /**
+     * Returns a copy of this entry, so a stored or cached entry can't be changed by the caller.
+     * @return a new BuildEntry with the same values
+     */
+    public BuildEntry copy() {
+        BuildEntry copy = new BuildEntry(id, sha, branch, buildResult, buildDescription, buildDate, treeHash, attempt);
+        copy.startedAt = startedAt;
+        copy.finishedAt = finishedAt;
+        return copy;
     }
 
     /**
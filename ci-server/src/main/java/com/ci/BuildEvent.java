@@ -0,0 +1,25 @@
+package com.ci;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * One state transition of a build, an entry of its timeline (e.g. pending, checkout, testing, success).
+ *
+ * @param sha commit SHA of the build
+ * @param attempt the attempt at building the commit the event belongs to, starting at 1
+ * @param state the state entered: a build result, or a step of the pipeline like checkout or testing
+ * @param recordedAt when the state was entered, in UTC, as yyyy-MM-dd HH:mm:ss.SSS
+ */
+public record BuildEvent(String sha, int attempt, String state, String recordedAt) {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    /**
+     * Returns the current time in UTC with milliseconds, as the steps of one build are often seconds apart.
+     * @return the current time as yyyy-MM-dd HH:mm:ss.SSS
+     */
+    static String now() {
+        return LocalDateTime.now(ZoneOffset.UTC).format(TIMESTAMP);
+    }
+}
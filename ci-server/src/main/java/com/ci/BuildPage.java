@@ -0,0 +1,12 @@
+package com.ci;
+
+import java.util.List;
+
+/**
+ * One page of a build listing, newest builds first.
+ *
+ * @param builds the builds of the page
+ * @param nextCursor opaque token to pass as the cursor of the next page, or null if this is the last page
+ */
+public record BuildPage(List<BuildEntry> builds, String nextCursor) {
+}
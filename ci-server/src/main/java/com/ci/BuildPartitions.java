@@ -0,0 +1,467 @@
+package com.ci;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds are stored in one partition per month of their build date. A partition is a set of tables: builds_YYYY_MM
+ * with its indexes, the full-text index of its logs build_logs_YYYY_MM and the append-only timelines of its builds
+ * build_events_YYYY_MM, so a query for a time range
+ * only reads the partitions of that range, and retention drops whole partitions instead of deleting builds row by row.
+ * Builds without a date are kept in the partition {@value #UNDATED}.
+ * <p>
+ * Build ids are unique across partitions, so the (build_date, id) order of builds and the rowids of their log lines
+ * (see DbHandler.logRowId) stay unique when the builds of several partitions are merged.
+ */
+final class BuildPartitions {
+    /** Name of the partition of the builds without a date. */
+    static final String UNDATED = "undated";
+
+    /** The partitions of a database and the schema version they were read at. */
+    private record Catalog(int schemaVersion, List<String> names) {}
+
+    private volatile Catalog catalog;
+
+    /**
+     * Returns the partition a build date belongs to.
+     * @param buildDate the build date, starting with the year and month (YYYY-MM), or null
+     * @return the partition name, YYYY_MM, or {@value #UNDATED} if the date is null or doesn't start with a month
+     */
+    static String partitionOf(String buildDate) {
+        if (buildDate == null || buildDate.length() < 7 || buildDate.charAt(4) != '-') {
+            return UNDATED;
+        }
+        for (int i : new int[] {0, 1, 2, 3, 5, 6}) {
+            if (!Character.isDigit(buildDate.charAt(i))) {
+                return UNDATED;
+            }
+        }
+        return buildDate.substring(0, 4) + "_" + buildDate.substring(5, 7);
+    }
+
+    /**
+     * Returns the name of the builds table of a partition.
+     * @param partition the partition name
+     * @return the table name
+     */
+    static String builds(String partition) {
+        return "builds_" + partition;
+    }
+
+    /**
+     * Returns the name of the log index table of a partition.
+     * @param partition the partition name
+     * @return the table name
+     */
+    static String logs(String partition) {
+        return "build_logs_" + partition;
+    }
+
+    /**
+     * Returns the name of the events table of a partition.
+     * @param partition the partition name
+     * @return the table name
+     */
+    static String events(String partition) {
+        return "build_events_" + partition;
+    }
+
+    /**
+     * Creates the tables and indexes of a new partition in the latest schema, if they don't exist.
+     * The partitions that exist when the schema changes are brought to it by a migration step, so this must list
+     * every column in the order the migrations add them, and a change here always comes with a new migration.
+     * @param connection connection to the database
+     * @param partition the partition name, as returned by {@link #partitionOf}
+     * @throws SQLException if the tables can't be created
+     */
+    static void create(Connection connection, String partition) throws SQLException {
+        String builds = builds(partition);
+        try (Statement stm = connection.createStatement()) {
+            // ids are assigned across partitions by DbHandler, not by the table
+            stm.execute("CREATE TABLE IF NOT EXISTS " + builds + " (" +
+                "id INTEGER PRIMARY KEY," +
+                "sha TEXT UNIQUE NOT NULL," +
+                "branch TEXT NOT NULL," +
+                "build_result TEXT NOT NULL," +
+                "build_description TEXT," +
+                "build_date TEXT," +
+                "tree_hash TEXT," +
+                "attempt INTEGER NOT NULL DEFAULT 1," +
+                "queued_at INTEGER," +
+                "started_at INTEGER," +
+                "finished_at INTEGER" +
+                ")");
+            stm.execute("CREATE VIRTUAL TABLE IF NOT EXISTS " + logs(partition) + " USING fts5(line)");
+            // events are only appended, the rowid keeps them in the order they happened
+            stm.execute("CREATE TABLE IF NOT EXISTS " + events(partition) + " (" +
+                "id INTEGER PRIMARY KEY," +
+                "build_id INTEGER NOT NULL," +
+                "state TEXT NOT NULL," +
+                "recorded_at TEXT NOT NULL," +
+                "attempt INTEGER NOT NULL DEFAULT 1" +
+                ")");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + events(partition) + "_build ON " + events(partition) + " (build_id, id)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_branch_date ON " + builds + " (branch, build_date)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_result_date ON " + builds + " (build_result, build_date)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_date ON " + builds + " (build_date)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_tree ON " + builds + " (tree_hash)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_queued ON " + builds + " (queued_at)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_branch_queued ON " + builds + " (branch, queued_at)");
+        }
+    }
+
+    /** Adds a column to a table unless the table already has it. */
+    private static void addColumn(Connection connection, String table, String column, String definition)
+            throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            try (ResultSet rs = stm.executeQuery("SELECT 1 FROM pragma_table_info('" + table + "') WHERE name = '" + column + "'")) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+            stm.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    /**
+     * Returns the start of the queued times a partition may hold. The partition is picked by the build date as
+     * written, so a date with an offset can be queued up to a day before the month of its partition in UTC.
+     * @param partition the partition name
+     * @return the epoch milliseconds, inclusive, or Long.MIN_VALUE for {@value #UNDATED}
+     */
+    static long queuedFrom(String partition) {
+        YearMonth month = monthOf(partition);
+        return month == null ? Long.MIN_VALUE
+            : month.atDay(1).minusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Returns the end of the queued times a partition may hold, up to a day after its month, see {@link #queuedFrom}.
+     * @param partition the partition name
+     * @return the epoch milliseconds, exclusive, or Long.MAX_VALUE for {@value #UNDATED}
+     */
+    static long queuedTo(String partition) {
+        YearMonth month = monthOf(partition);
+        return month == null ? Long.MAX_VALUE
+            : month.plusMonths(1).atDay(1).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /** Returns the month of a partition, or null for {@value #UNDATED} and the partitions of dates like 2024-13. */
+    private static YearMonth monthOf(String partition) {
+        try {
+            return YearMonth.parse(partition.replace('_', '-'));
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Binds an epoch timestamp that may be unknown.
+     * @param stm the statement
+     * @param index the index of the parameter
+     * @param millis the epoch milliseconds, or null
+     * @throws SQLException if the parameter can't be set
+     */
+    static void setTime(PreparedStatement stm, int index, Long millis) throws SQLException {
+        if (millis == null) {
+            stm.setNull(index, Types.INTEGER);
+        } else {
+            stm.setLong(index, millis);
+        }
+    }
+
+    /**
+     * Reads an epoch timestamp that may be unknown.
+     * @param rs the result set, on a row
+     * @param column the column name
+     * @return the epoch milliseconds, or null
+     * @throws SQLException if the column can't be read
+     */
+    static Long getTime(ResultSet rs, String column) throws SQLException {
+        long millis = rs.getLong(column);
+        return rs.wasNull() ? null : millis;
+    }
+
+    /**
+     * Drops the tables of a partition, with all its builds, log lines and events.
+     * @param connection connection to the database
+     * @param partition the partition name
+     * @throws SQLException if the tables can't be dropped
+     */
+    static void drop(Connection connection, String partition) throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            stm.execute("DROP TABLE IF EXISTS " + events(partition));
+            stm.execute("DROP TABLE IF EXISTS " + logs(partition));
+            stm.execute("DROP TABLE IF EXISTS " + builds(partition));
+        }
+    }
+
+    /**
+     * Returns the partitions of the database, newest month first and {@value #UNDATED} last.
+     * The list is only read again from the schema after the schema has changed.
+     * @param connection connection to the database
+     * @return the partition names
+     * @throws SQLException if the schema can't be read
+     */
+    List<String> list(Connection connection) throws SQLException {
+        int version;
+        try (Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("PRAGMA schema_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        Catalog cached = catalog;
+        if (cached != null && cached.schemaVersion() == version) {
+            return cached.names();
+        }
+        List<String> names = read(connection);
+        // YYYY_MM sorts chronologically, and after "undated" in reverse
+        names.sort(Comparator.reverseOrder());
+        if (names.remove(UNDATED)) {
+            names.add(UNDATED);
+        }
+        List<String> result = List.copyOf(names);
+        catalog = new Catalog(version, result);
+        return result;
+    }
+
+    /**
+     * Migration step adding the tree hash and attempt number to the builds and events of each partition.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the columns can't be added
+     */
+    static void addAttempts(Connection connection) throws SQLException {
+        for (String partition : read(connection)) {
+            addColumn(connection, builds(partition), "tree_hash", "TEXT");
+            addColumn(connection, builds(partition), "attempt", "INTEGER NOT NULL DEFAULT 1");
+            addColumn(connection, events(partition), "attempt", "INTEGER NOT NULL DEFAULT 1");
+            try (Statement stm = connection.createStatement()) {
+                stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds(partition) + "_tree ON " + builds(partition) + " (tree_hash)");
+            }
+        }
+    }
+
+    /** Reads the partition names from the schema, in no particular order. */
+    static List<String> read(Connection connection) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND " +
+                "(name GLOB 'builds_[0-9][0-9][0-9][0-9]_[0-9][0-9]' OR name = 'builds_" + UNDATED + "')")) {
+            while (rs.next()) {
+                names.add(rs.getString(1).substring("builds_".length()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Migration step moving the builds of the unpartitioned builds table into their partitions,
+     * keeping their ids and log lines, then dropping the unpartitioned tables.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the builds can't be moved
+     */
+    static void partitionLegacyBuilds(Connection connection) throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            try (ResultSet rs = stm.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'builds'")) {
+                if (!rs.next()) {
+                    return;
+                }
+            }
+            // the partition of each build, computed here so SQL can select the builds of a partition by id
+            List<String> partitions = new ArrayList<>();
+            int rows = 0;
+            stm.execute("CREATE TEMP TABLE legacy_partitions (id INTEGER PRIMARY KEY, part TEXT NOT NULL)");
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO temp.legacy_partitions (id, part) VALUES (?, ?)");
+                ResultSet rs = stm.executeQuery("SELECT id, build_date FROM builds")) {
+                while (rs.next()) {
+                    String partition = partitionOf(rs.getString(2));
+                    if (!partitions.contains(partition)) {
+                        partitions.add(partition);
+                    }
+                    insert.setLong(1, rs.getLong(1));
+                    insert.setString(2, partition);
+                    insert.addBatch();
+                    if (++rows % 10_000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            for (String partition : partitions) {
+                createVersion3(connection, partition);
+                String ids = "SELECT id FROM temp.legacy_partitions WHERE part = '" + partition + "'";
+                stm.execute("INSERT INTO " + builds(partition) +
+                    " (id, sha, branch, build_result, build_description, build_date) " +
+                    "SELECT id, sha, branch, build_result, build_description, build_date FROM builds WHERE id IN (" + ids + ")");
+                stm.execute("INSERT INTO " + logs(partition) + " (rowid, line) " +
+                    "SELECT rowid, line FROM build_logs WHERE (rowid >> 24) IN (" + ids + ")");
+            }
+            stm.execute("DROP TABLE temp.legacy_partitions");
+            stm.execute("DROP TABLE IF EXISTS build_logs");
+            stm.execute("DROP TABLE builds");
+        }
+    }
+
+    /**
+     * Creates the tables and indexes of a partition as they were defined when partitions were introduced, in schema
+     * version 3. The later migrations add to them, so this must never change.
+     */
+    private static void createVersion3(Connection connection, String partition) throws SQLException {
+        String builds = builds(partition);
+        try (Statement stm = connection.createStatement()) {
+            stm.execute("CREATE TABLE IF NOT EXISTS " + builds + " (" +
+                "id INTEGER PRIMARY KEY," +
+                "sha TEXT UNIQUE NOT NULL," +
+                "branch TEXT NOT NULL," +
+                "build_result TEXT NOT NULL," +
+                "build_description TEXT," +
+                "build_date TEXT" +
+                ")");
+            stm.execute("CREATE VIRTUAL TABLE IF NOT EXISTS " + logs(partition) + " USING fts5(line)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_branch_date ON " + builds + " (branch, build_date)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_result_date ON " + builds + " (build_result, build_date)");
+            stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds + "_date ON " + builds + " (build_date)");
+        }
+    }
+
+    /**
+     * Migration step indexing the logs of the builds stored before their output was indexed for full-text search:
+     * the lines of each build with output but no indexed line are added to the log index of its partition.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the lines can't be indexed
+     */
+    static void indexLegacyLogs(Connection connection) throws SQLException {
+        for (String partition : read(connection)) {
+            String logs = logs(partition);
+            try (Statement stm = connection.createStatement();
+                PreparedStatement insert = connection.prepareStatement("INSERT INTO " + logs + " (rowid, line) VALUES (?, ?)");
+                ResultSet rs = stm.executeQuery("SELECT id, build_description FROM " + builds(partition) + " b " +
+                    "WHERE build_description IS NOT NULL AND NOT EXISTS (SELECT 1 FROM " + logs + " l " +
+                    "WHERE l.rowid BETWEEN (b.id << " + DbHandler.LOG_LINE_BITS + ") AND (b.id << " + DbHandler.LOG_LINE_BITS + ") + " +
+                    DbHandler.LOG_LINE_MASK + ")")) {
+                int rows = 0;
+                while (rs.next()) {
+                    rows += DbHandler.addLogLines(insert, rs.getLong(1), rs.getString(2));
+                    if (rows >= 10_000) {
+                        insert.executeBatch();
+                        rows = 0;
+                    }
+                }
+                insert.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Migration step creating the build id sequence: a one-row table holding the last id handed out, which the
+     * writer increments for each new build. Unlike the highest id of the partitions, it never goes back when the
+     * newest builds are deleted or partitions dropped, so ids, which also key log lines, events and cursors, are never
+     * reused. It starts at the highest id of all partitions.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the sequence can't be created
+     */
+    static void startIdSequence(Connection connection) throws SQLException {
+        long last = 0;
+        try (Statement stm = connection.createStatement()) {
+            for (String partition : read(connection)) {
+                try (ResultSet rs = stm.executeQuery("SELECT MAX(id) FROM " + builds(partition))) {
+                    if (rs.next()) {
+                        last = Math.max(last, rs.getLong(1));
+                    }
+                }
+            }
+            stm.execute("CREATE TABLE IF NOT EXISTS build_ids (last_id INTEGER NOT NULL)");
+            stm.execute("DELETE FROM build_ids");
+            stm.execute("INSERT INTO build_ids (last_id) VALUES (" + last + ")");
+        }
+    }
+
+    /**
+     * Migration step adding the queued, started and finished times to the builds of each partition, parsed from
+     * their build dates and from the events of their current attempt.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the times can't be written
+     */
+    static void addTimes(Connection connection) throws SQLException {
+        for (String partition : read(connection)) {
+            // epoch milliseconds, see BuildTimes
+            addColumn(connection, builds(partition), "queued_at", "INTEGER");
+            addColumn(connection, builds(partition), "started_at", "INTEGER");
+            addColumn(connection, builds(partition), "finished_at", "INTEGER");
+            try (Statement stm = connection.createStatement()) {
+                stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds(partition) + "_queued ON " + builds(partition) + " (queued_at)");
+                stm.execute("CREATE INDEX IF NOT EXISTS idx_" + builds(partition) + "_branch_queued ON " + builds(partition) +
+                    " (branch, queued_at)");
+            }
+            Map<Long, List<BuildEvent>> timelines = new HashMap<>();
+            List<BuildEntry> builds = new ArrayList<>();
+            try (Statement stm = connection.createStatement()) {
+                try (ResultSet rs = stm.executeQuery("SELECT build_id, state, recorded_at, attempt FROM " +
+                        events(partition) + " ORDER BY build_id, id")) {
+                    while (rs.next()) {
+                        timelines.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>())
+                            .add(new BuildEvent(null, rs.getInt(4), rs.getString(2), rs.getString(3)));
+                    }
+                }
+                try (ResultSet rs = stm.executeQuery("SELECT id, build_date, attempt FROM " + builds(partition))) {
+                    while (rs.next()) {
+                        builds.add(new BuildEntry(rs.getInt(1), null, null, null, null, rs.getString(2), null, rs.getInt(3)));
+                    }
+                }
+            }
+            try (PreparedStatement update = connection.prepareStatement("UPDATE " + builds(partition) +
+                    " SET queued_at = ?, started_at = ?, finished_at = ? WHERE id = ?")) {
+                int rows = 0;
+                for (BuildEntry build : builds) {
+                    BuildTimes.fill(build, timelines.get((long) build.id));
+                    setTime(update, 1, build.queuedAt);
+                    setTime(update, 2, build.startedAt);
+                    setTime(update, 3, build.finishedAt);
+                    update.setLong(4, build.id);
+                    update.addBatch();
+                    if (++rows % 10_000 == 0) {
+                        update.executeBatch();
+                    }
+                }
+                update.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Migration step starting the timeline of the builds stored before events were recorded: creates the events
+     * table of each partition and records the current result of each build without events, at its build date.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the events can't be recorded
+     */
+    static void startTimelines(Connection connection) throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            for (String partition : read(connection)) {
+                // events are only appended, the rowid keeps them in the order they happened
+                stm.execute("CREATE TABLE IF NOT EXISTS " + events(partition) + " (" +
+                    "id INTEGER PRIMARY KEY," +
+                    "build_id INTEGER NOT NULL," +
+                    "state TEXT NOT NULL," +
+                    "recorded_at TEXT NOT NULL" +
+                    ")");
+                stm.execute("CREATE INDEX IF NOT EXISTS idx_" + events(partition) + "_build ON " + events(partition) + " (build_id, id)");
+                stm.execute("INSERT INTO " + events(partition) + " (build_id, state, recorded_at) " +
+                    "SELECT id, build_result, COALESCE(build_date, CURRENT_TIMESTAMP) FROM " + builds(partition) + " b " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM " + events(partition) + " e WHERE e.build_id = b.id) ORDER BY id");
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.ci;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A build with its timeline, the unit of the build history exported and imported by the stores as NDJSON:
+ * one JSON object per line, with the fields of the JSON of a build and an events array of its timeline.
+ * The id and the times of a build are derived by the store that imports it, so they are ignored on import,
+ * and a build without events gets a timeline of its result at its build date, like the builds stored before
+ * timelines were recorded.
+ *
+ * @param build the build
+ * @param events its timeline, oldest first
+ */
+public record BuildRecord(BuildEntry build, List<BuildEvent> events) {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Returns the NDJSON line of the build.
+     * @return one JSON object, without line break
+     */
+    public String toJson() {
+        ObjectNode json = objectMapper.valueToTree(build);
+        ArrayNode timeline = json.putArray("events");
+        for (BuildEvent event : events) {
+            timeline.addObject()
+                .put("attempt", event.attempt())
+                .put("state", event.state())
+                .put("recordedAt", event.recordedAt());
+        }
+        return json.toString();
+    }
+
+    /**
+     * Parses an NDJSON line of a build.
+     * @param line one JSON object with at least the sha, branch and buildResult of the build
+     * @return the build with its timeline
+     * @throws IllegalArgumentException if the line is not such an object
+     */
+    public static BuildRecord fromJson(String line) {
+        JsonNode json;
+        try {
+            json = objectMapper.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid build record: " + e.getOriginalMessage(), e);
+        }
+        if (json == null || !json.isObject()) {
+            throw new IllegalArgumentException("Invalid build record, expected a JSON object");
+        }
+        String sha = text(json, "sha");
+        String branch = text(json, "branch");
+        String result = text(json, "buildResult");
+        if (sha == null || branch == null || result == null) {
+            throw new IllegalArgumentException("Invalid build record, sha, branch and buildResult are required");
+        }
+        String date = text(json, "buildDate");
+        int attempt = json.path("attempt").asInt(1);
+        BuildEntry build = new BuildEntry(0, sha, branch, result, text(json, "buildDescription"), date,
+            text(json, "treeHash"), attempt);
+        List<BuildEvent> events = new ArrayList<>();
+        for (JsonNode event : json.path("events")) {
+            String state = text(event, "state");
+            String recordedAt = text(event, "recordedAt");
+            if (state == null || recordedAt == null) {
+                throw new IllegalArgumentException("Invalid event of build " + sha + ", state and recordedAt are required");
+            }
+            events.add(new BuildEvent(sha, event.path("attempt").asInt(1), state, recordedAt));
+        }
+        if (events.isEmpty()) {
+            events.add(new BuildEvent(sha, attempt, result, date != null ? date : BuildEvent.now()));
+        }
+        return new BuildRecord(build, events);
+    }
+
+    private static String text(JsonNode json, String field) {
+        JsonNode value = json.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Takes the next batch of an import, ending it at a number of builds or once their output reaches a size,
+     * so a history with long build logs doesn't fill the memory.
+     * @param records the builds to import
+     * @param maxBuilds the most builds of a batch
+     * @param maxChars the output size, in characters, after which the batch ends
+     * @return the batch, empty once the records are exhausted
+     */
+    static List<BuildRecord> nextBatch(Iterator<BuildRecord> records, int maxBuilds, long maxChars) {
+        List<BuildRecord> batch = new ArrayList<>();
+        long chars = 0;
+        while (batch.size() < maxBuilds && chars < maxChars && records.hasNext()) {
+            BuildRecord record = records.next();
+            batch.add(record);
+            chars += record.build().buildDescription == null ? 0 : record.build().buildDescription.length();
+        }
+        return batch;
+    }
+
+    /**
+     * Parses NDJSON lazily, one line per call to next(), so a history of any size is read in constant memory.
+     * Blank lines are skipped.
+     * @param reader the NDJSON
+     * @return the builds, whose next() throws an IllegalArgumentException naming the line if it is invalid,
+     * or an UncheckedIOException if the reader fails
+     */
+    public static Iterator<BuildRecord> read(BufferedReader reader) {
+        return new Iterator<>() {
+            private String line;
+            private int number;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (line == null || line.isBlank()) {
+                        line = reader.readLine();
+                        number++;
+                        if (line == null) {
+                            return false;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public BuildRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String current = line;
+                line = null;
+                try {
+                    return fromJson(current);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package com.ci;
+
+import java.util.Set;
+
+/**
+ * One row of the build statistics rollup: the final results one branch entered on one day.
+ * Rows are counted when the result is entered and never decremented, so they outlive deleted and dropped builds.
+ *
+ * @param day the day in UTC the results were recorded, as yyyy-MM-dd
+ * @param branch the branch of the builds
+ * @param result the final result, one of {@link #FINAL_RESULTS}
+ * @param builds number of times a build of the branch entered the result on that day
+ * @param timedBuilds number of those builds whose attempt started with an earlier event, so their duration is known
+ * @param totalDurationMillis sum of the durations of the timed builds, from the first event of their attempt to the result
+ */
+public record BuildStats(String day, String branch, String result, long builds, long timedBuilds, long totalDurationMillis) {
+
+    /** The results that end an attempt at building a commit, and are counted in the rollup. */
+    public static final Set<String> FINAL_RESULTS = Set.of("success", "failure", "error");
+
+    /**
+     * Tells whether a state ends an attempt at building a commit.
+     * @param state a build result or a step of the pipeline
+     * @return true if the state is one of {@link #FINAL_RESULTS}
+     */
+    public static boolean isFinal(String state) {
+        return state != null && FINAL_RESULTS.contains(state);
+    }
+}
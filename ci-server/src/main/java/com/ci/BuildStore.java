@@ -0,0 +1,523 @@
+package com.ci;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage of the builds, their output and the checkout measurements, as used by the pipeline and the REST handlers.
+ * <p>
+ * Three implementations exist, selected at startup with the system property ci.store (see {@link #open}):
+ * <ul>
+ *   <li>{@code sqlite}, the default: {@link DbHandler}, a SQLite database with a full-text index of the build output</li>
+ *   <li>{@code memory}: {@link InMemoryBuildStore}, nothing is persisted, for tests and ephemeral deployments</li>
+ *   <li>{@code log}: {@link LogBuildStore}, an append-only file of records with an in-memory index by SHA</li>
+ * </ul>
+ * All implementations list builds in the same order and with the same cursors, and are safe for concurrent use.
+ * <p>
+ * Besides the current state of each build, stores keep its timeline: every change of state, whether a new result
+ * written by {@link #addEntry} or {@link #updateEntry} or a pipeline step recorded with {@link #addEvent},
+ * is appended as a {@link BuildEvent} and never changed afterwards. Building a commit again with {@link #startAttempt}
+ * keeps the events of the earlier attempts, so the timeline is also the history of the attempts.
+ * Each final result appended to a timeline is also counted in a rollup per day, branch and result
+ * ({@link BuildStats}), kept up to date as results are written so statistics don't need to scan the builds.
+ * Methods throw a RuntimeException if the storage fails.
+ * <p>
+ * The reads served to HTTP clients and used by the pipeline also have asynchronous variants returning a
+ * CompletableFuture, so a stalled database can't hold the threads of the callers: a store that reads a database runs
+ * them on its own bounded executor with a timeout, the others complete them on the calling thread.
+ */
+public interface BuildStore extends AutoCloseable {
+
+    /**
+     * Returns the current time in UTC, formatted like SQLite's CURRENT_TIMESTAMP, used as the date of new builds.
+     * @return the current time as yyyy-MM-dd HH:mm:ss
+     */
+    static String currentDate() {
+        return LocalDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    }
+
+    /**
+     * Opens the store of the given type.
+     * @param type sqlite, memory or log
+     * @param path the database or log file, ignored by the memory store; null for the default data/builds.db
+     *             or data/builds.log
+     * @return the store, not yet initialized
+     * @throws IllegalArgumentException if the type is unknown
+     */
+    static BuildStore open(String type, String path) {
+        return switch (type) {
+            case "sqlite" -> new DbHandler(path == null ? "data/builds.db" : path);
+            case "memory" -> new InMemoryBuildStore();
+            case "log" -> new LogBuildStore(Path.of(path == null ? "data/builds.log" : path));
+            default -> throw new IllegalArgumentException("Unknown build store: " + type + " (expected sqlite, memory or log)");
+        };
+    }
+
+    /**
+     * Opens the store selected by the system properties ci.store (default sqlite) and ci.store.path.
+     * @return the store, not yet initialized
+     */
+    static BuildStore fromSystemProperties() {
+        return open(System.getProperty("ci.store", "sqlite"), System.getProperty("ci.store.path"));
+    }
+
+    /**
+     * Prepares the storage, e.g. creates or migrates tables or replays a log. Called once before the store is used.
+     */
+    void initialize();
+
+    /**
+     * Inserts a build, and the event of its first state.
+     * @param sha commit SHA, unique among the builds
+     * @param branch related branch
+     * @param result the result of the build
+     * @param description the build output
+     * @param date the date and time, or null
+     * @throws RuntimeException if a build with the SHA exists or the storage fails
+     */
+    void addEntry(String sha, String branch, String result, String description, String date);
+
+    /**
+     * Inserts a build dated now.
+     * @param sha commit SHA, unique among the builds
+     * @param branch related branch
+     * @param result the result of the build
+     * @param description the build output
+     * @throws RuntimeException if a build with the SHA exists or the storage fails
+     */
+    default void addEntry(String sha, String branch, String result, String description) {
+        addEntry(sha, branch, result, description, currentDate());
+    }
+
+    /**
+     * Inserts a build dated now, without output.
+     * @param sha commit SHA, unique among the builds
+     * @param branch related branch
+     * @param result the result of the build
+     */
+    default void addEntry(String sha, String branch, String result) {
+        addEntry(sha, branch, result, "");
+    }
+
+    /**
+     * Inserts a build dated now, possibly in the background. Writes of one thread are applied in order.
+     * @param sha commit SHA, unique among the builds
+     * @param branch related branch
+     * @param result the result of the build
+     * @param description the build output
+     * @return a future completed once the build is stored, or completed with a RuntimeException if the insert fails
+     */
+    default CompletableFuture<Void> addEntryAsync(String sha, String branch, String result, String description) {
+        return run(() -> addEntry(sha, branch, result, description));
+    }
+
+    /**
+     * Starts a new attempt at building a commit, dated now: inserts the build as pending if there is none with
+     * the SHA, otherwise resets it to pending, without output and tree hash, and increments its attempt number.
+     * @param sha commit SHA
+     * @param branch related branch
+     */
+    void startAttempt(String sha, String branch);
+
+    /**
+     * Starts a new attempt at building a commit, possibly in the background. Writes of one thread are applied in order.
+     * @param sha commit SHA
+     * @param branch related branch
+     * @return a future completed once the attempt is stored, or completed with a RuntimeException if it fails
+     */
+    default CompletableFuture<Void> startAttemptAsync(String sha, String branch) {
+        return run(() -> startAttempt(sha, branch));
+    }
+
+    /**
+     * Records the git tree hash of the commit of a build, doing nothing if there is no build with the SHA.
+     * @param sha commit SHA
+     * @param treeHash the hash of the tree of the commit
+     */
+    void setTreeHash(String sha, String treeHash);
+
+    /**
+     * Records the git tree hash of the commit of a build, possibly in the background.
+     * @param sha commit SHA
+     * @param treeHash the hash of the tree of the commit
+     * @return a future completed once the hash is stored, or completed with a RuntimeException if it fails
+     */
+    default CompletableFuture<Void> setTreeHashAsync(String sha, String treeHash) {
+        return run(() -> setTreeHash(sha, treeHash));
+    }
+
+    /**
+     * Updates a build, doing nothing if there is no build with the SHA.
+     * An event is appended if the result differs from the latest state of the current attempt.
+     * @param sha commit SHA
+     * @param branch branch name
+     * @param result build result
+     * @param description build output
+     * @param date build date
+     */
+    void updateEntry(String sha, String branch, String result, String description, String date);
+
+    /**
+     * Updates a build, keeping its date, doing nothing if there is no build with the SHA.
+     * An event is appended if the result differs from the latest state of the current attempt.
+     * @param sha commit SHA
+     * @param branch branch name
+     * @param result build result
+     * @param description build output
+     */
+    void updateEntry(String sha, String branch, String result, String description);
+
+    /**
+     * Updates a build, keeping its date, possibly in the background.
+     * @param sha commit SHA
+     * @param branch branch name
+     * @param result build result
+     * @param description build output
+     * @return a future completed once the update is stored, or completed with a RuntimeException if it fails
+     */
+    default CompletableFuture<Void> updateEntryAsync(String sha, String branch, String result, String description) {
+        return run(() -> updateEntry(sha, branch, result, description));
+    }
+
+    /**
+     * Deletes a build, its output and its events.
+     * @param sha commit SHA
+     */
+    void deleteEntry(String sha);
+
+    /**
+     * Appends a state to the current attempt of the timeline of a build without changing the build, doing nothing
+     * if there is no build with the SHA or the attempt is already in that state.
+     * @param sha commit SHA
+     * @param state the state entered, e.g. checkout or testing
+     */
+    void addEvent(String sha, String state);
+
+    /**
+     * Appends a state to the timeline of a build, possibly in the background. Writes of one thread are applied in order.
+     * @param sha commit SHA
+     * @param state the state entered, e.g. checkout or testing
+     * @return a future completed once the event is stored, or completed with a RuntimeException if it fails
+     */
+    default CompletableFuture<Void> addEventAsync(String sha, String state) {
+        return run(() -> addEvent(sha, state));
+    }
+
+    /**
+     * Selects the timeline of a build.
+     * @param sha commit SHA
+     * @return the events of all attempts of the build, oldest first, or an empty list if there is no build with the SHA
+     */
+    List<BuildEvent> selectEvents(String sha);
+
+    /**
+     * Selects the timeline of a build without blocking the calling thread, see {@link #selectEvents}.
+     * @param sha commit SHA
+     * @return a future of the events, completed exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<List<BuildEvent>> selectEventsAsync(String sha) {
+        return supply(() -> selectEvents(sha));
+    }
+
+    /**
+     * Selects rows of the build statistics rollup. Deleting or dropping builds doesn't change the rollup.
+     * @param branch the branch, or null for all branches
+     * @param fromDay the first day to select, yyyy-MM-dd in UTC, or null for all days
+     * @return the rows ordered by day, branch and result
+     */
+    List<BuildStats> selectStats(String branch, String fromDay);
+
+    /**
+     * Selects rows of the build statistics rollup without blocking the calling thread, see {@link #selectStats}.
+     * @param branch the branch, or null for all branches
+     * @param fromDay the first day to select, or null for all days
+     * @return a future of the rows, completed exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<List<BuildStats>> selectStatsAsync(String branch, String fromDay) {
+        return supply(() -> selectStats(branch, fromDay));
+    }
+
+    /**
+     * Selects all builds in id order. Listings should use {@link #selectBuildsPage} instead.
+     * @return the builds
+     */
+    List<BuildEntry> selectAllBuilds();
+
+    /**
+     * Selects a build by its commit SHA.
+     * @param sha commit SHA
+     * @return the build, or null if not found
+     */
+    BuildEntry selectBySha(String sha);
+
+    /**
+     * Selects a build by SHA without blocking the calling thread, see {@link #selectBySha}.
+     * @param sha commit SHA
+     * @return a future of the build or null, completed exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<BuildEntry> selectByShaAsync(String sha) {
+        return supply(() -> selectBySha(sha));
+    }
+
+    /**
+     * Selects the most recent build with the given git tree whose result can be reused: one that ended with success
+     * or failure, of another commit than the one asking. Builds still running or ended with an error are skipped,
+     * so they never hide an older result of the tree.
+     * @param treeHash the hash of the tree
+     * @param excludedSha the commit asking, whose own build is skipped, or null
+     * @return the build, or null if no such build of the tree is known
+     */
+    BuildEntry selectByTree(String treeHash, String excludedSha);
+
+    /**
+     * Selects the latest reusable build of a tree without blocking the calling thread, see {@link #selectByTree}.
+     * @param treeHash git tree hash
+     * @param excludedSha the commit asking, or null
+     * @return a future of the build or null, completed exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<BuildEntry> selectByTreeAsync(String treeHash, String excludedSha) {
+        return supply(() -> selectByTree(treeHash, excludedSha));
+    }
+
+    /**
+     * Selects all builds of a branch in id order. Listings should use {@link #selectByBranchPage} instead.
+     * @param branch branch name
+     * @return the builds
+     */
+    List<BuildEntry> selectByBranch(String branch);
+
+    /**
+     * Selects one page of all builds, newest first: builds with a date by date, then id, both descending,
+     * followed by the builds without a date by descending id.
+     * @param cursor the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of builds of the page, at least 1
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    BuildPage selectBuildsPage(String cursor, int limit);
+
+    /**
+     * Selects one page of builds without blocking the calling thread, see {@link #selectBuildsPage}.
+     * @param cursor the cursor of the page, or null for the first page
+     * @param limit maximum number of builds in the page
+     * @return a future of the page, completed with an IllegalArgumentException if the cursor is invalid, or
+     * exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<BuildPage> selectBuildsPageAsync(String cursor, int limit) {
+        return supply(() -> selectBuildsPage(cursor, limit));
+    }
+
+    /**
+     * Selects one page of the builds of a branch, newest first, like {@link #selectBuildsPage}.
+     * @param branch branch name
+     * @param cursor the nextCursor of the previous page of the same branch, or null for the first page
+     * @param limit maximum number of builds of the page, at least 1
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    BuildPage selectByBranchPage(String branch, String cursor, int limit);
+
+    /**
+     * Selects one page of the builds of a branch without blocking the calling thread, see {@link #selectByBranchPage}.
+     * @param branch branch name
+     * @param cursor the cursor of the page, or null for the first page
+     * @param limit maximum number of builds in the page
+     * @return a future of the page, completed with an IllegalArgumentException if the cursor is invalid, or
+     * exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<BuildPage> selectByBranchPageAsync(String branch, String cursor, int limit) {
+        return supply(() -> selectByBranchPage(branch, cursor, limit));
+    }
+
+    /**
+     * Selects one page of the builds queued within a time range, latest queued first, see {@link BuildTimes}.
+     * Builds whose date can't be parsed have no queued time and are never selected.
+     * @param branch branch name, or null for all branches
+     * @param from the start of the range, inclusive, in epoch milliseconds
+     * @param to the end of the range, exclusive, in epoch milliseconds
+     * @param cursor the nextCursor of the previous page of the same range, or null for the first page
+     * @param limit maximum number of builds of the page, at least 1
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    BuildPage selectByTimeRange(String branch, long from, long to, String cursor, int limit);
+
+    /**
+     * Selects one page of the builds queued within a time range without blocking the calling thread,
+     * see {@link #selectByTimeRange}.
+     * @param branch branch name, or null for all branches
+     * @param from the start of the range, inclusive, in epoch milliseconds
+     * @param to the end of the range, exclusive, in epoch milliseconds
+     * @param cursor the cursor of the page, or null for the first page
+     * @param limit maximum number of builds in the page
+     * @return a future of the page, completed with an IllegalArgumentException if the cursor is invalid, or
+     * exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<BuildPage> selectByTimeRangeAsync(String branch, long from, long to, String cursor, int limit) {
+        return supply(() -> selectByTimeRange(branch, from, to, cursor, limit));
+    }
+
+    /**
+     * Searches the output of all builds for lines containing every word of the query, lines of the most recent
+     * builds first. Punctuation inside a word is matched as a phrase (e.g. java.lang.NullPointerException).
+     * Pages are keyed by the position of their last line, so a page costs the same however deep it is.
+     * @param query the words to search for
+     * @param after the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of matching lines to return
+     * @return the page of matching lines with their build, empty if the query contains no words
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    LogPage searchLogs(String query, String after, int limit);
+
+    /**
+     * Searches the build output without blocking the calling thread, see {@link #searchLogs}.
+     * @param query the words to search for
+     * @param after the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of matching lines to return
+     * @return a future of the page, completed with an IllegalArgumentException if the cursor is invalid, or
+     * exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<LogPage> searchLogsAsync(String query, String after, int limit) {
+        return supply(() -> searchLogs(query, after, limit));
+    }
+
+    /**
+     * Records the measurements of the checkout of a build.
+     * @param sha commit SHA of the build
+     * @param repoUrl repository URL
+     * @param strategy name of the clone strategy used
+     * @param durationMillis checkout time in milliseconds
+     * @param bytes approximate number of bytes received
+     */
+    void addCheckoutStats(String sha, String repoUrl, String strategy, long durationMillis, long bytes);
+
+    /**
+     * Records the measurements of the checkout of a build, possibly in the background.
+     * @param sha commit SHA of the build
+     * @param repoUrl repository URL
+     * @param strategy name of the clone strategy used
+     * @param durationMillis checkout time in milliseconds
+     * @param bytes approximate number of bytes received
+     * @return a future completed once the measurements are stored, or completed with a RuntimeException if it fails
+     */
+    default CompletableFuture<Void> addCheckoutStatsAsync(String sha, String repoUrl, String strategy, long durationMillis, long bytes) {
+        return run(() -> addCheckoutStats(sha, repoUrl, strategy, durationMillis, bytes));
+    }
+
+    /**
+     * Summarizes the recorded checkouts of a repository per clone strategy, ordered by strategy name.
+     * @param repoUrl repository URL
+     * @return one summary per strategy that has been used for the repository
+     */
+    List<CheckoutSummary> summarizeCheckoutStats(String repoUrl);
+
+    /**
+     * Merges sketches of stage durations into the stored sketches of the same window, branch and stage.
+     * All sketches are merged in one write.
+     * @param timings the sketches to merge, left unchanged
+     */
+    void mergeTimings(List<StageTiming> timings);
+
+    /**
+     * Selects the stored sketches of stage durations of a range of windows.
+     * @param branch the branch, or null for all branches
+     * @param fromWindow the first window to select, or null to start with the oldest
+     * @param toWindow the window to stop before, or null to select up to the newest
+     * @return copies of the sketches, ordered by window, branch and stage
+     */
+    List<StageTiming> selectTimings(String branch, String fromWindow, String toWindow);
+
+    /**
+     * Selects stored sketches of stage durations without blocking the calling thread, see {@link #selectTimings}.
+     * @param branch the branch, or null for all branches
+     * @param fromWindow the first window to select, or null to start with the oldest
+     * @param toWindow the window to stop before, or null to select up to the newest
+     * @return a future of the sketches, completed exceptionally if the read fails, is rejected or times out
+     */
+    default CompletableFuture<List<StageTiming>> selectTimingsAsync(String branch, String fromWindow, String toWindow) {
+        return supply(() -> selectTimings(branch, fromWindow, toWindow));
+    }
+
+    /**
+     * Passes every build with its timeline to a consumer, one at a time, without loading the history into memory.
+     * Builds are not passed in any particular order.
+     * @param consumer called once per build, on the calling thread; an exception it throws ends the export
+     */
+    void exportBuilds(Consumer<BuildRecord> consumer);
+
+    /**
+     * Adds builds with their timelines, e.g. exported by another server, in batches written at once.
+     * Builds whose SHA is already stored, or repeats an earlier build of the import, are skipped. Imported builds
+     * get ids after those of the stored builds, in import order, and their final results are counted in the
+     * statistics rollup.
+     * @param records the builds; an exception it throws ends the import, keeping the batches already written
+     * @return the number of builds imported
+     */
+    int importBuilds(Iterator<BuildRecord> records);
+
+    /**
+     * Deletes the builds dated before the given month, with their events. Builds without a date are kept.
+     * @param month the oldest month to keep
+     */
+    void dropBuildsBefore(YearMonth month);
+
+    /**
+     * Waits until all writes started before this call are stored.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Returns the counters of the cache of {@link #selectBySha}, zeros for a store without a cache.
+     * @return the cache counters
+     */
+    default BuildCache.Stats buildCacheStats() {
+        return new BuildCache.Stats(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns the number of transactions committed by the store, each containing one or more writes,
+     * or 0 for a store without transactions.
+     * @return the number of committed transactions
+     */
+    default long committedBatches() {
+        return 0;
+    }
+
+    /**
+     * Stores the pending writes and releases the resources of the store. Operations started afterwards fail.
+     */
+    @Override
+    void close();
+
+    /**
+     * Runs a write on the calling thread, for the asynchronous methods of stores that write synchronously.
+     */
+    private static CompletableFuture<Void> run(Runnable write) {
+        try {
+            write.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Runs a read on the calling thread, for the asynchronous methods of stores whose reads don't wait for a database.
+     */
+    private static <T> CompletableFuture<T> supply(Supplier<T> read) {
+        try {
+            return CompletableFuture.completedFuture(read.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
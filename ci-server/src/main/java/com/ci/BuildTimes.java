@@ -0,0 +1,110 @@
+package com.ci;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * Epoch timestamps of builds. A build date is free text written by callers, most often yyyy-MM-dd HH:mm:ss in UTC
+ * as written by {@link BuildStore#currentDate()}; it is parsed once into the epoch milliseconds the stores sort and
+ * filter time ranges on. The start and finish of the current attempt of a build are taken from its timeline:
+ * it starts with its first state after pending, and finishes when it enters a final result.
+ */
+public final class BuildTimes {
+
+    private BuildTimes() {
+    }
+
+    /**
+     * Parses a date into epoch milliseconds: yyyy-MM-dd, optionally followed by a time HH:mm[:ss[.fraction]]
+     * separated by a space or T, and by Z or an offset. A date without offset is in UTC.
+     * @param date the date, or null
+     * @return the epoch milliseconds, or null if the date is null or not in one of these formats
+     */
+    public static Long parse(String date) {
+        if (date == null) {
+            return null;
+        }
+        String text = date.trim().replace(' ', 'T');
+        try {
+            if (text.length() == 10) {
+                return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            if (text.endsWith("Z") || text.lastIndexOf('+') > 10 || text.lastIndexOf('-') > 10) {
+                return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a bound of a time range given as epoch milliseconds or as a date accepted by {@link #parse}.
+     * @param bound the bound
+     * @return the epoch milliseconds
+     * @throws IllegalArgumentException if the bound is neither
+     */
+    public static long parseBound(String bound) {
+        String text = bound.trim();
+        if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) {
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid time: " + bound, e);
+            }
+        }
+        Long millis = parse(text);
+        if (millis == null) {
+            throw new IllegalArgumentException("Invalid time: " + bound);
+        }
+        return millis;
+    }
+
+    /**
+     * Sets the start and finish of the current attempt of a build from its timeline.
+     * @param build the build, whose attempt selects the events
+     * @param timeline the events of the build, oldest first, or null
+     */
+    static void fill(BuildEntry build, List<BuildEvent> timeline) {
+        build.startedAt = null;
+        build.finishedAt = null;
+        if (timeline == null) {
+            return;
+        }
+        for (BuildEvent event : timeline) {
+            if (event.attempt() == build.attempt) {
+                apply(build, event.state(), parse(event.recordedAt()));
+            }
+        }
+    }
+
+    /**
+     * Updates the start and finish of a build for a state entered by its current attempt.
+     * @param build the build
+     * @param state the state entered
+     * @param at when it was entered, in epoch milliseconds
+     */
+    static void apply(BuildEntry build, String state, Long at) {
+        if (!state.equals("pending") && build.startedAt == null) {
+            build.startedAt = at;
+        }
+        if (BuildStats.isFinal(state)) {
+            build.finishedAt = at;
+        }
+    }
+
+    /**
+     * Tells whether a build was queued within a time range.
+     * @param build the build
+     * @param from the start of the range, inclusive, in epoch milliseconds
+     * @param to the end of the range, exclusive, in epoch milliseconds
+     * @return true if the build has a queued time in the range
+     */
+    static boolean queuedWithin(BuildEntry build, long from, long to) {
+        return build.queuedAt != null && build.queuedAt >= from && build.queuedAt < to;
+    }
+}
@@ -0,0 +1,12 @@
+package com.ci;
+
+/**
+ * Aggregated checkout measurements of one clone strategy for a repository.
+ *
+ * @param strategy name of the clone strategy
+ * @param checkouts number of recorded checkouts
+ * @param avgDurationMillis average checkout time in milliseconds
+ * @param avgBytesTransferred average number of bytes received per checkout
+ */
+public record CheckoutSummary(String strategy, int checkouts, long avgDurationMillis, long avgBytesTransferred) {
+}
@@ -9,17 +9,109 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * The DbHandler class is responsible for managing the database operations related to build entries.
  * It provides methods to create the builds table, add new entries, retrieve entries, update existing entries, and delete entries based on commit SHA.
  * The class uses SQLite as the underlying database and ensures that the necessary directories are created if they do not exist.
+ * <p>
+ * Connections are long-lived and pooled: one writer connection, leased to one thread at a time, and up to
+ * {@value #READERS} read-only connections. The database runs in WAL mode, so readers never block the writer
+ * and the writer never blocks readers. Each pooled connection keeps its prepared statements for reuse.
+ * <p>
+ * All mutations go through a queue drained by a single writer thread, which commits whatever has queued up
+ * while the previous transaction was committing (up to {@value #MAX_BATCH} writes) in one transaction.
+ * Each write runs in its own savepoint, so a failing write does not affect the others of its batch.
+ * A write is only reported as done after its transaction has been committed, so the synchronous methods
+ * are as durable as before. The asynchronous methods return as soon as the write is queued, {@link #flush()}
+ * waits until everything queued before it is committed.
+ * The asynchronous reads run on a bounded executor of {@value #READERS} threads, one per read-only connection,
+ * with a timeout, so HTTP handlers and pipeline workers don't wait on the database themselves.
+ * <p>
+ * Builds are stored in one partition per month of their build date (see {@link BuildPartitions}). Lookups by SHA
+ * probe the newest partitions first, pages only read the partitions from the month of their cursor on,
+ * and {@link #dropPartitionsBefore} removes old builds a month at a time.
+ * <p>
+ * The builds tables only hold the current state of each build, projected from its timeline: every new result and
+ * every pipeline step is appended to the events table of the build's partition and never updated, so the history
+ * of a build is kept while listings still read a single row per build.
+ * Final results are also counted in the build_stats rollup in the same transaction (see {@link StatsRollup}),
+ * so statistics are read from a few rows per day instead of from the builds.
  */
-public class DbHandler {
+public class DbHandler implements BuildStore {
+    /** Maximum number of read-only connections. */
+    public static final int READERS = 4;
+    // FULL keeps every commit durable across power loss, like the rollback journal did before WAL mode
+    private static final String SYNCHRONOUS = System.getProperty("ci.db.synchronous", "FULL");
+    /** Maximum number of queued writes committed in one transaction. */
+    public static final int MAX_BATCH = 256;
+    /** Builds, and characters of build output, of the transactions of an import. */
+    private static final int IMPORT_BUILDS = 10_000;
+    private static final long IMPORT_CHARS = 16L << 20;
+    /** Builds read at a time by an export. */
+    private static final int EXPORT_CHUNK = 500;
+
     private String dbUrl = "jdbc:sqlite:builds.db";
+    private final boolean pooled;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private PooledConnection writer; // guarded by writeLock
+    private final BlockingQueue<PooledConnection> idleReaders = new LinkedBlockingQueue<>();
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private volatile boolean closed;
+    private final BlockingQueue<PendingWrite> writes = new LinkedBlockingQueue<>();
+    private final AtomicLong committedBatches = new AtomicLong();
+    private final BuildCache buildCache = new BuildCache();
+    private final BuildPartitions partitions = new BuildPartitions();
+    private final Object writerLock = new Object();
+    private Thread writerThread; // guarded by writerLock, started by the first write
+    private boolean stopped; // guarded by writerLock, set once close() has queued the last write
+    /** Maximum number of asynchronous reads waiting for a thread, beyond which they are rejected. */
+    private static final int READ_QUEUE = Integer.getInteger("ci.db.read.queue", 64);
+    /** Milliseconds after which an asynchronous read completes with a TimeoutException. */
+    private static final long READ_TIMEOUT_MILLIS = Long.getLong("ci.db.read.timeout", 10_000);
+    private final int readQueue;
+    private final long readTimeoutMillis;
+    private ThreadPoolExecutor readExecutor; // guarded by writerLock, started by the first asynchronous read
+
+    /** A mutation applied by the writer thread, inside the transaction of its batch. */
+    @FunctionalInterface
+    private interface Write {
+        void apply(PooledConnection connection) throws SQLException;
+    }
+
+    /**
+     * A queued write. The error message is used for the exception the write completes with if it fails,
+     * the SHA is that of the build whose cached entry the write invalidates, if any.
+     * A null write tells the writer thread to stop.
+     */
+    private record PendingWrite(Write write, String error, String sha, CompletableFuture<Void> done) {}
 
     /**
      * Default constructor that initializes the database URL to "jdbc:sqlite:builds.db". If the "data" directory does not exist, it will be created.
@@ -33,6 +125,30 @@ public class DbHandler {
      * @param dbUrl the URL of the database to connect to.
     */
     public DbHandler(String dbUrl) {
+        this(dbUrl, true);
+    }
+
+    /**
+     * Constructor that allows disabling the connection pool, e.g. to compare against opening a connection
+     * per operation with the SQLite default settings. If the specified path does not exist, it will be created.
+     * @param dbUrl the URL of the database to connect to.
+     * @param pooled true to reuse tuned connections and prepared statements, false to open a default connection per operation
+     */
+    public DbHandler(String dbUrl, boolean pooled) {
+        this(dbUrl, pooled, READ_QUEUE, READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor that sets the bulkhead of the asynchronous reads instead of reading it from the system properties.
+     * @param dbUrl the URL of the database to connect to.
+     * @param pooled true to reuse tuned connections and prepared statements, false to open a default connection per operation
+     * @param readQueue maximum number of asynchronous reads waiting for a thread
+     * @param readTimeoutMillis milliseconds after which an asynchronous read times out
+     */
+    DbHandler(String dbUrl, boolean pooled, int readQueue, long readTimeoutMillis) {
+        this.pooled = pooled;
+        this.readQueue = readQueue;
+        this.readTimeoutMillis = readTimeoutMillis;
         Path path = Paths.get(dbUrl);
         Path parentDir = path.getParent();
         if (parentDir != null && !Files.exists(parentDir)) {
@@ -46,7 +162,7 @@ public class DbHandler {
     }
 
     /**
-     * Establishes a connection to the database.
+     * Establishes a connection to the database. Called whenever the pool opens a new connection.
      * @return a Connection object to the database
      * @throws SQLException
      */
@@ -55,27 +171,473 @@ public class DbHandler {
     }
 
     /**
-     * Creates a table in the database.
+     * A connection of the pool together with its prepared statements. It is leased to one thread at a time,
+     * closing it returns it to the pool. Statements returned by {@link #prepare} are owned by the connection
+     * and must not be closed by the caller, their result sets must be.
+     */
+    private final class PooledConnection implements AutoCloseable {
+        final Connection connection;
+        final boolean readOnly;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection connection, boolean readOnly) {
+            this.connection = connection;
+            this.readOnly = readOnly;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stm = statements.get(sql);
+            if (stm == null) {
+                stm = connection.prepareStatement(sql);
+                statements.put(sql, stm);
+            } else {
+                stm.clearParameters();
+            }
+            return stm;
+        }
+
+        void setAutoCommit(boolean autoCommit) throws SQLException {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        void commit() throws SQLException {
+            connection.commit();
+        }
+
+        Savepoint setSavepoint() throws SQLException {
+            return connection.setSavepoint();
+        }
+
+        void rollback(Savepoint savepoint) throws SQLException {
+            connection.rollback(savepoint);
+        }
+
+        void releaseSavepoint(Savepoint savepoint) throws SQLException {
+            connection.releaseSavepoint(savepoint);
+        }
+
+        @Override
+        public void close() {
+            boolean healthy = true;
+            try {
+                if (!connection.getAutoCommit()) {
+                    // a failed operation left its transaction open, it must not leak into the next lease
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            release(this, healthy);
+        }
+
+        void closeQuietly() {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    /**
+     * Opens a connection and applies the connection settings. Unpooled connections keep the SQLite defaults.
+     */
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection connection = getConnection();
+        if (!pooled) {
+            return new PooledConnection(connection, readOnly);
+        }
+        try (Statement stm = connection.createStatement()) {
+            stm.execute("PRAGMA busy_timeout = 5000");
+            stm.execute("PRAGMA journal_mode = WAL");
+            stm.execute("PRAGMA synchronous = " + SYNCHRONOUS);
+            stm.execute("PRAGMA cache_size = -8192"); // 8 MiB page cache per connection
+            stm.execute("PRAGMA mmap_size = 268435456"); // read through up to 256 MiB of memory mapped file
+            if (readOnly) {
+                stm.execute("PRAGMA query_only = ON");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new PooledConnection(connection, readOnly);
+    }
+
+    /**
+     * Leases the writer connection, waiting while another thread holds it.
+     */
+    private PooledConnection write() throws SQLException {
+        if (!pooled) {
+            return open(false);
+        }
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new SQLException("Database handler is closed: " + dbUrl);
+            }
+            if (writer == null) {
+                writer = open(false);
+            }
+            return writer;
+        } catch (SQLException | RuntimeException e) {
+            writeLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Leases a read-only connection, opening a new one if fewer than {@value #READERS} are open.
+     */
+    private PooledConnection read() throws SQLException {
+        if (!pooled) {
+            return open(true);
+        }
+        try {
+            while (true) {
+                if (closed) {
+                    throw new SQLException("Database handler is closed: " + dbUrl);
+                }
+                PooledConnection connection = idleReaders.poll();
+                if (connection != null) {
+                    return connection;
+                }
+                if (openReaders.incrementAndGet() <= READERS) {
+                    try {
+                        return open(true);
+                    } catch (SQLException | RuntimeException e) {
+                        openReaders.decrementAndGet();
+                        throw e;
+                    }
+                }
+                openReaders.decrementAndGet();
+                connection = idleReaders.poll(100, TimeUnit.MILLISECONDS);
+                if (connection != null) {
+                    return connection;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    private void release(PooledConnection connection, boolean healthy) {
+        if (!pooled) {
+            connection.closeQuietly();
+            return;
+        }
+        if (connection.readOnly) {
+            if (healthy && !closed) {
+                idleReaders.offer(connection);
+            } else {
+                connection.closeQuietly();
+                openReaders.decrementAndGet();
+            }
+            return;
+        }
+        if (!healthy || closed) {
+            connection.closeQuietly();
+            writer = null;
+        }
+        writeLock.unlock();
+    }
+
+    /**
+     * Queues a write for the writer thread, starting the thread if needed.
+     * @param error message of the exception the returned future completes with if the write fails
+     * @param sha commit SHA of the build written, whose cached entry is invalidated once the write is committed, or null
+     * @param write the mutation
+     * @return a future completed once the transaction containing the write has been committed
+     */
+    private CompletableFuture<Void> submit(String error, String sha, Write write) {
+        PendingWrite pending = new PendingWrite(write, error, sha, new CompletableFuture<>());
+        synchronized (writerLock) {
+            if (stopped) {
+                pending.done().completeExceptionally(
+                    new RuntimeException(error, new SQLException("Database handler is closed: " + dbUrl)));
+                return pending.done();
+            }
+            writes.add(pending);
+            if (writerThread == null) {
+                writerThread = new Thread(this::drainWrites, "ci-db-writer");
+                writerThread.setDaemon(true);
+                writerThread.start();
+            }
+        }
+        return pending.done();
+    }
+
+    /**
+     * Runs a read on the executor of the asynchronous reads, one thread per read-only connection, starting it if needed.
+     * The executor is a bulkhead: at most {@value #READERS} reads run and ci.db.read.queue wait, further reads are
+     * rejected instead of piling up, and a read not done within ci.db.read.timeout milliseconds completes with a
+     * TimeoutException, so its caller moves on. A read that times out while queued is skipped.
+     * @param read the read, run with the pooled connections of the synchronous methods
+     * @return a future of the result, completed with a RejectedExecutionException if the queue is full
+     */
+    <T> CompletableFuture<T> query(Supplier<T> read) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ThreadPoolExecutor executor;
+        synchronized (writerLock) {
+            if (stopped) {
+                return CompletableFuture.failedFuture(new RuntimeException("Database handler is closed: " + dbUrl));
+            }
+            if (readExecutor == null) {
+                AtomicInteger threads = new AtomicInteger();
+                readExecutor = new ThreadPoolExecutor(READERS, READERS, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(readQueue), r -> {
+                        Thread t = new Thread(r, "ci-db-reader-" + threads.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            }
+            executor = readExecutor;
+        }
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(read.get());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                new RejectedExecutionException("Too many database reads queued for: " + dbUrl, e));
+        }
+        return result.orTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a queued write, rethrowing its failure on the calling thread.
+     */
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            Throwable failure = e.getCause();
+            throw new RuntimeException(failure.getMessage(), failure.getCause());
+        }
+    }
+
+    /**
+     * Body of the writer thread: takes every write that is queued, commits them in one transaction, repeats.
+     */
+    private void drainWrites() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                // only close() stops the writer, and it does so with a stop marker
+                continue;
+            }
+            writes.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = batch.get(batch.size() - 1).write() == null;
+            if (stop) {
+                batch.remove(batch.size() - 1);
+            }
+            if (!batch.isEmpty()) {
+                commitBatch(batch);
+            }
+            batch.clear();
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingWrite> batch) {
+        List<PendingWrite> applied = new ArrayList<>(batch.size());
+        try (PooledConnection connection = write()) {
+            connection.setAutoCommit(false);
+            for (PendingWrite pending : batch) {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    pending.write().apply(connection);
+                    connection.releaseSavepoint(savepoint);
+                    applied.add(pending);
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback(savepoint);
+                    connection.releaseSavepoint(savepoint);
+                    pending.done().completeExceptionally(new RuntimeException(pending.error(), e));
+                }
+            }
+            connection.commit();
+            committedBatches.incrementAndGet();
+        } catch (SQLException | RuntimeException e) {
+            // nothing of the batch has been committed
+            for (PendingWrite pending : batch) {
+                pending.done().completeExceptionally(new RuntimeException(pending.error(), e));
+            }
+            return;
+        }
+        for (PendingWrite pending : applied) {
+            if (pending.sha() != null) {
+                buildCache.invalidate(pending.sha());
+            }
+            pending.done().complete(null);
+        }
+    }
+
+    /**
+     * Waits until all writes queued before this call have been committed, e.g. to read them back.
+     * Failures of individual writes are reported through their own futures, not by this method.
+     * @throws RuntimeException if the handler is closed or the database can't be written to
+     */
+    @Override
+    public void flush() {
+        await(submit("Failed to flush writes to database: " + dbUrl, null, connection -> {}));
+    }
+
+    /**
+     * Returns the number of transactions committed by the writer thread, each containing one or more writes.
+     * @return the number of committed batches
+     */
+    @Override
+    public long committedBatches() {
+        return committedBatches.get();
+    }
+
+    /**
+     * Commits the queued writes, then closes all pooled connections. Operations started afterwards fail.
+     */
+    @Override
+    public void close() {
+        Thread drainer;
+        synchronized (writerLock) {
+            stopped = true;
+            drainer = writerThread;
+            if (drainer != null) {
+                writes.add(new PendingWrite(null, null, null, null));
+            }
+        }
+        if (drainer != null) {
+            boolean interrupted = false;
+            while (drainer.isAlive()) {
+                try {
+                    drainer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ThreadPoolExecutor executor;
+        synchronized (writerLock) {
+            executor = readExecutor;
+            readExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        closed = true;
+        writeLock.lock();
+        try {
+            if (writer != null) {
+                writer.closeQuietly();
+                writer = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        PooledConnection reader;
+        while ((reader = idleReaders.poll()) != null) {
+            reader.closeQuietly();
+            openReaders.decrementAndGet();
+        }
+    }
+
+    /**
+     * Creates the tables of the database or brings them up to date, see {@link #createBuildTable()}.
+     */
+    @Override
+    public void initialize() {
+        createBuildTable();
+    }
+
+    /**
+     * Creates the tables in the database, or brings an existing database up to date,
+     * by applying the missing {@link SchemaMigrations}.
      */
     public void createBuildTable() {
-        String sqlCreate = "CREATE TABLE IF NOT EXISTS builds (" +
-            "id INTEGER PRIMARY KEY AUTOINCREMENT,"+
-            "sha TEXT UNIQUE NOT NULL,"+
-            "branch TEXT NOT NULL,"+                
-            "build_result TEXT NOT NULL,"+                
-            "build_description TEXT,"+  
-            "build_date TEXT"+
-            ")";
-        try (Connection connection = getConnection();
-            Statement stm = connection.createStatement();) {
-            stm.execute(sqlCreate);
+        try (PooledConnection connection = write()) {
+            SchemaMigrations.migrate(connection.connection);
         }
         catch (SQLException e) {
             throw new RuntimeException("Failed to create table in database: " + dbUrl, e);
         }
     }
 
+    /**
+     * Returns the version of the schema of the database.
+     * @return the version of the last applied migration, 0 for a database without tables
+     */
+    public int schemaVersion() {
+        try (PooledConnection connection = write()) {
+            return SchemaMigrations.currentVersion(connection.connection);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to read schema version of database: " + dbUrl, e);
+        }
+    }
 
+    /**
+     * Returns the partitions of the database, newest month first, as YYYY-MM, followed by
+     * {@value BuildPartitions#UNDATED} if builds without a date have been stored.
+     * A partition is kept when its last build is deleted or moved, until it is dropped.
+     * @return the partition names
+     */
+    public List<String> partitions() {
+        try (PooledConnection connection = read()) {
+            return partitions.list(connection.connection).stream().map(partition -> partition.replace('_', '-')).toList();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to list partitions of database: " + dbUrl, e);
+        }
+    }
+
+    /**
+     * Drops the partitions of the months before the given month, with all their builds, log lines and events.
+     * Each partition is dropped as a whole, so the cost depends on the number of partitions, not of builds,
+     * and the freed pages are reused by new partitions instead of leaving holes between live rows.
+     * Builds without a date are kept.
+     * @param month the oldest month to keep
+     * @return the number of partitions dropped
+     */
+    public int dropPartitionsBefore(YearMonth month) {
+        String oldest = BuildPartitions.partitionOf(month.toString());
+        AtomicInteger dropped = new AtomicInteger();
+        await(submit("Failed to drop partitions before " + month + " from database: " + dbUrl, null, connection -> {
+            for (String partition : partitions.list(connection.connection)) {
+                if (!partition.equals(BuildPartitions.UNDATED) && partition.compareTo(oldest) < 0) {
+                    BuildPartitions.drop(connection.connection, partition);
+                    dropped.incrementAndGet();
+                }
+            }
+        }));
+        // the SHAs of the dropped builds are unknown
+        buildCache.clear();
+        if (dropped.get() > 0) {
+            System.out.println("[CI] Dropped " + dropped.get() + " build partition(s) before " + month);
+        }
+        return dropped.get();
+    }
+
+    /**
+     * Drops the partitions of the months before the given month, see {@link #dropPartitionsBefore}.
+     * @param month the oldest month to keep
+     */
+    @Override
+    public void dropBuildsBefore(YearMonth month) {
+        dropPartitionsBefore(month);
+    }
 
     /**
      * Inserts a value into the dataset.
@@ -87,22 +649,10 @@ public class DbHandler {
      * @param date the date and time
      * @throws RuntimeException if the database operation fails
      */
+    @Override
     public void addEntry(String sha, String branch, String result, String description, String date) {
-        String sqlInsert = "INSERT INTO builds " +
-        "(sha, branch, build_result, build_description, build_date) " +
-        "VALUES (?, ?, ?, ?, ?)";
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlInsert);) {
-            stm.setString(1, sha);
-            stm.setString(2, branch);
-            stm.setString(3, result);
-            stm.setString(4, description);
-            stm.setString(5, date);
-            stm.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException("Failed to insert entry into database: " + dbUrl, e);
-        }
+        await(submit("Failed to insert entry into database: " + dbUrl, sha,
+            connection -> insertBuild(connection, sha, branch, result, description, date)));
     }
 
     /**
@@ -114,158 +664,691 @@ public class DbHandler {
      * @param description additional description
      * @throws RuntimeException if the database operation fails
      */
+    @Override
     public void addEntry(String sha, String branch, String result, String description) {
-        String sqlInsert = "INSERT INTO builds " +
-        "(sha, branch, build_result, build_description, build_date) " +
-        "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlInsert);) {
-            stm.setString(1, sha);
-            stm.setString(2, branch);
-            stm.setString(3, result);
-            stm.setString(4, description);
-            stm.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException("Failed to insert entry into database.", e);
-        }
+        await(addEntryAsync(sha, branch, result, description));
     }
+
     /**
-     * Inserts a value into the dataset. Automatically sets the date and time to current time.
+     * Queues the insertion of a value into the dataset. The date and time are set to the current time.
      * 
      * @param sha sha of the commit/pull request
      * @param branch related branch
      * @param result the result of the build/test
+     * @param description additional description
+     * @return a future completed once the entry is committed, or completed with a RuntimeException if the insert fails
+     */
+    @Override
+    public CompletableFuture<Void> addEntryAsync(String sha, String branch, String result, String description) {
+        // like CURRENT_TIMESTAMP, but known before the insert, which needs it to pick the partition
+        String date = BuildStore.currentDate();
+        return submit("Failed to insert entry into database.", sha,
+            connection -> insertBuild(connection, sha, branch, result, description, date));
+    }
+
+    /** Where a build is stored, and its state without the build output. */
+    private record Location(String partition, BuildEntry build) {}
+
+    /**
+     * Finds the partition of the build with the given SHA, probing the newest partitions first.
+     * @return the location of the build, or null if there is no build with the SHA
+     */
+    private Location locate(PooledConnection connection, String sha) throws SQLException {
+        for (String partition : partitions.list(connection.connection)) {
+            PreparedStatement stm = connection.prepare("SELECT id, sha, branch, build_result, NULL AS build_description, " +
+                "build_date, tree_hash, attempt, started_at, finished_at FROM " + BuildPartitions.builds(partition) + " WHERE sha = ?");
+            stm.setString(1, sha);
+            try (ResultSet rs = stm.executeQuery()) {
+                if (rs.next()) {
+                    return new Location(partition, toEntry(rs));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inserts a new build into the partition of its date, with the next id of the build id sequence.
+     */
+    private void insertBuild(PooledConnection connection, String sha, String branch, String result,
+            String description, String date) throws SQLException {
+        // each partition only enforces the uniqueness of its own SHAs
+        if (locate(connection, sha) != null) {
+            throw new SQLException("UNIQUE constraint failed: builds.sha");
+        }
+        BuildEntry build = new BuildEntry((int) takeIds(connection, 1), sha, branch, result, description, date);
+        insertRow(connection, build);
+        appendEvent(connection, BuildPartitions.partitionOf(date), build, result);
+    }
+
+    /**
+     * Takes ids from the build id sequence, in the transaction of the writer so a rolled back insert gives them back.
+     * @param count the number of ids, at least 1
+     * @return the first of the ids, which follow each other
      */
-    public void addEntry(String sha, String branch, String result) {
-        addEntry(sha, branch, result, ""); 
+    private long takeIds(PooledConnection connection, int count) throws SQLException {
+        PreparedStatement update = connection.prepare("UPDATE build_ids SET last_id = last_id + ?");
+        update.setInt(1, count);
+        update.executeUpdate();
+        try (ResultSet rs = connection.prepare("SELECT last_id FROM build_ids").executeQuery()) {
+            rs.next();
+            return rs.getLong(1) - count + 1;
+        }
+    }
+
+    private void insertRow(PooledConnection connection, BuildEntry build) throws SQLException {
+        String partition = BuildPartitions.partitionOf(build.buildDate);
+        if (!partitions.list(connection.connection).contains(partition)) {
+            BuildPartitions.create(connection.connection, partition);
+        }
+        PreparedStatement stm = connection.prepare("INSERT INTO " + BuildPartitions.builds(partition) +
+            " (id, sha, branch, build_result, build_description, build_date, tree_hash, attempt, queued_at, started_at, finished_at)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        stm.setLong(1, build.id);
+        stm.setString(2, build.sha);
+        stm.setString(3, build.branch);
+        stm.setString(4, build.buildResult);
+        stm.setString(5, build.buildDescription);
+        stm.setString(6, build.buildDate);
+        stm.setString(7, build.treeHash);
+        stm.setInt(8, build.attempt);
+        BuildPartitions.setTime(stm, 9, build.queuedAt);
+        BuildPartitions.setTime(stm, 10, build.startedAt);
+        BuildPartitions.setTime(stm, 11, build.finishedAt);
+        stm.executeUpdate();
+        indexLogs(connection, partition, build.id, build.buildDescription);
+    }
+
+    private void deleteRow(PooledConnection connection, Location location) throws SQLException {
+        long id = location.build().id;
+        indexLogs(connection, location.partition(), id, null);
+        PreparedStatement events = connection.prepare(
+            "DELETE FROM " + BuildPartitions.events(location.partition()) + " WHERE build_id = ?");
+        events.setLong(1, id);
+        events.executeUpdate();
+        PreparedStatement stm = connection.prepare(
+            "DELETE FROM " + BuildPartitions.builds(location.partition()) + " WHERE id = ?");
+        stm.setLong(1, id);
+        stm.executeUpdate();
     }
 
+    /**
+     * Updates a build, keeping its tree hash, attempt and the times of the attempt. Does nothing if there is no build
+     * with the SHA.
+     */
+    private void updateBuild(PooledConnection connection, String sha, String branch, String result,
+            String description, String date, boolean setDate) throws SQLException {
+        Location location = locate(connection, sha);
+        if (location == null) {
+            return;
+        }
+        BuildEntry build = location.build();
+        BuildEntry updated = new BuildEntry(build.id, sha, branch, result, description,
+            setDate ? date : build.buildDate, build.treeHash, build.attempt);
+        updated.startedAt = build.startedAt;
+        updated.finishedAt = build.finishedAt;
+        writeBuild(connection, location, updated);
+    }
+
+    /**
+     * Inserts a pending build, or resets an existing one to pending as its next attempt.
+     */
+    private void startAttempt(PooledConnection connection, String sha, String branch, String date) throws SQLException {
+        Location location = locate(connection, sha);
+        if (location == null) {
+            insertBuild(connection, sha, branch, "pending", "", date);
+            return;
+        }
+        writeBuild(connection, location,
+            new BuildEntry(location.build().id, sha, branch, "pending", "", date, null, location.build().attempt + 1));
+    }
+
+    /**
+     * Writes the new state of a build in place, or moves the build with its events to another partition if its
+     * new date is in another month, and appends an event if its result changed.
+     */
+    private void writeBuild(PooledConnection connection, Location location, BuildEntry build) throws SQLException {
+        String partition = BuildPartitions.partitionOf(build.buildDate);
+        if (!partition.equals(location.partition())) {
+            insertRow(connection, build);
+            PreparedStatement events = connection.prepare("INSERT INTO " + BuildPartitions.events(partition) +
+                " (build_id, state, recorded_at, attempt) SELECT build_id, state, recorded_at, attempt FROM " +
+                BuildPartitions.events(location.partition()) + " WHERE build_id = ? ORDER BY id");
+            events.setLong(1, build.id);
+            events.executeUpdate();
+            deleteRow(connection, location);
+        } else {
+            PreparedStatement stm = connection.prepare("UPDATE " + BuildPartitions.builds(partition) + " SET branch = ?, " +
+                "build_result = ?, build_description = ?, build_date = ?, tree_hash = ?, attempt = ?, " +
+                "queued_at = ?, started_at = ?, finished_at = ? WHERE id = ?");
+            stm.setString(1, build.branch);
+            stm.setString(2, build.buildResult);
+            stm.setString(3, build.buildDescription);
+            stm.setString(4, build.buildDate);
+            stm.setString(5, build.treeHash);
+            stm.setInt(6, build.attempt);
+            BuildPartitions.setTime(stm, 7, build.queuedAt);
+            BuildPartitions.setTime(stm, 8, build.startedAt);
+            BuildPartitions.setTime(stm, 9, build.finishedAt);
+            stm.setLong(10, build.id);
+            stm.executeUpdate();
+            indexLogs(connection, partition, build.id, build.buildDescription);
+        }
+        appendEvent(connection, partition, build, build.buildResult);
+    }
+
+    /**
+     * Appends a state to the timeline of a build, unless it is the latest state of the same attempt.
+     * A final result is also counted in the build_stats rollup, with the first event of the attempt as start.
+     * The started and finished times of the build are set as {@link BuildTimes#apply} does.
+     */
+    private void appendEvent(PooledConnection connection, String partition, BuildEntry build, String state)
+            throws SQLException {
+        String events = BuildPartitions.events(partition);
+        PreparedStatement latest = connection.prepare(
+            "SELECT state, attempt FROM " + events + " WHERE build_id = ? ORDER BY id DESC LIMIT 1");
+        latest.setLong(1, build.id);
+        try (ResultSet rs = latest.executeQuery()) {
+            if (rs.next() && rs.getString(1).equals(state) && rs.getInt(2) == build.attempt) {
+                return;
+            }
+        }
+        String recordedAt = BuildEvent.now();
+        if (BuildStats.isFinal(state)) {
+            String startedAt = null;
+            PreparedStatement first = connection.prepare(
+                "SELECT recorded_at FROM " + events + " WHERE build_id = ? AND attempt = ? ORDER BY id LIMIT 1");
+            first.setLong(1, build.id);
+            first.setInt(2, build.attempt);
+            try (ResultSet rs = first.executeQuery()) {
+                if (rs.next()) {
+                    startedAt = rs.getString(1);
+                }
+            }
+            long duration = StatsRollup.durationMillis(startedAt, recordedAt);
+            PreparedStatement stats = connection.prepare(StatsRollup.UPSERT);
+            stats.setString(1, StatsRollup.day(recordedAt));
+            stats.setString(2, build.branch);
+            stats.setString(3, state);
+            stats.setLong(4, 1);
+            stats.setLong(5, duration < 0 ? 0 : 1);
+            stats.setLong(6, Math.max(duration, 0));
+            stats.executeUpdate();
+        }
+        PreparedStatement stm = connection.prepare(
+            "INSERT INTO " + events + " (build_id, state, recorded_at, attempt) VALUES (?, ?, ?, ?)");
+        stm.setLong(1, build.id);
+        stm.setString(2, state);
+        stm.setString(3, recordedAt);
+        stm.setInt(4, build.attempt);
+        stm.executeUpdate();
+        if (!state.equals("pending")) {
+            boolean finished = BuildStats.isFinal(state);
+            PreparedStatement times = connection.prepare("UPDATE " + BuildPartitions.builds(partition) +
+                " SET started_at = COALESCE(started_at, ?)" + (finished ? ", finished_at = ?" : "") + " WHERE id = ?");
+            Long at = BuildTimes.parse(recordedAt);
+            int i = 1;
+            BuildPartitions.setTime(times, i++, at);
+            if (finished) BuildPartitions.setTime(times, i++, at);
+            times.setLong(i, build.id);
+            times.executeUpdate();
+            BuildTimes.apply(build, state, at);
+        }
+    }
+
+    /**
+     * Selects the builds of all partitions in id order, optionally only those of a branch.
+     */
+    private List<BuildEntry> selectAcrossPartitions(String branch) throws SQLException {
+        List<BuildEntry> builds = new ArrayList<>();
+        try (PooledConnection connection = read()) {
+            List<String> names = partitions.list(connection.connection);
+            if (names.isEmpty()) {
+                return builds;
+            }
+            String filter = branch == null ? "" : " WHERE branch = ?";
+            String sqlSelect = names.stream()
+                .map(partition -> "SELECT * FROM " + BuildPartitions.builds(partition) + filter)
+                .collect(Collectors.joining(" UNION ALL ")) + " ORDER BY id";
+            PreparedStatement stm = connection.prepare(sqlSelect);
+            if (branch != null) {
+                for (int i = 1; i <= names.size(); i++) {
+                    stm.setString(i, branch);
+                }
+            }
+            readEntries(stm, builds);
+        }
+        return builds;
+    }
 
     /**
      * Selects all build entries from the database.
+     * This loads the whole history into memory, listings should use {@link #selectBuildsPage} instead.
      * @return List of BuildEntry objects
      */
+    @Override
     public List<BuildEntry> selectAllBuilds() {
-        String sqlSelect = "SELECT * FROM builds";
-        List<BuildEntry> entries = new ArrayList<>();
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlSelect);
-            ResultSet rs = stm.executeQuery();) {
-            while (rs.next()) {
-                BuildEntry entry = new BuildEntry(
-                    rs.getInt("id"),
-                    rs.getString("sha"),
-                    rs.getString("branch"),
-                    rs.getString("build_result"),
-                    rs.getString("build_description"),
-                    rs.getString("build_date")
-                );
-                entries.add(entry);
-            }
+        try {
+            return selectAcrossPartitions(null);
         }
         catch (SQLException e) {
             throw new RuntimeException("Failed to select builds from database: " + dbUrl, e);
         }
-        return entries;
     }
     /**
-     * Selects build entry by the commit SHA.
+     * Selects build entry by the commit SHA. Entries are read through the {@link BuildCache},
+     * which is invalidated whenever the build is written.
      * @param sha commit SHA
      * @return BuildEntry object or null if not found
      */
+    @Override
     public BuildEntry selectBySha(String sha) {
-        String sqlSelect = "SELECT * FROM builds WHERE sha = ?";
+        BuildEntry cached = buildCache.get(sha);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = buildCache.stamp();
         BuildEntry build = null;
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlSelect);) {
-            stm.setString(1, sha);
-            ResultSet rs = stm.executeQuery();
-            if (rs.next()) {  
-                BuildEntry entry = new BuildEntry(
-                    rs.getInt("id"),
-                    rs.getString("sha"),
-                    rs.getString("branch"),
-                    rs.getString("build_result"),
-                    rs.getString("build_description"),
-                    rs.getString("build_date")
-                );
-                build = entry;
+        try (PooledConnection connection = read()) {
+            // recent builds are looked up the most, so their partitions are probed first
+            for (String partition : partitions.list(connection.connection)) {
+                PreparedStatement stm = connection.prepare("SELECT * FROM " + BuildPartitions.builds(partition) + " WHERE sha = ?");
+                stm.setString(1, sha);
+                try (ResultSet rs = stm.executeQuery()) {
+                    if (rs.next()) {
+                        build = toEntry(rs);
+                        break;
+                    }
+                }
             }
         }
         catch (SQLException e) {
             throw new RuntimeException("Failed to select build with sha: " + sha, e);
         }
+        if (build != null) {
+            buildCache.put(sha, build, stamp);
+        }
         return build;
     }
 
+    /**
+     * Returns the hit and miss counters of the cache used by {@link #selectBySha}.
+     * @return the cache counters
+     */
+    @Override
+    public BuildCache.Stats buildCacheStats() {
+        return buildCache.stats();
+    }
+
     /**
      * Selects all build entries corresponding to a specific branch.
+     * This loads the whole history of the branch into memory, listings should use {@link #selectByBranchPage} instead.
      * @param branch branch name
      * @return List of BuildEntry objects
      */
+    @Override
     public List<BuildEntry> selectByBranch(String branch) {
-        String sqlSelect = "SELECT * FROM builds WHERE branch = ?";
+        try {
+            return selectAcrossPartitions(branch);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to select builds with branch: " + branch, e);
+        }
+    }
+
+    /**
+     * Selects one page of all builds, newest first. The cost of a page does not depend on the number of builds:
+     * the page continues after the cursor in the (build_date, id) order of the date index instead of skipping
+     * the builds of the previous pages, and only the partitions from the month of the cursor on are read.
+     * Builds without a date come after all dated builds.
+     * @param cursor the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of builds of the page, at least 1
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is not a cursor returned by this method
+     */
+    @Override
+    public BuildPage selectBuildsPage(String cursor, int limit) {
+        return selectPage(null, cursor, limit);
+    }
+
+    /**
+     * Selects one page of the builds of a branch, newest first, like {@link #selectBuildsPage}.
+     * @param branch branch name
+     * @param cursor the nextCursor of the previous page of the same branch, or null for the first page
+     * @param limit maximum number of builds of the page, at least 1
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is not a cursor returned by this method
+     */
+    @Override
+    public BuildPage selectByBranchPage(String branch, String cursor, int limit) {
+        return selectPage(branch, cursor, limit);
+    }
+
+    private BuildPage selectPage(String branch, String token, int limit) {
+        BuildCursor.checkLimit(limit);
+        BuildCursor cursor = BuildCursor.decode(token);
+        String start = cursor == null ? null : BuildPartitions.partitionOf(cursor.date());
+        String filter = branch == null ? "" : " WHERE branch = ?";
+        // one more build than requested tells whether there is a next page
         List<BuildEntry> builds = new ArrayList<>();
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlSelect);) {
-            stm.setString(1, branch);
-            ResultSet rs = stm.executeQuery();
-            while (rs.next()) {  
-                BuildEntry entry = new BuildEntry(
-                    rs.getInt("id"),
-                    rs.getString("sha"),
-                    rs.getString("branch"),
-                    rs.getString("build_result"),
-                    rs.getString("build_description"),
-                    rs.getString("build_date")
-                );
-                builds.add(entry);
+        try (PooledConnection connection = read()) {
+            for (String partition : partitions.list(connection.connection)) {
+                if (builds.size() > limit) {
+                    break;
+                }
+                boolean undated = partition.equals(BuildPartitions.UNDATED);
+                // partitions newer than the cursor's have been listed by the previous pages
+                if (start != null && !undated && (start.equals(BuildPartitions.UNDATED) || partition.compareTo(start) > 0)) {
+                    continue;
+                }
+                boolean after = partition.equals(start);
+                String sql = "SELECT * FROM " + BuildPartitions.builds(partition) + filter;
+                if (after) {
+                    sql += (filter.isEmpty() ? " WHERE " : " AND ") + (undated ? "id < ?" : "(build_date, id) < (?, ?)");
+                }
+                sql += undated ? " ORDER BY id DESC LIMIT ?" : " ORDER BY build_date DESC, id DESC LIMIT ?";
+                PreparedStatement stm = connection.prepare(sql);
+                int i = 1;
+                if (branch != null) stm.setString(i++, branch);
+                if (after && !undated) stm.setString(i++, cursor.date());
+                if (after) stm.setLong(i++, cursor.id());
+                stm.setInt(i, limit + 1 - builds.size());
+                readEntries(stm, builds);
             }
         }
         catch (SQLException e) {
-            throw new RuntimeException("Failed to select builds with branch: " + branch, e);
+            throw new RuntimeException("Failed to select page of builds" + (branch == null ? "" : " with branch: " + branch), e);
         }
-        return builds;
+        return BuildCursor.toPage(builds, limit);
+    }
+
+    /**
+     * Selects one page of the builds queued within a time range, latest queued first. Each partition that may hold
+     * builds of the range is read with a range scan of its queued time index, (branch, queued_at) for a branch,
+     * continuing after the (queued_at, id) of the cursor; partitions older than the page are not read.
+     * @param branch branch name, or null for all branches
+     * @param from the start of the range, inclusive, in epoch milliseconds
+     * @param to the end of the range, exclusive, in epoch milliseconds
+     * @param token the nextCursor of the previous page of the same range, or null for the first page
+     * @param limit maximum number of builds of the page, at least 1
+     * @return the page
+     * @throws IllegalArgumentException if the cursor is not a cursor returned by this method
+     */
+    @Override
+    public BuildPage selectByTimeRange(String branch, long from, long to, String token, int limit) {
+        BuildCursor.checkLimit(limit);
+        BuildCursor cursor = BuildCursor.decodeRange(token);
+        // one more build than requested tells whether there is a next page
+        List<BuildEntry> builds = new ArrayList<>();
+        try (PooledConnection connection = read()) {
+            for (String partition : partitions.list(connection.connection)) {
+                if (BuildPartitions.queuedTo(partition) <= from || BuildPartitions.queuedFrom(partition) >= to) {
+                    continue;
+                }
+                // partitions come newest first, older ones can't hold builds queued after those of a full page
+                if (builds.size() > limit && BuildPartitions.queuedTo(partition) <= builds.get(limit).queuedAt) {
+                    break;
+                }
+                String sql = "SELECT * FROM " + BuildPartitions.builds(partition) + " WHERE " +
+                    (branch == null ? "" : "branch = ? AND ") + "queued_at >= ? AND queued_at < ?" +
+                    (cursor == null ? "" : " AND (queued_at, id) < (?, ?)") + " ORDER BY queued_at DESC, id DESC LIMIT ?";
+                PreparedStatement stm = connection.prepare(sql);
+                int i = 1;
+                if (branch != null) stm.setString(i++, branch);
+                stm.setLong(i++, from);
+                stm.setLong(i++, to);
+                if (cursor != null) {
+                    stm.setLong(i++, cursor.queuedAt());
+                    stm.setLong(i++, cursor.id());
+                }
+                stm.setInt(i, limit + 1);
+                readEntries(stm, builds);
+                builds.sort(BuildCursor.LATEST_QUEUED_FIRST);
+                if (builds.size() > limit + 1) {
+                    builds.subList(limit + 1, builds.size()).clear();
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to select builds between " + from + " and " + to, e);
+        }
+        return BuildCursor.toRangePage(builds, limit);
+    }
+
+    /**
+     * Selects one page of the builds queued within a time range without blocking the calling thread,
+     * see {@link #selectByTimeRange}.
+     * @param branch branch name, or null for all branches
+     * @param from the start of the range, inclusive, in epoch milliseconds
+     * @param to the end of the range, exclusive, in epoch milliseconds
+     * @param cursor the cursor of the page, or null for the first page
+     * @param limit maximum number of builds in the page
+     * @return a future of the page, completed with an IllegalArgumentException if the cursor is invalid, or
+     * exceptionally if the read fails, is rejected or times out
+     */
+    @Override
+    public CompletableFuture<BuildPage> selectByTimeRangeAsync(String branch, long from, long to, String cursor, int limit) {
+        return query(() -> selectByTimeRange(branch, from, to, cursor, limit));
+    }
+
+    private static void readEntries(PreparedStatement stm, List<BuildEntry> entries) throws SQLException {
+        try (ResultSet rs = stm.executeQuery()) {
+            while (rs.next()) {
+                entries.add(toEntry(rs));
+            }
+        }
+    }
+
+    private static BuildEntry toEntry(ResultSet rs) throws SQLException {
+        BuildEntry build = new BuildEntry(
+            rs.getInt("id"),
+            rs.getString("sha"),
+            rs.getString("branch"),
+            rs.getString("build_result"),
+            rs.getString("build_description"),
+            rs.getString("build_date"),
+            rs.getString("tree_hash"),
+            rs.getInt("attempt")
+        );
+        build.startedAt = BuildPartitions.getTime(rs, "started_at");
+        build.finishedAt = BuildPartitions.getTime(rs, "finished_at");
+        return build;
     }
 
     /**
      * Deletes entry based on the commit SHA.
      * @param sha commit SHA
      */
+    @Override
     public void deleteEntry(String sha) {
-        String sqlDelete = "DELETE FROM builds WHERE sha = ?";
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlDelete);) {
-            stm.setString(1, sha);
-            stm.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete entry with sha: " + sha, e);
+        await(submit("Failed to delete entry with sha: " + sha, sha, connection -> {
+            Location location = locate(connection, sha);
+            if (location != null) {
+                deleteRow(connection, location);
+            }
+        }));
+    }
+
+    /**
+     * Starts a new attempt at building a commit, see {@link BuildStore#startAttempt}.
+     * @param sha commit SHA
+     * @param branch related branch
+     */
+    @Override
+    public void startAttempt(String sha, String branch) {
+        await(startAttemptAsync(sha, branch));
+    }
+
+    /**
+     * Queues the start of a new attempt at building a commit, dated now, see {@link BuildStore#startAttempt}.
+     * @param sha commit SHA
+     * @param branch related branch
+     * @return a future completed once the attempt is committed, or completed with a RuntimeException if it fails
+     */
+    @Override
+    public CompletableFuture<Void> startAttemptAsync(String sha, String branch) {
+        String date = BuildStore.currentDate();
+        return submit("Failed to start attempt for sha: " + sha, sha,
+            connection -> startAttempt(connection, sha, branch, date));
+    }
+
+    /**
+     * Records the git tree hash of the commit of a build.
+     * @param sha commit SHA
+     * @param treeHash the hash of the tree of the commit
+     */
+    @Override
+    public void setTreeHash(String sha, String treeHash) {
+        await(setTreeHashAsync(sha, treeHash));
+    }
+
+    /**
+     * Queues the recording of the git tree hash of the commit of a build.
+     * @param sha commit SHA
+     * @param treeHash the hash of the tree of the commit
+     * @return a future completed once the hash is committed, or completed with a RuntimeException if it fails
+     */
+    @Override
+    public CompletableFuture<Void> setTreeHashAsync(String sha, String treeHash) {
+        return submit("Failed to set tree hash of sha: " + sha, sha, connection -> {
+            Location location = locate(connection, sha);
+            if (location != null) {
+                PreparedStatement stm = connection.prepare(
+                    "UPDATE " + BuildPartitions.builds(location.partition()) + " SET tree_hash = ? WHERE id = ?");
+                stm.setString(1, treeHash);
+                stm.setLong(2, location.build().id);
+                stm.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Selects the most recent build with the given tree hash whose result can be reused, see
+     * {@link BuildStore#selectByTree}, probing the newest partitions first.
+     * @param treeHash the hash of the tree
+     * @param excludedSha the commit asking, or null
+     * @return the build, or null if no such build of the tree is known
+     */
+    @Override
+    public BuildEntry selectByTree(String treeHash, String excludedSha) {
+        try (PooledConnection connection = read()) {
+            for (String partition : partitions.list(connection.connection)) {
+                // IS NOT, unlike <>, is true for every build when no commit is excluded
+                PreparedStatement stm = connection.prepare("SELECT * FROM " + BuildPartitions.builds(partition) +
+                    " WHERE tree_hash = ? AND sha IS NOT ? AND build_result IN ('success', 'failure') ORDER BY id DESC LIMIT 1");
+                stm.setString(1, treeHash);
+                stm.setString(2, excludedSha);
+                try (ResultSet rs = stm.executeQuery()) {
+                    if (rs.next()) {
+                        return toEntry(rs);
+                    }
+                }
+            }
+            return null;
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to select build with tree: " + treeHash, e);
         }
     }
 
+    /**
+     * Appends a state to the timeline of a build, see {@link BuildStore#addEvent}. The build itself is not written.
+     * @param sha commit SHA
+     * @param state the state entered, e.g. checkout or testing
+     */
+    @Override
+    public void addEvent(String sha, String state) {
+        await(addEventAsync(sha, state));
+    }
+
+    /**
+     * Queues the appending of a state to the timeline of a build, see {@link BuildStore#addEvent}.
+     * @param sha commit SHA
+     * @param state the state entered, e.g. checkout or testing
+     * @return a future completed once the event is committed, or completed with a RuntimeException if it fails
+     */
+    @Override
+    public CompletableFuture<Void> addEventAsync(String sha, String state) {
+        // the event may set the started or finished time of the cached build
+        return submit("Failed to insert event for sha: " + sha, sha, connection -> {
+            Location location = locate(connection, sha);
+            if (location != null) {
+                appendEvent(connection, location.partition(), location.build(), state);
+            }
+        });
+    }
+
+    /**
+     * Selects the timeline of a build.
+     * @param sha commit SHA
+     * @return the events of all attempts of the build, oldest first, or an empty list if there is no build with the SHA
+     */
+    @Override
+    public List<BuildEvent> selectEvents(String sha) {
+        List<BuildEvent> events = new ArrayList<>();
+        try (PooledConnection connection = read()) {
+            Location location = locate(connection, sha);
+            if (location == null) {
+                return events;
+            }
+            PreparedStatement stm = connection.prepare("SELECT attempt, state, recorded_at FROM " +
+                BuildPartitions.events(location.partition()) + " WHERE build_id = ? ORDER BY id");
+            stm.setLong(1, location.build().id);
+            try (ResultSet rs = stm.executeQuery()) {
+                while (rs.next()) {
+                    events.add(new BuildEvent(sha, rs.getInt(1), rs.getString(2), rs.getString(3)));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to select events of build with sha: " + sha, e);
+        }
+        return events;
+    }
+
+    /**
+     * Selects rows of the build statistics rollup, see {@link BuildStore#selectStats}. Reads the build_stats table
+     * by its (day, branch, result) key instead of scanning the builds.
+     * @param branch the branch, or null for all branches
+     * @param fromDay the first day, yyyy-MM-dd, or null for all days
+     * @return the rows ordered by day, branch and result
+     */
+    @Override
+    public List<BuildStats> selectStats(String branch, String fromDay) {
+        String sqlSelect = "SELECT day, branch, result, builds, timed_builds, total_duration_ms FROM build_stats " +
+            "WHERE day >= ? AND (? IS NULL OR branch = ?) ORDER BY day, branch, result";
+        List<BuildStats> stats = new ArrayList<>();
+        try (PooledConnection connection = read()) {
+            PreparedStatement stm = connection.prepare(sqlSelect);
+            stm.setString(1, fromDay == null ? "" : fromDay);
+            stm.setString(2, branch);
+            stm.setString(3, branch);
+            try (ResultSet rs = stm.executeQuery()) {
+                while (rs.next()) {
+                    stats.add(new BuildStats(rs.getString(1), rs.getString(2), rs.getString(3),
+                        rs.getLong(4), rs.getLong(5), rs.getLong(6)));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to select build stats", e);
+        }
+        return stats;
+    }
+
     /**
      * Updates an existing entry based on the commit SHA.
+     * If the new date is in another month, the build is moved to the partition of that month.
      * @param sha commit SHA
      * @param branch branch name
      * @param result build result
      * @param description build description
      * @param date build date
      */
+    @Override
     public void updateEntry(String sha, String branch, String result, String description, String date) {
-        String sqlUpdate = "UPDATE builds SET branch = ?, build_result = ?, build_description = ?, build_date = ? WHERE sha = ?";
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlUpdate);) {
-            stm.setString(1, branch);
-            stm.setString(2, result);
-            stm.setString(3, description);
-            stm.setString(4, date);
-            stm.setString(5, sha);
-            stm.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException("Failed to update entry with sha: " + sha, e);
-        }
+        await(submit("Failed to update entry with sha: " + sha, sha,
+            connection -> updateBuild(connection, sha, branch, result, description, date, true)));
     }
 
     /**
@@ -275,18 +1358,590 @@ public class DbHandler {
      * @param result build result
      * @param description build description
      */
+    @Override
     public void updateEntry(String sha, String branch, String result, String description) {
-        String sqlUpdate = "UPDATE builds SET branch = ?, build_result = ?, build_description = ? WHERE sha = ?";
-        try (Connection connection = getConnection();
-            PreparedStatement stm = connection.prepareStatement(sqlUpdate);) {
-            stm.setString(1, branch);
-            stm.setString(2, result);
-            stm.setString(3, description);
-            stm.setString(4, sha);
+        await(updateEntryAsync(sha, branch, result, description));
+    }
+
+    /**
+     * Queues the update of an existing entry based on the commit SHA.
+     * @param sha commit SHA
+     * @param branch branch name
+     * @param result build result
+     * @param description build description
+     * @return a future completed once the update is committed, or completed with a RuntimeException if it fails
+     */
+    @Override
+    public CompletableFuture<Void> updateEntryAsync(String sha, String branch, String result, String description) {
+        return submit("Failed to update entry with sha: " + sha, sha,
+            connection -> updateBuild(connection, sha, branch, result, description, null, false));
+    }
+
+    /**
+     * Searches the build output of all builds for lines matching the given words.
+     * Every whitespace separated word of the query must occur in the line, punctuation inside a word is matched
+     * as a phrase (e.g. java.lang.NullPointerException). Lines of the most recent builds are returned first.
+     * Each partition reads at most one page from its index, walking the rowids down from the cursor, so a page
+     * costs the same however many lines match and however deep it is.
+     * @param query the words to search for
+     * @param after the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of matching lines to return
+     * @return the page of matching lines with their build, empty if the query contains no words
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    @Override
+    public LogPage searchLogs(String query, String after, int limit) {
+        BuildCursor.checkLimit(limit);
+        LogCursor cursor = LogCursor.decode(after);
+        String match = toMatchExpression(query);
+        List<LogMatch> matches = new ArrayList<>();
+        if (match.isEmpty()) {
+            return new LogPage(matches, null);
+        }
+        long below = cursor == null ? Long.MAX_VALUE : logRowId(cursor.buildId(), cursor.lineNumber() - 1);
+        try (PooledConnection connection = read()) {
+            List<String> names = partitions.list(connection.connection);
+            if (names.isEmpty()) {
+                return new LogPage(matches, null);
+            }
+            // log rowids start with the build id, which is unique across partitions; newest partition first
+            String sqlSearch = names.stream().map(partition -> {
+                String logs = BuildPartitions.logs(partition);
+                return "SELECT * FROM (SELECT b.id, b.sha, b.branch, b.build_result, b.build_date, l.rowid AS log_rowid, " +
+                    "snippet(" + logs + ", 0, '[', ']', '...', 16) AS snippet " +
+                    "FROM " + logs + " l JOIN " + BuildPartitions.builds(partition) + " b ON b.id = (l.rowid >> " + LOG_LINE_BITS + ") " +
+                    "WHERE " + logs + " MATCH ? AND l.rowid < ? ORDER BY l.rowid DESC LIMIT ?)";
+            }).collect(Collectors.joining(" UNION ALL ")) + " ORDER BY log_rowid DESC LIMIT ?";
+            PreparedStatement stm = connection.prepare(sqlSearch);
+            int i = 1;
+            for (int p = 0; p < names.size(); p++) {
+                stm.setString(i++, match);
+                stm.setLong(i++, below);
+                stm.setInt(i++, limit + 1);
+            }
+            stm.setInt(i, limit + 1);
+            try (ResultSet rs = stm.executeQuery()) {
+                while (rs.next()) {
+                    matches.add(new LogMatch(
+                        rs.getInt("id"),
+                        rs.getString("sha"),
+                        rs.getString("branch"),
+                        rs.getString("build_result"),
+                        rs.getString("build_date"),
+                        (int) (rs.getLong("log_rowid") & LOG_LINE_MASK) + 1,
+                        rs.getString("snippet")
+                    ));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to search build logs for: " + query, e);
+        }
+        return LogCursor.toPage(matches, limit);
+    }
+
+    static final int LOG_LINE_BITS = 24;
+    static final long LOG_LINE_MASK = (1L << LOG_LINE_BITS) - 1;
+
+    static long logRowId(long buildId, long lineIndex) {
+        return (buildId << LOG_LINE_BITS) | lineIndex;
+    }
+
+    /**
+     * Replaces the indexed log lines of a build, within the caller's transaction.
+     * @param connection connection with an open transaction
+     * @param partition partition of the build
+     * @param id id of the build
+     * @param logs the new build output, or null to only remove the old lines
+     * @throws SQLException if the index can't be updated
+     */
+    private void indexLogs(PooledConnection connection, String partition, long id, String logs) throws SQLException {
+        String table = BuildPartitions.logs(partition);
+        PreparedStatement delete = connection.prepare("DELETE FROM " + table + " WHERE rowid BETWEEN ? AND ?");
+        delete.setLong(1, logRowId(id, 0));
+        delete.setLong(2, logRowId(id, LOG_LINE_MASK));
+        delete.executeUpdate();
+        if (logs == null || logs.isBlank()) {
+            return;
+        }
+        PreparedStatement insert = connection.prepare("INSERT INTO " + table + " (rowid, line) VALUES (?, ?)");
+        insert.clearBatch();
+        addLogLines(insert, id, logs);
+        insert.executeBatch();
+    }
+
+    /**
+     * Adds the non-blank lines of a build output to a batch of inserts into a log index table.
+     * @param insert the statement INSERT INTO build_logs_... (rowid, line) VALUES (?, ?)
+     * @param id id of the build
+     * @param logs the build output, or null
+     * @return the number of lines added
+     * @throws SQLException if a line can't be added
+     */
+    static int addLogLines(PreparedStatement insert, long id, String logs) throws SQLException {
+        if (logs == null || logs.isBlank()) {
+            return 0;
+        }
+        String[] lines = logs.split("\n");
+        int added = 0;
+        for (int i = 0; i < lines.length && i <= LOG_LINE_MASK; i++) {
+            if (lines[i].isBlank()) continue;
+            insert.setLong(1, logRowId(id, i));
+            insert.setString(2, lines[i]);
+            insert.addBatch();
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Turns free text into an FTS5 query where every word is a quoted phrase, so user input can't cause syntax errors.
+     * @param query the free text
+     * @return the FTS5 match expression, empty if the text contains no words
+     */
+    private static String toMatchExpression(String query) {
+        if (query == null) return "";
+        StringBuilder sb = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(word.replace("\"", "\"\"")).append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records the measurements of the checkout of a build.
+     * @param sha commit SHA of the build
+     * @param repoUrl repository URL
+     * @param strategy name of the clone strategy used
+     * @param durationMillis checkout time in milliseconds
+     * @param bytes approximate number of bytes received
+     */
+    @Override
+    public void addCheckoutStats(String sha, String repoUrl, String strategy, long durationMillis, long bytes) {
+        await(addCheckoutStatsAsync(sha, repoUrl, strategy, durationMillis, bytes));
+    }
+
+    /**
+     * Queues the measurements of the checkout of a build.
+     * @param sha commit SHA of the build
+     * @param repoUrl repository URL
+     * @param strategy name of the clone strategy used
+     * @param durationMillis checkout time in milliseconds
+     * @param bytes approximate number of bytes received
+     * @return a future completed once the measurements are committed, or completed with a RuntimeException if the insert fails
+     */
+    @Override
+    public CompletableFuture<Void> addCheckoutStatsAsync(String sha, String repoUrl, String strategy, long durationMillis, long bytes) {
+        String sqlInsert = "INSERT INTO checkout_stats (sha, repo_url, strategy, duration_ms, bytes) VALUES (?, ?, ?, ?, ?)";
+        return submit("Failed to insert checkout stats for sha: " + sha, null, connection -> {
+            PreparedStatement stm = connection.prepare(sqlInsert);
+            stm.setString(1, sha);
+            stm.setString(2, repoUrl);
+            stm.setString(3, strategy);
+            stm.setLong(4, durationMillis);
+            stm.setLong(5, bytes);
             stm.executeUpdate();
+        });
+    }
+
+    /**
+     * Merges sketches of stage durations into the stored sketches, see {@link BuildStore#mergeTimings}.
+     * Each stored sketch is read, merged and written back by the writer thread, in one transaction for all of them.
+     * @param timings the sketches to merge, left unchanged
+     */
+    @Override
+    public void mergeTimings(List<StageTiming> timings) {
+        await(submit("Failed to merge stage timings into database: " + dbUrl, null, connection -> {
+            PreparedStatement select = connection.prepare(
+                "SELECT sketch FROM stage_timings WHERE window_start = ? AND branch = ? AND stage = ?");
+            PreparedStatement upsert = connection.prepare("INSERT INTO stage_timings (window_start, branch, stage, sketch) " +
+                "VALUES (?, ?, ?, ?) ON CONFLICT (window_start, branch, stage) DO UPDATE SET sketch = excluded.sketch");
+            for (StageTiming timing : timings) {
+                DurationSketch merged = timing.sketch().copy();
+                select.setString(1, timing.window());
+                select.setString(2, timing.branch());
+                select.setString(3, timing.stage());
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        merged.merge(DurationSketch.fromBytes(rs.getBytes(1)));
+                    }
+                }
+                upsert.setString(1, timing.window());
+                upsert.setString(2, timing.branch());
+                upsert.setString(3, timing.stage());
+                upsert.setBytes(4, merged.toBytes());
+                upsert.executeUpdate();
+            }
+        }));
+    }
+
+    /**
+     * Selects the stored sketches of stage durations of a range of windows, see {@link BuildStore#selectTimings}.
+     * @param branch the branch, or null for all branches
+     * @param fromWindow the first window to select, or null to start with the oldest
+     * @param toWindow the window to stop before, or null to select up to the newest
+     * @return the sketches, ordered by window, branch and stage
+     */
+    @Override
+    public List<StageTiming> selectTimings(String branch, String fromWindow, String toWindow) {
+        String sqlSelect = "SELECT window_start, branch, stage, sketch FROM stage_timings WHERE window_start >= ? " +
+            "AND (? IS NULL OR window_start < ?) AND (? IS NULL OR branch = ?) ORDER BY window_start, branch, stage";
+        List<StageTiming> timings = new ArrayList<>();
+        try (PooledConnection connection = read()) {
+            PreparedStatement stm = connection.prepare(sqlSelect);
+            stm.setString(1, fromWindow == null ? "" : fromWindow);
+            stm.setString(2, toWindow);
+            stm.setString(3, toWindow);
+            stm.setString(4, branch);
+            stm.setString(5, branch);
+            try (ResultSet rs = stm.executeQuery()) {
+                while (rs.next()) {
+                    timings.add(new StageTiming(rs.getString(1), rs.getString(2), rs.getString(3),
+                        DurationSketch.fromBytes(rs.getBytes(4))));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to select stage timings", e);
+        }
+        return timings;
+    }
+
+    /**
+     * Selects a build by SHA on the executor of the asynchronous reads, see {@link #query}.
+     * @param sha commit SHA
+     * @return a future of the build or null
+     */
+    @Override
+    public CompletableFuture<BuildEntry> selectByShaAsync(String sha) {
+        return query(() -> selectBySha(sha));
+    }
+
+    /**
+     * Selects the latest reusable build of a tree on the executor of the asynchronous reads, see {@link #query}.
+     * @param treeHash git tree hash
+     * @param excludedSha the commit asking, or null
+     * @return a future of the build or null
+     */
+    @Override
+    public CompletableFuture<BuildEntry> selectByTreeAsync(String treeHash, String excludedSha) {
+        return query(() -> selectByTree(treeHash, excludedSha));
+    }
+
+    /**
+     * Selects the timeline of a build on the executor of the asynchronous reads, see {@link #query}.
+     * @param sha commit SHA
+     * @return a future of the events
+     */
+    @Override
+    public CompletableFuture<List<BuildEvent>> selectEventsAsync(String sha) {
+        return query(() -> selectEvents(sha));
+    }
+
+    /**
+     * Selects one page of builds on the executor of the asynchronous reads, see {@link #query}.
+     * @param cursor the cursor of the page, or null for the first page
+     * @param limit maximum number of builds in the page
+     * @return a future of the page
+     */
+    @Override
+    public CompletableFuture<BuildPage> selectBuildsPageAsync(String cursor, int limit) {
+        return query(() -> selectBuildsPage(cursor, limit));
+    }
+
+    /**
+     * Selects one page of the builds of a branch on the executor of the asynchronous reads, see {@link #query}.
+     * @param branch branch name
+     * @param cursor the cursor of the page, or null for the first page
+     * @param limit maximum number of builds in the page
+     * @return a future of the page
+     */
+    @Override
+    public CompletableFuture<BuildPage> selectByBranchPageAsync(String branch, String cursor, int limit) {
+        return query(() -> selectByBranchPage(branch, cursor, limit));
+    }
+
+    /**
+     * Searches the build output on the executor of the asynchronous reads, see {@link #query}.
+     * @param query the words to search for
+     * @param after the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of matching lines to return
+     * @return a future of the page of matching lines
+     */
+    @Override
+    public CompletableFuture<LogPage> searchLogsAsync(String query, String after, int limit) {
+        return query(() -> searchLogs(query, after, limit));
+    }
+
+    /**
+     * Selects rows of the build statistics rollup on the executor of the asynchronous reads, see {@link #query}.
+     * @param branch the branch, or null for all branches
+     * @param fromDay the first day, or null for all days
+     * @return a future of the rows
+     */
+    @Override
+    public CompletableFuture<List<BuildStats>> selectStatsAsync(String branch, String fromDay) {
+        return query(() -> selectStats(branch, fromDay));
+    }
+
+    /**
+     * Selects stored sketches of stage durations on the executor of the asynchronous reads, see {@link #query}.
+     * @param branch the branch, or null for all branches
+     * @param fromWindow the first window, or null to start with the oldest
+     * @param toWindow the window to stop before, or null to select up to the newest
+     * @return a future of the sketches
+     */
+    @Override
+    public CompletableFuture<List<StageTiming>> selectTimingsAsync(String branch, String fromWindow, String toWindow) {
+        return query(() -> selectTimings(branch, fromWindow, toWindow));
+    }
+
+    /**
+     * Streams the builds partition by partition, in chunks of {@value #EXPORT_CHUNK} builds in id order continuing
+     * after the last id of the previous chunk. Each chunk is read with the events of its builds in one short read
+     * transaction by the asynchronous readers, see {@link #query}, and only passed to the consumer once its connection
+     * is released. A slow consumer, like a client downloading the export, therefore holds neither a reader nor a
+     * snapshot keeping the WAL from being checkpointed, and an export waits its turn like any other read. Each chunk
+     * is consistent; builds written while the export runs may be left out, but none is exported twice.
+     * @param consumer called once per build, on the calling thread
+     * @throws RuntimeException if a chunk can't be read, is rejected as overloaded or times out
+     */
+    @Override
+    public void exportBuilds(Consumer<BuildRecord> consumer) {
+        for (String partition : awaitResult(query(this::partitionList))) {
+            List<BuildRecord> chunk;
+            long afterId = 0;
+            do {
+                long after = afterId;
+                chunk = awaitResult(query(() -> exportChunk(partition, after)));
+                for (BuildRecord record : chunk) {
+                    consumer.accept(record);
+                    afterId = record.build().id;
+                }
+            } while (chunk.size() == EXPORT_CHUNK);
+        }
+    }
+
+    private List<String> partitionList() {
+        try (PooledConnection connection = read()) {
+            return partitions.list(connection.connection);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to export builds from database: " + dbUrl, e);
+        }
+    }
+
+    /**
+     * Reads the builds of a partition after an id, with their timelines, in one read transaction.
+     * @return at most {@value #EXPORT_CHUNK} builds, none if the partition has been dropped in the meantime
+     */
+    private List<BuildRecord> exportChunk(String partition, long afterId) {
+        try (PooledConnection connection = read()) {
+            connection.setAutoCommit(false);
+            if (!partitions.list(connection.connection).contains(partition)) {
+                return List.of();
+            }
+            PreparedStatement builds = connection.prepare("SELECT * FROM " + BuildPartitions.builds(partition) +
+                " WHERE id > ? ORDER BY id LIMIT ?");
+            builds.setLong(1, afterId);
+            builds.setInt(2, EXPORT_CHUNK);
+            List<BuildEntry> entries = new ArrayList<>();
+            readEntries(builds, entries);
+            Map<Integer, BuildRecord> chunk = new LinkedHashMap<>();
+            for (BuildEntry build : entries) {
+                chunk.put(build.id, new BuildRecord(build, new ArrayList<>()));
+            }
+            if (!entries.isEmpty()) {
+                PreparedStatement events = connection.prepare("SELECT build_id, state, recorded_at, attempt FROM " +
+                    BuildPartitions.events(partition) + " WHERE build_id > ? AND build_id <= ? ORDER BY build_id, id");
+                events.setLong(1, afterId);
+                events.setLong(2, entries.get(entries.size() - 1).id);
+                try (ResultSet rs = events.executeQuery()) {
+                    while (rs.next()) {
+                        BuildRecord record = chunk.get(rs.getInt(1));
+                        if (record != null) {
+                            record.events().add(new BuildEvent(record.build().sha, rs.getInt(4), rs.getString(2), rs.getString(3)));
+                        }
+                    }
+                }
+            }
+            connection.commit();
+            return new ArrayList<>(chunk.values());
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("Failed to export builds from database: " + dbUrl, e);
+        }
+    }
+
+    /**
+     * Imports builds in batches of up to {@value #IMPORT_BUILDS} builds or 16 MiB of build output, each inserted by
+     * the writer thread in one transaction with batched prepared statements: rows, events and the rollup counts
+     * of a batch are sent to SQLite together, and the log lines of each build in one batch. The next batch is parsed
+     * while the previous one is written. Each batch is committed on its own, so a failed import keeps the batches
+     * before the failure.
+     * @param records the builds
+     * @return the number of builds imported
+     * @throws RuntimeException if a batch can't be written
+     */
+    @Override
+    public int importBuilds(Iterator<BuildRecord> records) {
+        int imported = 0;
+        CompletableFuture<Integer> writing = null;
+        try {
+            for (List<BuildRecord> batch = BuildRecord.nextBatch(records, IMPORT_BUILDS, IMPORT_CHARS); !batch.isEmpty();
+                    batch = BuildRecord.nextBatch(records, IMPORT_BUILDS, IMPORT_CHARS)) {
+                if (writing != null) {
+                    imported += awaitResult(writing);
+                }
+                List<BuildRecord> written = batch;
+                int[] count = new int[1];
+                writing = submit("Failed to import builds into database: " + dbUrl, null,
+                    connection -> count[0] = insertBuilds(connection, written)).thenApply(ignored -> count[0]);
+            }
+        } finally {
+            // a failed read of the records still lets the batch being written finish
+            if (writing != null) {
+                imported += awaitResult(writing);
+            }
+        }
+        return imported;
+    }
+
+    private static <T> T awaitResult(CompletableFuture<T> done) {
+        try {
+            return done.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Inserts the builds of an import batch whose SHAs aren't stored yet, with ids taken from the build id sequence.
+     * @return the number of builds inserted
+     */
+    private int insertBuilds(PooledConnection connection, List<BuildRecord> batch) throws SQLException {
+        // the SHAs of the batch already stored, looked up with one IN query per partition and chunk
+        Set<String> skipped = new HashSet<>();
+        List<String> shas = batch.stream().map(record -> record.build().sha).toList();
+        for (String partition : partitions.list(connection.connection)) {
+            for (int from = 0; from < shas.size(); from += 500) {
+                List<String> chunk = shas.subList(from, Math.min(shas.size(), from + 500));
+                PreparedStatement stm = connection.prepare("SELECT sha FROM " + BuildPartitions.builds(partition) +
+                    " WHERE sha IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")");
+                for (int i = 0; i < chunk.size(); i++) {
+                    stm.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = stm.executeQuery()) {
+                    while (rs.next()) {
+                        skipped.add(rs.getString(1));
+                    }
+                }
+            }
+        }
+        List<BuildRecord> added = new ArrayList<>();
+        for (BuildRecord record : batch) {
+            if (skipped.add(record.build().sha)) {
+                added.add(record);
+            }
+        }
+        if (added.isEmpty()) {
+            return 0;
+        }
+        long id = takeIds(connection, added.size());
+        Map<String, List<BuildRecord>> byPartition = new TreeMap<>();
+        for (BuildRecord record : added) {
+            BuildEntry build = InMemoryBuildStore.toImport(record, (int) id++);
+            byPartition.computeIfAbsent(BuildPartitions.partitionOf(build.buildDate), partition -> new ArrayList<>())
+                .add(new BuildRecord(build, record.events()));
+        }
+        StatsRollup rollup = new StatsRollup();
+        int inserted = 0;
+        for (Map.Entry<String, List<BuildRecord>> entry : byPartition.entrySet()) {
+            String partition = entry.getKey();
+            if (!partitions.list(connection.connection).contains(partition)) {
+                BuildPartitions.create(connection.connection, partition);
+            }
+            PreparedStatement rows = connection.prepare("INSERT INTO " + BuildPartitions.builds(partition) +
+                " (id, sha, branch, build_result, build_description, build_date, tree_hash, attempt, queued_at, started_at, finished_at)" +
+                " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            PreparedStatement events = connection.prepare(
+                "INSERT INTO " + BuildPartitions.events(partition) + " (build_id, state, recorded_at, attempt) VALUES (?, ?, ?, ?)");
+            rows.clearBatch();
+            events.clearBatch();
+            for (BuildRecord record : entry.getValue()) {
+                BuildEntry build = record.build();
+                rows.setLong(1, build.id);
+                rows.setString(2, build.sha);
+                rows.setString(3, build.branch);
+                rows.setString(4, build.buildResult);
+                rows.setString(5, build.buildDescription);
+                rows.setString(6, build.buildDate);
+                rows.setString(7, build.treeHash);
+                rows.setInt(8, build.attempt);
+                BuildPartitions.setTime(rows, 9, build.queuedAt);
+                BuildPartitions.setTime(rows, 10, build.startedAt);
+                BuildPartitions.setTime(rows, 11, build.finishedAt);
+                rows.addBatch();
+                for (BuildEvent event : record.events()) {
+                    events.setLong(1, build.id);
+                    events.setString(2, event.state());
+                    events.setString(3, event.recordedAt());
+                    events.setInt(4, event.attempt());
+                    events.addBatch();
+                }
+                InMemoryBuildStore.count(rollup, record);
+            }
+            rows.executeBatch();
+            events.executeBatch();
+            for (BuildRecord record : entry.getValue()) {
+                indexLogs(connection, partition, record.build().id, record.build().buildDescription);
+            }
+            inserted += entry.getValue().size();
+        }
+        PreparedStatement stats = connection.prepare(StatsRollup.UPSERT);
+        stats.clearBatch();
+        for (BuildStats row : rollup.select(null, null)) {
+            stats.setString(1, row.day());
+            stats.setString(2, row.branch());
+            stats.setString(3, row.result());
+            stats.setLong(4, row.builds());
+            stats.setLong(5, row.timedBuilds());
+            stats.setLong(6, row.totalDurationMillis());
+            stats.addBatch();
+        }
+        stats.executeBatch();
+        return inserted;
+    }
+
+    /**
+     * Summarizes the recorded checkouts of a repository per clone strategy, to pick the best strategy for it.
+     * @param repoUrl repository URL
+     * @return one summary per strategy that has been used for the repository
+     */
+    @Override
+    public List<CheckoutSummary> summarizeCheckoutStats(String repoUrl) {
+        String sqlSelect = "SELECT strategy, COUNT(*) AS checkouts, AVG(duration_ms) AS avg_ms, AVG(bytes) AS avg_bytes " +
+            "FROM checkout_stats WHERE repo_url = ? GROUP BY strategy ORDER BY strategy";
+        List<CheckoutSummary> summaries = new ArrayList<>();
+        try (PooledConnection connection = read()) {
+            PreparedStatement stm = connection.prepare(sqlSelect);
+            stm.setString(1, repoUrl);
+            try (ResultSet rs = stm.executeQuery()) {
+                while (rs.next()) {
+                    summaries.add(new CheckoutSummary(
+                        rs.getString("strategy"),
+                        rs.getInt("checkouts"),
+                        Math.round(rs.getDouble("avg_ms")),
+                        Math.round(rs.getDouble("avg_bytes"))
+                    ));
+                }
+            }
         }
         catch (SQLException e) {
-            throw new RuntimeException("Failed to update entry with sha: " + sha, e);
+            throw new RuntimeException("Failed to summarize checkout stats for: " + repoUrl, e);
         }
+        return summaries;
     }
 }
@@ -0,0 +1,161 @@
+package com.ci;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A mergeable sketch of a distribution of durations, answering quantiles like p50, p95 and p99 without keeping
+ * the samples. Like an HDR histogram, durations are counted in buckets of logarithmic width: a duration of d
+ * milliseconds falls into bucket ceil(log(d) / log(GAMMA)), and a quantile is answered with the middle of its bucket,
+ * which is within {@value #RELATIVE_ACCURACY} (1%) of the exact sample. Durations of 0 ms have their own bucket.
+ * <p>
+ * Two sketches merge by adding their bucket counts, with no loss of accuracy, so the sketches of short time windows
+ * merge into the sketch of a longer range. Durations from 1 ms to an hour fall into at most 756 buckets.
+ * Not thread-safe.
+ */
+public final class DurationSketch {
+    /** Maximum relative error of a quantile. */
+    public static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    /** Version of the format of {@link #toBytes()}. */
+    private static final byte FORMAT = 1;
+
+    // bucket index -> count
+    private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+    private long zeros;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Counts a duration.
+     * @param millis the duration in milliseconds, a negative duration is counted as 0
+     */
+    public void add(long millis) {
+        long value = Math.max(millis, 0);
+        if (value == 0) {
+            zeros++;
+        } else {
+            buckets.merge((int) Math.ceil(Math.log(value) / LOG_GAMMA), 1L, Long::sum);
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the counts of another sketch to this one.
+     * @param other the sketch to merge, left unchanged
+     */
+    public void merge(DurationSketch other) {
+        other.buckets.forEach((index, n) -> buckets.merge(index, n, Long::sum));
+        zeros += other.zeros;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of durations counted.
+     * @return the count
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the shortest duration counted.
+     * @return the exact minimum in milliseconds, 0 if the sketch is empty
+     */
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Returns the longest duration counted.
+     * @return the exact maximum in milliseconds, 0 if the sketch is empty
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns a quantile of the durations.
+     * @param q the quantile, from 0 to 1, e.g. 0.95 for p95
+     * @return the duration in milliseconds, within {@value #RELATIVE_ACCURACY} of the exact quantile and exact for the
+     * minimum and maximum, 0 if the sketch is empty
+     */
+    public long quantile(double q) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.floor(Math.min(Math.max(q, 0), 1) * (count - 1));
+        // the extremes are known exactly
+        if (rank == 0) {
+            return min;
+        }
+        if (rank == count - 1) {
+            return max;
+        }
+        long seen = zeros;
+        if (rank < seen) {
+            return 0;
+        }
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            seen += bucket.getValue();
+            if (rank < seen) {
+                long estimate = Math.round(2 * Math.pow(GAMMA, bucket.getKey()) / (GAMMA + 1));
+                return Math.min(Math.max(estimate, min), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns a copy of this sketch.
+     * @return a sketch with the same counts
+     */
+    public DurationSketch copy() {
+        DurationSketch copy = new DurationSketch();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Serializes the sketch, e.g. to be stored by a {@link BuildStore}.
+     * @return the format version, the count of 0 ms durations, minimum, maximum and the non-empty buckets
+     */
+    public byte[] toBytes() {
+        ByteBuffer out = ByteBuffer.allocate(1 + 8 * 3 + 4 + buckets.size() * 12);
+        out.put(FORMAT).putLong(zeros).putLong(min).putLong(max).putInt(buckets.size());
+        buckets.forEach((index, n) -> out.putInt(index).putLong(n));
+        return out.array();
+    }
+
+    /**
+     * Reads a sketch serialized with {@link #toBytes()}.
+     * @param bytes the serialized sketch
+     * @return the sketch
+     * @throws IllegalArgumentException if the bytes are not a serialized sketch
+     */
+    public static DurationSketch fromBytes(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length < 1 || in.get() != FORMAT) {
+            throw new IllegalArgumentException("Not a duration sketch, or of an unknown format version");
+        }
+        DurationSketch sketch = new DurationSketch();
+        sketch.zeros = in.getLong();
+        sketch.min = in.getLong();
+        sketch.max = in.getLong();
+        sketch.count = sketch.zeros;
+        for (int buckets = in.getInt(); buckets > 0; buckets--) {
+            int index = in.getInt();
+            long n = in.getLong();
+            sketch.buckets.put(index, n);
+            sketch.count += n;
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,387 @@
+package com.ci;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * A build store that keeps everything in memory and persists nothing, for tests and ephemeral deployments.
+ * All operations hold the lock of the store, and entries are copied in and out, so callers can't change stored builds.
+ */
+public class InMemoryBuildStore implements BuildStore {
+
+    /**
+     * One recorded checkout.
+     * @param sha commit SHA of the build
+     * @param repoUrl repository URL
+     * @param strategy name of the clone strategy used
+     * @param durationMillis checkout time in milliseconds
+     * @param bytes approximate number of bytes received
+     */
+    record CheckoutRecord(String sha, String repoUrl, String strategy, long durationMillis, long bytes) {}
+
+    private final Map<String, BuildEntry> builds = new HashMap<>();
+    private final Map<String, List<BuildEvent>> events = new HashMap<>();
+    private final List<CheckoutRecord> checkouts = new ArrayList<>();
+    private final StatsRollup stats = new StatsRollup();
+    private final Map<String, StageTiming> timings = new TreeMap<>();
+    private int lastId;
+    private boolean closed;
+
+    @Override
+    public synchronized void initialize() {
+        checkOpen();
+    }
+
+    @Override
+    public synchronized void addEntry(String sha, String branch, String result, String description, String date) {
+        checkOpen();
+        if (builds.containsKey(sha)) {
+            throw new RuntimeException("Failed to insert entry, a build with sha exists: " + sha);
+        }
+        builds.put(sha, new BuildEntry(++lastId, sha, branch, result, description, date));
+        addEvent(sha, result);
+    }
+
+    @Override
+    public synchronized void updateEntry(String sha, String branch, String result, String description, String date) {
+        checkOpen();
+        BuildEntry build = builds.get(sha);
+        if (build != null) {
+            replace(build, new BuildEntry(build.id, sha, branch, result, description, date, build.treeHash, build.attempt));
+            addEvent(sha, result);
+        }
+    }
+
+    @Override
+    public synchronized void updateEntry(String sha, String branch, String result, String description) {
+        checkOpen();
+        BuildEntry build = builds.get(sha);
+        if (build != null) {
+            replace(build, new BuildEntry(build.id, sha, branch, result, description, build.buildDate,
+                build.treeHash, build.attempt));
+            addEvent(sha, result);
+        }
+    }
+
+    @Override
+    public synchronized void startAttempt(String sha, String branch) {
+        checkOpen();
+        BuildEntry build = builds.get(sha);
+        if (build == null) {
+            addEntry(sha, branch, "pending", "");
+            return;
+        }
+        builds.put(sha, new BuildEntry(build.id, sha, branch, "pending", "", BuildStore.currentDate(), null, build.attempt + 1));
+        addEvent(sha, "pending");
+    }
+
+    @Override
+    public synchronized void setTreeHash(String sha, String treeHash) {
+        checkOpen();
+        BuildEntry build = builds.get(sha);
+        if (build != null) {
+            build.treeHash = treeHash;
+        }
+    }
+
+    @Override
+    public synchronized void deleteEntry(String sha) {
+        checkOpen();
+        builds.remove(sha);
+        events.remove(sha);
+    }
+
+    @Override
+    public synchronized void addEvent(String sha, String state) {
+        checkOpen();
+        if (!builds.containsKey(sha)) {
+            return;
+        }
+        int attempt = builds.get(sha).attempt;
+        List<BuildEvent> timeline = events.computeIfAbsent(sha, key -> new ArrayList<>());
+        if (!isLatest(timeline, attempt, state)) {
+            BuildEvent event = new BuildEvent(sha, attempt, state, BuildEvent.now());
+            count(stats, timeline, builds.get(sha).branch, event);
+            timeline.add(event);
+            BuildTimes.apply(builds.get(sha), state, BuildTimes.parse(event.recordedAt()));
+        }
+    }
+
+    @Override
+    public synchronized List<BuildEvent> selectEvents(String sha) {
+        checkOpen();
+        return List.copyOf(events.getOrDefault(sha, List.of()));
+    }
+
+    @Override
+    public synchronized List<BuildStats> selectStats(String branch, String fromDay) {
+        checkOpen();
+        return stats.select(branch, fromDay);
+    }
+
+    @Override
+    public synchronized List<BuildEntry> selectAllBuilds() {
+        checkOpen();
+        return inIdOrder(builds.values());
+    }
+
+    @Override
+    public synchronized BuildEntry selectBySha(String sha) {
+        checkOpen();
+        BuildEntry build = builds.get(sha);
+        return build == null ? null : build.copy();
+    }
+
+    @Override
+    public synchronized BuildEntry selectByTree(String treeHash, String excludedSha) {
+        checkOpen();
+        return builds.values().stream()
+            .filter(build -> treeHash.equals(build.treeHash) && isReusable(build.sha, build.buildResult, excludedSha))
+            .max(Comparator.comparingInt(build -> build.id))
+            .map(BuildEntry::copy)
+            .orElse(null);
+    }
+
+    @Override
+    public synchronized List<BuildEntry> selectByBranch(String branch) {
+        checkOpen();
+        return inIdOrder(builds.values().stream().filter(build -> branch.equals(build.branch)).toList());
+    }
+
+    @Override
+    public synchronized BuildPage selectBuildsPage(String cursor, int limit) {
+        checkOpen();
+        return copy(BuildCursor.page(builds.values(), cursor, limit));
+    }
+
+    @Override
+    public synchronized BuildPage selectByBranchPage(String branch, String cursor, int limit) {
+        checkOpen();
+        return copy(BuildCursor.page(builds.values().stream().filter(build -> branch.equals(build.branch)).toList(), cursor, limit));
+    }
+
+    @Override
+    public synchronized BuildPage selectByTimeRange(String branch, long from, long to, String cursor, int limit) {
+        checkOpen();
+        return copy(BuildCursor.rangePage(builds.values().stream()
+            .filter(build -> branch == null || branch.equals(build.branch)).toList(), from, to, cursor, limit));
+    }
+
+    @Override
+    public synchronized LogPage searchLogs(String query, String after, int limit) {
+        checkOpen();
+        return LogSearch.search(builds.values(), query, after, limit);
+    }
+
+    @Override
+    public synchronized void addCheckoutStats(String sha, String repoUrl, String strategy, long durationMillis, long bytes) {
+        checkOpen();
+        checkouts.add(new CheckoutRecord(sha, repoUrl, strategy, durationMillis, bytes));
+    }
+
+    @Override
+    public synchronized List<CheckoutSummary> summarizeCheckoutStats(String repoUrl) {
+        checkOpen();
+        return summarize(checkouts, repoUrl);
+    }
+
+    @Override
+    public synchronized void mergeTimings(List<StageTiming> merged) {
+        checkOpen();
+        for (StageTiming timing : merged) {
+            merge(timings, timing);
+        }
+    }
+
+    @Override
+    public synchronized List<StageTiming> selectTimings(String branch, String fromWindow, String toWindow) {
+        checkOpen();
+        return select(timings.values(), branch, fromWindow, toWindow);
+    }
+
+    @Override
+    public synchronized void exportBuilds(Consumer<BuildRecord> consumer) {
+        checkOpen();
+        for (BuildEntry build : inIdOrder(builds.values())) {
+            consumer.accept(new BuildRecord(build, List.copyOf(events.getOrDefault(build.sha, List.of()))));
+        }
+    }
+
+    @Override
+    public synchronized int importBuilds(Iterator<BuildRecord> records) {
+        checkOpen();
+        int imported = 0;
+        while (records.hasNext()) {
+            BuildRecord record = records.next();
+            if (builds.containsKey(record.build().sha)) {
+                continue;
+            }
+            BuildEntry build = toImport(record, ++lastId);
+            builds.put(build.sha, build);
+            events.put(build.sha, new ArrayList<>(record.events()));
+            count(stats, record);
+            imported++;
+        }
+        return imported;
+    }
+
+    @Override
+    public synchronized void dropBuildsBefore(YearMonth month) {
+        checkOpen();
+        builds.values().removeIf(build -> isBefore(build, month));
+        events.keySet().retainAll(builds.keySet());
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        builds.clear();
+        events.clear();
+        checkouts.clear();
+        stats.clear();
+        timings.clear();
+    }
+
+    /** Replaces the state of a build by its update, keeping the times of the attempt. */
+    private void replace(BuildEntry build, BuildEntry updated) {
+        updated.startedAt = build.startedAt;
+        updated.finishedAt = build.finishedAt;
+        builds.put(updated.sha, updated);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new RuntimeException("Build store is closed");
+        }
+    }
+
+    /**
+     * Tells whether a state is the latest state of the same attempt of a timeline, which then doesn't change.
+     */
+    static boolean isLatest(List<BuildEvent> timeline, int attempt, String state) {
+        if (timeline == null || timeline.isEmpty()) {
+            return false;
+        }
+        BuildEvent latest = timeline.get(timeline.size() - 1);
+        return latest.attempt() == attempt && latest.state().equals(state);
+    }
+
+    /**
+     * Counts an event about to be appended to a timeline in a rollup if it is a final result, with the first event
+     * of its attempt as start.
+     */
+    static void count(StatsRollup stats, List<BuildEvent> timeline, String branch, BuildEvent event) {
+        if (!BuildStats.isFinal(event.state())) {
+            return;
+        }
+        String startedAt = timeline.stream()
+            .filter(earlier -> earlier.attempt() == event.attempt())
+            .findFirst()
+            .map(BuildEvent::recordedAt)
+            .orElse(null);
+        stats.add(branch, event.state(), startedAt, event.recordedAt());
+    }
+
+    /**
+     * Tells whether the result of a build can be reused for another commit of its tree, see {@link BuildStore#selectByTree}.
+     */
+    static boolean isReusable(String sha, String result, String excludedSha) {
+        return !sha.equals(excludedSha) && ("success".equals(result) || "failure".equals(result));
+    }
+
+    /**
+     * Returns the build of an imported record with the given id, its times taken from its timeline.
+     */
+    static BuildEntry toImport(BuildRecord record, int id) {
+        BuildEntry source = record.build();
+        BuildEntry build = new BuildEntry(id, source.sha, source.branch, source.buildResult, source.buildDescription,
+            source.buildDate, source.treeHash, source.attempt);
+        BuildTimes.fill(build, record.events());
+        return build;
+    }
+
+    /**
+     * Counts the final results of the timeline of an imported record in a rollup, as if its events were appended.
+     */
+    static void count(StatsRollup stats, BuildRecord record) {
+        List<BuildEvent> timeline = new ArrayList<>(record.events().size());
+        for (BuildEvent event : record.events()) {
+            count(stats, timeline, record.build().branch, event);
+            timeline.add(event);
+        }
+    }
+
+    /**
+     * Tells whether a build is dated before a month, as decided by the partition of {@link DbHandler} it would be in.
+     */
+    static boolean isBefore(BuildEntry build, YearMonth month) {
+        String partition = BuildPartitions.partitionOf(build.buildDate);
+        return !partition.equals(BuildPartitions.UNDATED) && partition.compareTo(BuildPartitions.partitionOf(month.toString())) < 0;
+    }
+
+    /**
+     * Merges a sketch into the sketch of the same window, branch and stage of a map ordered by window, branch and stage.
+     * @return the merged sketch
+     */
+    static StageTiming merge(Map<String, StageTiming> timings, StageTiming timing) {
+        StageTiming merged = timings.computeIfAbsent(timing.window() + '\0' + timing.branch() + '\0' + timing.stage(),
+            key -> new StageTiming(timing.window(), timing.branch(), timing.stage(), new DurationSketch()));
+        merged.sketch().merge(timing.sketch());
+        return merged;
+    }
+
+    /**
+     * Selects copies of sketches like the SQL query of {@link DbHandler#selectTimings}.
+     */
+    static List<StageTiming> select(Collection<StageTiming> timings, String branch, String fromWindow, String toWindow) {
+        List<StageTiming> selected = new ArrayList<>();
+        for (StageTiming timing : timings) {
+            if ((branch == null || branch.equals(timing.branch()))
+                && (fromWindow == null || timing.window().compareTo(fromWindow) >= 0)
+                && (toWindow == null || timing.window().compareTo(toWindow) < 0)) {
+                selected.add(new StageTiming(timing.window(), timing.branch(), timing.stage(), timing.sketch().copy()));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Summarizes checkouts per strategy like the SQL aggregate of {@link DbHandler#summarizeCheckoutStats}.
+     */
+    static List<CheckoutSummary> summarize(Collection<CheckoutRecord> checkouts, String repoUrl) {
+        // strategy -> {checkouts, total duration, total bytes}
+        Map<String, long[]> totals = new TreeMap<>();
+        for (CheckoutRecord checkout : checkouts) {
+            if (!checkout.repoUrl().equals(repoUrl)) continue;
+            long[] total = totals.computeIfAbsent(checkout.strategy(), strategy -> new long[3]);
+            total[0]++;
+            total[1] += checkout.durationMillis();
+            total[2] += checkout.bytes();
+        }
+        List<CheckoutSummary> summaries = new ArrayList<>();
+        totals.forEach((strategy, total) -> summaries.add(new CheckoutSummary(strategy, (int) total[0],
+            Math.round((double) total[1] / total[0]), Math.round((double) total[2] / total[0]))));
+        return summaries;
+    }
+
+    static List<BuildEntry> inIdOrder(Collection<BuildEntry> builds) {
+        List<BuildEntry> sorted = new ArrayList<>(builds.size());
+        for (BuildEntry build : builds) {
+            sorted.add(build.copy());
+        }
+        sorted.sort(Comparator.comparingInt(build -> build.id));
+        return sorted;
+    }
+
+    private static BuildPage copy(BuildPage page) {
+        return new BuildPage(page.builds().stream().map(BuildEntry::copy).toList(), page.nextCursor());
+    }
+}
@@ -0,0 +1,877 @@
+package com.ci;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.ci.InMemoryBuildStore.CheckoutRecord;
+
+/**
+ * A build store backed by a single append-only file. Every write appends records: the new state of a build,
+ * followed by an event if its result changed, a pipeline step of a build, the tree hash of a build, the deletion
+ * of a build, a checkout measurement or a sketch of stage durations to merge into the sketch of its window. Fields added to a record type later are appended to its end, and take their
+ * default when a record written before lacks them. An in-memory hash index maps each SHA to the offset of the
+ * latest record of its build, together with the fields listings sort and filter on, so a lookup is one read
+ * and a page only reads the records of its builds. The build output is never held in memory, the events are.
+ * The statistics rollup is counted from the events as they are applied; as compaction drops the events of deleted
+ * builds, it writes the rollup as a snapshot record after them, which replaces the counts of the replayed events.
+ * <p>
+ * Each record starts with its length and a CRC32 checksum. On {@link #initialize()} the file is replayed to rebuild
+ * the index, and a record cut short by a crash is truncated. Records superseded by later writes stay in the file
+ * until it is compacted, which rewrites the live records into a new file and atomically replaces the old one;
+ * this happens when the superseded records outweigh the live ones, and on {@link #dropBuildsBefore}.
+ * <p>
+ * Writes are forced to disk before they return, unless the system property ci.db.synchronous is set to something
+ * other than FULL, like the synchronous setting of {@link DbHandler}.
+ */
+public class LogBuildStore implements BuildStore {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte CHECKOUT = 3;
+    private static final byte EVENT = 4;
+    private static final byte TREE = 5;
+    private static final byte STATS = 6;
+    private static final byte TIMING = 7;
+    /** Length and checksum in front of each record. */
+    private static final int HEADER = 8;
+    /** Superseded bytes tolerated before a compaction, if they also outweigh the live bytes. */
+    private static final long COMPACT_THRESHOLD = 16L << 20;
+    /** Builds, and characters of build output, of the batches of an import, each written with one force. */
+    private static final int IMPORT_BUILDS = 10_000;
+    private static final long IMPORT_CHARS = 16L << 20;
+
+    /**
+     * Where the latest state of a build is stored, the fields listings need without reading it, and its tree hash,
+     * which is written separately from the state.
+     */
+    private record Slot(long offset, int length, int id, String branch, String date, int attempt, String treeHash) {}
+
+    private final Path file;
+    private final boolean sync;
+    private final Map<String, Slot> index = new HashMap<>();
+    private final Map<String, List<BuildEvent>> events = new HashMap<>();
+    private final List<CheckoutRecord> checkouts = new ArrayList<>();
+    private final StatsRollup stats = new StatsRollup();
+    private final Map<String, StageTiming> timings = new TreeMap<>();
+    // window, branch and stage -> length of the latest record merged into the sketch
+    private final Map<String, Integer> timingLengths = new HashMap<>();
+    private FileChannel channel;
+    private long end;
+    private long garbage;
+    private int lastId;
+    private boolean closed;
+
+    /**
+     * Creates a store on the given file, created on {@link #initialize()} if it does not exist.
+     * @param file the log file
+     */
+    public LogBuildStore(Path file) {
+        this(file, "FULL".equalsIgnoreCase(System.getProperty("ci.db.synchronous", "FULL")));
+    }
+
+    /**
+     * Creates a store on the given file, created on {@link #initialize()} if it does not exist.
+     * @param file the log file
+     * @param sync true to force every write to disk before it returns
+     */
+    public LogBuildStore(Path file, boolean sync) {
+        this.file = file;
+        this.sync = sync;
+    }
+
+    /**
+     * Opens the log and rebuilds the index from its records. Does nothing if it is already open.
+     * An incomplete last record, left by a crash during a write, is truncated.
+     * @throws RuntimeException if the log can't be read or a record before the last one is corrupt, in which case
+     * the file is left as it is
+     */
+    @Override
+    public synchronized void initialize() {
+        checkNotClosed();
+        if (channel != null) {
+            return;
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            replay();
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // the open failure is reported
+                }
+                channel = null;
+            }
+            throw new RuntimeException("Failed to open build log: " + file, e);
+        }
+    }
+
+    private void replay() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        while (offset < size) {
+            ByteBuffer payload = readRecord(offset, size);
+            if (payload == null) {
+                if (!isTornTail(offset, size)) {
+                    // records after it are intact, truncating would lose them
+                    throw new IOException("Corrupt record at offset " + offset + " of " + file + ", followed by "
+                        + (size - offset) + " bytes");
+                }
+                // the tail of a write interrupted by a crash, the write never returned
+                System.out.println("[CI] Truncating " + (size - offset) + " bytes of an incomplete record from " + file);
+                channel.truncate(offset);
+                channel.force(true);
+                break;
+            }
+            int length = HEADER + payload.remaining();
+            apply(payload, offset, length);
+            offset += length;
+        }
+        end = offset;
+    }
+
+    /**
+     * Reads the payload of the record at an offset, or null if the record is incomplete or its checksum is wrong.
+     */
+    private ByteBuffer readRecord(long offset, long size) throws IOException {
+        if (size - offset < HEADER) {
+            return null;
+        }
+        ByteBuffer header = readFully(offset, HEADER);
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length < 1 || length > size - offset - HEADER) {
+            return null;
+        }
+        ByteBuffer payload = readFully(offset + HEADER, length);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    /**
+     * Tells whether an unreadable record is the tail of an interrupted write rather than corruption: it has no complete
+     * header, its declared length runs past the end of the file, it ends exactly at the end of the file, or it and
+     * everything after it are zeros, as left by a file extended before its data was written.
+     */
+    private boolean isTornTail(long offset, long size) throws IOException {
+        if (size - offset < HEADER) {
+            return true;
+        }
+        int length = readFully(offset, HEADER).getInt();
+        if (length > size - offset - HEADER || offset + HEADER + length == size) {
+            return true;
+        }
+        for (long at = offset; at < size; at += 1 << 16) {
+            ByteBuffer rest = readFully(at, (int) Math.min(size - at, 1 << 16));
+            while (rest.hasRemaining()) {
+                if (rest.get() != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Updates the index with a record read from, or appended to, the log. */
+    private void apply(ByteBuffer payload, long offset, int length) {
+        byte type = payload.get(payload.position());
+        ByteBuffer fields = payload.duplicate();
+        fields.get();
+        switch (type) {
+            case PUT -> {
+                int id = fields.getInt();
+                String sha = readString(fields);
+                String branch = readString(fields);
+                readString(fields); // result
+                readString(fields); // description
+                String date = readString(fields);
+                int attempt = fields.hasRemaining() ? fields.getInt() : 1;
+                Slot previous = index.get(sha);
+                // a new attempt starts without a tree hash
+                String treeHash = previous != null && previous.attempt() == attempt ? previous.treeHash() : null;
+                index.put(sha, new Slot(offset, length, id, branch, date, attempt, treeHash));
+                if (previous != null) {
+                    garbage += previous.length();
+                }
+                lastId = Math.max(lastId, id);
+            }
+            case DELETE -> {
+                String sha = readString(fields);
+                Slot previous = index.remove(sha);
+                if (previous != null) {
+                    garbage += previous.length();
+                }
+                for (BuildEvent event : events.getOrDefault(sha, List.of())) {
+                    garbage += eventRecord(event).remaining();
+                }
+                events.remove(sha);
+                garbage += length;
+            }
+            case CHECKOUT -> checkouts.add(new CheckoutRecord(readString(fields), readString(fields),
+                readString(fields), fields.getLong(), fields.getLong()));
+            case EVENT -> {
+                String sha = readString(fields);
+                String state = readString(fields);
+                String recordedAt = readString(fields);
+                BuildEvent event = new BuildEvent(sha, fields.hasRemaining() ? fields.getInt() : 1, state, recordedAt);
+                List<BuildEvent> timeline = events.computeIfAbsent(sha, key -> new ArrayList<>());
+                Slot slot = index.get(sha);
+                if (slot != null) {
+                    InMemoryBuildStore.count(stats, timeline, slot.branch(), event);
+                }
+                timeline.add(event);
+            }
+            case TREE -> {
+                String sha = readString(fields);
+                String treeHash = readString(fields);
+                index.computeIfPresent(sha, (key, slot) -> new Slot(slot.offset(), slot.length(), slot.id(), slot.branch(),
+                    slot.date(), slot.attempt(), treeHash));
+            }
+            case STATS -> {
+                stats.clear();
+                for (int rows = fields.getInt(); rows > 0; rows--) {
+                    stats.add(new BuildStats(readString(fields), readString(fields), readString(fields),
+                        fields.getLong(), fields.getLong(), fields.getLong()));
+                }
+            }
+            case TIMING -> {
+                String window = readString(fields);
+                String branch = readString(fields);
+                String stage = readString(fields);
+                byte[] sketch = new byte[fields.getInt()];
+                fields.get(sketch);
+                InMemoryBuildStore.merge(timings, new StageTiming(window, branch, stage, DurationSketch.fromBytes(sketch)));
+                // a merged sketch is about as large as the latest record merged into it
+                Integer previous = timingLengths.put(window + '\0' + branch + '\0' + stage, length);
+                if (previous != null) {
+                    garbage += previous;
+                }
+            }
+            default -> throw new IllegalStateException("Unknown record type " + type + " at offset " + offset + " of " + file);
+        }
+    }
+
+    @Override
+    public synchronized void addEntry(String sha, String branch, String result, String description, String date) {
+        checkOpen();
+        if (index.containsKey(sha)) {
+            throw new RuntimeException("Failed to insert entry, a build with sha exists: " + sha);
+        }
+        append("Failed to insert entry into build log: " + file,
+            put(new BuildEntry(lastId + 1, sha, branch, result, description, date)), eventRecord(new BuildEvent(sha, 1, result, BuildEvent.now())));
+    }
+
+    @Override
+    public synchronized void updateEntry(String sha, String branch, String result, String description, String date) {
+        checkOpen();
+        Slot slot = index.get(sha);
+        if (slot != null) {
+            update(new BuildEntry(slot.id(), sha, branch, result, description, date, slot.treeHash(), slot.attempt()));
+        }
+    }
+
+    @Override
+    public synchronized void updateEntry(String sha, String branch, String result, String description) {
+        checkOpen();
+        Slot slot = index.get(sha);
+        if (slot != null) {
+            update(new BuildEntry(slot.id(), sha, branch, result, description, slot.date(), slot.treeHash(), slot.attempt()));
+        }
+    }
+
+    @Override
+    public synchronized void startAttempt(String sha, String branch) {
+        checkOpen();
+        Slot slot = index.get(sha);
+        if (slot == null) {
+            addEntry(sha, branch, "pending", "");
+            return;
+        }
+        update(new BuildEntry(slot.id(), sha, branch, "pending", "", BuildStore.currentDate(), null, slot.attempt() + 1));
+    }
+
+    @Override
+    public synchronized void setTreeHash(String sha, String treeHash) {
+        checkOpen();
+        if (index.containsKey(sha)) {
+            append("Failed to set tree hash of sha: " + sha, treeRecord(sha, treeHash));
+        }
+    }
+
+    /** Appends the new state of a build, and an event in the same write if its result changed. */
+    private void update(BuildEntry build) {
+        String error = "Failed to update entry with sha: " + build.sha;
+        if (InMemoryBuildStore.isLatest(events.get(build.sha), build.attempt, build.buildResult)) {
+            append(error, put(build));
+        } else {
+            append(error, put(build), eventRecord(new BuildEvent(build.sha, build.attempt, build.buildResult, BuildEvent.now())));
+        }
+    }
+
+    @Override
+    public synchronized void deleteEntry(String sha) {
+        checkOpen();
+        if (index.containsKey(sha)) {
+            append("Failed to delete entry with sha: " + sha, record(DELETE, out -> writeString(out, sha)));
+        }
+    }
+
+    @Override
+    public synchronized void addEvent(String sha, String state) {
+        checkOpen();
+        Slot slot = index.get(sha);
+        if (slot != null && !InMemoryBuildStore.isLatest(events.get(sha), slot.attempt(), state)) {
+            append("Failed to insert event for sha: " + sha, eventRecord(new BuildEvent(sha, slot.attempt(), state, BuildEvent.now())));
+        }
+    }
+
+    @Override
+    public synchronized List<BuildEvent> selectEvents(String sha) {
+        checkOpen();
+        return List.copyOf(events.getOrDefault(sha, List.of()));
+    }
+
+    @Override
+    public synchronized List<BuildStats> selectStats(String branch, String fromDay) {
+        checkOpen();
+        return stats.select(branch, fromDay);
+    }
+
+    @Override
+    public synchronized List<BuildEntry> selectAllBuilds() {
+        checkOpen();
+        return InMemoryBuildStore.inIdOrder(readAll(null, "Failed to select builds from build log: " + file));
+    }
+
+    @Override
+    public synchronized BuildEntry selectBySha(String sha) {
+        checkOpen();
+        Slot slot = index.get(sha);
+        try {
+            return slot == null ? null : read(slot);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to select build with sha: " + sha, e);
+        }
+    }
+
+    @Override
+    public synchronized BuildEntry selectByTree(String treeHash, String excludedSha) {
+        checkOpen();
+        // the index has no results, so the builds of the tree are read newest first until one is reusable
+        List<Map.Entry<String, Slot>> candidates = index.entrySet().stream()
+            .filter(entry -> treeHash.equals(entry.getValue().treeHash()) && !entry.getKey().equals(excludedSha))
+            .sorted(Comparator.comparingInt((Map.Entry<String, Slot> entry) -> entry.getValue().id()).reversed())
+            .toList();
+        try {
+            for (Map.Entry<String, Slot> candidate : candidates) {
+                BuildEntry build = read(candidate.getValue());
+                if (InMemoryBuildStore.isReusable(build.sha, build.buildResult, excludedSha)) {
+                    return build;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to select build with tree: " + treeHash, e);
+        }
+    }
+
+    @Override
+    public synchronized List<BuildEntry> selectByBranch(String branch) {
+        checkOpen();
+        return InMemoryBuildStore.inIdOrder(readAll(branch, "Failed to select builds with branch: " + branch));
+    }
+
+    @Override
+    public synchronized BuildPage selectBuildsPage(String cursor, int limit) {
+        return selectPage(null, cursor, limit);
+    }
+
+    @Override
+    public synchronized BuildPage selectByBranchPage(String branch, String cursor, int limit) {
+        return selectPage(branch, cursor, limit);
+    }
+
+    /**
+     * Pages over the index, then reads the records of the builds of the page only.
+     */
+    private BuildPage selectPage(String branch, String cursor, int limit) {
+        checkOpen();
+        List<BuildEntry> keys = new ArrayList<>();
+        index.forEach((sha, slot) -> {
+            if (branch == null || branch.equals(slot.branch())) {
+                keys.add(new BuildEntry(slot.id(), sha, slot.branch(), null, null, slot.date()));
+            }
+        });
+        return readPage(BuildCursor.page(keys, cursor, limit),
+            "Failed to select page of builds" + (branch == null ? "" : " with branch: " + branch));
+    }
+
+    /**
+     * Pages over the queued times of the index, parsed from the dates it holds, then reads the builds of the page only.
+     */
+    @Override
+    public synchronized BuildPage selectByTimeRange(String branch, long from, long to, String cursor, int limit) {
+        checkOpen();
+        List<BuildEntry> keys = new ArrayList<>();
+        index.forEach((sha, slot) -> {
+            if (branch == null || branch.equals(slot.branch())) {
+                keys.add(new BuildEntry(slot.id(), sha, slot.branch(), null, null, slot.date()));
+            }
+        });
+        return readPage(BuildCursor.rangePage(keys, from, to, cursor, limit), "Failed to select builds between " + from + " and " + to);
+    }
+
+    /** Reads the builds of a page of keys. */
+    private BuildPage readPage(BuildPage page, String error) {
+        List<BuildEntry> builds = new ArrayList<>(page.builds().size());
+        try {
+            for (BuildEntry key : page.builds()) {
+                builds.add(read(index.get(key.sha)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(error, e);
+        }
+        return new BuildPage(builds, page.nextCursor());
+    }
+
+    @Override
+    public synchronized LogPage searchLogs(String query, String after, int limit) {
+        checkOpen();
+        if (LogSearch.parse(query).isEmpty()) {
+            return LogSearch.search(List.of(), query, after, limit);
+        }
+        return LogSearch.search(readAll(null, "Failed to search build logs for: " + query), query, after, limit);
+    }
+
+    @Override
+    public synchronized void addCheckoutStats(String sha, String repoUrl, String strategy, long durationMillis, long bytes) {
+        checkOpen();
+        append("Failed to insert checkout stats for sha: " + sha,
+            checkoutRecord(new CheckoutRecord(sha, repoUrl, strategy, durationMillis, bytes)));
+    }
+
+    @Override
+    public synchronized void mergeTimings(List<StageTiming> merged) {
+        checkOpen();
+        append("Failed to merge stage timings", merged.stream().map(LogBuildStore::timingRecord).toArray(ByteBuffer[]::new));
+    }
+
+    @Override
+    public synchronized List<StageTiming> selectTimings(String branch, String fromWindow, String toWindow) {
+        checkOpen();
+        return InMemoryBuildStore.select(timings.values(), branch, fromWindow, toWindow);
+    }
+
+    @Override
+    public synchronized List<CheckoutSummary> summarizeCheckoutStats(String repoUrl) {
+        checkOpen();
+        return InMemoryBuildStore.summarize(checkouts, repoUrl);
+    }
+
+    /**
+     * Reads the builds in id order, one record at a time.
+     */
+    @Override
+    public synchronized void exportBuilds(Consumer<BuildRecord> consumer) {
+        checkOpen();
+        List<Slot> slots = new ArrayList<>(index.values());
+        slots.sort(Comparator.comparingInt(Slot::id));
+        for (Slot slot : slots) {
+            BuildEntry build;
+            try {
+                build = read(slot);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to export builds from build log: " + file, e);
+            }
+            consumer.accept(new BuildRecord(build, List.copyOf(events.getOrDefault(build.sha, List.of()))));
+        }
+    }
+
+    /**
+     * Appends the records of each batch of builds in one write, forced to disk once.
+     */
+    @Override
+    public synchronized int importBuilds(Iterator<BuildRecord> records) {
+        checkOpen();
+        int imported = 0;
+        for (List<BuildRecord> batch = BuildRecord.nextBatch(records, IMPORT_BUILDS, IMPORT_CHARS); !batch.isEmpty();
+                batch = BuildRecord.nextBatch(records, IMPORT_BUILDS, IMPORT_CHARS)) {
+            List<ByteBuffer> appended = new ArrayList<>();
+            Set<String> shas = new HashSet<>();
+            for (BuildRecord record : batch) {
+                if (index.containsKey(record.build().sha) || !shas.add(record.build().sha)) {
+                    continue;
+                }
+                // ids are assigned once the records are applied, after the write
+                BuildEntry build = InMemoryBuildStore.toImport(record, lastId + shas.size());
+                appended.add(put(build));
+                for (BuildEvent event : record.events()) {
+                    appended.add(eventRecord(event));
+                }
+                if (build.treeHash != null) {
+                    appended.add(treeRecord(build.sha, build.treeHash));
+                }
+            }
+            if (!appended.isEmpty()) {
+                append("Failed to import builds into build log: " + file, appended.toArray(ByteBuffer[]::new));
+            }
+            imported += shas.size();
+        }
+        return imported;
+    }
+
+    /**
+     * Removes the builds dated before the given month from the index, then compacts the log to free their space.
+     * @param month the oldest month to keep
+     */
+    @Override
+    public synchronized void dropBuildsBefore(YearMonth month) {
+        checkOpen();
+        List<String> dropped = new ArrayList<>();
+        index.forEach((sha, slot) -> {
+            if (InMemoryBuildStore.isBefore(new BuildEntry(slot.id(), sha, slot.branch(), null, null, slot.date()), month)) {
+                dropped.add(sha);
+            }
+        });
+        if (dropped.isEmpty()) {
+            return;
+        }
+        // the builds are only gone from the file once the log no longer contains them
+        Map<String, Slot> kept = new HashMap<>(index);
+        kept.keySet().removeAll(dropped);
+        compact(kept);
+        System.out.println("[CI] Dropped " + dropped.size() + " build(s) before " + month + " from " + file);
+    }
+
+    /**
+     * Rewrites the live records into a new log, which atomically replaces the current one.
+     */
+    public synchronized void compact() {
+        checkOpen();
+        compact(index);
+    }
+
+    private void compact(Map<String, Slot> live) {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Map<String, Slot> newIndex = new HashMap<>();
+        Map<String, Integer> newTimingLengths = new HashMap<>();
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = 0;
+            for (Map.Entry<String, Slot> entry : live.entrySet()) {
+                Slot slot = entry.getValue();
+                ByteBuffer record = readFully(slot.offset(), slot.length());
+                writeFully(out, record, offset);
+                newIndex.put(entry.getKey(), new Slot(offset, slot.length(), slot.id(), slot.branch(), slot.date(),
+                    slot.attempt(), slot.treeHash()));
+                offset += slot.length();
+            }
+            // after the builds, like the events below, so replaying the new log finds the build
+            for (Map.Entry<String, Slot> entry : live.entrySet()) {
+                if (entry.getValue().treeHash() != null) {
+                    ByteBuffer record = treeRecord(entry.getKey(), entry.getValue().treeHash());
+                    int length = record.remaining();
+                    writeFully(out, record, offset);
+                    offset += length;
+                }
+            }
+            for (String sha : live.keySet()) {
+                for (BuildEvent event : events.getOrDefault(sha, List.of())) {
+                    ByteBuffer record = eventRecord(event);
+                    int length = record.remaining();
+                    writeFully(out, record, offset);
+                    offset += length;
+                }
+            }
+            for (CheckoutRecord checkout : checkouts) {
+                ByteBuffer record = checkoutRecord(checkout);
+                int length = record.remaining();
+                writeFully(out, record, offset);
+                offset += length;
+            }
+            for (Map.Entry<String, StageTiming> entry : timings.entrySet()) {
+                ByteBuffer record = timingRecord(entry.getValue());
+                int length = record.remaining();
+                writeFully(out, record, offset);
+                offset += length;
+                newTimingLengths.put(entry.getKey(), length);
+            }
+            // last, so it replaces what the events above count when the new log is replayed
+            ByteBuffer snapshot = statsRecord(stats.select(null, null));
+            int length = snapshot.remaining();
+            writeFully(out, snapshot, offset);
+            offset += length;
+            out.force(true);
+            channel.close();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            end = offset;
+        } catch (IOException e) {
+            // the log is left as it was, only reopen it if the move closed it
+            try {
+                if (!channel.isOpen()) {
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+            } catch (IOException reopen) {
+                e.addSuppressed(reopen);
+            }
+            throw new RuntimeException("Failed to compact build log: " + file, e);
+        }
+        index.clear();
+        index.putAll(newIndex);
+        timingLengths.clear();
+        timingLengths.putAll(newTimingLengths);
+        events.keySet().retainAll(newIndex.keySet());
+        garbage = 0;
+    }
+
+    /**
+     * Returns the size of the log file, including records superseded by later writes.
+     * @return the size in bytes
+     */
+    public synchronized long size() {
+        return end;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing left to clean up
+            }
+            channel = null;
+        }
+        index.clear();
+        events.clear();
+        checkouts.clear();
+        stats.clear();
+        timings.clear();
+        timingLengths.clear();
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new RuntimeException("Build store is closed: " + file);
+        }
+    }
+
+    private void checkOpen() {
+        checkNotClosed();
+        if (channel == null) {
+            throw new RuntimeException("Build store is not initialized: " + file);
+        }
+    }
+
+    /**
+     * Appends records with one write to disk and applies them to the index, compacting the log if it has become
+     * mostly garbage.
+     */
+    private void append(String error, ByteBuffer... records) {
+        long start = end;
+        long offset = start;
+        try {
+            for (ByteBuffer record : records) {
+                writeFully(channel, record.duplicate(), offset);
+                offset += record.remaining();
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                // don't leave a partial record in front of the next write
+                channel.truncate(start);
+            } catch (IOException truncate) {
+                e.addSuppressed(truncate);
+            }
+            throw new RuntimeException(error, e);
+        }
+        end = offset;
+        offset = start;
+        for (ByteBuffer record : records) {
+            int length = record.remaining();
+            record.position(HEADER);
+            apply(record, offset, length);
+            offset += length;
+        }
+        if (garbage > COMPACT_THRESHOLD && garbage > end - garbage) {
+            compact(index);
+        }
+    }
+
+    private ByteBuffer put(BuildEntry build) {
+        return record(PUT, out -> {
+            out.writeInt(build.id);
+            writeString(out, build.sha);
+            writeString(out, build.branch);
+            writeString(out, build.buildResult);
+            writeString(out, build.buildDescription);
+            writeString(out, build.buildDate);
+            out.writeInt(build.attempt);
+        });
+    }
+
+    private ByteBuffer checkoutRecord(CheckoutRecord checkout) {
+        return record(CHECKOUT, out -> {
+            writeString(out, checkout.sha());
+            writeString(out, checkout.repoUrl());
+            writeString(out, checkout.strategy());
+            out.writeLong(checkout.durationMillis());
+            out.writeLong(checkout.bytes());
+        });
+    }
+
+    private static ByteBuffer eventRecord(BuildEvent event) {
+        return record(EVENT, out -> {
+            writeString(out, event.sha());
+            writeString(out, event.state());
+            writeString(out, event.recordedAt());
+            out.writeInt(event.attempt());
+        });
+    }
+
+    private static ByteBuffer statsRecord(List<BuildStats> rows) {
+        return record(STATS, out -> {
+            out.writeInt(rows.size());
+            for (BuildStats row : rows) {
+                writeString(out, row.day());
+                writeString(out, row.branch());
+                writeString(out, row.result());
+                out.writeLong(row.builds());
+                out.writeLong(row.timedBuilds());
+                out.writeLong(row.totalDurationMillis());
+            }
+        });
+    }
+
+    private static ByteBuffer timingRecord(StageTiming timing) {
+        return record(TIMING, out -> {
+            writeString(out, timing.window());
+            writeString(out, timing.branch());
+            writeString(out, timing.stage());
+            byte[] sketch = timing.sketch().toBytes();
+            out.writeInt(sketch.length);
+            out.write(sketch);
+        });
+    }
+
+    private static ByteBuffer treeRecord(String sha, String treeHash) {
+        return record(TREE, out -> {
+            writeString(out, sha);
+            writeString(out, treeHash);
+        });
+    }
+
+    @FunctionalInterface
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Serializes a record: length, checksum, then the type and the fields. */
+    private static ByteBuffer record(byte type, Fields fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(type);
+            fields.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory can't fail", e);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.capacity() - HEADER;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    /** Reads the builds of the index, optionally only those of a branch. */
+    private List<BuildEntry> readAll(String branch, String error) {
+        List<BuildEntry> builds = new ArrayList<>();
+        try {
+            for (Slot slot : index.values()) {
+                if (branch == null || branch.equals(slot.branch())) {
+                    builds.add(read(slot));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(error, e);
+        }
+        return builds;
+    }
+
+    private BuildEntry read(Slot slot) throws IOException {
+        ByteBuffer fields = readFully(slot.offset() + HEADER + 1, slot.length() - HEADER - 1);
+        BuildEntry build = new BuildEntry(fields.getInt(), readString(fields), readString(fields), readString(fields),
+            readString(fields), readString(fields), slot.treeHash(), slot.attempt());
+        BuildTimes.fill(build, events.get(build.sha));
+        return build;
+    }
+
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of build log at offset " + (offset + buffer.position()) + ": " + file);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ci;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position of the last line of a page of a log search, the opaque nextCursor of a {@link LogPage}. Matching lines
+ * are listed by descending build id, then descending line number, the order of the rowids of the log index
+ * (see DbHandler.logRowId), so the next page is a range of the index below the cursor instead of an offset.
+ */
+record LogCursor(long buildId, int lineNumber) {
+
+    String encode() {
+        String key = buildId + ":" + lineNumber;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor.
+     * @param token a nextCursor, null or empty for the first page
+     * @return the cursor, or null for the first page
+     * @throws IllegalArgumentException if the token is not a cursor
+     */
+    static LogCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int colon = key.indexOf(':');
+            LogCursor cursor = new LogCursor(Long.parseLong(key.substring(0, colon)), Integer.parseInt(key.substring(colon + 1)));
+            if (cursor.buildId < 0 || cursor.lineNumber < 1) {
+                throw new IllegalArgumentException("Cursor out of range");
+            }
+            return cursor;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+    }
+
+    /**
+     * Returns whether a line comes after the cursor, i.e. belongs to a later page.
+     * @param buildId id of the build of the line
+     * @param lineNumber line number within the build output, starting at 1
+     * @return true if the line is listed after the cursor
+     */
+    boolean isListedAfter(long buildId, int lineNumber) {
+        return buildId < this.buildId || (buildId == this.buildId && lineNumber < this.lineNumber);
+    }
+
+    /**
+     * Turns up to limit + 1 matching lines in listing order into a page, the extra line telling whether there is
+     * a next page.
+     */
+    static LogPage toPage(List<LogMatch> matches, int limit) {
+        if (matches.size() <= limit) {
+            return new LogPage(matches, null);
+        }
+        matches.remove(limit);
+        LogMatch last = matches.get(limit - 1);
+        return new LogPage(matches, new LogCursor(last.buildId(), last.lineNumber()).encode());
+    }
+}
@@ -0,0 +1,16 @@
+package com.ci;
+
+/**
+ * A single line of build output matching a log search, together with the build it belongs to.
+ *
+ * @param buildId id of the build
+ * @param sha commit SHA of the build
+ * @param branch branch of the build
+ * @param buildResult result of the build
+ * @param buildDate date of the build
+ * @param lineNumber line number within the build output, starting at 1
+ * @param snippet the matching line, with matched words in square brackets
+ */
+public record LogMatch(int buildId, String sha, String branch, String buildResult, String buildDate,
+        int lineNumber, String snippet) {
+}
@@ -0,0 +1,12 @@
+package com.ci;
+
+import java.util.List;
+
+/**
+ * One page of the log lines matching a search, lines of the most recent builds first.
+ *
+ * @param matches the matching lines of the page
+ * @param nextCursor opaque token to pass as the cursor of the next page, or null if this is the last page
+ */
+public record LogPage(List<LogMatch> matches, String nextCursor) {
+}
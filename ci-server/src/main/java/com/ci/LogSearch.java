@@ -0,0 +1,137 @@
+package com.ci;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Log search for the stores without a full-text index, matching like the FTS5 index of {@link DbHandler}:
+ * a line matches if it contains every word of the query, where words are runs of letters and digits compared
+ * case-insensitively, and a query word with punctuation inside (e.g. java.lang.NullPointerException) is a phrase
+ * of consecutive words. Unlike the FTS5 snippet, the whole line is returned, with the matched words in brackets.
+ */
+final class LogSearch {
+    private final List<List<String>> phrases;
+
+    private LogSearch(List<List<String>> phrases) {
+        this.phrases = phrases;
+    }
+
+    /**
+     * Splits a query into phrases, one per whitespace separated word.
+     * @param query the free text
+     * @return the search, empty if the text contains no words
+     */
+    static LogSearch parse(String query) {
+        List<List<String>> phrases = new ArrayList<>();
+        if (query != null) {
+            for (String word : query.trim().split("\\s+")) {
+                List<String> tokens = new ArrayList<>();
+                for (int[] span : tokenize(word)) {
+                    tokens.add(word.substring(span[0], span[1]).toLowerCase(Locale.ROOT));
+                }
+                if (!tokens.isEmpty()) {
+                    phrases.add(tokens);
+                }
+            }
+        }
+        return new LogSearch(phrases);
+    }
+
+    boolean isEmpty() {
+        return phrases.isEmpty();
+    }
+
+    /**
+     * Searches the output of builds, lines of the most recent builds first.
+     * @param builds the builds, in any order
+     * @param query the words to search for
+     * @param after the nextCursor of the previous page, or null for the first page
+     * @param limit maximum number of matching lines to return
+     * @return the page of matching lines
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is less than 1
+     */
+    static LogPage search(Collection<BuildEntry> builds, String query, String after, int limit) {
+        BuildCursor.checkLimit(limit);
+        LogCursor cursor = LogCursor.decode(after);
+        LogSearch search = parse(query);
+        List<LogMatch> matches = new ArrayList<>();
+        if (search.isEmpty()) {
+            return new LogPage(matches, null);
+        }
+        List<BuildEntry> newestFirst = new ArrayList<>(builds);
+        newestFirst.sort(Comparator.comparingInt((BuildEntry build) -> build.id).reversed());
+        for (BuildEntry build : newestFirst) {
+            if (build.buildDescription == null) continue;
+            if (cursor != null && build.id > cursor.buildId()) continue;
+            String[] lines = build.buildDescription.split("\n");
+            for (int i = lines.length - 1; i >= 0; i--) {
+                if (cursor != null && !cursor.isListedAfter(build.id, i + 1)) continue;
+                String snippet = search.highlight(lines[i]);
+                if (snippet == null) continue;
+                matches.add(new LogMatch(build.id, build.sha, build.branch, build.buildResult, build.buildDate, i + 1, snippet));
+                if (matches.size() > limit) {
+                    return LogCursor.toPage(matches, limit);
+                }
+            }
+        }
+        return LogCursor.toPage(matches, limit);
+    }
+
+    /**
+     * Matches a line.
+     * @param line one line of build output
+     * @return the line with the matched words in square brackets, or null if the line doesn't match
+     */
+    String highlight(String line) {
+        List<int[]> spans = tokenize(line);
+        List<String> tokens = new ArrayList<>(spans.size());
+        for (int[] span : spans) {
+            tokens.add(line.substring(span[0], span[1]).toLowerCase(Locale.ROOT));
+        }
+        boolean[] matched = new boolean[tokens.size()];
+        for (List<String> phrase : phrases) {
+            boolean found = false;
+            for (int start = 0; start + phrase.size() <= tokens.size(); start++) {
+                if (tokens.subList(start, start + phrase.size()).equals(phrase)) {
+                    found = true;
+                    for (int i = start; i < start + phrase.size(); i++) {
+                        matched[i] = true;
+                    }
+                }
+            }
+            if (!found) {
+                return null;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        int copied = 0;
+        for (int i = 0; i < spans.size(); i++) {
+            if (!matched[i]) continue;
+            int end = i;
+            while (end + 1 < spans.size() && matched[end + 1]) end++;
+            sb.append(line, copied, spans.get(i)[0]).append('[').append(line, spans.get(i)[0], spans.get(end)[1]).append(']');
+            copied = spans.get(end)[1];
+            i = end;
+        }
+        return sb.append(line, copied, line.length()).toString();
+    }
+
+    /** Returns the start and end of each run of letters and digits. */
+    private static List<int[]> tokenize(String text) {
+        List<int[]> spans = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                spans.add(new int[] {start, i});
+                start = -1;
+            }
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,174 @@
+package com.ci;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Versioned migrations of the build database schema, applied in order when the server starts.
+ * Every applied migration is recorded in the schema_version table, so each one runs once per database.
+ * <p>
+ * Migrations are only ever appended to {@link #MIGRATIONS}, an applied migration must not be changed.
+ * So a migration spells out the tables and columns it creates instead of calling code that creates the latest
+ * schema, such as BuildPartitions.create, which would change what an old migration does.
+ * They must be idempotent (IF NOT EXISTS), so a database created before versioning was introduced
+ * can be brought under it, and two servers starting on the same database can't fail on each other's migration.
+ */
+public final class SchemaMigrations {
+
+    /** Changes the schema, within the transaction of its migration. */
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * Applies the change.
+         * @param connection connection with an open transaction
+         * @throws SQLException if the change fails, the migration is rolled back
+         */
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * One step of the schema.
+     * @param version the version of the schema after the migration, starting at 1 without gaps
+     * @param description what the migration does
+     * @param step the idempotent change, run in one transaction
+     */
+    public record Migration(int version, String description, Step step) {}
+
+    /**
+     * Creates a migration that runs the given statements.
+     * @param version the version of the schema after the migration
+     * @param description what the migration does
+     * @param statements the idempotent statements of the migration
+     * @return the migration
+     */
+    static Migration sql(int version, String description, List<String> statements) {
+        return new Migration(version, description, connection -> {
+            try (Statement stm = connection.createStatement()) {
+                for (String sql : statements) {
+                    stm.execute(sql);
+                }
+            }
+        });
+    }
+
+    static final List<Migration> MIGRATIONS = List.of(
+        sql(1, "create builds, build_logs and checkout_stats tables", List.of(
+            "CREATE TABLE IF NOT EXISTS builds (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "sha TEXT UNIQUE NOT NULL," +
+                "branch TEXT NOT NULL," +
+                "build_result TEXT NOT NULL," +
+                "build_description TEXT," +
+                "build_date TEXT" +
+                ")",
+            // Full-text index over build output, one row per log line. The rowid encodes the build id and the
+            // line number (see DbHandler.logRowId), so the lines of one build can be replaced with a rowid range delete.
+            "CREATE VIRTUAL TABLE IF NOT EXISTS build_logs USING fts5(line)",
+            "CREATE TABLE IF NOT EXISTS checkout_stats (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "sha TEXT NOT NULL," +
+                "repo_url TEXT NOT NULL," +
+                "strategy TEXT NOT NULL," +
+                "duration_ms INTEGER NOT NULL," +
+                "bytes INTEGER NOT NULL," +
+                "recorded_at TEXT DEFAULT CURRENT_TIMESTAMP" +
+                ")"
+        )),
+        sql(2, "index builds by branch, result and date, and checkout stats by repository", List.of(
+            // builds of a branch, newest first
+            "CREATE INDEX IF NOT EXISTS idx_builds_branch_date ON builds (branch, build_date)",
+            // e.g. the latest failures
+            "CREATE INDEX IF NOT EXISTS idx_builds_result_date ON builds (build_result, build_date)",
+            // the latest builds
+            "CREATE INDEX IF NOT EXISTS idx_builds_date ON builds (build_date)",
+            "CREATE INDEX IF NOT EXISTS idx_checkout_stats_repo ON checkout_stats (repo_url, strategy)"
+        )),
+        // from here on builds live in one table per month of their build date, see BuildPartitions
+        new Migration(3, "move builds into monthly partitions", BuildPartitions::partitionLegacyBuilds),
+        new Migration(4, "add the build_events table of each partition", BuildPartitions::startTimelines),
+        new Migration(5, "add tree hashes and attempt numbers to builds and events", BuildPartitions::addAttempts),
+        new Migration(6, "add the build_stats rollup of final results per day and branch", StatsRollup::backfill),
+        sql(7, "create the stage_timings table of duration sketches per window, branch and stage", List.of(
+            // one serialized DurationSketch per hour, branch and pipeline stage, merged into by each flush
+            "CREATE TABLE IF NOT EXISTS stage_timings (" +
+                "window_start TEXT NOT NULL," +
+                "branch TEXT NOT NULL," +
+                "stage TEXT NOT NULL," +
+                "sketch BLOB NOT NULL," +
+                "PRIMARY KEY (window_start, branch, stage)" +
+                ") WITHOUT ROWID"
+        )),
+        new Migration(8, "add indexed epoch queued, started and finished times to builds", BuildPartitions::addTimes),
+        new Migration(9, "keep the last build id in the build_ids sequence", BuildPartitions::startIdSequence),
+        new Migration(10, "index the logs of builds stored before the full-text index", BuildPartitions::indexLegacyLogs)
+    );
+
+    private SchemaMigrations() {
+    }
+
+    /**
+     * Returns the version of the schema defined by the migrations.
+     * @return the version of the last migration
+     */
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    /**
+     * Returns the version of the schema of a database.
+     * @param connection connection to the database
+     * @return the version of the last applied migration, 0 if none has been applied
+     * @throws SQLException if the version can't be read
+     */
+    public static int currentVersion(Connection connection) throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            stm.execute(CREATE_VERSION_TABLE);
+            try (ResultSet rs = stm.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Applies the migrations the database is missing, each in its own transaction together with its version row.
+     * @param connection connection to the database, in auto-commit mode
+     * @return the number of migrations applied
+     * @throws SQLException if a migration fails, the migrations before it stay applied
+     */
+    public static int migrate(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        int applied = 0;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= current) {
+                continue;
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement record = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO schema_version (version, description) VALUES (?, ?)")) {
+                migration.step().apply(connection);
+                record.setInt(1, migration.version());
+                record.setString(2, migration.description());
+                record.executeUpdate();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            applied++;
+            System.out.println("[CI] DB migrated to version " + migration.version() + ": " + migration.description());
+        }
+        return applied;
+    }
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version (" +
+        "version INTEGER PRIMARY KEY," +
+        "description TEXT NOT NULL," +
+        "applied_at TEXT DEFAULT CURRENT_TIMESTAMP" +
+        ")";
+}
@@ -2,12 +2,25 @@ package com.ci;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ci.pipeline.CIPipeline;
+import com.ci.pipeline.StageTimings;
 import com.ci.rest.AllBuildsHandler;
 import com.ci.rest.BuildByShaHandler;
+import com.ci.rest.ExportHandler;
+import com.ci.rest.ImportHandler;
+import com.ci.rest.MetricsHandler;
+import com.ci.rest.QueryParams;
+import com.ci.rest.SearchHandler;
+import com.ci.rest.StatsHandler;
+import com.ci.rest.TimingsHandler;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.net.httpserver.HttpExchange;
@@ -20,30 +33,31 @@ import com.sun.net.httpserver.HttpServer;
  */
 public class Server {
     private HttpServer server;
-    private final DbHandler dbHandler;
+    private final BuildStore buildStore;
 
     private final ExecutorService exec;
     private final CIPipeline pipeline;
+    private ExecutorService httpExec;
 
     /**
      * Production constructor: uses real pipeline and executor.
      */
     public Server() {
         this(new CIPipeline(), Executors.newFixedThreadPool(2));
+        this.pipeline.sweepOrphanedWorkspaces();
+        this.pipeline.startIdlePrefetcher();
+        // sketches of the stage durations are stored every ci.timings.flush.interval seconds
+        this.pipeline.timings().start(Duration.ofSeconds(Integer.getInteger("ci.timings.flush.interval", 60)));
     }
 
     /**
      * Test constructor: allows injection of mock/fake pipeline and executor.
+     * The build store is selected by the system property ci.store, see {@link BuildStore#fromSystemProperties()}.
      * @param pipeline the CI pipeline to use for processing webhooks
      * @param exec the executor service for running pipeline tasks
      */
     public Server(CIPipeline pipeline, ExecutorService exec) {
-        this.server = null;
-        this.pipeline = pipeline;
-        this.exec = exec;
-        this.dbHandler = new DbHandler();
-        this.pipeline.setDbHandler(this.dbHandler);
-        dbHandler.createBuildTable();
+        this(pipeline, exec, BuildStore.fromSystemProperties());
     }
 
     /**
@@ -61,12 +75,37 @@ public class Server {
      * @param dbUrl the database URL to use
      */
     public Server(CIPipeline pipeline, ExecutorService exec, String dbUrl) {
+        this(pipeline, exec, new DbHandler(dbUrl));
+    }
+
+    /**
+     * Constructor with an explicit build store, initialized here.
+     * @param pipeline the CI pipeline to use for processing webhooks
+     * @param exec the executor service for running pipeline tasks
+     * @param buildStore the store of the builds
+     */
+    public Server(CIPipeline pipeline, ExecutorService exec, BuildStore buildStore) {
         this.server = null;
         this.pipeline = pipeline;
         this.exec = exec;
-        this.dbHandler = new DbHandler(dbUrl);
-        this.pipeline.setDbHandler(this.dbHandler);
-        dbHandler.createBuildTable();
+        this.buildStore = buildStore;
+        this.pipeline.setBuildStore(this.buildStore);
+        if (exec != null) {
+            this.pipeline.setBuildExecutor(exec);
+        }
+        buildStore.initialize();
+        applyRetention();
+    }
+
+    /**
+     * Drops the builds of the months older than the retention set by the system property ci.db.retention.months,
+     * counting the current month. The default, 0, keeps all builds.
+     */
+    private void applyRetention() {
+        int months = Integer.getInteger("ci.db.retention.months", 0);
+        if (months > 0) {
+            buildStore.dropBuildsBefore(YearMonth.now(ZoneOffset.UTC).minusMonths(months - 1));
+        }
     }
 
     /**
@@ -85,9 +124,23 @@ public class Server {
     public void start(int port) throws IOException {
         this.server = HttpServer.create(new InetSocketAddress(port), 0);
         this.server.createContext("/webhook", exchange -> handleRequest(exchange, pipeline, exec));
-        this.server.createContext("/builds", new AllBuildsHandler(this.dbHandler));
-        this.server.createContext("/builds/", new BuildByShaHandler(this.dbHandler));
-        this.server.setExecutor(null);
+        this.server.createContext("/builds", new AllBuildsHandler(this.buildStore));
+        this.server.createContext("/builds/", new BuildByShaHandler(this.buildStore));
+        this.server.createContext("/builds/search", new SearchHandler(this.buildStore));
+        this.server.createContext("/builds/export", new ExportHandler(this.buildStore));
+        // loading builds into the history is opt-in, as the endpoint is not authenticated
+        this.server.createContext("/builds/import", new ImportHandler(this.buildStore, Boolean.getBoolean("ci.import.enabled")));
+        this.server.createContext("/metrics", new MetricsHandler(this.buildStore));
+        this.server.createContext("/stats", new StatsHandler(this.buildStore));
+        this.server.createContext("/timings", new TimingsHandler(this.pipeline.timings()));
+        // requests and the responses of async reads are handled by ci.http.threads threads, never by the database readers
+        AtomicInteger threads = new AtomicInteger();
+        this.httpExec = Executors.newFixedThreadPool(Integer.getInteger("ci.http.threads", 8), r -> {
+            Thread t = new Thread(r, "ci-http-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.server.setExecutor(this.httpExec);
         this.server.start();
 
         // Debug information
@@ -101,9 +154,15 @@ public class Server {
         if (this.server != null) {
             this.server.stop(0);
         }
+        if (this.httpExec != null) {
+            this.httpExec.shutdownNow();
+        }
         if (this.exec != null) {
             this.exec.shutdownNow();
         }
+        this.pipeline.stopIdlePrefetcher();
+        this.pipeline.timings().stop();
+        this.buildStore.close();
     }
 
     /**
@@ -182,10 +241,18 @@ public class Server {
                 return;
             }
             String repoUrl = repoNode.get("clone_url").asText();
+            // ?force=true builds the commit again even if its result is known
+            boolean force = Boolean.parseBoolean(new QueryParams(exchange.getRequestURI()).get("force"));
 
+            long queued = System.nanoTime();
             exec.submit(() -> {
+                pipeline.timings().record(branch, StageTimings.QUEUE, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued));
                 try {
-                    pipeline.run(repoUrl, branch, sha);
+                    if (force) {
+                        pipeline.run(repoUrl, branch, sha, true);
+                    } else {
+                        pipeline.run(repoUrl, branch, sha);
+                    }
                 } catch (Exception e) {
                     // Just log - pipeline already handles status reporting
                     e.printStackTrace();
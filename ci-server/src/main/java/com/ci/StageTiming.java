@@ -0,0 +1,12 @@
+package com.ci;
+
+/**
+ * The durations of one stage of the builds of one branch within one time window, as a mergeable sketch.
+ *
+ * @param window the start of the window in UTC, yyyy-MM-dd HH:00 for the hourly windows of the pipeline
+ * @param branch the branch of the builds
+ * @param stage the stage measured, e.g. queue, checkout, test or total
+ * @param sketch the durations of the stage in milliseconds
+ */
+public record StageTiming(String window, String branch, String stage, DurationSketch sketch) {
+}
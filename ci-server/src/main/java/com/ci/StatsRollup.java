@@ -0,0 +1,164 @@
+package com.ci;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Build statistics rolled up per day, branch and final result (see {@link BuildStats}), updated as each final result
+ * is entered instead of being computed by scanning the builds. {@link DbHandler} keeps the rollup in the build_stats
+ * table, updated in the transaction that appends the result to the timeline; the other stores keep an instance of
+ * this class. A result counts once per attempt it is entered in, like its event.
+ */
+final class StatsRollup {
+    /** Creates the rollup table of {@link DbHandler}, one row per day, branch and result. */
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS build_stats (" +
+        "day TEXT NOT NULL," +
+        "branch TEXT NOT NULL," +
+        "result TEXT NOT NULL," +
+        "builds INTEGER NOT NULL," +
+        "timed_builds INTEGER NOT NULL," +
+        "total_duration_ms INTEGER NOT NULL," +
+        "PRIMARY KEY (day, branch, result)" +
+        ") WITHOUT ROWID";
+
+    /** Adds builds to a row of the rollup table: day, branch, result, builds, timed builds, total duration. */
+    static final String UPSERT = "INSERT INTO build_stats (day, branch, result, builds, timed_builds, total_duration_ms) " +
+        "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (day, branch, result) DO UPDATE SET " +
+        "builds = builds + excluded.builds, timed_builds = timed_builds + excluded.timed_builds, " +
+        "total_duration_ms = total_duration_ms + excluded.total_duration_ms";
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSS]");
+
+    private record Key(String day, String branch, String result) {}
+
+    private static final Comparator<Key> ORDER =
+        Comparator.comparing(Key::day).thenComparing(Key::branch).thenComparing(Key::result);
+
+    // key -> {builds, timed builds, total duration}
+    private final Map<Key, long[]> rows = new TreeMap<>(ORDER);
+
+    /**
+     * Counts a final result.
+     * @param branch the branch of the build
+     * @param result the final result entered
+     * @param startedAt when the first event of the attempt was recorded, or null if the result is its first event
+     * @param recordedAt when the result was recorded
+     */
+    void add(String branch, String result, String startedAt, String recordedAt) {
+        long duration = durationMillis(startedAt, recordedAt);
+        add(new BuildStats(day(recordedAt), branch, result, 1, duration < 0 ? 0 : 1, Math.max(duration, 0)));
+    }
+
+    /**
+     * Adds the counts of a row to the row of the same day, branch and result.
+     * @param stats the counts to add
+     */
+    void add(BuildStats stats) {
+        long[] row = rows.computeIfAbsent(new Key(stats.day(), stats.branch(), stats.result()), key -> new long[3]);
+        row[0] += stats.builds();
+        row[1] += stats.timedBuilds();
+        row[2] += stats.totalDurationMillis();
+    }
+
+    /** Forgets all counts. */
+    void clear() {
+        rows.clear();
+    }
+
+    /**
+     * Selects rows like {@link BuildStore#selectStats}.
+     * @param branch the branch, or null for all branches
+     * @param fromDay the first day, yyyy-MM-dd, or null for all days
+     * @return the rows ordered by day, branch and result
+     */
+    List<BuildStats> select(String branch, String fromDay) {
+        List<BuildStats> selected = new ArrayList<>();
+        rows.forEach((key, row) -> {
+            if ((branch == null || branch.equals(key.branch())) && (fromDay == null || key.day().compareTo(fromDay) >= 0)) {
+                selected.add(new BuildStats(key.day(), key.branch(), key.result(), row[0], row[1], row[2]));
+            }
+        });
+        return selected;
+    }
+
+    /**
+     * Returns the day of a timestamp.
+     * @param timestamp a timestamp starting with yyyy-MM-dd
+     * @return its first ten characters, or the whole timestamp if it is shorter
+     */
+    static String day(String timestamp) {
+        return timestamp.length() < 10 ? timestamp : timestamp.substring(0, 10);
+    }
+
+    /**
+     * Returns the time between two timestamps of events.
+     * @param from yyyy-MM-dd HH:mm:ss with optional milliseconds, or null
+     * @param to yyyy-MM-dd HH:mm:ss with optional milliseconds
+     * @return the milliseconds from one to the other, or -1 if either is missing or not a timestamp, or to is before from
+     */
+    static long durationMillis(String from, String to) {
+        if (from == null || to == null) {
+            return -1;
+        }
+        try {
+            long millis = Duration.between(LocalDateTime.parse(from, TIMESTAMP), LocalDateTime.parse(to, TIMESTAMP)).toMillis();
+            return millis < 0 ? -1 : millis;
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Migration step creating the rollup table and counting the final results already in the timelines of the builds,
+     * each with the first earlier event of its attempt as start.
+     * @param connection connection with an open transaction
+     * @throws SQLException if the results can't be counted
+     */
+    static void backfill(Connection connection) throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            stm.execute(CREATE_TABLE);
+            try (ResultSet rs = stm.executeQuery("SELECT 1 FROM build_stats LIMIT 1")) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        StatsRollup rollup = new StatsRollup();
+        for (String partition : BuildPartitions.read(connection)) {
+            String events = BuildPartitions.events(partition);
+            try (Statement stm = connection.createStatement();
+                ResultSet rs = stm.executeQuery("SELECT b.branch, e.state, e.recorded_at, " +
+                    "(SELECT f.recorded_at FROM " + events + " f WHERE f.build_id = e.build_id AND f.attempt = e.attempt " +
+                    "AND f.id < e.id ORDER BY f.id LIMIT 1) FROM " + events + " e JOIN " + BuildPartitions.builds(partition) +
+                    " b ON b.id = e.build_id WHERE e.state IN ('success', 'failure', 'error')")) {
+                while (rs.next()) {
+                    rollup.add(rs.getString(1), rs.getString(2), rs.getString(4), rs.getString(3));
+                }
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(UPSERT)) {
+            for (BuildStats stats : rollup.select(null, null)) {
+                insert.setString(1, stats.day());
+                insert.setString(2, stats.branch());
+                insert.setString(3, stats.result());
+                insert.setLong(4, stats.builds());
+                insert.setLong(5, stats.timedBuilds());
+                insert.setLong(6, stats.totalDurationMillis());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.ci.checkout;
+
+/**
+ * Measurements of a single checkout, used to compare clone strategies per repository.
+ *
+ * @param strategy the strategy used for the checkout
+ * @param durationMillis wall clock time of the checkout in milliseconds
+ * @param bytesTransferred approximate number of bytes of git objects received from the remote
+ */
+public record CheckoutStats(CloneStrategy strategy, long durationMillis, long bytesTransferred) {
+}
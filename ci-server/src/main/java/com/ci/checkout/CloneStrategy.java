@@ -0,0 +1,15 @@
+package com.ci.checkout;
+
+/**
+ * The ways {@link GitCheckoutService} can get the code of a commit into a workspace.
+ */
+public enum CloneStrategy {
+    /** Incrementally fetch a persistent local bare mirror and add a worktree of the commit. */
+    MIRROR,
+    /** Clone the full history of the branch, then check out the commit. */
+    FULL,
+    /** Fetch exactly the commit with depth 1, without any history. */
+    SHALLOW,
+    /** Clone the branch history without file contents, blobs are fetched on demand during checkout. */
+    BLOBLESS
+}
@@ -1,17 +1,165 @@
 package com.ci.checkout;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Comparator;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import com.ci.process.OutputLine;
+import com.ci.process.ProcessOutputPump;
 
 /**
  * Responsible for checking out code, cloning the repository, and checking out the specific commit.
  * Creates a temporary directory for the checkout and ensures cleanup in case of failure.
+ * By default the repository is fetched into a persistent local mirror and every checkout is a git worktree of it,
+ * other {@link CloneStrategy clone strategies} can be configured per repository.
+ * If sparse paths are set, only those directories (plus the ones a commit declares in {@value #INPUTS_FILE})
+ * are written to the workspace, using a cone-mode sparse checkout.
+ * With a {@link WorkspacePool}, mirror checkouts reuse a warm workspace of the same branch instead of creating one.
+ * With a {@link PristineCache}, new mirror workspaces are copied from a pristine checkout of the same tree.
  */
 public class GitCheckoutService {
+    /** File in the repository root listing additional directories a build needs, one per line. */
+    public static final String INPUTS_FILE = ".ci-inputs";
+
+    private final WorkspaceReaper reaper;
+    private final RepositoryMirrors mirrors;
+    private final Map<Path, Path> worktreeMirrors = new ConcurrentHashMap<>();
+    private final Map<Path, CheckoutStats> checkoutStats = new ConcurrentHashMap<>();
+    private final Map<String, CloneStrategy> strategies = new ConcurrentHashMap<>();
+    private volatile CloneStrategy defaultStrategy;
+    private volatile List<String> sparsePaths = List.of();
+    private volatile WorkspacePool pool;
+    private volatile PristineCache pristines;
+
+    /**
+     * Creates a checkout service that creates workspaces in data/checkouts, deletes them with a background reaper,
+     * and keeps repository mirrors in data/mirrors, warm workspaces in data/workspaces and pristine checkouts
+     * in data/pristine. The default clone strategy can be set with the system property
+     * ci.checkout.strategy (one of MIRROR, FULL, SHALLOW, BLOBLESS).
+     */
+    public GitCheckoutService() {
+        this(new WorkspaceReaper());
+        setWorkspacePool(new WorkspacePool());
+        setPristineCache(new PristineCache());
+        String strategy = System.getProperty("ci.checkout.strategy");
+        if (strategy != null && !strategy.isBlank()) {
+            setDefaultStrategy(CloneStrategy.valueOf(strategy.trim().toUpperCase()));
+        }
+    }
+
+    /**
+     * Creates a checkout service that hands finished workspaces to the given reaper.
+     * @param reaper the reaper deleting released workspaces
+     */
+    public GitCheckoutService(WorkspaceReaper reaper) {
+        this(reaper, new RepositoryMirrors(reaper));
+    }
+
+    /**
+     * Creates a checkout service using the given reaper and mirror store.
+     * @param reaper the reaper deleting released workspaces
+     * @param mirrors the mirror store to check out from, or null to clone the repository for every checkout
+     */
+    public GitCheckoutService(WorkspaceReaper reaper, RepositoryMirrors mirrors) {
+        this.reaper = reaper;
+        this.mirrors = mirrors;
+        this.defaultStrategy = mirrors != null ? CloneStrategy.MIRROR : CloneStrategy.FULL;
+    }
+
+    /**
+     * Sets the clone strategy used for repositories without a strategy of their own.
+     * @param strategy the strategy
+     * @throws IllegalArgumentException if MIRROR is requested without a mirror store
+     */
+    public void setDefaultStrategy(CloneStrategy strategy) {
+        this.defaultStrategy = requireSupported(strategy);
+    }
+
+    /**
+     * Sets the clone strategy for a single repository.
+     * @param repoUrl the repository URL as sent in the webhook
+     * @param strategy the strategy, or null to use the default strategy again
+     * @throws IllegalArgumentException if MIRROR is requested without a mirror store
+     */
+    public void setStrategy(String repoUrl, CloneStrategy strategy) {
+        if (strategy == null) {
+            strategies.remove(repoUrl);
+        } else {
+            strategies.put(repoUrl, requireSupported(strategy));
+        }
+    }
+
+    /**
+     * Returns the clone strategy used for the given repository.
+     * @param repoUrl the repository URL
+     * @return the strategy
+     */
+    public CloneStrategy getStrategy(String repoUrl) {
+        return strategies.getOrDefault(repoUrl, defaultStrategy);
+    }
+
+    private CloneStrategy requireSupported(CloneStrategy strategy) {
+        if (strategy == CloneStrategy.MIRROR && mirrors == null) {
+            throw new IllegalArgumentException("MIRROR strategy requires a mirror store");
+        }
+        return strategy;
+    }
+
+    /**
+     * Limits checkouts to the given directories (cone-mode sparse checkout). Files in the repository root
+     * are always included, and so are the directories listed in the {@value #INPUTS_FILE} file of the commit.
+     * @param paths directories relative to the repository root, or an empty list to check out everything
+     */
+    public void setSparsePaths(List<String> paths) {
+        this.sparsePaths = paths == null ? List.of() : List.copyOf(paths);
+    }
+
+    /**
+     * Returns the directories checkouts are limited to.
+     * @return the sparse paths, empty if the whole tree is checked out
+     */
+    public List<String> getSparsePaths() {
+        return sparsePaths;
+    }
+
+    /**
+     * Makes mirror checkouts reuse workspaces from the given pool. A reused workspace is reset to the requested
+     * commit and cleaned of untracked files, while ignored files such as build outputs are kept.
+     * @param pool the pool, or null to create and delete a workspace for every build
+     */
+    public void setWorkspacePool(WorkspacePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Makes new mirror workspaces copies of a cached pristine checkout of the same tree, instead of writing
+     * every file from the object store. Repeated or retried builds of a commit then only reflink files. The cache is
+     * skipped on file systems without reflinks, see {@link PristineCache#isSupported}.
+     * @param pristines the cache, or null to check out every workspace from the mirror
+     */
+    public void setPristineCache(PristineCache pristines) {
+        this.pristines = pristines;
+    }
+
+    /**
+     * Returns the measurements of the checkout that created the given workspace.
+     * @param workDir a workspace returned by {@link #checkout} and not yet released
+     * @return the measurements, or null if unknown
+     */
+    public CheckoutStats getStats(Path workDir) {
+        return workDir == null ? null : checkoutStats.get(workDir);
+    }
 
     /**
      * Checks out the code from the specified repository URL, branch, and commit SHA.
@@ -24,50 +172,409 @@ public class GitCheckoutService {
      */
     public Path checkout(String repoUrl, String branch, String sha)
             throws IOException, InterruptedException {
+        CloneStrategy strategy = getStrategy(repoUrl);
+        long start = System.nanoTime();
+        Path workDir;
+        long bytes;
+        if (strategy == CloneStrategy.MIRROR) {
+            // only the checkout that ran the fetch is charged for it, not those that shared it
+            RepositoryMirrors.Synced synced = mirrors.sync(repoUrl);
+            workDir = checkoutFromMirror(synced.mirror(), repoUrl, branch, sha);
+            bytes = synced.bytesReceived();
+        } else {
+            workDir = clone(strategy, repoUrl, branch, sha);
+            bytes = objectBytes(workDir.resolve(".git"));
+        }
+        CheckoutStats stats = new CheckoutStats(strategy, (System.nanoTime() - start) / 1_000_000, Math.max(0, bytes));
+        checkoutStats.put(workDir, stats);
+        System.out.println("[CI] CHECKOUT " + strategy + " took " + stats.durationMillis() + " ms, "
+            + stats.bytesTransferred() + " bytes received");
+        return workDir;
+    }
 
-        // this creastes the temp. directory to checkout the code into.
-        Path workDir = Files.createTempDirectory("ci-checkout-");
+    /**
+     * Returns the hash of the git tree checked out in a workspace. Commits with the same tree have the same content,
+     * e.g. a revert of a revert or a rebase that changed nothing, so they build the same way.
+     * @param workDir a workspace returned by {@link #checkout} and not yet released
+     * @return the tree hash of the checked out commit
+     * @throws IOException if git can't be started
+     * @throws InterruptedException if interrupted while git is running
+     * @throws RuntimeException if git fails
+     */
+    public String treeHash(Path workDir) throws IOException, InterruptedException {
+        return run(List.of("git", "rev-parse", "--verify", "HEAD^{tree}"), workDir).trim();
+    }
+
+    /**
+     * Brings the local copy of a branch up to date without creating a workspace, e.g. while no build is running.
+     * With the mirror strategy the mirror is fetched, otherwise the remote is only asked for the branch head.
+     * @param repoUrl the repository URL
+     * @param branch the branch
+     * @return the commit SHA of the branch head
+     * @throws IOException if the mirror directory can't be created
+     * @throws InterruptedException if interrupted while git is running
+     * @throws RuntimeException if git fails or the branch does not exist
+     */
+    public String prefetch(String repoUrl, String branch) throws IOException, InterruptedException {
+        if (getStrategy(repoUrl) == CloneStrategy.MIRROR) {
+            Path mirror = mirrors.sync(repoUrl).mirror();
+            return resolveRevision(mirror, branch, null);
+        }
+        String heads = run(List.of("git", "ls-remote", "--heads", repoUrl, "refs/heads/" + branch), null).trim();
+        if (heads.isEmpty()) {
+            throw new RuntimeException("Branch not found: " + branch);
+        }
+        return heads.split("\\s+")[0];
+    }
+
+    /**
+     * Clones the repository into a new temporary directory using one of the non-mirror strategies.
+     */
+    private Path clone(CloneStrategy strategy, String repoUrl, String branch, String sha)
+            throws IOException, InterruptedException {
+        boolean hasSha = sha != null && !sha.isBlank();
+
+        // this creates the directory to checkout the code into.
+        Path workDir = reaper.createWorkspace();
 
         try {
-            run(List.of(
-                "git", "clone","--single-branch",
-                "--branch", branch, repoUrl, workDir.toString()
-            ), null);
+            switch (strategy) {
+                case SHALLOW -> {
+                    // fetch exactly the requested commit, without any history
+                    run(List.of("git", "init", "--quiet"), workDir);
+                    run(List.of("git", "remote", "add", "origin", repoUrl), workDir);
+                    String target = hasSha ? sha : "refs/heads/" + branch;
+                    run(List.of("git", "fetch", "--depth", "1", "--quiet", "origin", target), workDir);
+                    applySparsePaths(workDir, workDir, "FETCH_HEAD");
+                    run(List.of("git", "checkout", "--quiet", "--detach", "FETCH_HEAD"), workDir);
+                }
+                case BLOBLESS -> {
+                    // history without file contents, the checkout fetches the blobs it needs
+                    run(List.of(
+                        "git", "clone", "--quiet", "--filter=blob:none", "--no-checkout", "--single-branch",
+                        "--branch", branch, repoUrl, workDir.toString()
+                    ), null);
+                    String revision = hasSha ? sha : "HEAD";
+                    applySparsePaths(workDir, workDir, revision);
+                    run(List.of("git", "checkout", "--quiet", "--detach", revision), workDir);
+                }
+                default -> {
+                    if (sparsePaths.isEmpty()) {
+                        run(List.of(
+                            "git", "clone","--single-branch",
+                            "--branch", branch, repoUrl, workDir.toString()
+                        ), null);
 
-            if (sha != null && !sha.isBlank()) {
-                run(List.of("git", "checkout", sha), workDir);
+                        if (hasSha) {
+                            run(List.of("git", "checkout", sha), workDir);
+                        }
+                    } else {
+                        run(List.of(
+                            "git", "clone", "--quiet", "--no-checkout", "--single-branch",
+                            "--branch", branch, repoUrl, workDir.toString()
+                        ), null);
+                        String revision = hasSha ? sha : "HEAD";
+                        applySparsePaths(workDir, workDir, revision);
+                        run(List.of("git", "checkout", "--quiet", "--detach", revision), workDir);
+                    }
+                }
             }
 
             return workDir;
         } catch (Exception e) {
             // Cleanup on failure
-            Files.walk(workDir)
-                .sorted(Comparator.reverseOrder()) // Delete children first
-                .forEach(p -> {
-                    try { 
-                        Files.deleteIfExists(p); 
-                    } catch (IOException ex) {}
-                });
+            reaper.reap(workDir);
             throw e;
         }
     }
 
-    private static String run(List<String> cmd, Path cwd)
+    /**
+     * Adds a detached worktree of the requested commit from the freshly synced mirror of the repository.
+     * The worktree shares the object store of the mirror.
+     */
+    private Path checkoutFromMirror(Path mirror, String repoUrl, String branch, String sha)
+            throws IOException, InterruptedException {
+        String revision = resolveRevision(mirror, branch, sha);
+
+        WorkspacePool pool = this.pool;
+        Path workDir = null;
+        if (pool != null) {
+            Path warm = pool.lease(repoUrl, branch);
+            if (warm != null && reset(warm, mirror, revision, pool)) {
+                worktreeMirrors.put(warm, mirror);
+                return warm;
+            }
+            workDir = pool.create(repoUrl, branch);
+        }
+        if (workDir == null) {
+            workDir = reaper.createWorkspace();
+        }
+        try {
+            List<String> patterns = sparsePatterns(mirror, revision);
+            PristineCache pristines = this.pristines;
+            if (pristines == null || !pristines.isSupported()
+                    || !copyFromPristine(pristines, workDir, mirror, revision, patterns)) {
+                addWorktree(workDir, mirror, revision, patterns);
+            }
+            worktreeMirrors.put(workDir, mirror);
+            return workDir;
+        } catch (Exception e) {
+            if (pool != null && pool.contains(workDir)) {
+                pool.discard(workDir);
+            } else {
+                reaper.reap(workDir);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks out a detached worktree of the mirror into an empty directory.
+     */
+    private void addWorktree(Path workDir, Path mirror, String revision, List<String> patterns)
+            throws IOException, InterruptedException {
+        registerWorktree(workDir, mirror, revision, patterns);
+        run(List.of("git", "checkout", "--quiet", "--detach", revision), workDir);
+    }
+
+    /**
+     * Adds a detached worktree without checking out its files and enables the sparse patterns in it.
+     * Worktree commands on one mirror must not run concurrently, so this holds the worktree lock of the mirror.
+     */
+    private void registerWorktree(Path workDir, Path mirror, String revision, List<String> patterns)
+            throws IOException, InterruptedException {
+        mirrors.withWorktreeLock(mirror, () -> {
+            run(List.of("git", "worktree", "add", "--no-checkout", "--detach", "--quiet", workDir.toString(), revision), mirror);
+            setSparsePatterns(workDir, patterns);
+            return null;
+        });
+    }
+
+    /**
+     * Creates a worktree without writing its files from the object store: the files and the index are copied
+     * from a pristine checkout of the same tree and sparse patterns, which is created on first use.
+     * @return true on success, false if no pristine checkout is available
+     */
+    private boolean copyFromPristine(PristineCache pristines, Path workDir, Path mirror, String revision,
+                                            List<String> patterns) throws IOException, InterruptedException {
+        String tree = run(List.of("git", "rev-parse", "--verify", revision + "^{tree}"), mirror).trim();
+        String key = tree + "\n" + String.join("\n", patterns);
+        Path pristine = pristines.lease(key, dir -> addWorktree(dir, mirror, revision, patterns));
+        if (pristine == null) {
+            return false;
+        }
+        try {
+            registerWorktree(workDir, mirror, revision, patterns);
+            try {
+                pristines.copyTo(pristine, workDir);
+            } catch (RuntimeException e) {
+                // e.g. the workspace is on another file system, write the files from the object store instead
+                System.out.println("[CI] PRISTINE failed to copy " + pristine + ": " + e.getMessage());
+                run(List.of("git", "reset", "--hard", "--quiet", revision), workDir);
+                return true;
+            }
+            Files.copy(gitPath(pristine, "index"), gitPath(workDir, "index"), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("[CI] PRISTINE copied " + pristine + " to " + workDir);
+            return true;
+        } finally {
+            pristines.giveBack(pristine);
+        }
+    }
+
+    /**
+     * Resolves a path inside the git directory of a worktree, e.g. its index.
+     */
+    private static Path gitPath(Path workDir, String name) throws IOException, InterruptedException {
+        return workDir.resolve(run(List.of("git", "rev-parse", "--git-path", name), workDir).trim());
+    }
+
+    /**
+     * Resets a warm workspace to the given commit. Untracked files are removed, ignored files
+     * (build outputs such as target/) are kept so the build can be incremental.
+     * @return true on success, false if the workspace was discarded from the pool
+     */
+    private boolean reset(Path workDir, Path mirror, String revision, WorkspacePool pool) throws InterruptedException {
+        try {
+            List<String> patterns = sparsePatterns(mirror, revision);
+            mirrors.withWorktreeLock(mirror, () -> {
+                setSparsePatterns(workDir, patterns);
+                return null;
+            });
+            run(List.of("git", "reset", "--hard", "--quiet", revision), workDir);
+            run(List.of("git", "clean", "-ffd", "--quiet"), workDir);
+            System.out.println("[CI] POOL reusing " + workDir);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[CI] POOL failed to reset " + workDir + ": " + e.getMessage());
+            pool.discard(workDir);
+            return false;
+        }
+    }
+
+    /**
+     * Enables a cone-mode sparse checkout in a workspace that has not been checked out yet.
+     * Does nothing if no sparse paths are configured.
+     * @param workDir the workspace
+     * @param gitDir directory to read the commit from, the workspace itself or its mirror
+     * @param revision the commit that is going to be checked out
+     */
+    private void applySparsePaths(Path workDir, Path gitDir, String revision)
+            throws IOException, InterruptedException {
+        setSparsePatterns(workDir, sparsePatterns(gitDir, revision));
+    }
+
+    /**
+     * Returns the directories to check out for a commit: the configured sparse paths plus the ones
+     * declared in its {@value #INPUTS_FILE} file.
+     * @return the directories, or an empty list to check out everything
+     */
+    private List<String> sparsePatterns(Path gitDir, String revision)
+            throws IOException, InterruptedException {
+        if (sparsePaths.isEmpty()) {
+            return List.of();
+        }
+        Set<String> paths = new LinkedHashSet<>();
+        for (String path : sparsePaths) {
+            addSparsePath(paths, path);
+        }
+        try {
+            String declared = run(List.of("git", "show", revision + ":" + INPUTS_FILE), gitDir);
+            for (String line : declared.split("\n")) {
+                if (!line.trim().startsWith("#")) {
+                    addSparsePath(paths, line);
+                }
+            }
+        } catch (RuntimeException e) {
+            // the commit does not declare any additional inputs
+        }
+        return List.copyOf(paths);
+    }
+
+    /**
+     * Enables a cone-mode sparse checkout of the given directories, if any.
+     */
+    private static void setSparsePatterns(Path workDir, List<String> patterns)
+            throws IOException, InterruptedException {
+        if (patterns.isEmpty()) {
+            return;
+        }
+        List<String> cmd = new ArrayList<>(List.of("git", "sparse-checkout", "set", "--cone"));
+        cmd.addAll(patterns);
+        run(cmd, workDir);
+    }
+
+    private static void addSparsePath(Set<String> paths, String path) {
+        String normalized = path.trim().replaceAll("^/+", "").replaceAll("/+$", "");
+        if (!normalized.isEmpty() && !normalized.startsWith("..")) {
+            paths.add(normalized);
+        }
+    }
+
+    /**
+     * Resolves the commit to check out. The branch must exist, like for a clone of that branch.
+     * @return the commit SHA of the given sha, or of the branch head if no sha is given
+     */
+    private static String resolveRevision(Path mirror, String branch, String sha)
+            throws IOException, InterruptedException {
+        String head = run(List.of("git", "rev-parse", "--verify", "refs/heads/" + branch + "^{commit}"), mirror).trim();
+        if (sha == null || sha.isBlank()) {
+            return head;
+        }
+        return run(List.of("git", "rev-parse", "--verify", sha + "^{commit}"), mirror).trim();
+    }
+
+    /**
+     * Releases a workspace returned by {@link #checkout} once the build is done with it.
+     * The workspace is moved out of the way immediately and deleted in the background,
+     * after which its worktree entry is pruned from the mirror.
+     * @param workDir the workspace to release, may be null
+     */
+    public void release(Path workDir) {
+        if (workDir != null) {
+            checkoutStats.remove(workDir);
+        }
+        WorkspacePool pool = this.pool;
+        if (workDir != null && pool != null && pool.giveBack(workDir)) {
+            worktreeMirrors.remove(workDir);
+            return;
+        }
+        Path mirror = workDir == null ? null : worktreeMirrors.remove(workDir);
+        CompletableFuture<Void> deleted = reaper.reap(workDir);
+        if (mirror != null) {
+            deleted.thenRun(() -> mirrors.pruneWorktrees(mirror));
+        }
+    }
+
+    /**
+     * Deletes workspaces left behind by a previous run of the server, e.g. after a crash.
+     * Must be called at startup, before the first checkout.
+     */
+    public void sweepOrphans() {
+        reaper.sweepOrphans();
+        WorkspacePool pool = this.pool;
+        if (pool != null) {
+            pool.sweepOrphans();
+        }
+        PristineCache pristines = this.pristines;
+        if (pristines != null) {
+            pristines.sweepOrphans();
+        }
+    }
+
+    /**
+     * Returns the total size of the object store of a fresh clone, used to estimate the bytes received by the clone.
+     */
+    private static long objectBytes(Path gitDir) {
+        Path objects = gitDir.resolve("objects");
+        if (!Files.isDirectory(objects)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(objects)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Runs a git command and returns its standard output.
+     * @param cmd the command and its arguments
+     * @param cwd working directory, or null for the current one
+     * @return the standard output of the command
+     * @throws RuntimeException if the command exits with a non-zero code
+     */
+    static String run(List<String> cmd, Path cwd)
             throws IOException, InterruptedException {
 
         ProcessBuilder pb = new ProcessBuilder(cmd);
         if (cwd != null) pb.directory(cwd.toFile());
 
-        pb.redirectErrorStream(true);
         pb.environment().put("GIT_TERMINAL_PROMPT", "0"); // never prompt in CI
 
+        long start = System.nanoTime();
         Process p = pb.start();
-        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-        int code = p.waitFor();
+        List<OutputLine> lines = Collections.synchronizedList(new ArrayList<>());
+        ProcessOutputPump pump = ProcessOutputPump.start(p, start, List.of(lines::add));
+        int code;
+        try {
+            code = p.waitFor();
+            pump.await();
+        } catch (InterruptedException e) {
+            p.destroyForcibly();
+            throw e;
+        }
 
         if (code != 0) {
-            throw new RuntimeException("Command failed: " + String.join(" ", cmd) + "\n" + output);
+            throw new RuntimeException("Command failed: " + String.join(" ", cmd) + "\n" + OutputLine.join(lines));
         }
-        return output;
+        return OutputLine.join(lines.stream()
+            .filter(line -> line.stream() == OutputLine.Stream.STDOUT)
+            .toList());
     }
 }
@@ -0,0 +1,228 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * A bounded cache of pristine checkouts, one per recently built tree.
+ * A build workspace is created by copying a pristine checkout instead of writing every file from the object store.
+ * Files are copied as reflinks ({@code cp --reflink}), which share their data blocks until one side writes, so a copy
+ * takes milliseconds and a build can still write into its files in place. On file systems without reflinks
+ * (e.g. ext4) the cache is not used, see {@link #isSupported}: copying the data costs as much as checking the tree
+ * out of the object store, and hard links would let a build change the pristine files through the shared inodes.
+ * When the cache is full, the least recently used pristine checkout that is not being copied is evicted.
+ */
+public class PristineCache {
+    /** Creates the contents of a new pristine checkout. */
+    @FunctionalInterface
+    public interface Populator {
+        /**
+         * Checks out the tree into the given directory.
+         * @param dir an empty directory
+         */
+        void populate(Path dir) throws IOException, InterruptedException;
+    }
+
+    private final Path root;
+    private final int capacity;
+    private final WorkspaceReaper reaper;
+    private volatile Boolean supported;
+    // access ordered, so iteration starts at the least recently used pristine checkout
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry {
+        final Path dir;
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+        int users;
+
+        Entry(Path dir) {
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * Creates a cache of at most the given number of pristine checkouts in the given directory.
+     * @param root directory to keep the pristine checkouts in, created if it does not exist
+     * @param capacity maximum number of pristine checkouts
+     */
+    public PristineCache(Path root, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.root = root.toAbsolutePath();
+        this.capacity = capacity;
+        this.reaper = new WorkspaceReaper(this.root);
+    }
+
+    /**
+     * Creates a cache in data/pristine with a capacity taken from the system property ci.pristine.max (default 4).
+     */
+    public PristineCache() {
+        this(Paths.get("data", "pristine"), Integer.getInteger("ci.pristine.max", 4));
+    }
+
+    /**
+     * Returns the pristine checkout for the given key, creating it with the populator if it is not cached.
+     * The checkout is not evicted until it is given back with {@link #giveBack}.
+     * If another thread is creating the same checkout, this waits for it.
+     * @param key identifies the checked out content, e.g. the tree id and the sparse checkout patterns
+     * @param populator creates the checkout if it is not cached
+     * @return the pristine checkout, or null if another thread failed to create it
+     * @throws IOException if the checkout can't be created
+     * @throws InterruptedException if interrupted while creating or waiting
+     */
+    public Path lease(String key, Populator populator) throws IOException, InterruptedException {
+        Entry entry;
+        boolean creator = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                Files.createDirectories(root);
+                entry = new Entry(Files.createTempDirectory(root, WorkspaceReaper.CHECKOUT_PREFIX));
+                entries.put(key, entry);
+                creator = true;
+            }
+            entry.users++;
+        }
+
+        if (!creator) {
+            try {
+                entry.ready.get();
+                return entry.dir;
+            } catch (ExecutionException e) {
+                giveBack(entry.dir);
+                return null;
+            } catch (InterruptedException e) {
+                giveBack(entry.dir);
+                throw e;
+            }
+        }
+
+        try {
+            populator.populate(entry.dir);
+            entry.ready.complete(null);
+            System.out.println("[CI] PRISTINE created " + entry.dir);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            entry.ready.completeExceptionally(e);
+            synchronized (this) {
+                entries.remove(key);
+            }
+            reaper.reap(entry.dir);
+            throw e;
+        }
+        synchronized (this) {
+            evictIdle();
+        }
+        return entry.dir;
+    }
+
+    /**
+     * Gives back a pristine checkout leased with {@link #lease}, so it can be evicted again.
+     * @param dir the pristine checkout
+     */
+    public synchronized void giveBack(Path dir) {
+        for (Entry entry : entries.values()) {
+            if (entry.dir.equals(dir)) {
+                entry.users--;
+                break;
+            }
+        }
+        evictIdle();
+    }
+
+    /**
+     * Copies a pristine checkout into a workspace as reflinks, leaving out the top-level .git entry.
+     * @param pristine the pristine checkout, leased by the caller
+     * @param target the workspace directory, which must exist
+     * @throws IOException if the pristine checkout can't be listed
+     * @throws InterruptedException if interrupted while cp is running
+     * @throws RuntimeException if the files can't be reflinked, e.g. because the workspace is on another file system
+     */
+    public void copyTo(Path pristine, Path target) throws IOException, InterruptedException {
+        List<String> sources = new ArrayList<>();
+        try (Stream<Path> children = Files.list(pristine)) {
+            children.filter(child -> !child.getFileName().toString().equals(".git"))
+                .forEach(child -> sources.add(child.toString()));
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+        List<String> cmd = new ArrayList<>(List.of("cp", "-a", "--reflink=always"));
+        cmd.addAll(sources);
+        cmd.add(target.toString());
+        GitCheckoutService.run(cmd, null);
+    }
+
+    /**
+     * Returns whether workspaces can be copied from the cache, probing once whether the cache directory supports
+     * reflinks. If not, workspaces should be checked out from the object store instead.
+     * @return true if the file system of the cache supports reflinks
+     */
+    public boolean isSupported() throws IOException, InterruptedException {
+        Boolean result = supported;
+        if (result == null) {
+            result = probeReflinks();
+            supported = result;
+            System.out.println("[CI] PRISTINE " + (result ? "copying workspaces as reflinks"
+                : "disabled, the file system doesn't support reflinks"));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of cached pristine checkouts.
+     * @return the cache size
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Deletes pristine checkouts left in the cache directory by a previous run of the server.
+     * Must be called at startup, before the first checkout is created.
+     */
+    public void sweepOrphans() {
+        reaper.sweepOrphans();
+    }
+
+    private boolean probeReflinks() throws IOException, InterruptedException {
+        Files.createDirectories(root);
+        Path probe = Files.createTempFile(root, "reflink-", ".probe");
+        Path copy = probe.resolveSibling(probe.getFileName() + ".copy");
+        try {
+            GitCheckoutService.run(List.of("cp", "--reflink=always", probe.toString(), copy.toString()), null);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(probe);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private void evictIdle() {
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (entries.size() - evicted.size() <= capacity) {
+                break;
+            }
+            if (e.getValue().users == 0 && e.getValue().ready.isDone()) {
+                evicted.add(e);
+            }
+        }
+        for (Map.Entry<String, Entry> e : evicted) {
+            entries.remove(e.getKey());
+            System.out.println("[CI] PRISTINE evicting " + e.getValue().dir);
+            reaper.reap(e.getValue().dir);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a persistent local bare mirror of every repository that has been built.
+ * The first checkout of a repository clones it, later checkouts only fetch what changed since.
+ * Build workspaces are created from the mirror as detached git worktrees, so no history is downloaded twice.
+ * <p>
+ * Concurrent syncs of the same repository are coalesced: a caller that arrives while a fetch is running
+ * waits for the next fetch, which is shared by everyone who arrived in the meantime. So at most one fetch
+ * per repository runs at a time, and every caller still sees a fetch that started after it asked.
+ * Only the caller that runs a fetch is told the bytes it received, see {@link Synced}.
+ * The bookkeeping is guarded by striped locks, so syncs of different repositories never wait for each other.
+ * Commands that change the worktree list of a mirror are serialized per mirror with a second set of lock stripes,
+ * see {@link #withWorktreeLock}.
+ */
+public class RepositoryMirrors {
+    private static final int LOCK_STRIPES = 16;
+
+    private final Path root;
+    private final WorkspaceReaper reaper;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final ReentrantLock[] worktreeLocks = new ReentrantLock[LOCK_STRIPES];
+    // mirrors on different lock stripes change the map concurrently; the flights of a mirror are guarded by its stripe
+    private final Map<Path, Flights> flights = new ConcurrentHashMap<>();
+
+    /** A git operation run while holding the worktree lock of a mirror. */
+    @FunctionalInterface
+    public interface WorktreeOperation<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * An up-to-date mirror and the size of the git objects the sync received into it.
+     * Callers that shared the fetch of another caller received nothing themselves, so for them this is 0.
+     * @param mirror path of the bare repository
+     * @param bytesReceived approximate number of bytes of git objects added by the fetch this caller ran
+     */
+    public record Synced(Path mirror, long bytesReceived) {
+    }
+
+    /**
+     * Fetches of one mirror: the one currently running and the one queued behind it.
+     */
+    private static final class Flights {
+        CompletableFuture<Path> running;
+        CompletableFuture<Path> next;
+    }
+
+    /**
+     * Creates a mirror store in the given directory.
+     * @param root directory holding one bare repository per repository URL, created if it does not exist
+     * @param reaper reaper used to delete half-created mirrors
+     */
+    public RepositoryMirrors(Path root, WorkspaceReaper reaper) {
+        this.root = root.toAbsolutePath();
+        this.reaper = reaper;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+            worktreeLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Creates a mirror store in data/mirrors, next to the build database.
+     * @param reaper reaper used to delete half-created mirrors
+     */
+    public RepositoryMirrors(WorkspaceReaper reaper) {
+        this(Paths.get("data", "mirrors"), reaper);
+    }
+
+    /**
+     * Returns the directory of the mirror for the given repository URL. The mirror may not exist yet.
+     * @param repoUrl the repository URL
+     * @return path of the bare repository
+     */
+    public Path mirrorPath(String repoUrl) {
+        String name = repoUrl.replaceAll("/+$", "").replaceAll("\\.git$", "");
+        name = name.substring(name.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+        return root.resolve(name + "-" + hash(repoUrl).substring(0, 12) + ".git");
+    }
+
+    /**
+     * Brings the mirror of the given repository up to date, cloning it on first use.
+     * If another thread is fetching the same repository, this waits for and shares the next fetch instead.
+     * @param repoUrl the repository URL
+     * @return the up-to-date bare repository, with the bytes received if this caller ran the fetch
+     * @throws IOException if the mirror directory can't be created
+     * @throws InterruptedException if interrupted while git is running or while waiting for another fetch
+     * @throws RuntimeException if git fails, e.g. because the repository does not exist
+     */
+    public Synced sync(String repoUrl) throws IOException, InterruptedException {
+        Path mirror = mirrorPath(repoUrl);
+        ReentrantLock lock = lockFor(mirror);
+        CompletableFuture<Path> flight;
+        CompletableFuture<Path> before = null;
+        boolean leader = false;
+        lock.lock();
+        try {
+            Flights f = flights.computeIfAbsent(mirror, k -> new Flights());
+            if (f.next != null) {
+                flight = f.next;
+            } else if (f.running != null) {
+                // the running fetch may have started before our commit was pushed, queue a new one behind it
+                flight = f.next = new CompletableFuture<>();
+                before = f.running;
+                leader = true;
+            } else {
+                flight = f.running = new CompletableFuture<>();
+                leader = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long received = 0;
+        if (leader) {
+            received = lead(repoUrl, mirror, lock, flight, before);
+        }
+        try {
+            return new Synced(flight.get(), received);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof InterruptedException && leader) {
+                throw (InterruptedException) cause;
+            }
+            throw new RuntimeException("Fetch of " + repoUrl + " failed: " + cause, cause);
+        }
+    }
+
+    /**
+     * Runs a fetch on behalf of everyone waiting for it, after the fetch it is queued behind has finished.
+     * @return the bytes received by the fetch, 0 if it failed
+     */
+    private long lead(String repoUrl, Path mirror, ReentrantLock lock,
+                      CompletableFuture<Path> flight, CompletableFuture<Path> before) {
+        try {
+            if (before != null) {
+                try {
+                    before.get();
+                } catch (ExecutionException ignored) {
+                    // the earlier fetch failing does not decide the outcome of this one
+                }
+                lock.lock();
+                try {
+                    Flights f = flights.get(mirror);
+                    f.running = flight;
+                    f.next = null;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // no other fetch of this mirror runs now, so the growth of the object store is what this one received
+            long stored = objectBytes(mirror);
+            Path synced = update(repoUrl, mirror);
+            long received = Math.max(0, objectBytes(synced) - stored);
+            flight.complete(synced);
+            return received;
+        } catch (Throwable t) {
+            flight.completeExceptionally(t);
+            return 0;
+        } finally {
+            lock.lock();
+            try {
+                Flights f = flights.get(mirror);
+                if (f.running == flight) {
+                    f.running = null;
+                }
+                if (f.next == flight) {
+                    f.next = null;
+                }
+                if (f.running == null && f.next == null) {
+                    flights.remove(mirror);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Fetches into the mirror, or clones it if it does not exist yet.
+     * Never runs concurrently for the same mirror.
+     * @param repoUrl the repository URL
+     * @param mirror path of the bare repository
+     * @return path of the up-to-date bare repository
+     */
+    protected Path update(String repoUrl, Path mirror) throws IOException, InterruptedException {
+        if (Files.isDirectory(mirror)) {
+            // forget worktrees of workspaces that have been deleted in the meantime
+            withWorktreeLock(mirror, () -> GitCheckoutService.run(List.of("git", "worktree", "prune"), mirror));
+            GitCheckoutService.run(List.of("git", "fetch", "--prune", "--quiet", "origin"), mirror);
+            return mirror;
+        }
+
+        // Clone into a temporary directory first, so a failed clone never leaves a broken mirror behind
+        Files.createDirectories(root);
+        Path tmp = Files.createTempDirectory(root, mirror.getFileName() + ".tmp-");
+        try {
+            GitCheckoutService.run(List.of("git", "init", "--bare", "--quiet"), tmp);
+            GitCheckoutService.run(List.of("git", "remote", "add", "origin", repoUrl), tmp);
+            // only branches and tags, hosting-specific refs such as refs/pull/* are never needed
+            GitCheckoutService.run(List.of("git", "config", "remote.origin.fetch", "+refs/heads/*:refs/heads/*"), tmp);
+            GitCheckoutService.run(List.of("git", "config", "--add", "remote.origin.fetch", "+refs/tags/*:refs/tags/*"), tmp);
+            GitCheckoutService.run(List.of("git", "fetch", "--prune", "--quiet", "origin"), tmp);
+            Files.move(tmp, mirror, StandardCopyOption.ATOMIC_MOVE);
+            return mirror;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            reaper.reap(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the git objects of a repository as counted by git, without walking the object store.
+     * @param repo the repository, which may not exist yet
+     * @return the size of loose and packed objects in bytes, with the KiB resolution of {@code git count-objects}
+     */
+    static long objectBytes(Path repo) throws IOException, InterruptedException {
+        if (!Files.isDirectory(repo)) {
+            return 0;
+        }
+        long kib = 0;
+        for (String line : GitCheckoutService.run(List.of("git", "count-objects", "-v"), repo).split("\n")) {
+            if (line.startsWith("size: ") || line.startsWith("size-pack: ")) {
+                kib += Long.parseLong(line.substring(line.indexOf(' ') + 1).trim());
+            }
+        }
+        return kib * 1024;
+    }
+
+    /**
+     * Removes the administrative data of worktrees whose directories no longer exist.
+     * @param mirror the bare repository
+     */
+    public void pruneWorktrees(Path mirror) {
+        try {
+            withWorktreeLock(mirror, () -> GitCheckoutService.run(List.of("git", "worktree", "prune"), mirror));
+        } catch (Exception e) {
+            System.out.println("[CI] failed to prune worktrees of " + mirror + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs an operation that changes the worktree administration of a mirror, such as {@code git worktree add}
+     * or enabling a sparse checkout in a new worktree. Concurrent worktree commands on one repository read each
+     * other's half-written administrative files and fail, so they are serialized per mirror.
+     * @param mirror the bare repository
+     * @param operation the operation, which should only run short git commands
+     * @return the result of the operation
+     * @throws IOException if the operation fails
+     * @throws InterruptedException if interrupted while waiting for the lock or running the operation
+     */
+    public <T> T withWorktreeLock(Path mirror, WorktreeOperation<T> operation) throws IOException, InterruptedException {
+        ReentrantLock lock = worktreeLocks[Math.floorMod(mirror.hashCode(), LOCK_STRIPES)];
+        lock.lockInterruptibly();
+        try {
+            return operation.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(Path mirror) {
+        return locks[Math.floorMod(mirror.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static String hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded pool of long-lived build workspaces, keyed by repository and branch.
+ * Reusing a workspace keeps the checked out tree and ignored build outputs such as target/,
+ * so a build only has to reset the files that changed and Maven can build incrementally.
+ * A workspace is leased exclusively to one build at a time. When the pool is full,
+ * the least recently used idle workspace is evicted and deleted.
+ */
+public class WorkspacePool {
+    private final Path root;
+    private final int capacity;
+    private final WorkspaceReaper reaper;
+    // access ordered, so iteration starts at the least recently leased or returned workspace
+    private final LinkedHashMap<Path, Entry> workspaces = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry {
+        final String key;
+        boolean leased;
+
+        Entry(String key) {
+            this.key = key;
+            this.leased = true;
+        }
+    }
+
+    /**
+     * Creates a pool of at most the given number of workspaces in the given directory.
+     * @param root directory to create the workspaces in, created if it does not exist
+     * @param capacity maximum number of pooled workspaces, leased or idle
+     */
+    public WorkspacePool(Path root, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.root = root.toAbsolutePath();
+        this.capacity = capacity;
+        this.reaper = new WorkspaceReaper(this.root);
+    }
+
+    /**
+     * Creates a pool in data/workspaces with a capacity taken from the system property ci.workspaces.max (default 4).
+     */
+    public WorkspacePool() {
+        this(Paths.get("data", "workspaces"), Integer.getInteger("ci.workspaces.max", 4));
+    }
+
+    private static String key(String repoUrl, String branch) {
+        return repoUrl + "\n" + branch;
+    }
+
+    /**
+     * Leases the most recently used idle workspace of the given repository and branch.
+     * @param repoUrl the repository URL
+     * @param branch the branch
+     * @return the workspace, now exclusively leased to the caller, or null if there is none
+     */
+    public synchronized Path lease(String repoUrl, String branch) {
+        String key = key(repoUrl, branch);
+        Path found = null;
+        for (Map.Entry<Path, Entry> e : workspaces.entrySet()) {
+            if (!e.getValue().leased && e.getValue().key.equals(key)) {
+                found = e.getKey(); // keep looking, the last match is the most recently used one
+            }
+        }
+        if (found != null) {
+            workspaces.get(found).leased = true;
+        }
+        return found;
+    }
+
+    /**
+     * Creates a new, empty workspace directory for the given repository and branch and leases it to the caller.
+     * Idle workspaces are evicted to make room. If all pooled workspaces are leased, null is returned
+     * and the caller should use an unpooled workspace.
+     * @param repoUrl the repository URL
+     * @param branch the branch
+     * @return the new leased workspace, or null if the pool is full
+     * @throws IOException if the directory can't be created
+     */
+    public synchronized Path create(String repoUrl, String branch) throws IOException {
+        evictIdle(capacity - 1);
+        if (workspaces.size() >= capacity) {
+            return null;
+        }
+        Files.createDirectories(root);
+        Path dir = Files.createTempDirectory(root, WorkspaceReaper.CHECKOUT_PREFIX);
+        workspaces.put(dir, new Entry(key(repoUrl, branch)));
+        return dir;
+    }
+
+    /**
+     * Returns a leased workspace to the pool so a later build of the same branch can reuse it.
+     * @param dir the workspace
+     * @return true if the workspace belongs to the pool, false if the caller has to delete it
+     */
+    public synchronized boolean giveBack(Path dir) {
+        Entry entry = workspaces.get(dir); // access moves it to the most recently used end
+        if (entry == null) {
+            return false;
+        }
+        entry.leased = false;
+        return true;
+    }
+
+    /**
+     * Removes a workspace from the pool and deletes it, e.g. because it could not be reset.
+     * @param dir the workspace
+     */
+    public synchronized void discard(Path dir) {
+        if (workspaces.remove(dir) != null) {
+            reaper.reap(dir);
+        }
+    }
+
+    /**
+     * Returns whether the given directory is a workspace of this pool.
+     * @param dir the directory
+     * @return true if the workspace is pooled
+     */
+    public synchronized boolean contains(Path dir) {
+        return workspaces.containsKey(dir);
+    }
+
+    /**
+     * Returns the number of pooled workspaces, leased or idle.
+     * @return the pool size
+     */
+    public synchronized int size() {
+        return workspaces.size();
+    }
+
+    /**
+     * Deletes workspaces left in the pool directory by a previous run of the server.
+     * Must be called at startup, before the first workspace is created.
+     */
+    public void sweepOrphans() {
+        reaper.sweepOrphans();
+    }
+
+    private void evictIdle(int maxSize) {
+        List<Path> evicted = new ArrayList<>();
+        for (Map.Entry<Path, Entry> e : workspaces.entrySet()) {
+            if (workspaces.size() - evicted.size() <= maxSize) {
+                break;
+            }
+            if (!e.getValue().leased) {
+                evicted.add(e.getKey());
+            }
+        }
+        for (Path dir : evicted) {
+            workspaces.remove(dir);
+            System.out.println("[CI] POOL evicting " + dir);
+            reaper.reap(dir);
+        }
+    }
+}
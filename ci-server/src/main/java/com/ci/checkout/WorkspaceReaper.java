@@ -0,0 +1,225 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes build workspaces in the background so that workers don't have to wait for large directory trees to be removed.
+ * A workspace handed to {@link #reap(Path)} is first renamed into a trash directory, which is instant, and then deleted
+ * by background threads. The top-level entries of a workspace are deleted in parallel, failed deletions are retried.
+ */
+public class WorkspaceReaper {
+    /** Prefix of the temporary directories created for checkouts. */
+    public static final String CHECKOUT_PREFIX = "ci-checkout-";
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 200;
+
+    private final Path root;
+    private final Path trashDir;
+    private final ExecutorService coordinator;
+    private final ExecutorService deleters;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Creates a reaper for the checkouts of this server in data/checkouts. The directory belongs to this server
+     * alone, unlike the shared system temporary directory, so sweeping it never deletes the checkouts of another
+     * server or test run on the same host.
+     */
+    public WorkspaceReaper() {
+        this(Paths.get("data", "checkouts"));
+    }
+
+    /**
+     * Creates a reaper with its trash directory inside the given directory.
+     * Workspaces should live on the same file system so they can be renamed into the trash.
+     * @param root the directory containing the workspaces
+     */
+    public WorkspaceReaper(Path root) {
+        this.root = root.toAbsolutePath();
+        this.trashDir = this.root.resolve("ci-trash");
+        this.coordinator = Executors.newSingleThreadExecutor(r -> daemon(r, "ci-reaper"));
+        this.deleters = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> daemon(r, "ci-reaper-worker"));
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    }
+
+    /**
+     * Returns the directory {@link #createWorkspace} creates workspaces in, and the only one {@link #sweepOrphans} sweeps.
+     * @return the workspace directory
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Creates a new empty workspace in the workspace directory, creating that directory if needed.
+     * @return the workspace, named with {@link #CHECKOUT_PREFIX}
+     * @throws IOException if the directory can't be created
+     */
+    public Path createWorkspace() throws IOException {
+        Files.createDirectories(root);
+        return Files.createTempDirectory(root, CHECKOUT_PREFIX);
+    }
+
+    /**
+     * Returns the directory that workspaces are moved into before they are deleted.
+     * @return the trash directory
+     */
+    public Path getTrashDir() {
+        return trashDir;
+    }
+
+    /**
+     * Schedules the given directory for deletion. The directory is moved out of the way immediately,
+     * the actual deletion happens in the background.
+     * @param dir the directory to delete, may be null
+     * @return a future completing once the directory is gone, or exceptionally if it could not be deleted
+     */
+    public CompletableFuture<Void> reap(Path dir) {
+        if (dir == null || !Files.exists(dir)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Path target = moveToTrash(dir);
+        return CompletableFuture.runAsync(() -> deleteWithRetries(target), coordinator);
+    }
+
+    /**
+     * Reaps checkout directories left behind by a previous run that crashed, as well as anything still in the trash.
+     * Only the workspace directory is swept. Must be called at startup, before any build has created a new checkout.
+     * @return a future completing once all orphans are deleted
+     */
+    public CompletableFuture<Void> sweepOrphans() {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (Path dir : list(root)) {
+            if (dir.getFileName().toString().startsWith(CHECKOUT_PREFIX) && Files.isDirectory(dir)) {
+                System.out.println("[CI] REAPER orphaned workspace " + dir);
+                pending.add(reap(dir));
+            }
+        }
+        for (Path dir : list(trashDir)) {
+            pending.add(CompletableFuture.runAsync(() -> deleteWithRetries(dir), coordinator));
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]));
+    }
+
+    private Path moveToTrash(Path dir) {
+        try {
+            Files.createDirectories(trashDir);
+            Path target = trashDir.resolve(dir.getFileName() + "-" + counter.incrementAndGet());
+            Files.move(dir, target, StandardCopyOption.ATOMIC_MOVE);
+            return target;
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. the workspace is on another file system, delete it where it is
+            return dir;
+        }
+    }
+
+    private void deleteWithRetries(Path root) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            deleteParallel(root);
+            if (!Files.exists(root)) {
+                return;
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        System.out.println("[CI] REAPER failed to delete " + root);
+        throw new IllegalStateException("Failed to delete workspace: " + root);
+    }
+
+    /**
+     * Deletes the top-level entries of the directory in parallel, each with its own file tree walk, then the directory.
+     */
+    private void deleteParallel(Path root) {
+        if (!Files.isDirectory(root)) {
+            deleteQuietly(root);
+            return;
+        }
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (Path child : list(root)) {
+            tasks.add(CompletableFuture.runAsync(() -> deleteTree(child), deleters));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        deleteQuietly(root);
+    }
+
+    private static void deleteTree(Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    deleteQuietly(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    deleteQuietly(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    deleteQuietly(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ignored) {
+            // whatever is left is picked up by the next attempt
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (AccessDeniedException e) {
+            // read-only parent directory, make it writable and try once more
+            Path parent = path.getParent();
+            if (parent != null && parent.toFile().setWritable(true)) {
+                try { Files.deleteIfExists(path); } catch (IOException ignored) {}
+            }
+        } catch (IOException ignored) {
+            // e.g. a non-empty directory because a child could not be deleted, retried later
+        }
+    }
+
+    private static List<Path> list(Path dir) {
+        List<Path> entries = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(entries::add);
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            System.out.println("[CI] REAPER cannot list " + dir + ": " + e.getMessage());
+        }
+        return entries;
+    }
+}
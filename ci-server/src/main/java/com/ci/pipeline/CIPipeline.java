@@ -1,10 +1,25 @@
 package com.ci.pipeline;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+import com.ci.BuildEntry;
+import com.ci.BuildStore;
 import com.ci.DbHandler;
+import com.ci.checkout.CheckoutStats;
 import com.ci.checkout.GitCheckoutService;
 import com.ci.statuses.StatusPosterAdapter;
 
@@ -20,7 +35,25 @@ public class CIPipeline {
     private static final String TOKEN_CONFIG_SRC = "../token.config";
     private static final String TOKEN_CONFIG_DEST = "ci-server/src/main/resources/token.config";
 
-    private DbHandler dbHandler;
+    private BuildStore buildStore;
+    private final AtomicInteger activeRuns = new AtomicInteger();
+    // head of each repository branch whose dependencies have been resolved, by a build or a warm-up
+    private final Map<String, String> warmedHeads = new ConcurrentHashMap<>();
+    private volatile IdlePrefetcher prefetcher;
+    private final StageTimings timings = new StageTimings(() -> buildStore);
+
+    /** The result of a build, handed to the builds of the same tree waiting for it. */
+    private record Outcome(String sha, String result) {}
+
+    // builds of this process that have no result yet, by commit SHA and by tree hash
+    private final Map<String, CompletableFuture<Outcome>> runningShas = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Outcome>> runningTrees = new ConcurrentHashMap<>();
+    // runs the builds of commits whose tree build ended without a reusable result, see setBuildExecutor
+    private volatile Executor buildExecutor = task -> {
+        Thread t = new Thread(task, "ci-rebuild");
+        t.setDaemon(true);
+        t.start();
+    };
     /**
      * Prefer using this constructor from Server (composition root):
      * new CIPipeline(new GitCheckoutService(), new CommandRunner(), realStatusReporter)
@@ -29,45 +62,200 @@ public class CIPipeline {
         this.checkoutService = checkoutService;
         this.runner = runner;
         this.statusReporter = statusReporter;
-        this.dbHandler = new DbHandler();
+        this.buildStore = new DbHandler();
     }
 
     /**
      * Default constructor: uses real services for production.
      */
     public CIPipeline() {
-        this(new GitCheckoutService(), new CommandRunner(), new StatusPosterAdapter());
+        this(sparseCheckoutService(), new CommandRunner(), new StatusPosterAdapter());
+    }
+
+    private static GitCheckoutService sparseCheckoutService() {
+        GitCheckoutService checkoutService = new GitCheckoutService();
+        // the build only ever runs inside the CI context, don't write the rest of the repository to disk
+        checkoutService.setSparsePaths(List.of(CI_CONTEXT));
+        return checkoutService;
     }
 
 
     /**
-     * Sets the database handler to use for recording build statuses.
+     * Sets the build store to use for recording build statuses.
      * 
      * This is primarily intended for testing, where a mock database can be injected.
      * 
-     * @param dbHandler the database handler to use
+     * @param buildStore the build store to use
      */
-    public void setDbHandler(DbHandler dbHandler) {
-        this.dbHandler = dbHandler;
+    public void setBuildStore(BuildStore buildStore) {
+        this.buildStore = buildStore;
     }
     /**
-     * Runs the CI pipeline for the specified repository URL, branch, and commit SHA.
+     * Sets the executor building the commits that waited for a build of their tree which ended with an error,
+     * the executor of the pipeline runs. By default each such commit is built on a thread of its own.
+     * @param buildExecutor the executor
+     */
+    public void setBuildExecutor(Executor buildExecutor) {
+        this.buildExecutor = buildExecutor;
+    }
+
+    /**
+     * Returns the durations of the stages of the builds run by this pipeline.
+     * @return the timings, stored in the build store of the pipeline
+     */
+    public StageTimings timings() {
+        return timings;
+    }
+
+    /**
+     * Deletes workspaces left behind by a previous run of the server. Intended to be called once at startup.
+     */
+    public void sweepOrphanedWorkspaces() {
+        checkoutService.sweepOrphans();
+    }
+
+    /**
+     * Starts warming up recently built branches in the background while no build is running.
+     * The interval is taken from the system property ci.prefetch.interval in seconds (default 300),
+     * at most ci.prefetch.max branches (default 5) built within the last 24 hours are warmed up per pass.
+     */
+    public void startIdlePrefetcher() {
+        if (prefetcher != null) {
+            return;
+        }
+        IdlePrefetcher p = new IdlePrefetcher(this::warmUp, this::isIdle,
+            Integer.getInteger("ci.prefetch.max", 5), Duration.ofHours(24));
+        p.start(Duration.ofSeconds(Integer.getInteger("ci.prefetch.interval", 300)));
+        prefetcher = p;
+    }
+
+    /**
+     * Stops the background warm-up started with {@link #startIdlePrefetcher()}.
+     */
+    public void stopIdlePrefetcher() {
+        IdlePrefetcher p = prefetcher;
+        prefetcher = null;
+        if (p != null) {
+            p.stop();
+        }
+    }
+
+    /**
+     * Returns whether no build is running.
+     * @return true if the pipeline is idle
+     */
+    public boolean isIdle() {
+        return activeRuns.get() == 0;
+    }
+
+    /**
+     * Warms up a branch: fetches it and, if its head changed since it was last built or warmed up,
+     * checks it out and resolves its Maven dependencies into the local repository.
+     * @param repoUrl the repository URL
+     * @param branch the branch
+     * @throws IOException if the checkout fails
+     * @throws InterruptedException if a build arrived in the meantime
+     */
+    public void warmUp(String repoUrl, String branch) throws IOException, InterruptedException {
+        String key = repoUrl + "#" + branch;
+        String head = checkoutService.prefetch(repoUrl, branch);
+        if (head.equals(warmedHeads.get(key))) {
+            return;
+        }
+        System.out.println("[CI] PREFETCH branch=" + branch + " sha=" + shortSha(head));
+        Path workspace = checkoutService.checkout(repoUrl, branch, head);
+        try {
+            Path dir = workspace.resolve(CI_CONTEXT);
+            CommandRunner.TestResult result;
+            if (Files.exists(dir.resolve("mvnw"))) {
+                runner.run(dir, "chmod", "+x", "mvnw");
+                result = runner.run(dir, "./mvnw", "-B", "-q", "dependency:go-offline");
+            } else {
+                result = runner.run(dir, "mvn", "-B", "-q", "dependency:go-offline");
+            }
+            if (result.exitCode() == 0) {
+                warmedHeads.put(key, head);
+            }
+        } finally {
+            checkoutService.release(workspace);
+        }
+    }
+
+    /**
+     * Runs the CI pipeline for the specified repository URL, branch, and commit SHA, reusing a known result.
      * @param repoUrl
      * @param branch
      * @param sha
      */
     public void run(String repoUrl, String branch, String sha) {
+        run(repoUrl, branch, sha, false);
+    }
+
+    /**
+     * Runs the CI pipeline for the specified repository URL, branch, and commit SHA.
+     * <p>
+     * A commit that is already being built is not built a second time. Unless forced, a commit that has been
+     * built with success or failure before gets that result again without being built, and so does a commit
+     * with the same git tree as such a commit, resolved after the checkout. A commit whose tree is being built
+     * at the moment waits for that build in the background and takes its result, or is built itself on the build
+     * executor if that build ends with an error. Every build of a commit is a new
+     * attempt, the results of earlier attempts stay in its timeline.
+     * @param repoUrl
+     * @param branch
+     * @param sha
+     * @param force true to build the commit even if its result is known
+     */
+    public void run(String repoUrl, String branch, String sha, boolean force) {
         System.out.println("[CI] START branch=" + branch + " sha=" + shortSha(sha));
+        CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+        if (runningShas.putIfAbsent(sha, outcome) != null) {
+            System.out.println("[CI] SKIP sha=" + shortSha(sha) + " is already being built");
+            return;
+        }
+        outcome.whenComplete((ignored, e) -> runningShas.remove(sha, outcome));
+        if (!force) {
+            BuildEntry previous = safeSelect(buildStore.selectByShaAsync(sha));
+            if (previous != null && isFinal(previous.buildResult)) {
+                System.out.println("[CI] REUSE result=" + previous.buildResult + " of attempt " + previous.attempt);
+                postResult(sha, previous.buildResult, "CI " + previous.buildResult + " (result of attempt " + previous.attempt + " reused)");
+                outcome.complete(new Outcome(sha, previous.buildResult));
+                System.out.println("[CI] END branch=" + branch + " sha=" + shortSha(sha));
+                return;
+            }
+        }
+        activeRuns.incrementAndGet();
+        long started = System.nanoTime();
+        IdlePrefetcher prefetcher = this.prefetcher;
+        if (prefetcher != null) {
+            prefetcher.yieldNow();
+            prefetcher.recordActivity(repoUrl, branch);
+        }
 
+        Path workspace = null;
         Path dir = null;
+        boolean attached = false;
         try {
             safePending(sha, "CI running");
-            dbHandler.addEntry(sha, branch, "pending");
+            // committed by the writer thread while the checkout runs, the final update below waits for it
+            buildStore.startAttemptAsync(sha, branch).whenComplete((ignored, e) -> {
+                if (e != null) System.out.println("[CI] failed to record pending build: " + e.getMessage());
+            });
             System.out.println("[CI] CHECKOUT");
-            dir = checkoutService.checkout(repoUrl, branch, sha);
+            safeRecordEvent(sha, "checkout");
+            long checkoutStarted = System.nanoTime();
+            workspace = checkoutService.checkout(repoUrl, branch, sha);
+            timings.record(branch, StageTimings.CHECKOUT, millisSince(checkoutStarted));
+            dir = workspace;
             System.out.println("[CI] CHECKOUT OK dir=" + dir);
+            safeRecordCheckout(sha, repoUrl, checkoutService.getStats(workspace));
+            String tree = safeTreeHash(sha, workspace);
+            if (tree != null && reuseTree(repoUrl, sha, branch, tree, force, outcome)) {
+                attached = true;
+                return;
+            }
 
             System.out.println("[CI] TEST");
+            safeRecordEvent(sha, "testing");
 
             // TODO: Make this dynamic
             // Copy token.config into the repo directory for tests that need it
@@ -84,17 +272,26 @@ public class CIPipeline {
             CommandRunner.TestResult result;
             if (Files.exists(mvnw)) {
                 runner.run(dir, "chmod", "+x", "mvnw");
+            }
+            long testStarted = System.nanoTime();
+            if (Files.exists(mvnw)) {
                 result = runner.run(dir, "./mvnw", "test");
             } else {
                 result = runner.run(dir, "mvn", "test");
             }
+            timings.record(branch, StageTimings.TEST, millisSince(testStarted));
+            timings.record(branch, StageTimings.TOTAL, millisSince(started));
             exit = result.exitCode();
+            // the build resolved the dependencies of this commit, no need to warm it up again
+            warmedHeads.put(repoUrl + "#" + branch, sha);
             if (exit == 0) {
                 safeSuccess(sha, "CI passed");
-                dbHandler.updateEntry(sha, branch, "success", result.logs());
+                buildStore.updateEntry(sha, branch, "success", result.logs());
+                outcome.complete(new Outcome(sha, "success"));
             } else {
                 safeFailure(sha, "CI failed (exit=" + exit + ")");
-                dbHandler.updateEntry(sha, branch, "failure", result.logs());
+                buildStore.updateEntry(sha, branch, "failure", result.logs());
+                outcome.complete(new Outcome(sha, "failure"));
             }
 
         } catch (Exception e) {
@@ -102,21 +299,168 @@ public class CIPipeline {
             System.out.println("[CI] ERROR " + msg);
             e.printStackTrace();
             safeError(sha, "CI error: " + msg);
-            dbHandler.updateEntry(sha, branch, "error", "Error during CI: " + msg);
+            buildStore.updateEntry(sha, branch, "error", "Error during CI: " + msg);
         } finally {
-            if (dir != null) {
-                System.out.println("[CI] CLEANUP " + dir);
-                runner.deleteRecursively(dir);
+            if (workspace != null) {
+                // Hand the whole checkout to the background reaper, the worker can take the next job right away
+                System.out.println("[CI] CLEANUP " + workspace);
+                checkoutService.release(workspace);
             }
+            if (!attached) {
+                // does nothing if the result has been set above
+                outcome.complete(new Outcome(sha, "error"));
+            }
+            activeRuns.decrementAndGet();
             System.out.println("[CI] END branch=" + branch + " sha=" + shortSha(sha));
         }
     }
 
+    /**
+     * Takes the result of another build of the same tree instead of running the tests: of the build of the tree
+     * running at the moment, once it is done, or of the latest build of the tree with success or failure.
+     * Errors are never reused: if the running build ends with one, the commit is built after all.
+     * When forced, the build of the tree is only registered, for other commits of the tree to wait for.
+     * @return true if the result is taken from another build or left to a later build, false if the commit has
+     * to be built now
+     */
+    private boolean reuseTree(String repoUrl, String sha, String branch, String tree, boolean force,
+                              CompletableFuture<Outcome> outcome) {
+        CompletableFuture<Outcome> running = runningTrees.putIfAbsent(tree, outcome);
+        if (running == null) {
+            outcome.whenComplete((ignored, e) -> runningTrees.remove(tree, outcome));
+        }
+        if (force) {
+            return false;
+        }
+        if (running != null) {
+            System.out.println("[CI] ATTACH sha=" + shortSha(sha) + " to the running build of tree " + tree);
+            running.whenComplete((other, e) -> {
+                if (other != null && isFinal(other.result())) {
+                    adopt(sha, branch, other, outcome);
+                } else {
+                    rebuild(repoUrl, branch, sha, outcome);
+                }
+            });
+            return true;
+        }
+        // the store skips this commit's own build and builds without a reusable result
+        BuildEntry previous = safeSelect(buildStore.selectByTreeAsync(tree, sha));
+        if (previous != null) {
+            System.out.println("[CI] REUSE result=" + previous.buildResult + " of sha=" + shortSha(previous.sha) + " with the same tree");
+            adopt(sha, branch, new Outcome(previous.sha, previous.buildResult), outcome);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records and posts the result of a build of the same tree as the result of a commit.
+     */
+    private void adopt(String sha, String branch, Outcome other, CompletableFuture<Outcome> outcome) {
+        String description = "Same tree as " + shortSha(other.sha()) + ", result reused";
+        try {
+            postResult(sha, other.result(), "CI " + other.result() + " (" + description + ")");
+            buildStore.updateEntry(sha, branch, other.result(), description);
+        } catch (RuntimeException e) {
+            System.out.println("[CI] failed to record reused result: " + e.getMessage());
+        } finally {
+            outcome.complete(new Outcome(sha, other.result()));
+        }
+    }
+
+    /**
+     * Builds a commit whose tree was being built when it arrived, after that build ended without a result to reuse.
+     * The build runs on the build executor, not on the thread that ended the build of the tree.
+     */
+    private void rebuild(String repoUrl, String branch, String sha, CompletableFuture<Outcome> outcome) {
+        System.out.println("[CI] REBUILD sha=" + shortSha(sha) + ", the build of its tree has no result to reuse");
+        // the new run registers the commit again
+        runningShas.remove(sha, outcome);
+        try {
+            buildExecutor.execute(() -> run(repoUrl, branch, sha, true));
+        } catch (RejectedExecutionException e) {
+            System.out.println("[CI] failed to build sha=" + shortSha(sha) + ": " + e.getMessage());
+            safeError(sha, "CI error: the build could not be started");
+            try {
+                buildStore.updateEntry(sha, branch, "error", "Error during CI: the build could not be started");
+            } catch (RuntimeException ignored) {
+                // the store is closed as well
+            }
+        } finally {
+            outcome.complete(null);
+        }
+    }
+
+    private static boolean isFinal(String result) {
+        return "success".equals(result) || "failure".equals(result);
+    }
+
+    private static long millisSince(long nanoTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
+    }
+
     private static String shortSha(String sha) {
         if (sha == null) return "null";
         return sha.length() < 7 ? sha : sha.substring(0, 7);
     }
 
+    // recording checkout measurements is best effort and must neither fail nor wait for the build
+    private void safeRecordCheckout(String sha, String repoUrl, CheckoutStats stats) {
+        if (stats == null) return;
+        try {
+            buildStore.addCheckoutStatsAsync(sha, repoUrl, stats.strategy().name(), stats.durationMillis(), stats.bytesTransferred())
+                .whenComplete((ignored, e) -> {
+                    if (e != null) System.out.println("[CI] failed to record checkout stats: " + e.getMessage());
+                });
+        } catch (Exception e) {
+            System.out.println("[CI] failed to record checkout stats: " + e.getMessage());
+        }
+    }
+
+    // the steps of a build are recorded like the checkout measurements, in the background and best effort
+    private void safeRecordEvent(String sha, String state) {
+        try {
+            buildStore.addEventAsync(sha, state).whenComplete((ignored, e) -> {
+                if (e != null) System.out.println("[CI] failed to record " + state + " event: " + e.getMessage());
+            });
+        } catch (Exception e) {
+            System.out.println("[CI] failed to record " + state + " event: " + e.getMessage());
+        }
+    }
+
+    // the tree hash only saves builds, a commit whose tree can't be resolved is built
+    private String safeTreeHash(String sha, Path workspace) {
+        try {
+            String tree = checkoutService.treeHash(workspace);
+            buildStore.setTreeHashAsync(sha, tree).whenComplete((ignored, e) -> {
+                if (e != null) System.out.println("[CI] failed to record tree hash: " + e.getMessage());
+            });
+            return tree;
+        } catch (Exception e) {
+            System.out.println("[CI] failed to resolve tree hash: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // a result that can't be looked up in time is built again
+    private static BuildEntry safeSelect(CompletableFuture<BuildEntry> select) {
+        try {
+            return select.join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.out.println("[CI] failed to look up previous builds: " + cause);
+            return null;
+        }
+    }
+
+    private void postResult(String sha, String result, String msg) {
+        switch (result) {
+            case "success" -> safeSuccess(sha, msg);
+            case "failure" -> safeFailure(sha, msg);
+            default -> safeError(sha, msg);
+        }
+    }
+
     // status helpers that don’t let status posting break CI execution
     private void safePending(String sha, String msg) {
         if (statusReporter == null || sha == null) return;
@@ -1,27 +1,54 @@
 package com.ci.pipeline;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.ci.process.OutputLine;
+import com.ci.process.OutputListener;
+import com.ci.process.ProcessOutputPump;
 
 /**
  * Responsible for running shell commands in the CI pipeline, such as compiling code and running tests.
  * Also provides a utility method for deleting directories recursively.
  */
 public class CommandRunner {
+    private final List<OutputListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * A record to hold the result of a command execution, including the exit code and logs.
      * 
      * @param exitCode the exit code of the command
-     * @param logs the combined standard output and error logs from the command execution
+     * @param logs the combined standard output and error logs from the command execution, one
+     * {@link OutputLine#format() formatted line} each, with its time since the start and its stream
      */
     public record TestResult(int exitCode, String logs) {}
 
+    /**
+     * Registers a listener that receives every output line of every command while it runs,
+     * e.g. for storage or live viewers.
+     * @param listener the listener to add
+     */
+    public void addOutputListener(OutputListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a previously registered output listener.
+     * @param listener the listener to remove
+     */
+    public void removeOutputListener(OutputListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Runs the specified command in the given working directory and returns the exit code.
+     * Standard output and error are pumped concurrently and logged line by line as they arrive, each line with
+     * its time since the start and its stream, which is also how the lines are kept in the returned logs.
      * @param cwd
      * @param cmd
      * @return
@@ -31,19 +58,35 @@ public class CommandRunner {
     public TestResult run(Path cwd, String... cmd) throws IOException, InterruptedException {
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(cwd.toFile());
-        pb.redirectErrorStream(true);
 
         // Prevent hanging on private repos / missing credentials
         pb.environment().put("GIT_TERMINAL_PROMPT", "0");
 
-        Process p = pb.start();
-        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-
-        int code = p.waitFor();
         System.out.println("[CI] CMD: " + String.join(" ", cmd));
-        System.out.println(out);
+        StringBuilder logs = new StringBuilder();
+        List<OutputListener> sinks = new ArrayList<>(listeners);
+        sinks.add(0, line -> {
+            String formatted = line.format();
+            System.out.println(formatted);
+            synchronized (logs) {
+                logs.append(formatted).append('\n');
+            }
+        });
 
-        return new TestResult(code, out);
+        long start = System.nanoTime();
+        Process p = pb.start();
+        ProcessOutputPump pump = ProcessOutputPump.start(p, start, sinks);
+        try {
+            int code = p.waitFor();
+            pump.await();
+            System.out.println("[CI] CMD EXIT " + code + " after " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            synchronized (logs) {
+                return new TestResult(code, logs.toString());
+            }
+        } catch (InterruptedException e) {
+            p.destroyForcibly();
+            throw e;
+        }
     }
     /**
      * Deletes the specified directory and all of its contents recursively.
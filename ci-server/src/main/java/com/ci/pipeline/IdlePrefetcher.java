@@ -0,0 +1,152 @@
+package com.ci.pipeline;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Low-priority background scheduler that warms up recently built branches while no build is running,
+ * so the first build after a quiet period does not pay for a cold fetch and cold dependency resolution.
+ * Warm-up work yields as soon as a build arrives: the worker is interrupted and the pass is abandoned.
+ */
+public class IdlePrefetcher {
+
+    /** Warms up one branch, e.g. by fetching it and resolving the dependencies of its head. */
+    @FunctionalInterface
+    public interface Warmer {
+        /**
+         * Warms up the given branch. Must stop promptly when the thread is interrupted.
+         * @param repoUrl the repository URL
+         * @param branch the branch
+         */
+        void warmUp(String repoUrl, String branch) throws Exception;
+    }
+
+    private record Target(String repoUrl, String branch) {}
+
+    private final Warmer warmer;
+    private final BooleanSupplier idle;
+    private final int maxTargets;
+    private final Duration window;
+    // access ordered, so the most recently active branches come last
+    private final LinkedHashMap<Target, Instant> activity = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object workerLock = new Object();
+    private Thread worker; // guarded by workerLock, set while a warm-up is running
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a prefetcher.
+     * @param warmer warms up a single branch
+     * @param idle tells whether the build queue is empty
+     * @param maxTargets maximum number of branches warmed up per pass, most recently active first
+     * @param window branches not built for longer than this are not warmed up any more
+     */
+    public IdlePrefetcher(Warmer warmer, BooleanSupplier idle, int maxTargets, Duration window) {
+        this.warmer = warmer;
+        this.idle = idle;
+        this.maxTargets = maxTargets;
+        this.window = window;
+    }
+
+    /**
+     * Records that a build of the given branch has been requested, making it a candidate for warm-up.
+     * @param repoUrl the repository URL
+     * @param branch the branch
+     */
+    public synchronized void recordActivity(String repoUrl, String branch) {
+        activity.put(new Target(repoUrl, branch), Instant.now());
+    }
+
+    /**
+     * Interrupts the warm-up in progress, if any. Called when real work arrives.
+     */
+    public void yieldNow() {
+        synchronized (workerLock) {
+            if (worker != null) {
+                System.out.println("[CI] PREFETCH yielding to build");
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs one warm-up pass over the recently active branches, most recent first.
+     * Stops as soon as a build is running or the pass is interrupted by {@link #yieldNow}.
+     * @return the number of branches warmed up
+     */
+    public int runOnce() {
+        List<Target> targets = recentTargets();
+        int warmed = 0;
+        for (Target target : targets) {
+            synchronized (workerLock) {
+                if (!idle.getAsBoolean()) {
+                    return warmed;
+                }
+                worker = Thread.currentThread();
+            }
+            try {
+                warmer.warmUp(target.repoUrl(), target.branch());
+                warmed++;
+            } catch (InterruptedException e) {
+                return warmed;
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return warmed;
+                }
+                System.out.println("[CI] PREFETCH failed for " + target.repoUrl() + " " + target.branch() + ": " + e.getMessage());
+            } finally {
+                synchronized (workerLock) {
+                    worker = null;
+                    // an interrupt meant for this warm-up must not leak into the scheduler
+                    Thread.interrupted();
+                }
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Starts running a warm-up pass at a fixed interval on a daemon thread of minimum priority.
+     * @param interval time between passes, the first pass runs after one interval
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ci-prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::runOnce, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the scheduler and interrupts the warm-up in progress.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private synchronized List<Target> recentTargets() {
+        Instant cutoff = Instant.now().minus(window);
+        activity.values().removeIf(seen -> seen.isBefore(cutoff));
+        List<Target> targets = new ArrayList<>();
+        for (Map.Entry<Target, Instant> e : activity.entrySet()) {
+            targets.add(0, e.getKey());
+        }
+        return targets.subList(0, Math.min(maxTargets, targets.size()));
+    }
+}
@@ -0,0 +1,230 @@
+package com.ci.pipeline;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.ci.BuildStore;
+import com.ci.DurationSketch;
+import com.ci.StageTiming;
+
+/**
+ * Durations of the stages of the pipeline (queue wait, checkout, tests and the whole build), kept as mergeable
+ * {@link DurationSketch}es per hour, branch and stage. Samples are counted in memory and merged into the sketches of
+ * the build store periodically and when stopped, so a build costs no write; reads merge the stored sketches with
+ * the ones not stored yet. The sketches of hours merge into those of longer ranges like the last day or week.
+ */
+public class StageTimings {
+    /** Time spent between the webhook and the start of the build. */
+    public static final String QUEUE = "queue";
+    /** Time spent checking out the commit. */
+    public static final String CHECKOUT = "checkout";
+    /** Time spent running the tests. */
+    public static final String TEST = "test";
+    /** Time from the start of the build to its result. */
+    public static final String TOTAL = "total";
+    /** The stages, in pipeline order. */
+    public static final List<String> STAGES = List.of(QUEUE, CHECKOUT, TEST, TOTAL);
+
+    private static final DateTimeFormatter WINDOW = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00");
+
+    private final Supplier<BuildStore> buildStore;
+    private final Clock clock;
+    private final Object flushLock = new Object();
+    // window, branch and stage -> samples not stored yet, guarded by this
+    private Map<String, StageTiming> pending = new TreeMap<>();
+    // samples being stored by a flush, guarded by this
+    private Map<String, StageTiming> storing = new TreeMap<>();
+    // flushes started and finished, odd while one is storing, guarded by this
+    private long flushes;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates the timings of a pipeline.
+     * @param buildStore supplies the build store the sketches are merged into
+     */
+    public StageTimings(Supplier<BuildStore> buildStore) {
+        this(buildStore, Clock.systemUTC());
+    }
+
+    StageTimings(Supplier<BuildStore> buildStore, Clock clock) {
+        this.buildStore = buildStore;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the hourly window of a time.
+     * @param time a time in UTC
+     * @return the start of its hour, yyyy-MM-dd HH:00
+     */
+    public static String windowOf(LocalDateTime time) {
+        return time.format(WINDOW);
+    }
+
+    /**
+     * Counts the duration of a stage in the window of the current hour.
+     * @param branch the branch built
+     * @param stage one of {@link #STAGES}
+     * @param millis the duration in milliseconds
+     */
+    public synchronized void record(String branch, String stage, long millis) {
+        String window = windowOf(LocalDateTime.now(clock));
+        pending.computeIfAbsent(key(window, branch, stage), key -> new StageTiming(window, branch, stage, new DurationSketch()))
+            .sketch().add(millis);
+    }
+
+    /**
+     * Merges the samples counted since the last flush into the sketches of the build store. Samples that fail to be
+     * stored are kept for the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                storing = pending;
+                pending = new TreeMap<>();
+                flushes++;
+            }
+            try {
+                buildStore.get().mergeTimings(new ArrayList<>(storing.values()));
+            } catch (RuntimeException e) {
+                System.out.println("[CI] failed to store stage timings: " + e.getMessage());
+                synchronized (this) {
+                    storing.values().forEach(timing -> merge(pending, timing));
+                }
+            } finally {
+                synchronized (this) {
+                    storing = new TreeMap<>();
+                    flushes++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the sketches of a range of windows, stored or not.
+     * @param branch the branch, or null for all branches
+     * @param fromWindow the first window, or null to start with the oldest
+     * @param toWindow the window to stop before, or null to select up to the newest
+     * @return one sketch per window, branch and stage, ordered by window, branch and stage
+     */
+    public List<StageTiming> select(String branch, String fromWindow, String toWindow) {
+        // no flush commits between the two reads, which would count its samples twice or not at all
+        synchronized (flushLock) {
+            List<StageTiming> stored = buildStore.get().selectTimings(branch, fromWindow, toWindow);
+            return merge(stored, unstored(branch, fromWindow, toWindow));
+        }
+    }
+
+    /**
+     * Selects the sketches of a range of windows, stored or not, without waiting for the build store,
+     * see {@link BuildStore#selectTimingsAsync}. The store is read again when a flush overlapped the read.
+     * @param branch the branch, or null for all branches
+     * @param fromWindow the first window, or null to start with the oldest
+     * @param toWindow the window to stop before, or null to select up to the newest
+     * @return a future of one sketch per window, branch and stage, ordered by window, branch and stage
+     */
+    public CompletableFuture<List<StageTiming>> selectAsync(String branch, String fromWindow, String toWindow) {
+        long flushed;
+        List<StageTiming> unstored;
+        synchronized (this) {
+            flushed = flushes;
+            unstored = unstored(branch, fromWindow, toWindow);
+        }
+        return buildStore.get().selectTimingsAsync(branch, fromWindow, toWindow).thenCompose(stored -> {
+            synchronized (this) {
+                if (flushed % 2 == 0 && flushed == flushes) {
+                    return CompletableFuture.completedFuture(merge(stored, unstored));
+                }
+            }
+            // the read may or may not include the samples of the flush that were copied as unstored
+            return selectAsync(branch, fromWindow, toWindow);
+        });
+    }
+
+    /** Copies the sketches not stored yet of a range of windows. */
+    private synchronized List<StageTiming> unstored(String branch, String fromWindow, String toWindow) {
+        List<StageTiming> unstored = new ArrayList<>();
+        for (Map<String, StageTiming> timings : List.of(storing, pending)) {
+            for (StageTiming timing : timings.values()) {
+                if ((branch == null || branch.equals(timing.branch()))
+                    && (fromWindow == null || timing.window().compareTo(fromWindow) >= 0)
+                    && (toWindow == null || timing.window().compareTo(toWindow) < 0)) {
+                    // copied under the lock, record() keeps adding to the pending sketches
+                    unstored.add(new StageTiming(timing.window(), timing.branch(), timing.stage(), timing.sketch().copy()));
+                }
+            }
+        }
+        return unstored;
+    }
+
+    private static List<StageTiming> merge(List<StageTiming> stored, List<StageTiming> unstored) {
+        Map<String, StageTiming> merged = new TreeMap<>();
+        for (StageTiming timing : stored) {
+            merge(merged, timing);
+        }
+        for (StageTiming timing : unstored) {
+            merge(merged, timing);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Starts flushing the samples at a fixed interval on a daemon thread.
+     * @param interval time between two flushes
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ci-timings");
+            t.setDaemon(true);
+            return t;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flushes started with {@link #start} and flushes the remaining samples.
+     */
+    public void stop() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s != null) {
+            s.shutdown();
+            try {
+                s.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private static String key(String window, String branch, String stage) {
+        return window + '\0' + branch + '\0' + stage;
+    }
+
+    private static void merge(Map<String, StageTiming> timings, StageTiming timing) {
+        timings.computeIfAbsent(key(timing.window(), timing.branch(), timing.stage()),
+            key -> new StageTiming(timing.window(), timing.branch(), timing.stage(), new DurationSketch()))
+            .sketch().merge(timing.sketch());
+    }
+}
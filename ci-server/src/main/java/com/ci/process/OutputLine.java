@@ -0,0 +1,59 @@
+package com.ci.process;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A single line of output produced by an external process.
+ *
+ * @param stream the stream the line was read from
+ * @param elapsedNanos monotonic time since the process was started, in nanoseconds
+ * @param bytes the raw bytes of the line, without the trailing line terminator
+ */
+public record OutputLine(Stream stream, long elapsedNanos, byte[] bytes) {
+
+    /**
+     * The stream of the process a line originates from.
+     */
+    public enum Stream { STDOUT, STDERR }
+
+    /**
+     * Decodes the line as UTF-8 text.
+     * @return the line as a string
+     */
+    public String text() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the time since the process was started, in milliseconds.
+     * @return elapsed milliseconds
+     */
+    public long elapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * Formats the line for logs, prefixed with its time since the process was started and, for stderr, its stream,
+     * e.g. {@code [+12.345s] Tests run: 3} or {@code [+0.042s err] warning}, so the log shows where the time went.
+     * @return the formatted line, without a line terminator
+     */
+    public String format() {
+        long millis = elapsedMillis();
+        String stream = this.stream == Stream.STDERR ? " err" : "";
+        return String.format("[+%d.%03ds%s] %s", millis / 1000, millis % 1000, stream, text());
+    }
+
+    /**
+     * Joins the given lines into a single newline separated text, in the order they were received.
+     * @param lines the lines to join
+     * @return the combined text
+     */
+    public static String join(List<OutputLine> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (OutputLine line : lines) {
+            sb.append(line.text()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package com.ci.process;
+
+/**
+ * Receives output lines of a running process as soon as they are read.
+ * Implementations can log the lines, store them, or forward them to live viewers.
+ */
+@FunctionalInterface
+public interface OutputListener {
+    /**
+     * Called once for every line read from the process, on the thread reading the line's stream. The lines of one
+     * stream arrive in order, but lines of stdout and stderr may be delivered concurrently, so implementations
+     * must be thread-safe. A listener that throws receives no further lines of the process.
+     * @param line the line that was read
+     */
+    void onLine(OutputLine line);
+}
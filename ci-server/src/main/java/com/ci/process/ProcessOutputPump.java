@@ -0,0 +1,101 @@
+package com.ci.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pumps stdout and stderr of a process concurrently on virtual threads and splits them into {@link OutputLine} records.
+ * Every line is delivered to the registered listeners as soon as it is read, on the thread of its stream, so a slow
+ * listener only holds back the stream it is called for. The pump keeps no lines itself: the listeners keep what they
+ * need, e.g. the text to store, so the output of a long build is held once.
+ */
+public class ProcessOutputPump {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long startNanos;
+    private final List<OutputListener> listeners;
+    // listeners that threw, they receive no further lines
+    private final Set<OutputListener> failed = ConcurrentHashMap.newKeySet();
+    private final Thread stdoutThread;
+    private final Thread stderrThread;
+
+    private ProcessOutputPump(Process process, long startNanos, List<OutputListener> listeners) {
+        this.startNanos = startNanos;
+        this.listeners = List.copyOf(listeners);
+        this.stdoutThread = Thread.ofVirtual().name("pump-stdout-" + process.pid())
+            .start(() -> pump(process.getInputStream(), OutputLine.Stream.STDOUT));
+        this.stderrThread = Thread.ofVirtual().name("pump-stderr-" + process.pid())
+            .start(() -> pump(process.getErrorStream(), OutputLine.Stream.STDERR));
+    }
+
+    /**
+     * Starts pumping the output of the given process.
+     * @param process the process to read from, must not redirect its error stream
+     * @param startNanos the {@link System#nanoTime()} value at which the process was started
+     * @param listeners listeners to notify for every line
+     * @return the running pump
+     */
+    public static ProcessOutputPump start(Process process, long startNanos, List<OutputListener> listeners) {
+        return new ProcessOutputPump(process, startNanos, listeners);
+    }
+
+    /**
+     * Waits until both streams have been fully read and every line has been delivered.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        stdoutThread.join();
+        stderrThread.join();
+    }
+
+    private void pump(InputStream in, OutputLine.Stream stream) {
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream current = new ByteArrayOutputStream();
+        try (in) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') {
+                        current.write(buf, start, i - start);
+                        emit(stream, current);
+                        start = i + 1;
+                    }
+                }
+                current.write(buf, start, n - start);
+            }
+        } catch (IOException ignored) {
+            // The stream is closed when the process is destroyed, keep what was read so far
+        }
+        if (current.size() > 0) {
+            emit(stream, current);
+        }
+    }
+
+    private void emit(OutputLine.Stream stream, ByteArrayOutputStream current) {
+        byte[] bytes = current.toByteArray();
+        current.reset();
+        int len = bytes.length;
+        if (len > 0 && bytes[len - 1] == '\r') {
+            bytes = Arrays.copyOf(bytes, len - 1);
+        }
+        OutputLine line = new OutputLine(stream, System.nanoTime() - startNanos, bytes);
+        for (OutputListener listener : listeners) {
+            if (failed.contains(listener)) {
+                continue;
+            }
+            try {
+                listener.onLine(line);
+            } catch (RuntimeException e) {
+                // A broken listener must not stop the output from being read
+                failed.add(listener);
+                System.out.println("[CI] output listener failed, dropping it: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * This package contains classes for running external processes and capturing their output as timestamped line records.
+ */
+package com.ci.process;
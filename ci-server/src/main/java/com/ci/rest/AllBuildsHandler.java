@@ -1,111 +1,181 @@
 package com.ci.rest;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.ci.BuildEntry;
-import com.ci.DbHandler;
+import com.ci.BuildPage;
+import com.ci.BuildStore;
+import com.ci.BuildTimes;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 /**
  * The AllBuildsHandler class is responsible for handling HTTP GET requests to the /builds endpoint.
- * It retrieves all build entries from the database and responds with a JSON array of these entries.
+ * It retrieves one page of build entries from the database, newest first, and responds with an HTML list of these entries.
+ * The optional branch parameter restricts the list to one branch, limit sets the page size and after is the cursor
+ * of the page, taken from the link to the next page.
+ * With a from or to parameter, epoch milliseconds or a date like 2024-01-31 or 2024-01-31T12:00:00Z, it responds
+ * instead with a JSON page of the builds queued within that range, latest first, answered by a range scan of the
+ * index on the queued time; from is inclusive, to exclusive, and after is the nextCursor of the previous page.
  * If a request method other than GET is used, it responds with a 405 Method Not Allowed status code.
  */
 public class AllBuildsHandler implements HttpHandler{
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+
     private final static ObjectMapper objectMapper = new ObjectMapper();
-    private final DbHandler dbHandler;
-    public AllBuildsHandler(DbHandler dbHandler) {
-        this.dbHandler = dbHandler;
+    private final BuildStore buildStore;
+    public AllBuildsHandler(BuildStore buildStore) {
+        this.buildStore = buildStore;
     }
     /**
-     * Handles incoming HTTP GET requests to retrieve all build entries.
-     * Responds with a JSON array of all build entries.
+     * Handles incoming HTTP GET requests to retrieve a page of build entries.
+     * Responds with 400 Bad Request if the cursor or the page size is invalid.
      */
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        try (exchange) {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            AsyncResponse.reject(exchange, 405); // Method Not Allowed
+            return;
+        }
 
-            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-                exchange.sendResponseHeaders(405, -1);
+        QueryParams params = new QueryParams(exchange.getRequestURI());
+        String branchFilter = params.get("branch");
+        String after = params.get("after");
+        int limit;
+        try {
+            limit = params.getInt("limit", DEFAULT_LIMIT, 1, MAX_LIMIT);
+        } catch (IllegalArgumentException e) {
+            AsyncResponse.reject(exchange, 400); // Bad Request
+            return;
+        }
+        if (params.get("from") != null || params.get("to") != null) {
+            long from;
+            long to;
+            try {
+                from = params.get("from") == null ? 0 : BuildTimes.parseBound(params.get("from"));
+                to = params.get("to") == null ? Long.MAX_VALUE : BuildTimes.parseBound(params.get("to"));
+            } catch (IllegalArgumentException e) {
+                AsyncResponse.reject(exchange, 400); // Bad Request
                 return;
             }
+            AsyncResponse.send(exchange, buildStore.selectByTimeRangeAsync(branchFilter, from, to, after, limit),
+                (ex, page) -> respondRange(ex, page, from, to, branchFilter));
+            return;
+        }
+        // an invalid cursor fails the read with an IllegalArgumentException, answered with 400 Bad Request
+        CompletableFuture<BuildPage> read = branchFilter == null
+            ? buildStore.selectBuildsPageAsync(after, limit)
+            : buildStore.selectByBranchPageAsync(branchFilter, after, limit);
+        AsyncResponse.send(exchange, read, (ex, page) -> respond(ex, page, branchFilter, limit));
+    }
 
-            List<BuildEntry> builds = dbHandler.selectAllBuilds();
-
-            StringBuilder html = new StringBuilder();
-
-            html.append("<!DOCTYPE html>");
-            html.append("<html>");
-            html.append("<head>");
-            html.append("<title>Builds</title>");
-            html.append("</head>");
-            html.append("<body>");
-
-            html.append("<h1>Builds</h1>");
-            html.append("<ul>");
-
-            for (BuildEntry build : builds) {
-                String id = build.id + ""; 
-                String sha = build.sha;
-                String branch = build.branch;
-                String result = build.buildResult;
-                String description = build.buildDescription;
-                String date = build.buildDate;
-
-                html.append("<li>")
-                    .append("ID: ")
-                    .append(id)
-                    .append("</li>");
-
-                html.append("<ul>");
-
-                
-                html.append("<li>")
-                    .append("<a href=\"builds/")
-                    .append(sha)
-                    .append("\">")
-                    .append(sha)
-                    .append("</a>")
-                    .append("</li>");
-
-                html.append("<li>")
-                    .append("Branch: ")
-                    .append(branch)
-                    .append("</li>");
-
-                html.append("<li>")
-                    .append("Result: ")
-                    .append(result)
-                    .append("</li>");
-
-                html.append("<li>")
-                    .append("Description: ")
-                    .append(description)
-                    .append("</li>");
-
-                html.append("<li>")
-                    .append("Date: ")
-                    .append(date)
-                    .append("</li>");
-
-                html.append("</ul>");
-            }
+    /** Responds with the JSON page of the builds of a time range. */
+    private static void respondRange(HttpExchange exchange, BuildPage page, long from, long to, String branch)
+            throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("from", from);
+        body.put("to", to == Long.MAX_VALUE ? null : to);
+        body.put("branch", branch);
+        body.put("builds", page.builds());
+        body.put("nextCursor", page.nextCursor());
+        byte[] response = objectMapper.writeValueAsBytes(body);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, response.length);
+        exchange.getResponseBody().write(response);
+    }
 
-            html.append("</ul>");
-            html.append("</body>");
-            html.append("</html>");
+    /**
+     * Responds with the HTML list of a page of builds, linking to the next page. The page is written to the response
+     * as it is rendered, in chunks, so nothing waits for the whole page nor holds more than a buffer of it.
+     * Values are HTML-escaped, as branches and build output come from the pushed commits.
+     */
+    private static void respond(HttpExchange exchange, BuildPage page, String branchFilter, int limit) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        Writer html = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+
+        html.write("<!DOCTYPE html>");
+        html.write("<html>");
+        html.write("<head>");
+        html.write("<meta charset=\"UTF-8\">");
+        html.write("<title>Builds</title>");
+        html.write("</head>");
+        html.write("<body>");
+
+        html.write("<h1>Builds</h1>");
+        html.write("<ul>");
+
+        for (BuildEntry build : page.builds()) {
+            html.write("<li>ID: " + build.id + "</li>");
+
+            html.write("<ul>");
+            html.write("<li><a href=\"builds/" + escape(URLEncoder.encode(build.sha, StandardCharsets.UTF_8)) + "\">"
+                + escape(build.sha) + "</a></li>");
+            html.write("<li>Branch: " + escape(build.branch) + "</li>");
+            html.write("<li>Result: " + escape(build.buildResult) + "</li>");
+            html.write("<li>Description: " + escape(build.buildDescription) + "</li>");
+            html.write("<li>Date: " + escape(build.buildDate) + "</li>");
+            html.write("</ul>");
+        }
 
+        html.write("</ul>");
 
+        if (page.nextCursor() != null) {
+            html.write("<a href=\"?");
+            if (branchFilter != null) {
+                html.write("branch=" + escape(URLEncoder.encode(branchFilter, StandardCharsets.UTF_8)) + "&amp;");
+            }
+            html.write("after=" + escape(URLEncoder.encode(page.nextCursor(), StandardCharsets.UTF_8))
+                + "&amp;limit=" + limit + "\">Next page</a>");
+        }
 
-            byte[] responseBytes = html.toString().getBytes();
+        html.write("</body>");
+        html.write("</html>");
+        html.flush();
+    }
 
-            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-            exchange.sendResponseHeaders(200, responseBytes.length);
-            exchange.getResponseBody().write(responseBytes);
+    /**
+     * Escapes a value for HTML text and attribute values.
+     * @param value the value, or null
+     * @return the escaped value, "null" for null like string concatenation
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "null";
         }
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String entity = switch (c) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '"' -> "&quot;";
+                case '\'' -> "&#39;";
+                default -> null;
+            };
+            if (entity != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (entity != null) {
+                    escaped.append(entity);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+package com.ci.rest;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Responds to an HTTP exchange once an asynchronous read of the build store completes, so the thread that received
+ * the request doesn't wait for the database. The response is written on the executor of the HTTP server, not on the
+ * thread of the database that completed the read. A read that fails is answered with a status instead:
+ * 503 Service Unavailable if the store rejected it as overloaded, 504 Gateway Timeout if it timed out,
+ * 400 Bad Request for an invalid argument (e.g. a cursor) and 500 Internal Server Error otherwise.
+ */
+final class AsyncResponse {
+
+    /** Writes the response to a completed read. */
+    @FunctionalInterface
+    interface Writer<T> {
+        void write(HttpExchange exchange, T value) throws IOException;
+    }
+
+    private AsyncResponse() {
+    }
+
+    /**
+     * Responds to an exchange with the result of a read, and closes the exchange.
+     * @param exchange the exchange, left open until the read completes
+     * @param read the read
+     * @param writer writes the response to the result of the read
+     */
+    static <T> void send(HttpExchange exchange, CompletableFuture<T> read, Writer<T> writer) {
+        Executor executor = exchange.getHttpContext().getServer().getExecutor();
+        read.whenCompleteAsync((value, error) -> {
+            try (exchange) {
+                if (error != null) {
+                    int status = statusOf(error);
+                    if (status == 500) {
+                        System.out.println("[CI] failed to read " + exchange.getRequestURI() + ": " + error.getMessage());
+                    }
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+                writer.write(exchange, value);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("[CI] failed to respond to " + exchange.getRequestURI() + ": " + e.getMessage());
+            }
+        }, executor != null ? executor : Runnable::run);
+    }
+
+    /**
+     * Responds to an exchange with a status and no body, before any read is started, and closes the exchange.
+     * @param exchange the exchange
+     * @param status the HTTP status
+     * @throws IOException if the response can't be sent
+     */
+    static void reject(HttpExchange exchange, int status) throws IOException {
+        try (exchange) {
+            exchange.sendResponseHeaders(status, -1);
+        }
+    }
+
+    /**
+     * Returns the HTTP status answering a failed read.
+     * @param error the failure, possibly wrapped in a CompletionException
+     * @return 503, 504, 400 or 500
+     */
+    static int statusOf(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            return 503; // Service Unavailable
+        }
+        if (cause instanceof TimeoutException) {
+            return 504; // Gateway Timeout
+        }
+        if (cause instanceof IllegalArgumentException) {
+            return 400; // Bad Request
+        }
+        return 500; // Internal Server Error
+    }
+}
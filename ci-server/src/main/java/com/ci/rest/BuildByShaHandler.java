@@ -1,9 +1,9 @@
 package com.ci.rest;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
-import com.ci.BuildEntry;
-import com.ci.DbHandler;
+import com.ci.BuildStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -12,44 +12,52 @@ import com.sun.net.httpserver.HttpHandler;
  * The BuildByShaHandler class is responsible for handling HTTP GET requests to retrieve build information by SHA.
  * Expects the request path to be in the format /builds/{sha}, where {sha} is the commit SHA.
  * Responds with a JSON object containing the build information for the specified SHA.
+ * The path /builds/{sha}/events responds with the timeline of the build instead, a JSON array of its events.
  */
 public class BuildByShaHandler implements HttpHandler {
     private final static ObjectMapper objectMapper = new ObjectMapper();
-    private final DbHandler dbHandler;
-    public BuildByShaHandler(DbHandler dbHandler) {
-        this.dbHandler = dbHandler;
+    private final BuildStore buildStore;
+    public BuildByShaHandler(BuildStore buildStore) {
+        this.buildStore = buildStore;
     }
 
     /**
      * Handles incoming HTTP GET requests to retrieve build information by SHA.
      * Expects the request path to be in the format /builds/{sha}, where {sha} is the commit SHA.
-     * Responds with a JSON object containing the build information for the specified SHA.
+     * Responds with a JSON object containing the build information for the specified SHA,
+     * or for /builds/{sha}/events with a JSON array of the events of the build, oldest first.
      */
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        try (exchange) {
-            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
-                return;
-            }
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            AsyncResponse.reject(exchange, 405); // Method Not Allowed
+            return;
+        }
 
-            String path = exchange.getRequestURI().getPath();
-            String[] segments = path.split("/");
-            if (segments.length != 3) {
-                exchange.sendResponseHeaders(400, -1); // Bad Request
-                return;
+        String path = exchange.getRequestURI().getPath();
+        String[] segments = path.split("/");
+        boolean events = segments.length == 4 && segments[3].equals("events") && !segments[2].isEmpty();
+        if (segments.length != 3 && !events) {
+            AsyncResponse.reject(exchange, 400); // Bad Request
+            return;
+        }
+        String sha = segments[2];
+        CompletableFuture<Object> read = buildStore.selectByShaAsync(sha).thenCompose(build -> {
+            if (build == null || !events) {
+                return CompletableFuture.<Object>completedFuture(build);
             }
-            String sha = segments[2];
-            BuildEntry build = dbHandler.selectBySha(sha);
-            if (build == null) {
-                exchange.sendResponseHeaders(404, -1); // Not Found
+            return buildStore.selectEventsAsync(sha).thenApply(timeline -> (Object) timeline);
+        });
+        AsyncResponse.send(exchange, read, (ex, body) -> {
+            if (body == null) {
+                ex.sendResponseHeaders(404, -1); // Not Found
                 return;
             }
-            String response = objectMapper.writeValueAsString(build);
+            String response = objectMapper.writeValueAsString(body);
 
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-        }
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, response.getBytes().length);
+            ex.getResponseBody().write(response.getBytes());
+        });
     }
 }
@@ -0,0 +1,58 @@
+package com.ci.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.ci.BuildStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The ExportHandler class is responsible for handling HTTP GET requests to the /builds/export endpoint.
+ * It responds with every build and its timeline as NDJSON, one JSON object per line.
+ * The response is chunked and written while the builds are read from the store, so exporting the whole
+ * history uses constant memory; the output can be loaded again by POST /builds/import.
+ */
+public class ExportHandler implements HttpHandler {
+    private final BuildStore buildStore;
+    public ExportHandler(BuildStore buildStore) {
+        this.buildStore = buildStore;
+    }
+
+    /**
+     * Handles incoming HTTP GET requests to export the builds.
+     * A failure after the response has started can't change its status, so it ends the response early instead.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0); // chunked
+            Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16);
+            try {
+                buildStore.exportBuilds(record -> {
+                    try {
+                        writer.write(record.toJson());
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.flush();
+            } catch (UncheckedIOException e) {
+                System.out.println("[CI] export aborted by the client: " + e.getCause().getMessage());
+            } catch (RuntimeException e) {
+                System.out.println("[CI] failed to export builds: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.ci.rest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.ci.BuildRecord;
+import com.ci.BuildStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The ImportHandler class is responsible for handling HTTP POST requests to the /builds/import endpoint.
+ * It loads builds from an NDJSON body, in the format of GET /builds/export, and responds with the number of builds
+ * imported. The body is parsed while it is read, in batches the store writes in large transactions, so importing a
+ * whole history uses constant memory. Builds whose SHA is already stored are skipped, so an import can be retried.
+ * Imports are only served when enabled, by the system property ci.import.enabled for the server.
+ */
+public class ImportHandler implements HttpHandler {
+    private final static ObjectMapper objectMapper = new ObjectMapper();
+    private final BuildStore buildStore;
+    private final boolean enabled;
+    public ImportHandler(BuildStore buildStore, boolean enabled) {
+        this.buildStore = buildStore;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Handles incoming HTTP POST requests to import builds.
+     * Responds with 403 Forbidden if imports are not enabled.
+     * Responds with 400 Bad Request, naming the line, if a line is not a valid build; the batches before it stay imported.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+            if (!enabled) {
+                exchange.sendResponseHeaders(403, -1); // Forbidden
+                return;
+            }
+
+            int imported;
+            try {
+                BufferedReader body = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), 1 << 16);
+                imported = buildStore.importBuilds(BuildRecord.read(body));
+            } catch (IllegalArgumentException e) {
+                byte[] response = e.getMessage().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(400, response.length); // Bad Request
+                exchange.getResponseBody().write(response);
+                return;
+            } catch (UncheckedIOException e) {
+                System.out.println("[CI] failed to read import: " + e.getCause().getMessage());
+                exchange.sendResponseHeaders(400, -1); // Bad Request
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("[CI] failed to import builds: " + e.getMessage());
+                exchange.sendResponseHeaders(500, -1); // Internal Server Error
+                return;
+            }
+            System.out.println("[CI] imported " + imported + " builds");
+
+            byte[] response = objectMapper.writeValueAsBytes(Map.of("imported", imported));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.ci.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.ci.BuildCache;
+import com.ci.BuildStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The MetricsHandler class is responsible for handling HTTP GET requests to the /metrics endpoint.
+ * It responds with the counters of the server in the Prometheus text format, one sample per line.
+ */
+public class MetricsHandler implements HttpHandler {
+    private final BuildStore buildStore;
+    public MetricsHandler(BuildStore buildStore) {
+        this.buildStore = buildStore;
+    }
+
+    /**
+     * Handles incoming HTTP GET requests to read the counters.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                exchange.sendResponseHeaders(405, -1); // Method Not Allowed
+                return;
+            }
+
+            BuildCache.Stats cache = buildStore.buildCacheStats();
+            StringBuilder text = new StringBuilder();
+            counter(text, "ci_build_cache_hits_total", "Build lookups answered from the cache.", cache.hits());
+            counter(text, "ci_build_cache_misses_total", "Build lookups that read the database.", cache.misses());
+            counter(text, "ci_build_cache_evictions_total", "Builds evicted from the cache.", cache.evictions());
+            gauge(text, "ci_build_cache_entries", "Builds in the cache.", cache.entries());
+            gauge(text, "ci_build_cache_bytes", "Estimated size of the builds in the cache.", cache.weight());
+            counter(text, "ci_db_write_batches_total", "Transactions committed by the database writer.", buildStore.committedBatches());
+            byte[] response = text.toString().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        }
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        sample(text, name, "counter", help, value);
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, long value) {
+        sample(text, name, "gauge", help, value);
+    }
+
+    private static void sample(StringBuilder text, String name, String type, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+}
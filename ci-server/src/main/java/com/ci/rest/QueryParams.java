@@ -0,0 +1,62 @@
+package com.ci.rest;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Small helper for reading URL query parameters of incoming requests.
+ */
+public class QueryParams {
+    private final Map<String, String> params = new HashMap<>();
+
+    /**
+     * Parses the query string of the given URI. If a parameter occurs more than once, the first value is kept.
+     * @param uri the request URI
+     */
+    public QueryParams(URI uri) {
+        String query = uri.getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.putIfAbsent(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Returns the value of a parameter.
+     * @param name parameter name
+     * @return the value, or null if the parameter is missing
+     */
+    public String get(String name) {
+        return params.get(name);
+    }
+
+    /**
+     * Returns the value of an integer parameter, clamped to the given range.
+     * @param name parameter name
+     * @param defaultValue value to use if the parameter is missing
+     * @param min smallest allowed value
+     * @param max largest allowed value
+     * @return the parsed and clamped value
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public int getInt(String name, int defaultValue, int min, int max) {
+        String value = params.get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(min, Math.min(max, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.ci.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ci.BuildStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The SearchHandler class is responsible for handling HTTP GET requests to the /builds/search endpoint.
+ * It looks up the query parameter q in the full-text index of the build logs and responds with a JSON object
+ * containing the matching lines and their builds. The limit parameter sets the page size and after is the cursor
+ * of the page, the nextCursor of the previous page.
+ */
+public class SearchHandler implements HttpHandler {
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+
+    private final static ObjectMapper objectMapper = new ObjectMapper();
+    private final BuildStore buildStore;
+    public SearchHandler(BuildStore buildStore) {
+        this.buildStore = buildStore;
+    }
+
+    /**
+     * Handles incoming HTTP GET requests to search the build logs.
+     * Responds with 400 Bad Request if the query is missing, or the cursor or the page size is invalid.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            AsyncResponse.reject(exchange, 405); // Method Not Allowed
+            return;
+        }
+
+        QueryParams params = new QueryParams(exchange.getRequestURI());
+        String query = params.get("q");
+        String after = params.get("after");
+        int limit;
+        try {
+            limit = params.getInt("limit", DEFAULT_LIMIT, 1, MAX_LIMIT);
+        } catch (IllegalArgumentException e) {
+            AsyncResponse.reject(exchange, 400); // Bad Request
+            return;
+        }
+        if (query == null || query.isBlank()) {
+            AsyncResponse.reject(exchange, 400); // Bad Request
+            return;
+        }
+
+        // an invalid cursor fails the read with an IllegalArgumentException, answered with 400 Bad Request
+        AsyncResponse.send(exchange, buildStore.searchLogsAsync(query, after, limit), (ex, page) -> {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("query", query);
+            body.put("limit", limit);
+            body.put("results", page.matches());
+            body.put("nextCursor", page.nextCursor());
+            byte[] response = objectMapper.writeValueAsBytes(body);
+
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            ex.sendResponseHeaders(200, response.length);
+            ex.getResponseBody().write(response);
+        });
+    }
+}
@@ -0,0 +1,111 @@
+package com.ci.rest;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ci.BuildStats;
+import com.ci.BuildStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The StatsHandler class is responsible for handling HTTP GET requests to the /stats endpoint.
+ * It responds with the build statistics of the last days (parameter days), optionally of one branch (parameter branch):
+ * the number of builds per final result, the pass rate and the average build time, in total, per branch and per day.
+ * The statistics are read from the rollup of the build store, so polling them doesn't scan the builds.
+ */
+public class StatsHandler implements HttpHandler {
+    static final int DEFAULT_DAYS = 30;
+    static final int MAX_DAYS = 366;
+
+    private final static ObjectMapper objectMapper = new ObjectMapper();
+    private final BuildStore buildStore;
+    public StatsHandler(BuildStore buildStore) {
+        this.buildStore = buildStore;
+    }
+
+    /** Builds, results and durations summed over rollup rows. */
+    private static class Summary {
+        private long builds;
+        private final Map<String, Long> results = new TreeMap<>();
+        private long timedBuilds;
+        private long totalDurationMillis;
+
+        void add(BuildStats stats) {
+            builds += stats.builds();
+            results.merge(stats.result(), stats.builds(), Long::sum);
+            timedBuilds += stats.timedBuilds();
+            totalDurationMillis += stats.totalDurationMillis();
+        }
+
+        Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("builds", builds);
+            for (String result : List.of("success", "failure", "error")) {
+                json.put(result, results.getOrDefault(result, 0L));
+            }
+            json.put("passRate", builds == 0 ? null : (double) results.getOrDefault("success", 0L) / builds);
+            json.put("avgDurationMillis", timedBuilds == 0 ? null : Math.round((double) totalDurationMillis / timedBuilds));
+            return json;
+        }
+    }
+
+    /**
+     * Handles incoming HTTP GET requests for the build statistics.
+     * Responds with 400 Bad Request if the days parameter is not a number.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            AsyncResponse.reject(exchange, 405); // Method Not Allowed
+            return;
+        }
+
+        QueryParams params = new QueryParams(exchange.getRequestURI());
+        String branchParam = params.get("branch");
+        String branch = branchParam == null || branchParam.isBlank() ? null : branchParam;
+        int days;
+        try {
+            days = params.getInt("days", DEFAULT_DAYS, 1, MAX_DAYS);
+        } catch (IllegalArgumentException e) {
+            AsyncResponse.reject(exchange, 400); // Bad Request
+            return;
+        }
+        String from = LocalDate.now(ZoneOffset.UTC).minusDays(days - 1).toString();
+
+        AsyncResponse.send(exchange, buildStore.selectStatsAsync(branch, from), (ex, rows) -> {
+            Summary total = new Summary();
+            Map<String, Summary> branches = new TreeMap<>();
+            Map<String, Summary> byDay = new TreeMap<>();
+            for (BuildStats stats : rows) {
+                total.add(stats);
+                branches.computeIfAbsent(stats.branch(), key -> new Summary()).add(stats);
+                byDay.computeIfAbsent(stats.day(), key -> new Summary()).add(stats);
+            }
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("from", from);
+            if (branch != null) {
+                body.put("branch", branch);
+            }
+            body.put("total", total.toJson());
+            Map<String, Object> perBranch = new LinkedHashMap<>();
+            branches.forEach((name, summary) -> perBranch.put(name, summary.toJson()));
+            body.put("branches", perBranch);
+            Map<String, Object> perDay = new LinkedHashMap<>();
+            byDay.forEach((day, summary) -> perDay.put(day, summary.toJson()));
+            body.put("days", perDay);
+            byte[] response = objectMapper.writeValueAsBytes(body);
+
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            ex.sendResponseHeaders(200, response.length);
+            ex.getResponseBody().write(response);
+        });
+    }
+}
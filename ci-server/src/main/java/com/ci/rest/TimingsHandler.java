@@ -0,0 +1,103 @@
+package com.ci.rest;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ci.DurationSketch;
+import com.ci.StageTiming;
+import com.ci.pipeline.StageTimings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The TimingsHandler class is responsible for handling HTTP GET requests to the /timings endpoint.
+ * It responds with the p50, p95 and p99 durations of each stage of the pipeline over the last hours (parameter hours),
+ * optionally of one branch (parameter branch), merged from the hourly sketches of the stage durations.
+ * With windows=true, the quantiles of each hour are listed as well.
+ */
+public class TimingsHandler implements HttpHandler {
+    static final int DEFAULT_HOURS = 24;
+    static final int MAX_HOURS = 24 * 90;
+
+    private final static ObjectMapper objectMapper = new ObjectMapper();
+    private final StageTimings timings;
+    public TimingsHandler(StageTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Handles incoming HTTP GET requests for the stage durations.
+     * Responds with 400 Bad Request if the hours parameter is not a number.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            AsyncResponse.reject(exchange, 405); // Method Not Allowed
+            return;
+        }
+
+        QueryParams params = new QueryParams(exchange.getRequestURI());
+        String branchParam = params.get("branch");
+        String branch = branchParam == null || branchParam.isBlank() ? null : branchParam;
+        int hours;
+        try {
+            hours = params.getInt("hours", DEFAULT_HOURS, 1, MAX_HOURS);
+        } catch (IllegalArgumentException e) {
+            AsyncResponse.reject(exchange, 400); // Bad Request
+            return;
+        }
+        boolean perWindow = Boolean.parseBoolean(params.get("windows"));
+        String from = StageTimings.windowOf(LocalDateTime.now(ZoneOffset.UTC).minusHours(hours - 1));
+
+        AsyncResponse.send(exchange, timings.selectAsync(branch, from, null), (ex, selected) -> {
+            Map<String, DurationSketch> stages = new LinkedHashMap<>();
+            for (String stage : StageTimings.STAGES) {
+                stages.put(stage, new DurationSketch());
+            }
+            Map<String, Map<String, DurationSketch>> windows = new TreeMap<>();
+            for (StageTiming timing : selected) {
+                stages.computeIfAbsent(timing.stage(), key -> new DurationSketch()).merge(timing.sketch());
+                if (perWindow) {
+                    windows.computeIfAbsent(timing.window(), key -> new TreeMap<>())
+                        .computeIfAbsent(timing.stage(), key -> new DurationSketch()).merge(timing.sketch());
+                }
+            }
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("from", from);
+            if (branch != null) {
+                body.put("branch", branch);
+            }
+            body.put("stages", toJson(stages));
+            if (perWindow) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                windows.forEach((window, sketches) -> json.put(window, toJson(sketches)));
+                body.put("windows", json);
+            }
+            byte[] response = objectMapper.writeValueAsBytes(body);
+
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            ex.sendResponseHeaders(200, response.length);
+            ex.getResponseBody().write(response);
+        });
+    }
+
+    private static Map<String, Object> toJson(Map<String, DurationSketch> sketches) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        sketches.forEach((stage, sketch) -> {
+            Map<String, Object> quantiles = new LinkedHashMap<>();
+            quantiles.put("count", sketch.count());
+            quantiles.put("p50", sketch.quantile(0.50));
+            quantiles.put("p95", sketch.quantile(0.95));
+            quantiles.put("p99", sketch.quantile(0.99));
+            quantiles.put("max", sketch.max());
+            json.put(stage, quantiles);
+        });
+        return json;
+    }
+}
@@ -0,0 +1,101 @@
+package com.ci;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+public class BuildCacheTest {
+
+    private static BuildEntry build(String sha, String description) {
+        return new BuildEntry(1, sha, "main", "success", description, "2024-01-01 10:00:00");
+    }
+
+    /**
+     * Contract:
+     * Lookups shall be counted as hits and misses, and return copies of the cached entries.
+     */
+    @Test
+    void countsHitsAndMisses() {
+        BuildCache cache = new BuildCache(10, 1 << 20);
+        assertNull(cache.get("a"));
+        BuildEntry entry = build("a", "log");
+        cache.put("a", entry, cache.stamp());
+        BuildEntry first = cache.get("a");
+        BuildEntry second = cache.get("a");
+
+        assertEquals("log", first.buildDescription);
+        assertNotSame(entry, first);
+        assertNotSame(first, second);
+        assertEquals(new BuildCache.Stats(2, 1, 0, 1, BuildCache.weigh(entry)), cache.stats());
+    }
+
+    /**
+     * Contract:
+     * When the number of entries exceeds the limit, the least recently used entry shall be evicted.
+     */
+    @Test
+    void evictsLeastRecentlyUsedEntry() {
+        BuildCache cache = new BuildCache(2, 1 << 20);
+        cache.put("a", build("a", ""), cache.stamp());
+        cache.put("b", build("b", ""), cache.stamp());
+        cache.get("a");
+        cache.put("c", build("c", ""), cache.stamp());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    /**
+     * Contract:
+     * When the estimated size of the entries exceeds the limit, entries shall be evicted until it fits,
+     * and an entry larger than the limit shall not be cached at all.
+     */
+    @Test
+    void evictsByWeight() {
+        String log = "x".repeat(1000);
+        long weight = BuildCache.weigh(build("a", log));
+        BuildCache cache = new BuildCache(100, 2 * weight);
+        cache.put("a", build("a", log), cache.stamp());
+        cache.put("b", build("b", log), cache.stamp());
+        cache.put("c", build("c", log), cache.stamp());
+        cache.put("huge", build("huge", log.repeat(3)), cache.stamp());
+
+        assertEquals(2, cache.stats().entries());
+        assertEquals(2 * weight, cache.stats().weight());
+        assertNull(cache.get("a"));
+        assertNull(cache.get("huge"));
+    }
+
+    /**
+     * Contract:
+     * An entry read before a concurrent invalidation shall not be cached, it may be stale.
+     */
+    @Test
+    void entryReadBeforeInvalidationIsNotCached() {
+        BuildCache cache = new BuildCache(10, 1 << 20);
+        long stamp = cache.stamp();
+        cache.invalidate("a");
+        cache.put("a", build("a", "stale"), stamp);
+        assertNull(cache.get("a"));
+
+        cache.put("a", build("a", "fresh"), cache.stamp());
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.stats().weight());
+    }
+
+    /**
+     * Contract:
+     * A cache with room for no entries shall never cache.
+     */
+    @Test
+    void zeroEntriesDisablesCache() {
+        BuildCache cache = new BuildCache(0, 1 << 20);
+        cache.put("a", build("a", ""), cache.stamp());
+        assertNull(cache.get("a"));
+    }
+}
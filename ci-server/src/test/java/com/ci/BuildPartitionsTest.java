@@ -0,0 +1,70 @@
+package com.ci;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BuildPartitionsTest {
+    private File tempDbFile;
+    private String dbUrl;
+
+    @BeforeEach
+    void createTempDb() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        dbUrl = tempDbFile.getAbsolutePath();
+    }
+
+    @AfterEach
+    void deleteTempDb() {
+        if (tempDbFile != null && tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    /**
+     * Contract:
+     * A build shall belong to the partition of the year and month its date starts with.
+     *
+     * Expected behavior:
+     * Dates and timestamps map to YYYY_MM, missing and malformed dates to the undated partition.
+     */
+    @Test
+    void partitionOfUsesYearAndMonth() {
+        assertEquals("2024_01", BuildPartitions.partitionOf("2024-01-31 23:59:59"));
+        assertEquals("2024_12", BuildPartitions.partitionOf("2024-12"));
+        assertEquals(BuildPartitions.UNDATED, BuildPartitions.partitionOf(null));
+        assertEquals(BuildPartitions.UNDATED, BuildPartitions.partitionOf("date"));
+        assertEquals(BuildPartitions.UNDATED, BuildPartitions.partitionOf("yesterday"));
+        assertEquals(BuildPartitions.UNDATED, BuildPartitions.partitionOf("24-01-2024"));
+    }
+
+    /**
+     * Contract:
+     * Partitions shall be listed newest month first with the undated partition last,
+     * and the list shall only be read again after the schema has changed.
+     */
+    @Test
+    void listIsOrderedAndFollowsSchemaChanges() throws SQLException {
+        BuildPartitions partitions = new BuildPartitions();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl)) {
+            BuildPartitions.create(connection, "2023_12");
+            BuildPartitions.create(connection, BuildPartitions.UNDATED);
+            BuildPartitions.create(connection, "2024_02");
+            List<String> names = partitions.list(connection);
+            assertEquals(List.of("2024_02", "2023_12", BuildPartitions.UNDATED), names);
+            assertSame(names, partitions.list(connection));
+
+            BuildPartitions.drop(connection, "2023_12");
+            assertEquals(List.of("2024_02", BuildPartitions.UNDATED), partitions.list(connection));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.ci;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class BuildRecordTest {
+
+    /**
+     * Contract:
+     * A build shall be written as one NDJSON line and parsed back with the same fields and timeline.
+     */
+    @Test
+    void roundTripsThroughJson() {
+        BuildEntry build = new BuildEntry(7, "sha", "main", "success", "line one\nline two", "2024-01-31 12:00:00", "tree", 2);
+        List<BuildEvent> events = List.of(
+            new BuildEvent("sha", 1, "failure", "2024-01-31 11:00:00.000"),
+            new BuildEvent("sha", 2, "pending", "2024-01-31 12:00:00.000"),
+            new BuildEvent("sha", 2, "success", "2024-01-31 12:01:00.000"));
+        String line = new BuildRecord(build, events).toJson();
+        assertFalse(line.contains("\n"));
+
+        BuildRecord parsed = BuildRecord.fromJson(line);
+        assertEquals("sha", parsed.build().sha);
+        assertEquals("main", parsed.build().branch);
+        assertEquals("success", parsed.build().buildResult);
+        assertEquals("line one\nline two", parsed.build().buildDescription);
+        assertEquals("2024-01-31 12:00:00", parsed.build().buildDate);
+        assertEquals("tree", parsed.build().treeHash);
+        assertEquals(2, parsed.build().attempt);
+        assertEquals(events, parsed.events());
+    }
+
+    /**
+     * Contract:
+     * A line shall name at least the SHA, branch and result of a build.
+     *
+     * Expected behavior:
+     * A build without events gets its result at its date as timeline, and invalid lines are rejected
+     * with their line number while blank lines are skipped.
+     */
+    @Test
+    void readsLinesLazilyAndRejectsInvalidOnes() {
+        Iterator<BuildRecord> records = BuildRecord.read(new BufferedReader(new StringReader(
+            "{\"sha\":\"a\",\"branch\":\"main\",\"buildResult\":\"error\",\"buildDate\":\"2024-01-01 10:00:00\"}\n" +
+            "\n" +
+            "{\"sha\":\"b\",\"branch\":\"main\"}\n")));
+
+        BuildRecord first = records.next();
+        assertEquals(List.of(new BuildEvent("a", 1, "error", "2024-01-01 10:00:00")), first.events());
+        assertTrue(records.hasNext());
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, records::next);
+        assertTrue(error.getMessage().startsWith("Line 3: "));
+        assertFalse(records.hasNext());
+
+        assertThrows(IllegalArgumentException.class, () -> BuildRecord.fromJson("[]"));
+        assertThrows(IllegalArgumentException.class, () -> BuildRecord.fromJson("{not json"));
+        assertThrows(IllegalArgumentException.class, () -> BuildRecord.fromJson(
+            "{\"sha\":\"a\",\"branch\":\"main\",\"buildResult\":\"error\",\"events\":[{\"state\":\"error\"}]}"));
+    }
+
+    /**
+     * Contract:
+     * An import batch shall end at a number of builds or once their output reaches a size.
+     */
+    @Test
+    void batchesEndAtBuildsOrOutputSize() {
+        List<BuildRecord> records = List.of(record("a", "12345"), record("b", "12345"), record("c", ""), record("d", null));
+        Iterator<BuildRecord> iterator = records.iterator();
+        assertEquals(2, BuildRecord.nextBatch(iterator, 10, 10).size());
+        assertEquals(1, BuildRecord.nextBatch(iterator, 1, 10).size());
+        assertEquals(1, BuildRecord.nextBatch(iterator, 10, 10).size());
+        assertEquals(List.of(), BuildRecord.nextBatch(iterator, 10, 10));
+    }
+
+    private static BuildRecord record(String sha, String output) {
+        return new BuildRecord(new BuildEntry(0, sha, "main", "success", output, null, null, 1), List.of());
+    }
+}
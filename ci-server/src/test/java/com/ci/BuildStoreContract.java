@@ -0,0 +1,543 @@
+package com.ci;
+
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Behavior every {@link BuildStore} shall have, run against each implementation by its subclass.
+ */
+abstract class BuildStoreContract {
+    @TempDir
+    Path dir;
+    BuildStore store;
+
+    /**
+     * Creates the store under test, not yet initialized.
+     * @param dir an empty directory for the files of the store
+     * @return the store
+     */
+    abstract BuildStore createStore(Path dir);
+
+    @BeforeEach
+    void openStore() {
+        store = createStore(dir);
+        store.initialize();
+    }
+
+    @AfterEach
+    void closeStore() {
+        store.close();
+    }
+
+    private static List<String> shas(List<BuildEntry> builds) {
+        return builds.stream().map(build -> build.sha).toList();
+    }
+
+    /**
+     * Contract:
+     * Builds shall be stored, updated and deleted by SHA.
+     *
+     * Expected behavior:
+     * The 4-argument update keeps the date, the 5-argument update replaces it, updating a missing build does
+     * nothing, and a deleted build is not found anymore.
+     */
+    @Test
+    void storesUpdatesAndDeletesBuilds() {
+        store.addEntry("1", "main", "pending", "", "2024-01-01 10:00:00");
+        store.addEntry("2", "dev", "pending");
+        store.updateEntry("1", "main", "success", "done");
+        store.updateEntry("2", "dev", "failure", "broken", "2024-02-01 10:00:00");
+        store.updateEntry("3", "dev", "failure", "missing");
+
+        BuildEntry first = store.selectBySha("1");
+        assertEquals("success", first.buildResult);
+        assertEquals("done", first.buildDescription);
+        assertEquals("2024-01-01 10:00:00", first.buildDate);
+        assertEquals("2024-02-01 10:00:00", store.selectBySha("2").buildDate);
+        assertTrue(first.id < store.selectBySha("2").id);
+        assertNull(store.selectBySha("3"));
+        assertEquals(List.of("1", "2"), shas(store.selectAllBuilds()));
+        assertEquals(List.of("2"), shas(store.selectByBranch("dev")));
+
+        store.deleteEntry("1");
+        assertNull(store.selectBySha("1"));
+        assertEquals(List.of("2"), shas(store.selectAllBuilds()));
+    }
+
+    /**
+     * Contract:
+     * Builds shall be returned as copies, changing a returned build doesn't change the stored one.
+     */
+    @Test
+    void returnedBuildsAreCopies() {
+        store.addEntry("1", "main", "success", "", "2024-01-01 10:00:00");
+        store.selectBySha("1").buildResult = "changed";
+        store.selectAllBuilds().get(0).buildResult = "changed";
+        assertEquals("success", store.selectBySha("1").buildResult);
+    }
+
+    /**
+     * Contract:
+     * Inserting a build with the SHA of a stored build shall throw a RuntimeException and keep the stored build.
+     */
+    @Test
+    void shaMustBeUnique() {
+        store.addEntry("1", "main", "success", "first");
+        assertThrows(RuntimeException.class, () -> store.addEntry("1", "main", "failure", "second"));
+        assertEquals("first", store.selectBySha("1").buildDescription);
+        assertEquals(1, store.selectAllBuilds().size());
+    }
+
+    /**
+     * Contract:
+     * The asynchronous writes of a thread shall be applied in order, a failing write fails only its own future.
+     */
+    @Test
+    void asyncWritesAreAppliedInOrder() {
+        var pending = store.addEntryAsync("1", "main", "pending", "");
+        var duplicate = store.addEntryAsync("1", "main", "pending", "");
+        var update = store.updateEntryAsync("1", "main", "success", "done");
+        var stats = store.addCheckoutStatsAsync("1", "repo", "SHALLOW", 10, 100);
+
+        assertDoesNotThrow(pending::join);
+        assertThrows(RuntimeException.class, duplicate::join);
+        assertDoesNotThrow(update::join);
+        assertDoesNotThrow(stats::join);
+        store.flush();
+        assertEquals("success", store.selectBySha("1").buildResult);
+        assertNotNull(store.selectBySha("1").buildDate);
+    }
+
+    /**
+     * Contract:
+     * Following the cursors of the pages shall list every build exactly once, newest first, in the same order
+     * for every store.
+     *
+     * Expected behavior:
+     * Builds with the same date are ordered by id, builds without a date come last, and the last page has no cursor.
+     */
+    @Test
+    void pagesListEveryBuildOnceNewestFirst() {
+        store.addEntry("a", "main", "success", "", "2024-01-01 10:00:00");
+        store.addEntry("b", "main", "success", "", null);
+        store.addEntry("c", "main", "failure", "", "2024-01-03 10:00:00");
+        store.addEntry("d", "dev", "success", "", "2024-01-02 10:00:00");
+        store.addEntry("e", "main", "success", "", "2024-01-02 10:00:00");
+        store.addEntry("f", "main", "success", "", null);
+        store.addEntry("g", "main", "error", "", "2023-12-31 10:00:00");
+
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            BuildPage page = store.selectBuildsPage(cursor, 2);
+            assertTrue(page.builds().size() <= 2);
+            listed.addAll(shas(page.builds()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        assertEquals(List.of("c", "e", "d", "a", "g", "f", "b"), listed);
+
+        BuildPage main = store.selectByBranchPage("main", null, 3);
+        assertEquals(List.of("c", "e", "a"), shas(main.builds()));
+        assertEquals(List.of("g", "f", "b"), shas(store.selectByBranchPage("main", main.nextCursor(), 3).builds()));
+        assertThrows(IllegalArgumentException.class, () -> store.selectBuildsPage("not a cursor!", 2));
+        assertThrows(IllegalArgumentException.class, () -> store.selectBuildsPage(null, 0));
+    }
+
+    /**
+     * Contract:
+     * Log search shall match every word of the query, punctuated words as phrases, newest builds first,
+     * the last lines of a build first, in pages continuing after the last line of the previous page.
+     */
+    @Test
+    void searchLogsMatchesWordsNewestFirst() {
+        store.addEntry("1", "main", "failure", "[INFO] Building\njava.lang.NullPointerException at Foo\n[INFO] done");
+        store.addEntry("2", "main", "failure", "Exception in java.lang.NullPointerException handler");
+        store.addEntry("3", "main", "success", "[INFO] Building\n[INFO] done");
+
+        List<LogMatch> matches = store.searchLogs("java.lang.NullPointerException", null, 10).matches();
+        assertEquals(List.of("2", "1"), matches.stream().map(LogMatch::sha).toList());
+        assertEquals(2, matches.get(1).lineNumber());
+        assertTrue(matches.get(1).snippet().contains("[java.lang.NullPointerException]"), matches.get(1).snippet());
+
+        assertEquals(List.of("3", "1"), store.searchLogs("info DONE", null, 10).matches().stream().map(LogMatch::sha).toList());
+        LogPage first = store.searchLogs("info", null, 3);
+        assertEquals(List.of("3:2", "3:1", "1:3"), first.matches().stream().map(m -> m.sha() + ":" + m.lineNumber()).toList());
+        LogPage second = store.searchLogs("info", first.nextCursor(), 3);
+        assertEquals(List.of("1:1"), second.matches().stream().map(m -> m.sha() + ":" + m.lineNumber()).toList());
+        assertNull(second.nextCursor());
+        assertThrows(IllegalArgumentException.class, () -> store.searchLogs("info", "not a cursor!", 3));
+        assertEquals(0, store.searchLogs("lang.java", null, 10).matches().size());
+        assertEquals(0, store.searchLogs("  ", null, 10).matches().size());
+    }
+
+    /**
+     * Contract:
+     * Recorded checkout measurements shall be summarized per clone strategy for a repository.
+     */
+    @Test
+    void checkoutStatsAreSummarizedPerStrategy() {
+        store.addCheckoutStats("1", "repoA", "SHALLOW", 100, 1000);
+        store.addCheckoutStats("2", "repoA", "SHALLOW", 301, 3000);
+        store.addCheckoutStats("3", "repoA", "MIRROR", 50, 10);
+        store.addCheckoutStats("4", "repoB", "FULL", 999, 999);
+
+        assertEquals(List.of(new CheckoutSummary("MIRROR", 1, 50, 10), new CheckoutSummary("SHALLOW", 2, 201, 2000)),
+            store.summarizeCheckoutStats("repoA"));
+    }
+
+    private static List<String> states(List<BuildEvent> events) {
+        return events.stream().map(BuildEvent::state).toList();
+    }
+
+    /**
+     * Contract:
+     * Every change of state of a build shall be appended to its timeline, which the build keeps until it is deleted.
+     *
+     * Expected behavior:
+     * The timeline holds the first result, the pipeline steps and the final result in order, repeated states are
+     * recorded once, moving the build to another month keeps its timeline, and events of missing builds are ignored.
+     */
+    @Test
+    void eventsRecordEachStateChange() {
+        store.addEntry("1", "main", "pending", "", "2024-01-01 10:00:00");
+        store.addEvent("1", "checkout");
+        store.addEvent("1", "checkout");
+        store.addEvent("1", "testing");
+        store.updateEntry("1", "main", "success", "first run");
+        store.updateEntry("1", "main", "success", "output rewritten");
+        store.updateEntry("1", "main", "success", "moved", "2024-02-01 10:00:00");
+        store.addEvent("missing", "testing");
+
+        List<BuildEvent> events = store.selectEvents("1");
+        assertEquals(List.of("pending", "checkout", "testing", "success"), states(events));
+        assertTrue(events.stream().allMatch(event -> event.sha().equals("1") && event.recordedAt() != null));
+        assertEquals("success", store.selectBySha("1").buildResult);
+        assertEquals(List.of(), store.selectEvents("missing"));
+
+        store.deleteEntry("1");
+        assertEquals(List.of(), store.selectEvents("1"));
+        store.addEntry("1", "main", "pending");
+        assertEquals(List.of("pending"), states(store.selectEvents("1")));
+    }
+
+    /**
+     * Contract:
+     * Builds shall be selected by the time they were queued, latest first, in pages linked by a cursor.
+     *
+     * Expected behavior:
+     * The range includes its start and excludes its end, dates with an offset are compared in UTC,
+     * builds whose date can't be parsed are never selected, and the branch filter applies.
+     */
+    @Test
+    void timeRangeSelectsBuildsByQueuedTime() {
+        store.addEntry("1", "main", "success", "", "2024-01-31 23:00:00");
+        store.addEntry("2", "dev", "success", "", "2024-02-01T01:00:00+02:00"); // 2024-01-31 23:00 UTC
+        store.addEntry("3", "main", "success", "", "2024-02-01 00:00:00");
+        store.addEntry("4", "main", "success", "", "2024-02-02 00:00:00");
+        store.addEntry("5", "main", "success", "", "someday");
+        long from = BuildTimes.parse("2024-01-31 23:00:00");
+        long to = BuildTimes.parse("2024-02-02 00:00:00");
+
+        assertEquals(List.of("3", "2", "1"), shas(store.selectByTimeRange(null, from, to, null, 10).builds()));
+        assertEquals(List.of("3", "1"), shas(store.selectByTimeRange("main", from, to, null, 10).builds()));
+
+        BuildPage first = store.selectByTimeRange(null, from, to, null, 2);
+        assertEquals(List.of("3", "2"), shas(first.builds()));
+        BuildPage second = store.selectByTimeRange(null, from, to, first.nextCursor(), 2);
+        assertEquals(List.of("1"), shas(second.builds()));
+        assertNull(second.nextCursor());
+
+        assertEquals(List.of("4", "3", "2", "1"), shas(store.selectByTimeRange(null, 0, Long.MAX_VALUE, null, 10).builds()));
+        assertThrows(IllegalArgumentException.class, () -> store.selectByTimeRange(null, from, to, "not a cursor!", 2));
+    }
+
+    /**
+     * Contract:
+     * A build shall know when it was queued, started and finished, as epoch milliseconds.
+     *
+     * Expected behavior:
+     * The queued time is the build date, the attempt starts with its first state after pending and finishes with
+     * a final result, an update keeps the times, and a new attempt starts without them.
+     */
+    @Test
+    void buildsHaveQueuedStartedAndFinishedTimes() {
+        store.startAttempt("1", "main");
+        BuildEntry pending = store.selectBySha("1");
+        assertEquals(BuildTimes.parse(pending.buildDate), pending.queuedAt);
+        assertNull(pending.startedAt);
+
+        store.addEvent("1", "testing");
+        Long started = store.selectBySha("1").startedAt;
+        assertNotNull(started);
+        store.updateEntry("1", "main", "success", "passed");
+        BuildEntry finished = store.selectBySha("1");
+        assertEquals(started, finished.startedAt);
+        assertNotNull(finished.finishedAt);
+        assertTrue(finished.finishedAt >= started && started >= finished.queuedAt - 1000);
+        store.updateEntry("1", "main", "success", "output rewritten");
+        assertEquals(finished.finishedAt, store.selectBySha("1").finishedAt);
+
+        store.startAttempt("1", "main");
+        assertNull(store.selectBySha("1").startedAt);
+        assertNull(store.selectBySha("1").finishedAt);
+    }
+
+    /**
+     * Contract:
+     * The asynchronous reads shall return what the synchronous reads return.
+     *
+     * Expected behavior:
+     * Each future completes with the same builds, pages, matches and events, a missing build with null,
+     * and a read of an invalid cursor completes exceptionally instead of throwing.
+     */
+    @Test
+    void asyncReadsMatchSyncReads() {
+        store.addEntry("1", "main", "success", "BUILD SUCCESS", "2024-01-01 10:00:00");
+        store.addEntry("2", "dev", "failure", "BUILD FAILURE", "2024-01-02 10:00:00");
+        store.setTreeHash("2", "tree2");
+
+        assertEquals("BUILD SUCCESS", store.selectByShaAsync("1").join().buildDescription);
+        assertNull(store.selectByShaAsync("3").join());
+        assertEquals("2", store.selectByTreeAsync("tree2", null).join().sha);
+        assertEquals(shas(store.selectBuildsPage(null, 10).builds()), shas(store.selectBuildsPageAsync(null, 10).join().builds()));
+        assertEquals(List.of("2"), shas(store.selectByBranchPageAsync("dev", null, 10).join().builds()));
+        assertEquals(List.of("1"), store.searchLogsAsync("success", null, 10).join().matches().stream().map(LogMatch::sha).toList());
+        assertEquals(states(store.selectEvents("2")), states(store.selectEventsAsync("2").join()));
+        assertEquals(store.selectStats(null, null), store.selectStatsAsync(null, null).join());
+        assertTrue(store.selectTimingsAsync(null, null, null).join().isEmpty());
+        CompletionException failed = assertThrows(CompletionException.class, () -> store.selectBuildsPageAsync("not a cursor!", 10).join());
+        assertInstanceOf(IllegalArgumentException.class, failed.getCause());
+    }
+
+    /**
+     * Contract:
+     * Each final result entered by a build shall be counted in the statistics rollup of its day, branch and result.
+     *
+     * Expected behavior:
+     * Rewriting a result doesn't count it again, a new attempt does, a result without earlier event of its attempt
+     * has no duration, other states are not counted, and deleting a build keeps its counts.
+     */
+    @Test
+    void statsCountEachFinalResult() {
+        store.startAttempt("1", "main");
+        store.addEvent("1", "testing");
+        store.updateEntry("1", "main", "success", "passed");
+        store.updateEntry("1", "main", "success", "output rewritten");
+        store.startAttempt("1", "main");
+        store.updateEntry("1", "main", "failure", "failed");
+        store.addEntry("2", "dev", "error");
+        store.addEntry("3", "dev", "pending");
+        store.updateEntry("3", "dev", "running", "");
+        store.deleteEntry("1");
+
+        String day = store.selectEvents("2").get(0).recordedAt().substring(0, 10);
+        List<BuildStats> stats = store.selectStats(null, null);
+        assertEquals(List.of("dev error", "main failure", "main success"),
+            stats.stream().map(row -> row.branch() + " " + row.result()).toList());
+        assertTrue(stats.stream().allMatch(row -> row.day().equals(day) && row.builds() == 1 && row.totalDurationMillis() >= 0));
+        assertEquals(List.of(0L, 1L, 1L), stats.stream().map(BuildStats::timedBuilds).toList());
+
+        assertEquals(1, store.selectStats("dev", null).size());
+        assertEquals(3, store.selectStats(null, day).size());
+        assertEquals(List.of(), store.selectStats(null, "9999-01-01"));
+    }
+
+    private static DurationSketch sketch(long... millis) {
+        DurationSketch sketch = new DurationSketch();
+        for (long m : millis) {
+            sketch.add(m);
+        }
+        return sketch;
+    }
+
+    /**
+     * Contract:
+     * Every build shall be exported with its timeline, and an export shall import into an empty store as the same history.
+     *
+     * Expected behavior:
+     * The imported builds keep their fields, timelines, times and counted results, get new ids in import order,
+     * and builds already stored or repeated are skipped.
+     */
+    @Test
+    void exportedBuildsImportIntoAnotherStore() {
+        store.addEntry("1", "main", "pending", "", "2024-01-01 10:00:00");
+        store.addEvent("1", "testing");
+        store.updateEntry("1", "main", "success", "passed");
+        store.addEntry("2", "dev", "error", "crashed", "2024-02-01 10:00:00");
+        store.addEntry("3", "dev", "pending");
+
+        List<BuildRecord> exported = new ArrayList<>();
+        store.exportBuilds(exported::add);
+        assertEquals(List.of("1", "2", "3"), exported.stream().map(record -> record.build().sha).sorted().toList());
+        List<BuildRecord> lines = exported.stream().map(record -> BuildRecord.fromJson(record.toJson())).toList();
+
+        dir.resolve("copy").toFile().mkdirs();
+        BuildStore copy = createStore(dir.resolve("copy"));
+        copy.initialize();
+        try {
+            copy.addEntry("2", "dev", "pending");
+            List<BuildRecord> repeated = new ArrayList<>(lines);
+            repeated.addAll(lines);
+            assertEquals(2, copy.importBuilds(repeated.iterator()));
+            assertEquals(0, copy.importBuilds(lines.iterator()));
+
+            BuildEntry first = copy.selectBySha("1");
+            BuildEntry original = store.selectBySha("1");
+            assertEquals("passed", first.buildDescription);
+            assertEquals(original.buildDate, first.buildDate);
+            assertEquals(original.queuedAt, first.queuedAt);
+            assertEquals(original.startedAt, first.startedAt);
+            assertEquals(original.finishedAt, first.finishedAt);
+            assertEquals(store.selectEvents("1"), copy.selectEvents("1"));
+            assertEquals("pending", copy.selectBySha("2").buildResult);
+            assertTrue(copy.selectBySha("2").id < first.id);
+            assertEquals(List.of("main success"), copy.selectStats("main", null).stream()
+                .map(row -> row.branch() + " " + row.result()).toList());
+            assertEquals(1, copy.selectStats("main", null).get(0).timedBuilds());
+            assertEquals(List.of("1"), copy.searchLogs("passed", null, 10).matches().stream().map(LogMatch::sha).toList());
+        } finally {
+            copy.close();
+        }
+    }
+
+    /**
+     * Contract:
+     * Sketches of stage durations shall be merged into the stored sketch of the same window, branch and stage.
+     *
+     * Expected behavior:
+     * Two merges into the same window add up, other windows and branches are kept apart, and the selection is
+     * filtered by branch and by a half-open range of windows.
+     */
+    @Test
+    void timingsMergeByWindowBranchAndStage() {
+        store.mergeTimings(List.of(
+            new StageTiming("2024-01-01 10:00", "main", "test", sketch(100, 200)),
+            new StageTiming("2024-01-01 10:00", "main", "checkout", sketch(5))));
+        store.mergeTimings(List.of(
+            new StageTiming("2024-01-01 10:00", "main", "test", sketch(300)),
+            new StageTiming("2024-01-01 11:00", "main", "test", sketch(400)),
+            new StageTiming("2024-01-01 10:00", "dev", "test", sketch(500))));
+
+        List<StageTiming> all = store.selectTimings(null, null, null);
+        assertEquals(List.of("2024-01-01 10:00 dev test", "2024-01-01 10:00 main checkout",
+            "2024-01-01 10:00 main test", "2024-01-01 11:00 main test"),
+            all.stream().map(t -> t.window() + " " + t.branch() + " " + t.stage()).toList());
+        DurationSketch merged = all.get(2).sketch();
+        assertEquals(3, merged.count());
+        assertEquals(100, merged.min());
+        assertEquals(300, merged.max());
+
+        assertEquals(3, store.selectTimings("main", null, null).size());
+        assertEquals(1, store.selectTimings(null, "2024-01-01 11:00", null).size());
+        assertEquals(3, store.selectTimings(null, null, "2024-01-01 11:00").size());
+        all.get(2).sketch().add(1);
+        assertEquals(3, store.selectTimings("main", "2024-01-01 10:00", "2024-01-01 11:00").get(1).sketch().count());
+    }
+
+    /**
+     * Contract:
+     * Building a commit again shall start a new attempt of the same build, keeping the earlier attempts in its
+     * timeline, and the build of a commit shall be found by the tree hash of the commit.
+     *
+     * Expected behavior:
+     * The first attempt inserts the build, the second resets it to pending without tree hash under the same id,
+     * and each event belongs to its attempt. A tree is only matched by builds of other commits that ended
+     * with success or failure, so newer running or errored builds of the tree don't hide an older result.
+     */
+    @Test
+    void attemptsAreKeptAndBuildsAreFoundByTree() {
+        store.startAttempt("1", "main");
+        store.setTreeHash("1", "tree1");
+        store.updateEntry("1", "main", "success", "passed");
+        store.setTreeHash("missing", "tree1");
+
+        BuildEntry first = store.selectByTree("tree1", null);
+        assertEquals("1", first.sha);
+        assertEquals("tree1", first.treeHash);
+        assertEquals(1, first.attempt);
+        assertNull(store.selectByTree("tree2", null));
+        assertNull(store.selectByTree("tree1", "1"));
+
+        store.startAttempt("2", "main");
+        store.setTreeHash("2", "tree1");
+        assertEquals("1", store.selectByTree("tree1", "2").sha);
+        store.updateEntry("2", "main", "error", "crashed");
+        assertEquals("1", store.selectByTree("tree1", "3").sha);
+
+        store.startAttempt("1", "main");
+        BuildEntry second = store.selectBySha("1");
+        assertEquals(first.id, second.id);
+        assertEquals(2, second.attempt);
+        assertEquals("pending", second.buildResult);
+        assertNull(second.treeHash);
+        assertNull(store.selectByTree("tree1", null));
+        store.updateEntry("1", "main", "failure", "failed");
+
+        List<String> timeline = store.selectEvents("1").stream().map(event -> event.attempt() + ":" + event.state()).toList();
+        assertEquals(List.of("1:pending", "1:success", "2:pending", "2:failure"), timeline);
+    }
+
+    /**
+     * Contract:
+     * Retention shall delete the builds dated before the given month and keep the builds without a date.
+     */
+    @Test
+    void dropBuildsBeforeKeepsRecentAndUndatedBuilds() {
+        store.addEntry("old", "main", "success", "old output", "2023-12-31 23:59:59");
+        store.addEntry("new", "main", "success", "new output", "2024-01-01 00:00:00");
+        store.addEntry("none", "main", "success", "", null);
+        assertNotNull(store.selectBySha("old"));
+
+        store.dropBuildsBefore(YearMonth.of(2024, 1));
+
+        assertNull(store.selectBySha("old"));
+        assertEquals(List.of("new", "none"), shas(store.selectAllBuilds()));
+        assertEquals(0, store.searchLogs("old", null, 10).matches().size());
+        assertEquals(List.of(), store.selectEvents("old"));
+        assertEquals(List.of("success"), states(store.selectEvents("new")));
+    }
+
+    /**
+     * Contract:
+     * Build ids shall never be reused, as they key the logs, events and cursors of builds.
+     *
+     * Expected behavior:
+     * After the newest build is deleted, the next build still gets a higher id.
+     */
+    @Test
+    void idsAreNotReusedAfterDeletes() {
+        store.addEntry("1", "main", "success");
+        store.addEntry("2", "main", "success");
+        int deleted = store.selectBySha("2").id;
+        store.deleteEntry("2");
+        store.addEntry("3", "main", "success");
+        assertTrue(store.selectBySha("3").id > deleted);
+    }
+
+    /**
+     * Contract:
+     * A closed store shall throw a RuntimeException for every operation.
+     */
+    @Test
+    void closedStoreThrows() {
+        store.close();
+        assertThrows(RuntimeException.class, () -> store.addEntry("1", "main", "pending"));
+        assertThrows(RuntimeException.class, () -> store.selectBySha("1"));
+        assertThrows(RuntimeException.class, () -> store.selectBuildsPage(null, 10));
+    }
+}
@@ -0,0 +1,73 @@
+package com.ci;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public class BuildTimesTest {
+    private static final long JAN_31_NOON = 1_706_702_400_000L; // 2024-01-31T12:00:00Z
+
+    /**
+     * Contract:
+     * Build dates shall be parsed into epoch milliseconds, in UTC unless they have an offset.
+     *
+     * Expected behavior:
+     * The date format of the stores, ISO dates with Z or an offset, and plain days are parsed,
+     * and anything else, like free text, has no time.
+     */
+    @Test
+    void parsesDatesInUtc() {
+        assertEquals(JAN_31_NOON, BuildTimes.parse("2024-01-31 12:00:00"));
+        assertEquals(JAN_31_NOON + 250, BuildTimes.parse("2024-01-31 12:00:00.250"));
+        assertEquals(JAN_31_NOON, BuildTimes.parse("2024-01-31T12:00"));
+        assertEquals(JAN_31_NOON, BuildTimes.parse("2024-01-31T12:00:00Z"));
+        assertEquals(JAN_31_NOON, BuildTimes.parse("2024-01-31T07:00:00-05:00"));
+        assertEquals(JAN_31_NOON - 12 * 3_600_000, BuildTimes.parse("2024-01-31"));
+        assertNull(BuildTimes.parse(null));
+        assertNull(BuildTimes.parse("yesterday"));
+        assertNull(BuildTimes.parse("2024-13-01 00:00:00"));
+    }
+
+    /**
+     * Contract:
+     * A bound of a time range shall be epoch milliseconds or a date.
+     */
+    @Test
+    void parsesBoundsAsMillisOrDates() {
+        assertEquals(JAN_31_NOON, BuildTimes.parseBound(Long.toString(JAN_31_NOON)));
+        assertEquals(JAN_31_NOON, BuildTimes.parseBound("2024-01-31T12:00:00Z"));
+        assertThrows(IllegalArgumentException.class, () -> BuildTimes.parseBound("soon"));
+        assertThrows(IllegalArgumentException.class, () -> BuildTimes.parseBound("99999999999999999999"));
+    }
+
+    /**
+     * Contract:
+     * The start and finish of a build shall be those of its current attempt.
+     *
+     * Expected behavior:
+     * The attempt starts with its first state after pending and finishes with its latest final result,
+     * and the events of earlier attempts are ignored.
+     */
+    @Test
+    void timesAreThoseOfTheCurrentAttempt() {
+        BuildEntry build = new BuildEntry(1, "sha", "main", "success", "", "2024-01-31 12:00:00", null, 2);
+        BuildTimes.fill(build, List.of(
+            new BuildEvent("sha", 1, "pending", "2024-01-31 10:00:00.000"),
+            new BuildEvent("sha", 1, "failure", "2024-01-31 10:05:00.000"),
+            new BuildEvent("sha", 2, "pending", "2024-01-31 12:00:00.000"),
+            new BuildEvent("sha", 2, "checkout", "2024-01-31 12:00:01.000"),
+            new BuildEvent("sha", 2, "testing", "2024-01-31 12:00:30.000"),
+            new BuildEvent("sha", 2, "success", "2024-01-31 12:01:00.000")));
+
+        assertEquals(JAN_31_NOON, build.queuedAt);
+        assertEquals(JAN_31_NOON + 1_000, build.startedAt);
+        assertEquals(JAN_31_NOON + 60_000, build.finishedAt);
+
+        BuildTimes.fill(build, List.of(new BuildEvent("sha", 2, "pending", "2024-01-31 12:00:00.000")));
+        assertNull(build.startedAt);
+        assertNull(build.finishedAt);
+    }
+}
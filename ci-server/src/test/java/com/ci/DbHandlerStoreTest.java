@@ -0,0 +1,13 @@
+package com.ci;
+
+import java.nio.file.Path;
+
+/**
+ * Runs the {@link BuildStoreContract} against the SQLite store.
+ */
+public class DbHandlerStoreTest extends BuildStoreContract {
+    @Override
+    BuildStore createStore(Path dir) {
+        return new DbHandler(dir.resolve("builds.db").toString());
+    }
+}
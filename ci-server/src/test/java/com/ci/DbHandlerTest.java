@@ -8,6 +8,7 @@ import java.util.List;
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -16,7 +17,21 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class DbHandlerTest {
@@ -269,6 +284,480 @@ public class DbHandlerTest {
         });
     }
 
+    /**
+     * Contract:
+     * The build output recorded with updateEntry shall be searchable with searchLogs.
+     * 
+     * Expected behavior:
+     * Searching for a word of a recorded log line shall return that line together with its build,
+     * and searching for a word that was never logged shall return an empty list.
+     */
+    @Test
+    void searchLogsFindsRecordedOutput() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("123", "branch1", "pending");
+        dbHandler.addEntry("456", "branch2", "pending");
+        dbHandler.updateEntry("123", "branch1", "failure", "[INFO] Building\njava.lang.NullPointerException at Foo\n[INFO] done");
+        dbHandler.updateEntry("456", "branch2", "success", "[INFO] Building\n[INFO] done");
+
+        List<LogMatch> matches = dbHandler.searchLogs("java.lang.NullPointerException", null, 10).matches();
+        assertEquals(1, matches.size());
+        assertEquals("123", matches.get(0).sha());
+        assertEquals("failure", matches.get(0).buildResult());
+        assertEquals(2, matches.get(0).lineNumber());
+        assertTrue(matches.get(0).snippet().contains("NullPointerException"));
+
+        assertEquals(2, dbHandler.searchLogs("Building", null, 10).matches().size());
+        assertEquals(0, dbHandler.searchLogs("OutOfMemoryError", null, 10).matches().size());
+    }
+
+    /**
+     * Contract:
+     * The log index shall be maintained incrementally: updating an entry replaces its indexed output
+     * and deleting an entry removes it.
+     * 
+     * Expected behavior:
+     * After an update, only the new output shall match. After deleting the entry, nothing shall match.
+     */
+    @Test
+    void searchLogsFollowsUpdatesAndDeletes() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("123", "branch1", "pending", "first output");
+        dbHandler.updateEntry("123", "branch1", "success", "second output");
+
+        assertEquals(0, dbHandler.searchLogs("first", null, 10).matches().size());
+        assertEquals(1, dbHandler.searchLogs("second", null, 10).matches().size());
+
+        dbHandler.deleteEntry("123");
+        assertEquals(0, dbHandler.searchLogs("second", null, 10).matches().size());
+    }
+
+    /**
+     * Contract:
+     * searchLogs shall return the lines of the most recent builds first and support pagination with a cursor.
+     * 
+     * Expected behavior:
+     * Given three builds logging the same word, pages of size two shall return the newest builds first
+     * and the remaining build on the second page.
+     */
+    @Test
+    void searchLogsPaginatesNewestFirst() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1", "main", "failure", "flaky test");
+        dbHandler.addEntry("2", "main", "failure", "flaky test");
+        dbHandler.addEntry("3", "main", "failure", "flaky test");
+
+        LogPage first = dbHandler.searchLogs("flaky", null, 2);
+        LogPage second = dbHandler.searchLogs("flaky", first.nextCursor(), 2);
+        assertEquals(List.of("3", "2"), first.matches().stream().map(LogMatch::sha).toList());
+        assertEquals(List.of("1"), second.matches().stream().map(LogMatch::sha).toList());
+        assertNull(second.nextCursor());
+    }
+
+    /**
+     * Contract:
+     * Recorded checkout measurements shall be summarized per clone strategy for a repository.
+     * 
+     * Expected behavior:
+     * Given two SHALLOW and one MIRROR checkout of a repository and one checkout of another repository,
+     * the summary shall contain two strategies with the averages of that repository only.
+     */
+    @Test
+    void checkoutStatsAreSummarizedPerStrategy() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addCheckoutStats("1", "repoA", "SHALLOW", 100, 1000);
+        dbHandler.addCheckoutStats("2", "repoA", "SHALLOW", 300, 3000);
+        dbHandler.addCheckoutStats("3", "repoA", "MIRROR", 50, 10);
+        dbHandler.addCheckoutStats("4", "repoB", "FULL", 999, 999);
+
+        List<CheckoutSummary> summaries = dbHandler.summarizeCheckoutStats("repoA");
+        assertEquals(2, summaries.size());
+        assertEquals(new CheckoutSummary("MIRROR", 1, 50, 10), summaries.get(0));
+        assertEquals(new CheckoutSummary("SHALLOW", 2, 200, 2000), summaries.get(1));
+    }
+
+    /**
+     * Contract:
+     * The database shall run in WAL mode, so readers and the writer don't block each other.
+     */
+    @Test
+    void databaseUsesWalMode() throws Exception {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            ResultSet rs = connection.createStatement().executeQuery("PRAGMA journal_mode")) {
+            assertTrue(rs.next());
+            assertEquals("wal", rs.getString(1));
+        }
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * A failed write shall not leave an open transaction on the pooled writer connection.
+     * 
+     * Expected behavior:
+     * After a duplicate insert fails, later writes are committed and visible to readers.
+     */
+    @Test
+    void failedWriteDoesNotAffectLaterWrites() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1", "main", "pending", "first");
+        assertThrows(RuntimeException.class, () -> dbHandler.addEntry("1", "main", "pending", "again"));
+        dbHandler.addEntry("2", "main", "success", "second");
+        dbHandler.updateEntry("1", "main", "failure", "updated");
+
+        assertEquals("updated", dbHandler.selectBySha("1").buildDescription);
+        assertEquals(2, dbHandler.selectAllBuilds().size());
+        // the writes are committed, not only visible to the pooled connections
+        DbHandler other = new DbHandler(dbUrl);
+        assertEquals("success", other.selectBySha("2").buildResult);
+        other.close();
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Concurrent readers and writers shall share the pool without errors.
+     * 
+     * Expected behavior:
+     * 8 threads each insert 25 builds and read them back, all 200 builds are stored.
+     */
+    @Test
+    void concurrentReadsAndWritesShareThePool() throws Exception {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        String sha = thread + "-" + i;
+                        dbHandler.addEntry(sha, "branch" + thread, "success", "log of " + sha);
+                        assertNotNull(dbHandler.selectBySha(sha));
+                        dbHandler.selectByBranch("branch" + thread);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(200, dbHandler.selectAllBuilds().size());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Once closed, the handler shall release its connections and fail further operations.
+     */
+    @Test
+    void closedHandlerThrows() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.close();
+        assertThrows(RuntimeException.class, () -> dbHandler.addEntry("1", "main", "pending"));
+        assertThrows(RuntimeException.class, () -> dbHandler.selectBySha("1"));
+    }
+
+    /**
+     * Contract:
+     * Without pooling, the handler shall behave the same, opening a connection per operation.
+     */
+    @Test
+    void unpooledHandlerStoresAndReadsEntries() {
+        DbHandler dbHandler = new DbHandler(dbUrl, false);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1", "main", "pending", "first");
+        dbHandler.updateEntry("1", "main", "success", "done");
+        assertEquals("success", dbHandler.selectBySha("1").buildResult);
+        assertEquals(1, dbHandler.searchLogs("done", null, 10).matches().size());
+    }
+
+    /**
+     * Contract:
+     * Queued writes shall be committed in the order they were queued and be readable after flush.
+     * 
+     * Expected behavior:
+     * An insert followed by an update of the same build, both queued, leaves the updated build,
+     * committed for other handlers too.
+     */
+    @Test
+    void queuedWritesAreCommittedInOrder() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntryAsync("1", "main", "pending", "");
+        dbHandler.updateEntryAsync("1", "main", "success", "all tests passed");
+        dbHandler.flush();
+
+        assertEquals("success", dbHandler.selectBySha("1").buildResult);
+        assertEquals(1, dbHandler.searchLogs("passed", null, 10).matches().size());
+        DbHandler other = new DbHandler(dbUrl);
+        assertEquals("success", other.selectBySha("1").buildResult);
+        other.close();
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Writes queued while a transaction commits shall be committed together, in fewer transactions than writes.
+     */
+    @Test
+    void queuedWritesAreBatched() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(dbHandler.addEntryAsync(Integer.toString(i), "main", "success", "log " + i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        assertEquals(200, dbHandler.selectAllBuilds().size());
+        assertTrue(dbHandler.committedBatches() < 200, "batches: " + dbHandler.committedBatches());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * A failing write shall fail only its own future, the other writes of its batch are committed.
+     */
+    @Test
+    void failedWriteDoesNotAffectItsBatch() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        CompletableFuture<Void> first = dbHandler.addEntryAsync("1", "main", "pending", "first");
+        CompletableFuture<Void> duplicate = dbHandler.addEntryAsync("1", "main", "pending", "again");
+        CompletableFuture<Void> second = dbHandler.addEntryAsync("2", "main", "pending", "second");
+
+        assertDoesNotThrow(first::join);
+        CompletionException ex = assertThrows(CompletionException.class, duplicate::join);
+        assertTrue(ex.getCause() instanceof RuntimeException);
+        assertDoesNotThrow(second::join);
+        assertEquals("first", dbHandler.selectBySha("1").buildDescription);
+        assertEquals(2, dbHandler.selectAllBuilds().size());
+        assertEquals(1, dbHandler.searchLogs("first", null, 10).matches().size());
+        assertEquals(0, dbHandler.searchLogs("again", null, 10).matches().size());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Closing the handler shall commit the writes queued before it and reject writes queued after it.
+     */
+    @Test
+    void closeCommitsQueuedWrites() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        for (int i = 0; i < 50; i++) {
+            dbHandler.addEntryAsync(Integer.toString(i), "main", "success", "");
+        }
+        dbHandler.close();
+        assertThrows(CompletionException.class, () -> dbHandler.addEntryAsync("late", "main", "pending", "").join());
+
+        DbHandler other = new DbHandler(dbUrl);
+        assertEquals(50, other.selectAllBuilds().size());
+        other.close();
+    }
+
+    /**
+     * Contract:
+     * Following the cursors of the pages shall list every build exactly once, newest first.
+     * 
+     * Expected behavior:
+     * Builds with the same date are ordered by id, builds without a date come last, and the last page has no cursor.
+     */
+    @Test
+    void pagesListEveryBuildOnceNewestFirst() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("a", "main", "success", "", "2024-01-01 10:00:00");
+        dbHandler.addEntry("b", "main", "success", "", null);
+        dbHandler.addEntry("c", "main", "failure", "", "2024-01-03 10:00:00");
+        dbHandler.addEntry("d", "main", "success", "", "2024-01-02 10:00:00");
+        dbHandler.addEntry("e", "main", "success", "", "2024-01-02 10:00:00");
+        dbHandler.addEntry("f", "main", "success", "", null);
+        dbHandler.addEntry("g", "main", "error", "", "2024-01-04 10:00:00");
+
+        List<String> shas = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            BuildPage page = dbHandler.selectBuildsPage(cursor, 2);
+            assertTrue(page.builds().size() <= 2);
+            page.builds().forEach(build -> shas.add(build.sha));
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(List.of("g", "c", "e", "d", "a", "f", "b"), shas);
+        assertEquals(4, pages);
+        assertNull(dbHandler.selectBuildsPage(null, 7).nextCursor());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Pages of a branch shall only contain builds of that branch.
+     */
+    @Test
+    void branchPagesOnlyListTheBranch() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        for (int i = 0; i < 5; i++) {
+            dbHandler.addEntry("main" + i, "main", "success", "", "2024-01-0" + (i + 1) + " 10:00:00");
+            dbHandler.addEntry("dev" + i, "dev", "success", "", "2024-01-0" + (i + 1) + " 11:00:00");
+        }
+
+        BuildPage first = dbHandler.selectByBranchPage("main", null, 3);
+        BuildPage second = dbHandler.selectByBranchPage("main", first.nextCursor(), 3);
+
+        assertEquals(List.of("main4", "main3", "main2"), first.builds().stream().map(build -> build.sha).toList());
+        assertEquals(List.of("main1", "main0"), second.builds().stream().map(build -> build.sha).toList());
+        assertNull(second.nextCursor());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * A cursor that was not returned by the handler shall be rejected with an IllegalArgumentException.
+     */
+    @Test
+    void invalidCursorIsRejected() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        assertThrows(IllegalArgumentException.class, () -> dbHandler.selectBuildsPage("not a cursor!", 10));
+        assertThrows(IllegalArgumentException.class, () -> dbHandler.selectBuildsPage("eHl6", 10));
+        assertThrows(IllegalArgumentException.class, () -> dbHandler.selectBuildsPage(null, 0));
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Lookups by SHA shall be served from the cache until the build is written again.
+     * 
+     * Expected behavior:
+     * The second lookup is a hit, and after an update or a delete the lookup reads the new state.
+     */
+    @Test
+    void selectByShaIsCachedUntilWritten() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1", "main", "pending");
+        assertEquals("pending", dbHandler.selectBySha("1").buildResult);
+        assertEquals("pending", dbHandler.selectBySha("1").buildResult);
+        assertEquals(1, dbHandler.buildCacheStats().hits());
+
+        dbHandler.updateEntry("1", "main", "success", "done");
+        assertEquals("success", dbHandler.selectBySha("1").buildResult);
+        dbHandler.deleteEntry("1");
+        assertNull(dbHandler.selectBySha("1"));
+        assertEquals(1, dbHandler.buildCacheStats().hits());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Builds shall be stored in the partition of the month of their date, and read back across partitions.
+     * 
+     * Expected behavior:
+     * Builds of two months and one without a date create three partitions, listed newest first, and all
+     * lookups, pages and log searches see the builds of every partition.
+     */
+    @Test
+    void buildsArePartitionedByMonth() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("jan", "main", "failure", "flaky test", "2024-01-15 10:00:00");
+        dbHandler.addEntry("feb", "main", "failure", "flaky test", "2024-02-01 10:00:00");
+        dbHandler.addEntry("none", "dev", "failure", "flaky test", null);
+
+        assertEquals(List.of("2024-02", "2024-01", "undated"), dbHandler.partitions());
+        assertEquals(List.of("jan", "feb", "none"), dbHandler.selectAllBuilds().stream().map(build -> build.sha).toList());
+        assertEquals(2, dbHandler.selectByBranch("main").size());
+        assertEquals("2024-01-15 10:00:00", dbHandler.selectBySha("jan").buildDate);
+        assertEquals(List.of("feb", "jan", "none"),
+            dbHandler.selectBuildsPage(null, 10).builds().stream().map(build -> build.sha).toList());
+        assertEquals(List.of("none", "feb", "jan"),
+            dbHandler.searchLogs("flaky", null, 10).matches().stream().map(LogMatch::sha).toList());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * SHAs and ids shall stay unique across partitions.
+     * 
+     * Expected behavior:
+     * Inserting a SHA stored in another month's partition fails, and ids keep increasing across months.
+     */
+    @Test
+    void shaIsUniqueAcrossPartitions() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1", "main", "success", "", "2024-03-01 00:00:00");
+        dbHandler.addEntry("2", "main", "success", "", "2024-01-01 00:00:00");
+
+        assertThrows(RuntimeException.class, () -> dbHandler.addEntry("1", "main", "success", "", "2024-01-02 00:00:00"));
+        assertEquals(2, dbHandler.selectBySha("2").id);
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Updating the date of a build to another month shall move it to the partition of that month with its id and logs.
+     */
+    @Test
+    void updateMovesBuildToPartitionOfNewDate() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1", "main", "pending", "started", "2024-01-31 23:59:00");
+        dbHandler.updateEntry("1", "main", "success", "compiled", "2024-02-01 00:01:00");
+
+        BuildEntry build = dbHandler.selectBySha("1");
+        assertEquals(1, build.id);
+        assertEquals("2024-02-01 00:01:00", build.buildDate);
+        assertEquals(List.of("2024-02", "2024-01"), dbHandler.partitions());
+        assertEquals(List.of("1"), dbHandler.selectBuildsPage(null, 10).builds().stream().map(b -> b.sha).toList());
+        assertEquals(1, dbHandler.searchLogs("compiled", null, 10).matches().size());
+        assertEquals(0, dbHandler.searchLogs("started", null, 10).matches().size());
+        dbHandler.close();
+    }
+
+    /**
+     * Contract:
+     * Retention shall drop the partitions of the months before the oldest month kept, with their builds and logs.
+     * 
+     * Expected behavior:
+     * Dropping the months before February removes the January build, including from the cache,
+     * and keeps the February build and the build without a date.
+     */
+    @Test
+    void dropPartitionsBeforeRemovesOldMonths() {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("jan", "main", "success", "old output", "2024-01-15 10:00:00");
+        dbHandler.addEntry("feb", "main", "success", "new output", "2024-02-15 10:00:00");
+        dbHandler.addEntry("none", "main", "success", "", null);
+        assertNotNull(dbHandler.selectBySha("jan"));
+
+        assertEquals(1, dbHandler.dropPartitionsBefore(YearMonth.of(2024, 2)));
+        assertEquals(0, dbHandler.dropPartitionsBefore(YearMonth.of(2024, 2)));
+
+        assertNull(dbHandler.selectBySha("jan"));
+        assertEquals(List.of("2024-02", "undated"), dbHandler.partitions());
+        assertEquals(List.of("feb", "none"), dbHandler.selectAllBuilds().stream().map(build -> build.sha).toList());
+        assertEquals(0, dbHandler.searchLogs("old", null, 10).matches().size());
+        dbHandler.close();
+    }
+
     /* #region Runtime Exceptions */
 
     /**
@@ -318,6 +807,13 @@ public class DbHandlerTest {
             () -> db.selectByBranch("main"));
     }
 
+    @Test
+    void searchLogsThrowsRuntime() {
+        DbHandler db = brokenDb();
+        assertThrows(RuntimeException.class,
+            () -> db.searchLogs("error", null, 10));
+    }
+
     @Test
     void deleteEntryThrowsRuntime() {
         DbHandler db = brokenDb();
@@ -356,6 +852,125 @@ public class DbHandlerTest {
 
 
 
+    /**
+     * Contract:
+     * Build ids shall come from a persisted sequence, not from the highest stored id.
+     *
+     * Expected behavior:
+     * After the partition holding the newest builds is dropped and the database reopened, new builds, imported
+     * or added, still get ids after the dropped ones.
+     */
+    @Test
+    void idsAreNotReusedAfterDroppingPartitions() {
+        int dropped;
+        try (DbHandler dbHandler = new DbHandler(dbUrl)) {
+            dbHandler.createBuildTable();
+            dbHandler.addEntry("new", "main", "success", "", "2024-02-01 10:00:00");
+            dbHandler.addEntry("old", "main", "success", "", "2023-01-01 10:00:00");
+            dropped = dbHandler.selectBySha("old").id;
+            dbHandler.dropBuildsBefore(YearMonth.of(2024, 1));
+        }
+        try (DbHandler dbHandler = new DbHandler(dbUrl)) {
+            dbHandler.createBuildTable();
+            dbHandler.addEntry("next", "main", "success", "", "2023-01-01 10:00:00");
+            assertEquals(dropped + 1, dbHandler.selectBySha("next").id);
+            dbHandler.importBuilds(List.of(BuildRecord.fromJson(
+                "{\"sha\":\"imported\",\"branch\":\"main\",\"buildResult\":\"success\"}")).iterator());
+            assertEquals(dropped + 2, dbHandler.selectBySha("imported").id);
+        }
+    }
+
+    /**
+     * Contract:
+     * An export shall be read in chunks, holding no connection or snapshot while the consumer runs.
+     *
+     * Expected behavior:
+     * Builds spanning several chunks are each exported once in id order with their events, and while the consumer
+     * runs a checkpoint can truncate the WAL, which an open read transaction would prevent.
+     */
+    @Test
+    void exportReleasesTheReaderBetweenChunks() throws Exception {
+        try (DbHandler dbHandler = new DbHandler(dbUrl)) {
+            dbHandler.createBuildTable();
+            List<BuildRecord> records = new ArrayList<>();
+            for (int i = 0; i < 1_100; i++) {
+                records.add(BuildRecord.fromJson("{\"sha\":\"" + i + "\",\"branch\":\"main\",\"buildResult\":\"success\"," +
+                    "\"buildDate\":\"2024-01-01 10:00:00\"}"));
+            }
+            assertEquals(1_100, dbHandler.importBuilds(records.iterator()));
+
+            List<Integer> ids = new ArrayList<>();
+            List<Integer> busy = new ArrayList<>();
+            dbHandler.exportBuilds(record -> {
+                assertEquals(1, record.events().size());
+                ids.add(record.build().id);
+                if (ids.size() == 1) {
+                    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+                         ResultSet rs = connection.createStatement().executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                        busy.add(rs.getInt(1));
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            assertEquals(1_100, ids.size());
+            assertEquals(ids.stream().sorted().distinct().toList(), ids);
+            assertEquals(List.of(0), busy);
+        }
+    }
+
+    /**
+     * Contract:
+     * The asynchronous reads shall run on a bounded executor, rejecting reads beyond its queue and timing out slow reads.
+     *
+     * Expected behavior:
+     * With every reader thread blocked and the queue full, a further read fails with a RejectedExecutionException,
+     * blocked reads complete with a TimeoutException, and reads run again once the readers are free.
+     */
+    @Test
+    void asyncReadsAreBulkheadedAndTimedOut() throws Exception {
+        DbHandler dbHandler = new DbHandler(dbUrl, true, 1, 200);
+        dbHandler.initialize();
+        dbHandler.addEntry("abc", "main", "success", "ok", "2024-01-01 10:00:00");
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        List<CompletableFuture<String>> blocked = new ArrayList<>();
+        try {
+            for (int i = 0; i <= DbHandler.READERS; i++) { // every reader and the one queued read
+                blocked.add(dbHandler.query(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    ran.incrementAndGet();
+                    return "blocked";
+                }));
+            }
+
+            CompletionException rejected = assertThrows(CompletionException.class, () -> dbHandler.selectByShaAsync("abc").join());
+            assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+            for (CompletableFuture<String> read : blocked) {
+                CompletionException timedOut = assertThrows(CompletionException.class, read::join);
+                assertInstanceOf(TimeoutException.class, timedOut.getCause());
+            }
+        } finally {
+            release.countDown();
+        }
+        // the queued read timed out, so it is skipped once a reader takes it off the queue
+        CompletableFuture<BuildEntry> read = dbHandler.selectByShaAsync("abc");
+        for (int i = 0; i < 100 && read.isCompletedExceptionally(); i++) {
+            Thread.sleep(10);
+            read = dbHandler.selectByShaAsync("abc");
+        }
+        assertEquals("ok", read.get(5, TimeUnit.SECONDS).buildDescription);
+        assertEquals(DbHandler.READERS, ran.get());
+
+        dbHandler.close();
+        CompletionException closed = assertThrows(CompletionException.class, () -> dbHandler.selectByShaAsync("abc").join());
+        assertTrue(closed.getCause().getMessage().contains("closed"));
+    }
+
     private DbHandler brokenDb() {
         return new BrokenDbHandler();
     }
@@ -0,0 +1,92 @@
+package com.ci;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class DurationSketchTest {
+
+    private static void assertWithinAccuracy(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= Math.ceil(expected * DurationSketch.RELATIVE_ACCURACY),
+            "expected " + expected + " within 1% but was " + actual);
+    }
+
+    /**
+     * Contract:
+     * Quantiles shall be within the relative accuracy of the exact quantiles of the samples.
+     *
+     * Expected behavior:
+     * For 1 to 100000 ms, p50, p95 and p99 are within 1% of 50000, 95000 and 99000, and min and max are exact.
+     */
+    @Test
+    void quantilesAreWithinRelativeAccuracy() {
+        DurationSketch sketch = new DurationSketch();
+        for (long millis = 100_000; millis >= 1; millis--) {
+            sketch.add(millis);
+        }
+
+        assertEquals(100_000, sketch.count());
+        assertWithinAccuracy(50_000, sketch.quantile(0.50));
+        assertWithinAccuracy(95_000, sketch.quantile(0.95));
+        assertWithinAccuracy(99_000, sketch.quantile(0.99));
+        assertEquals(1, sketch.min());
+        assertEquals(100_000, sketch.max());
+        assertEquals(1, sketch.quantile(0));
+        assertEquals(100_000, sketch.quantile(1));
+    }
+
+    /**
+     * Contract:
+     * Merging sketches shall give the same sketch as counting all their samples in one.
+     *
+     * Expected behavior:
+     * Two sketches of random samples merged answer every quantile like a sketch of all samples, and survive
+     * serialization unchanged.
+     */
+    @Test
+    void mergedSketchesEqualOneSketchOfAllSamples() {
+        Random random = new Random(42);
+        DurationSketch all = new DurationSketch();
+        DurationSketch first = new DurationSketch();
+        DurationSketch second = new DurationSketch();
+        for (int i = 0; i < 10_000; i++) {
+            long millis = (long) Math.exp(random.nextDouble() * 15);
+            all.add(millis);
+            (i % 3 == 0 ? first : second).add(millis);
+        }
+        DurationSketch merged = first.copy();
+        merged.merge(second);
+        DurationSketch restored = DurationSketch.fromBytes(merged.toBytes());
+
+        for (double q : new double[] {0, 0.25, 0.5, 0.9, 0.95, 0.99, 1}) {
+            assertEquals(all.quantile(q), merged.quantile(q));
+            assertEquals(all.quantile(q), restored.quantile(q));
+        }
+        assertEquals(all.count(), restored.count());
+        assertEquals(all.min(), restored.min());
+        assertEquals(all.max(), restored.max());
+        assertEquals(3334, first.count());
+    }
+
+    /**
+     * Contract:
+     * Empty sketches and durations of 0 ms shall be answered without error.
+     */
+    @Test
+    void emptySketchAndZeroDurations() {
+        DurationSketch sketch = new DurationSketch();
+        assertEquals(0, sketch.quantile(0.5));
+        assertEquals(0, sketch.min());
+        assertEquals(0, DurationSketch.fromBytes(sketch.toBytes()).count());
+
+        sketch.add(0);
+        sketch.add(-5);
+        sketch.add(10);
+        assertEquals(0, sketch.quantile(0.5));
+        assertEquals(10, sketch.quantile(1));
+        assertThrows(IllegalArgumentException.class, () -> DurationSketch.fromBytes(new byte[] {9}));
+    }
+}
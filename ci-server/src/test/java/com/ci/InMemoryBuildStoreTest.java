@@ -0,0 +1,13 @@
+package com.ci;
+
+import java.nio.file.Path;
+
+/**
+ * Runs the {@link BuildStoreContract} against the in-memory store.
+ */
+public class InMemoryBuildStoreTest extends BuildStoreContract {
+    @Override
+    BuildStore createStore(Path dir) {
+        return new InMemoryBuildStore();
+    }
+}
@@ -0,0 +1,190 @@
+package com.ci;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the {@link BuildStoreContract} against the log-structured store, and tests its recovery and compaction.
+ */
+public class LogBuildStoreTest extends BuildStoreContract {
+    @Override
+    BuildStore createStore(Path dir) {
+        return new LogBuildStore(dir.resolve("builds.log"), false);
+    }
+
+    private LogBuildStore reopen() {
+        store.close();
+        LogBuildStore reopened = new LogBuildStore(dir.resolve("builds.log"), false);
+        reopened.initialize();
+        store = reopened;
+        return reopened;
+    }
+
+    /**
+     * Contract:
+     * Reopening the log shall restore the latest state of every build, the checkouts and the next id.
+     */
+    @Test
+    void reopenedLogRestoresTheBuilds() {
+        store.addEntry("1", "main", "pending", "", "2024-01-01 10:00:00");
+        store.addEntry("2", "main", "pending", "");
+        store.updateEntry("1", "main", "success", "first line\nsecond line");
+        store.deleteEntry("2");
+        store.addCheckoutStats("1", "repo", "SHALLOW", 10, 100);
+
+        LogBuildStore reopened = reopen();
+        assertEquals("success", reopened.selectBySha("1").buildResult);
+        assertEquals("2024-01-01 10:00:00", reopened.selectBySha("1").buildDate);
+        assertNull(reopened.selectBySha("2"));
+        assertEquals(1, reopened.searchLogs("second", null, 10).matches().size());
+        assertEquals(1, reopened.summarizeCheckoutStats("repo").size());
+        reopened.addEntry("3", "main", "pending");
+        assertEquals(3, reopened.selectBySha("3").id);
+    }
+
+    /**
+     * Contract:
+     * A record cut short by a crash shall be truncated when the log is reopened, keeping the records before it.
+     */
+    @Test
+    void incompleteRecordIsTruncated() throws IOException {
+        store.addEntry("1", "main", "success", "kept");
+        store.close();
+        Path file = dir.resolve("builds.log");
+        long size = Files.size(file);
+        Files.write(file, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        LogBuildStore reopened = reopen();
+        assertEquals(size, Files.size(file));
+        assertEquals("kept", reopened.selectBySha("1").buildDescription);
+        reopened.addEntry("2", "main", "success", "after");
+        assertEquals(List.of("1", "2"), reopened.selectAllBuilds().stream().map(build -> build.sha).toList());
+    }
+
+    /**
+     * Contract:
+     * A corrupt record followed by other records shall fail the opening of the log instead of being truncated.
+     *
+     * Expected behavior:
+     * Opening throws, naming the offset of the record, and the file is left unchanged.
+     */
+    @Test
+    void corruptRecordBeforeTheTailIsNotTruncated() throws IOException {
+        store.addEntry("1", "main", "success", "first");
+        store.addEntry("2", "main", "success", "second");
+        store.close();
+        Path file = dir.resolve("builds.log");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[10] ^= 0x7f; // in the payload of the first record
+        Files.write(file, bytes);
+
+        LogBuildStore reopened = new LogBuildStore(file, false);
+        RuntimeException error = assertThrows(RuntimeException.class, reopened::initialize);
+        assertTrue(error.getCause().getMessage().contains("offset 0"), error.getCause().getMessage());
+        assertArrayEquals(bytes, Files.readAllBytes(file));
+    }
+
+    /**
+     * Contract:
+     * The tree hash and the attempt of a build shall survive reopening and compacting the log.
+     */
+    @Test
+    void treeHashAndAttemptAreRestored() {
+        LogBuildStore log = (LogBuildStore) store;
+        log.startAttempt("1", "main");
+        log.updateEntry("1", "main", "failure", "failed");
+        log.startAttempt("1", "main");
+        log.setTreeHash("1", "tree1");
+        log.updateEntry("1", "main", "success", "passed");
+
+        LogBuildStore reopened = reopen();
+        assertEquals("tree1", reopened.selectBySha("1").treeHash);
+        assertEquals(2, reopened.selectBySha("1").attempt);
+        reopened.compact();
+        reopened = reopen();
+        assertEquals("1", reopened.selectByTree("tree1", null).sha);
+        assertEquals(2, reopened.selectBySha("1").attempt);
+        assertEquals(4, reopened.selectEvents("1").size());
+    }
+
+    /**
+     * Contract:
+     * The statistics rollup shall survive reopening the log, and compacting it away from the events of deleted builds.
+     */
+    @Test
+    void statsAreRestored() {
+        LogBuildStore log = (LogBuildStore) store;
+        log.startAttempt("1", "main");
+        log.updateEntry("1", "main", "success", "passed");
+        log.addEntry("2", "main", "failure");
+        log.deleteEntry("2");
+        List<BuildStats> stats = log.selectStats(null, null);
+        assertEquals(2, stats.size());
+
+        LogBuildStore reopened = reopen();
+        assertEquals(stats, reopened.selectStats(null, null));
+        reopened.compact();
+        reopened = reopen();
+        assertEquals(stats, reopened.selectStats(null, null));
+        reopened.addEntry("3", "main", "success");
+        assertEquals(2, reopened.selectStats("main", null).stream().filter(row -> row.result().equals("success"))
+            .findFirst().orElseThrow().builds());
+    }
+
+    /**
+     * Contract:
+     * The merged sketches of stage durations shall survive reopening and compacting the log.
+     */
+    @Test
+    void timingsAreRestored() {
+        LogBuildStore log = (LogBuildStore) store;
+        for (long millis = 1; millis <= 3; millis++) {
+            DurationSketch sketch = new DurationSketch();
+            sketch.add(millis * 100);
+            log.mergeTimings(List.of(new StageTiming("2024-01-01 10:00", "main", "test", sketch)));
+        }
+
+        LogBuildStore reopened = reopen();
+        assertEquals(3, reopened.selectTimings(null, null, null).get(0).sketch().count());
+        reopened.compact();
+        reopened = reopen();
+        List<StageTiming> timings = reopened.selectTimings(null, null, null);
+        assertEquals(1, timings.size());
+        assertEquals(3, timings.get(0).sketch().count());
+        assertEquals(300, timings.get(0).sketch().max());
+    }
+
+    /**
+     * Contract:
+     * Compaction shall drop the superseded records and keep the latest state and the events of every build.
+     */
+    @Test
+    void compactionKeepsOnlyLiveRecords() {
+        LogBuildStore log = (LogBuildStore) store;
+        log.addEntry("1", "main", "pending", "", "2024-01-01 10:00:00");
+        for (int i = 0; i < 100; i++) {
+            log.updateEntry("1", "main", "running", "output " + i);
+        }
+        log.addCheckoutStats("1", "repo", "SHALLOW", 10, 100);
+        long before = log.size();
+
+        log.compact();
+
+        assertTrue(log.size() < before / 25, log.size() + " of " + before);
+        assertEquals("output 99", log.selectBySha("1").buildDescription);
+        LogBuildStore reopened = reopen();
+        assertEquals("output 99", reopened.selectBySha("1").buildDescription);
+        assertEquals(List.of("pending", "running"), reopened.selectEvents("1").stream().map(BuildEvent::state).toList());
+        assertEquals(1, reopened.summarizeCheckoutStats("repo").size());
+    }
+}
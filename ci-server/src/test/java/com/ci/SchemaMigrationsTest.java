@@ -0,0 +1,236 @@
+package com.ci;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SchemaMigrationsTest {
+    private File tempDbFile;
+    private String dbUrl;
+
+    @BeforeEach
+    void createTempDb() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        dbUrl = tempDbFile.getAbsolutePath();
+    }
+
+    @AfterEach
+    void deleteTempDb() {
+        if (tempDbFile != null && tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    /**
+     * Contract:
+     * A new database shall be migrated to the latest schema version, recording every migration once.
+     *
+     * Expected behavior:
+     * After creating the tables twice, schema_version holds one row per migration.
+     */
+    @Test
+    void newDatabaseIsMigratedToLatestVersion() throws SQLException {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.createBuildTable();
+
+        assertEquals(SchemaMigrations.latestVersion(), dbHandler.schemaVersion());
+        dbHandler.close();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("SELECT COUNT(*) FROM schema_version")) {
+            rs.next();
+            assertEquals(SchemaMigrations.MIGRATIONS.size(), rs.getInt(1));
+        }
+    }
+
+    /**
+     * Contract:
+     * A database created before migrations were introduced shall be brought under versioning without losing builds.
+     *
+     * Expected behavior:
+     * A build stored in an unversioned builds table is still there after the migration, in the partition of its month,
+     * its timeline starts with its result at its build date, that result is counted in the statistics rollup,
+     * its build date is converted to an epoch queued time, which is also when it finished,
+     * and its output is found by a full-text search.
+     */
+    @Test
+    void unversionedDatabaseKeepsItsBuilds() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            Statement stm = connection.createStatement()) {
+            stm.execute("CREATE TABLE builds (id INTEGER PRIMARY KEY AUTOINCREMENT, sha TEXT UNIQUE NOT NULL, " +
+                "branch TEXT NOT NULL, build_result TEXT NOT NULL, build_description TEXT, build_date TEXT)");
+            stm.execute("INSERT INTO builds (sha, branch, build_result, build_description, build_date) " +
+                "VALUES ('abc', 'main', 'success', 'old build', '2024-01-01 00:00:00')");
+        }
+
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        assertEquals(0, dbHandler.schemaVersion());
+        dbHandler.createBuildTable();
+
+        assertEquals(SchemaMigrations.latestVersion(), dbHandler.schemaVersion());
+        assertEquals("old build", dbHandler.selectBySha("abc").buildDescription);
+        assertEquals(1, dbHandler.selectByBranch("main").size());
+        assertEquals(List.of("2024-01"), dbHandler.partitions());
+        assertEquals(List.of(new BuildEvent("abc", 1, "success", "2024-01-01 00:00:00")), dbHandler.selectEvents("abc"));
+        assertEquals(1, dbHandler.selectBySha("abc").attempt);
+        assertEquals(List.of(new BuildStats("2024-01-01", "main", "success", 1, 0, 0)), dbHandler.selectStats(null, null));
+        BuildEntry old = dbHandler.selectBySha("abc");
+        assertEquals(BuildTimes.parse("2024-01-01 00:00:00"), old.queuedAt);
+        assertEquals(old.queuedAt, old.finishedAt);
+        assertEquals(List.of("abc"), dbHandler.selectByTimeRange(null, old.queuedAt, old.queuedAt + 1, null, 10).builds()
+            .stream().map(build -> build.sha).toList());
+        assertEquals(List.of("abc"), dbHandler.searchLogs("old", null, 10).matches().stream().map(LogMatch::sha).toList());
+        dbHandler.addEntry("def", "main", "success", "new build");
+        assertTrue(dbHandler.selectBySha("def").id > dbHandler.selectBySha("abc").id);
+        dbHandler.close();
+        assertFalse(tableExists("builds"));
+    }
+
+    /**
+     * Contract:
+     * The migration moving builds into partitions shall create them as they were in its schema version, later
+     * columns are only added by later migrations.
+     *
+     * Expected behavior:
+     * After applying the migrations up to version 3 to an unversioned database, the partition of its build has the
+     * original builds columns and no events table.
+     */
+    @Test
+    void partitionMigrationKeepsItsSchema() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            Statement stm = connection.createStatement()) {
+            stm.execute("CREATE TABLE builds (id INTEGER PRIMARY KEY AUTOINCREMENT, sha TEXT UNIQUE NOT NULL, " +
+                "branch TEXT NOT NULL, build_result TEXT NOT NULL, build_description TEXT, build_date TEXT)");
+            stm.execute("INSERT INTO builds (sha, branch, build_result, build_description, build_date) " +
+                "VALUES ('abc', 'main', 'success', 'old build', '2024-01-01 00:00:00')");
+            for (SchemaMigrations.Migration migration : SchemaMigrations.MIGRATIONS.subList(0, 3)) {
+                migration.step().apply(connection);
+            }
+            assertEquals(List.of("id", "sha", "branch", "build_result", "build_description", "build_date"),
+                columns(connection, "builds_2024_01"));
+        }
+        assertFalse(tableExists("build_events_2024_01"));
+    }
+
+    /**
+     * Contract:
+     * A partition brought to the latest schema by the migrations shall have the same columns and indexes as a
+     * partition created in the latest schema.
+     *
+     * Expected behavior:
+     * The builds and events tables of a partition migrated from an unversioned database have the columns of those of
+     * a partition created for a new build, in the same order, and the same indexes.
+     */
+    @Test
+    void migratedPartitionsMatchNewPartitions() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            Statement stm = connection.createStatement()) {
+            stm.execute("CREATE TABLE builds (id INTEGER PRIMARY KEY AUTOINCREMENT, sha TEXT UNIQUE NOT NULL, " +
+                "branch TEXT NOT NULL, build_result TEXT NOT NULL, build_description TEXT, build_date TEXT)");
+            stm.execute("INSERT INTO builds (sha, branch, build_result, build_description, build_date) " +
+                "VALUES ('abc', 'main', 'success', 'old build', '2024-01-01 00:00:00')");
+        }
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.close();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl)) {
+            BuildPartitions.create(connection, "2030_01");
+            assertEquals(columns(connection, "builds_2030_01"), columns(connection, "builds_2024_01"));
+            assertEquals(columns(connection, "build_events_2030_01"), columns(connection, "build_events_2024_01"));
+            assertEquals(indexes(connection, "2030_01"), indexes(connection, "2024_01"));
+        }
+    }
+
+    private static List<String> columns(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("SELECT name FROM pragma_table_info('" + table + "') ORDER BY cid")) {
+            while (rs.next()) {
+                columns.add(rs.getString(1));
+            }
+        }
+        return columns;
+    }
+
+    /** Returns the definitions of the indexes of a partition, with the partition name left out. */
+    private static Set<String> indexes(Connection connection, String partition) throws SQLException {
+        Set<String> indexes = new HashSet<>();
+        try (Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL " +
+                "AND tbl_name IN ('builds_" + partition + "', 'build_events_" + partition + "')")) {
+            while (rs.next()) {
+                indexes.add(rs.getString(1).replace(partition, "*"));
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Contract:
+     * Queries by branch, by result, by queued time and for the latest builds shall use an index instead of scanning the builds
+     * table of a partition.
+     */
+    @Test
+    void queriesUseIndexes() throws SQLException {
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("abc", "main", "failure", "", "2024-01-01 00:00:00");
+        dbHandler.close();
+
+        // either index of the branch serves a lookup by branch alone
+        assertTrue(plan("SELECT * FROM builds_2024_01 WHERE branch = 'main'").contains("idx_builds_2024_01_branch_"));
+        assertTrue(plan("SELECT * FROM builds_2024_01 WHERE branch = 'main' ORDER BY build_date DESC")
+            .contains("idx_builds_2024_01_branch_date"));
+        String failures = plan("SELECT * FROM builds_2024_01 WHERE build_result = 'failure' ORDER BY build_date DESC LIMIT 20");
+        assertTrue(failures.contains("idx_builds_2024_01_result_date"), failures);
+        assertFalse(failures.contains("TEMP B-TREE"), failures);
+        String latest = plan("SELECT * FROM builds_2024_01 ORDER BY build_date DESC LIMIT 20");
+        assertTrue(latest.contains("idx_builds_2024_01_date"), latest);
+        String range = plan("SELECT * FROM builds_2024_01 WHERE queued_at >= 0 AND queued_at < 1 ORDER BY queued_at DESC, id DESC LIMIT 20");
+        assertTrue(range.contains("idx_builds_2024_01_queued"), range);
+        assertFalse(range.contains("TEMP B-TREE"), range);
+        String branchRange = plan("SELECT * FROM builds_2024_01 WHERE branch = 'main' AND queued_at >= 0 AND queued_at < 1 " +
+            "ORDER BY queued_at DESC, id DESC LIMIT 20");
+        assertTrue(branchRange.contains("idx_builds_2024_01_branch_queued"), branchRange);
+        assertFalse(branchRange.contains("TEMP B-TREE"), branchRange);
+        assertTrue(plan("SELECT strategy, COUNT(*) FROM checkout_stats WHERE repo_url = 'r' GROUP BY strategy")
+            .contains("idx_checkout_stats_repo"));
+    }
+
+    private boolean tableExists(String name) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + name + "'")) {
+            return rs.next();
+        }
+    }
+
+    private String plan(String sql) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbUrl);
+            Statement stm = connection.createStatement();
+            ResultSet rs = stm.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                sb.append(rs.getString("detail")).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.ci.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ci.BuildEntry;
+import com.ci.BuildPage;
+import com.ci.BuildStore;
+import com.ci.LogPage;
+
+/**
+ * Throughput of the same workload on each BuildStore implementation, as selected with -Dci.store.
+ * Every store syncs its writes to disk like in production, except the memory store which has no disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+// measure the stores, not the build cache in front of the SQLite selectBySha
+@Fork(value = 1, jvmArgsAppend = "-Dci.cache.entries=0")
+public class BuildStoreBenchmark {
+    private static final int BUILDS = 10_000;
+
+    @Param({"sqlite", "memory", "log"})
+    public String store;
+
+    private Path dir;
+    private BuildStore buildStore;
+    private final AtomicLong nextSha = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ci-bench");
+        buildStore = BuildStore.open(store, dir.resolve("builds").toString());
+        buildStore.initialize();
+        for (int i = 0; i < BUILDS; i++) {
+            String date = String.format("2024-%02d-%02d 10:00:00", i % 12 + 1, i % 28 + 1);
+            buildStore.addEntry("sha" + i, "branch" + (i % 20), "success", "line one\nline two " + i, date);
+        }
+        nextSha.set(BUILDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        buildStore.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /** A build page view. */
+    @Benchmark
+    @Threads(4)
+    public BuildEntry selectBySha() {
+        return buildStore.selectBySha("sha" + ThreadLocalRandom.current().nextInt(BUILDS));
+    }
+
+    /** The first page of the build list of a branch. */
+    @Benchmark
+    @Threads(4)
+    public BuildPage branchPage() {
+        return buildStore.selectByBranchPage("branch" + ThreadLocalRandom.current().nextInt(20), null, 50);
+    }
+
+    /** A search of the output of all builds. */
+    @Benchmark
+    public LogPage searchLogs() {
+        return buildStore.searchLogs("two " + ThreadLocalRandom.current().nextInt(BUILDS), null, 10);
+    }
+
+    /** The writes of one pipeline run: the pending entry and its final result. */
+    @Benchmark
+    @Threads(4)
+    public void addAndUpdateEntry() {
+        String sha = "sha" + nextSha.getAndIncrement();
+        buildStore.addEntry(sha, "main", "pending");
+        buildStore.updateEntry(sha, "main", "success", "build output");
+    }
+}
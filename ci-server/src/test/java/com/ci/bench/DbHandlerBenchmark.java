@@ -0,0 +1,86 @@
+package com.ci.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ci.BuildEntry;
+import com.ci.DbHandler;
+
+/**
+ * Throughput of the DbHandler operations used by the pipeline and the REST handlers,
+ * with pooled connections and with a new connection per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+// measure the connections, not the build cache in front of selectBySha
+@Fork(value = 1, jvmArgsAppend = "-Dci.cache.entries=0")
+public class DbHandlerBenchmark {
+    private static final int BUILDS = 10_000;
+
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    private Path dir;
+    private DbHandler dbHandler;
+    private final AtomicLong nextSha = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ci-bench");
+        dbHandler = new DbHandler(dir.resolve("builds.db").toString(), pooled);
+        dbHandler.createBuildTable();
+        for (int i = 0; i < BUILDS; i++) {
+            dbHandler.addEntry("sha" + i, "branch" + (i % 20), "success", "line one\nline two");
+        }
+        nextSha.set(BUILDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dbHandler.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /** A build page view. */
+    @Benchmark
+    @Threads(4)
+    public BuildEntry selectBySha() {
+        return dbHandler.selectBySha("sha" + ThreadLocalRandom.current().nextInt(BUILDS));
+    }
+
+    /** The writes of one pipeline run: the pending entry and its final result. */
+    @Benchmark
+    @Threads(4)
+    public void addAndUpdateEntry() {
+        String sha = "sha" + nextSha.getAndIncrement();
+        dbHandler.addEntry(sha, "main", "pending");
+        dbHandler.updateEntry(sha, "main", "success", "build output");
+    }
+}
@@ -0,0 +1,172 @@
+package com.ci.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ci.BuildEntry;
+import com.ci.BuildPage;
+import com.ci.DbHandler;
+
+/**
+ * Latency of the build queries over a million builds, spread over two years of monthly partitions,
+ * with the indexes of the current schema and with the indexes dropped. The builds are loaded into an
+ * unpartitioned table which the migrations then partition. The query plans are printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Dci.cache.entries=0")
+public class SchemaIndexBenchmark {
+    private static final int BUILDS = 1_000_000;
+    private static final int BRANCHES = 2_000;
+    private static final String[] RESULTS = {"success", "success", "success", "failure", "error"};
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private Path dir;
+    private DbHandler dbHandler;
+    private Connection connection;
+    private String latestFailures;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dir = Files.createTempDirectory("ci-bench");
+        String db = dir.resolve("builds.db").toString();
+        connection = DriverManager.getConnection("jdbc:sqlite:" + db);
+        connection.setAutoCommit(false);
+        try (Statement stm = connection.createStatement()) {
+            stm.execute("CREATE TABLE builds (id INTEGER PRIMARY KEY AUTOINCREMENT, sha TEXT UNIQUE NOT NULL, " +
+                "branch TEXT NOT NULL, build_result TEXT NOT NULL, build_description TEXT, build_date TEXT)");
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO builds " +
+            "(sha, branch, build_result, build_description, build_date) VALUES (?, ?, ?, '', ?)")) {
+            long start = 1_600_000_000L;
+            for (int i = 0; i < BUILDS; i++) {
+                insert.setString(1, String.format("%040x", i));
+                insert.setString(2, "branch" + (i % BRANCHES));
+                insert.setString(3, RESULTS[i % RESULTS.length]);
+                insert.setString(4, Instant.ofEpochSecond(start + i * 60L).toString());
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        dbHandler = new DbHandler(db);
+        dbHandler.createBuildTable();
+        String newest = "builds_" + dbHandler.partitions().get(0).replace('-', '_');
+        latestFailures = "SELECT * FROM " + newest + " WHERE build_result = 'failure' ORDER BY build_date DESC LIMIT 20";
+        try (Statement stm = connection.createStatement()) {
+            if (!indexed) {
+                List<String> indexes = new ArrayList<>();
+                try (ResultSet rs = stm.executeQuery(
+                    "SELECT name FROM sqlite_master WHERE type = 'index' AND name LIKE 'idx_builds_%'")) {
+                    while (rs.next()) {
+                        indexes.add(rs.getString(1));
+                    }
+                }
+                for (String index : indexes) {
+                    stm.execute("DROP INDEX " + index);
+                }
+            }
+            stm.execute("ANALYZE");
+        }
+
+        printPlan("SELECT * FROM " + newest + " WHERE branch = ?");
+        printPlan(latestFailures);
+        printPlan("SELECT * FROM " + newest + " ORDER BY build_date DESC, id DESC LIMIT 21");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        connection.close();
+        dbHandler.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /** The builds of one branch, as listed by the branch page. */
+    @Benchmark
+    public List<BuildEntry> selectByBranch() {
+        return dbHandler.selectByBranch("branch" + ThreadLocalRandom.current().nextInt(BRANCHES));
+    }
+
+    /** The most recent failed builds. */
+    @Benchmark
+    public int latestFailures() throws SQLException {
+        return count(latestFailures);
+    }
+
+    /** The most recent builds, as shown by the first page of the build list. */
+    @Benchmark
+    public BuildPage latestBuilds() {
+        return dbHandler.selectBuildsPage(null, 20);
+    }
+
+    /** A build looked up by SHA, bypassing the cache. */
+    @Benchmark
+    public BuildEntry selectBySha() {
+        return dbHandler.selectBySha(String.format("%040x", ThreadLocalRandom.current().nextInt(BUILDS)));
+    }
+
+    private int count(String sql) throws SQLException {
+        int rows = 0;
+        try (Statement stm = connection.createStatement(); ResultSet rs = stm.executeQuery(sql)) {
+            while (rs.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private void printPlan(String sql) throws SQLException {
+        StringBuilder sb = new StringBuilder("[bench] indexed=" + indexed + " " + sql + "\n");
+        try (PreparedStatement stm = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            if (sql.contains("?")) {
+                stm.setString(1, "branch0");
+            }
+            try (ResultSet rs = stm.executeQuery()) {
+                while (rs.next()) {
+                    sb.append("[bench]   ").append(rs.getString("detail")).append('\n');
+                }
+            }
+        }
+        System.out.print(sb);
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * This package contains JMH benchmarks, which are run with {@code mvn -Pbench verify} instead of with the unit tests.
+ */
+package com.ci.bench;
@@ -6,21 +6,29 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class GitCheckoutServiceTest {
 
+    @TempDir
+    Path tempDir;
+
     /**
      * Contract:
      * GitCheckoutService shall be instantiable without any constructor arguments.
@@ -250,11 +258,290 @@ public class GitCheckoutServiceTest {
 
 
     private Set<Path> listCheckoutDirs() throws IOException {
-        Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
-        try (Stream<Path> paths = Files.list(tempDir)) {
+        Path checkouts = Paths.get("data", "checkouts");
+        if (!Files.isDirectory(checkouts)) {
+            return new HashSet<>();
+        }
+        try (Stream<Path> paths = Files.list(checkouts)) {
             return paths
                 .filter(p -> p.getFileName().toString().startsWith("ci-checkout-"))
                 .collect(Collectors.toSet());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Contract:
+     * With a mirror store, checkout() shall clone the repository into a local bare mirror on first use
+     * and return a worktree of the requested commit.
+     * 
+     * Expected behavior:
+     * Given a local repository with two commits, checking out the first commit shall return a workspace whose HEAD
+     * is that commit and which contains the files of that commit only. The mirror shall exist afterwards.
+     */
+    @Test
+    void checkoutFromMirrorChecksOutRequestedCommit() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        String first = repo.commit("a.txt", "a");
+        repo.commit("b.txt", "b");
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), new WorkspaceReaper());
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+
+        Path workDir = svc.checkout(repo.url(), "main", first);
+        try {
+            assertEquals(first, run(List.of("git", "rev-parse", "HEAD"), workDir).trim());
+            assertTrue(Files.exists(workDir.resolve("a.txt")));
+            assertFalse(Files.exists(workDir.resolve("b.txt")));
+            assertTrue(Files.isDirectory(mirrors.mirrorPath(repo.url())));
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Contract:
+     * Later checkouts shall incrementally fetch into the existing mirror.
+     * 
+     * Expected behavior:
+     * A commit pushed after the first checkout shall be available to the second checkout of the branch head.
+     */
+    @Test
+    void checkoutFromMirrorFetchesNewCommits() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), new WorkspaceReaper());
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+        svc.release(svc.checkout(repo.url(), "main", null));
+
+        String second = repo.commit("c.txt", "c");
+        Path workDir = svc.checkout(repo.url(), "main", null);
+        try {
+            assertEquals(second, run(List.of("git", "rev-parse", "HEAD"), workDir).trim());
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Contract:
+     * Releasing a workspace shall delete it and prune its worktree from the mirror.
+     * 
+     * Expected behavior:
+     * After release, the workspace shall not exist and, once the reaper is done, the mirror shall no longer list the worktree.
+     */
+    @Test
+    void releasePrunesWorktree() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        WorkspaceReaper reaper = new WorkspaceReaper();
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), reaper);
+        GitCheckoutService svc = new GitCheckoutService(reaper, mirrors);
+        Path mirror = mirrors.mirrorPath(repo.url());
+
+        Path workDir = svc.checkout(repo.url(), "main", null);
+        svc.release(workDir);
+        assertFalse(Files.exists(workDir));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (run(List.of("git", "worktree", "list"), mirror).contains(workDir.getFileName().toString())) {
+            assertTrue(System.nanoTime() < deadline, "Worktree shall be pruned");
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Contract:
+     * Checking out a branch that does not exist in the mirror shall fail without leaving a workspace behind.
+     */
+    @Test
+    void checkoutFromMirrorUnknownBranchThrows() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), new WorkspaceReaper());
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+        Set<Path> beforeDirs = listCheckoutDirs();
+
+        assertThrows(RuntimeException.class, () -> svc.checkout(repo.url(), "does-not-exist", null));
+
+        Set<Path> afterDirs = listCheckoutDirs();
+        afterDirs.removeAll(beforeDirs);
+        assertTrue(afterDirs.isEmpty(), "No new temp directories should remain after failure");
+    }
+
+    /**
+     * Contract:
+     * The SHALLOW strategy shall fetch exactly the requested commit without its history.
+     * 
+     * Expected behavior:
+     * Given a repository with three commits, a shallow checkout of the second one shall have HEAD at that commit
+     * and a history of length one, and checkout stats shall be recorded for the workspace.
+     */
+    @Test
+    void shallowCheckoutFetchesOnlyTheCommit() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        String second = repo.commit("a.txt", "a");
+        repo.commit("b.txt", "b");
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), null);
+        svc.setStrategy(repo.fileUrl(), CloneStrategy.SHALLOW);
+
+        Path workDir = svc.checkout(repo.fileUrl(), "main", second);
+        try {
+            assertEquals(second, run(List.of("git", "rev-parse", "HEAD"), workDir).trim());
+            assertEquals("1", run(List.of("git", "rev-list", "--count", "HEAD"), workDir).trim());
+            CheckoutStats stats = svc.getStats(workDir);
+            assertNotNull(stats);
+            assertEquals(CloneStrategy.SHALLOW, stats.strategy());
+            assertTrue(stats.bytesTransferred() > 0);
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Contract:
+     * The BLOBLESS strategy shall clone without file contents and fetch the blobs of the checked out commit on demand.
+     * 
+     * Expected behavior:
+     * The workspace shall be a partial clone (promisor remote) with HEAD at the requested commit and its files present.
+     */
+    @Test
+    void bloblessCheckoutIsPartialClone() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        String sha = repo.commit("a.txt", "a");
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), null);
+        svc.setDefaultStrategy(CloneStrategy.BLOBLESS);
+
+        Path workDir = svc.checkout(repo.fileUrl(), "main", sha);
+        try {
+            assertEquals(sha, run(List.of("git", "rev-parse", "HEAD"), workDir).trim());
+            assertEquals("true", run(List.of("git", "config", "remote.origin.promisor"), workDir).trim());
+            assertTrue(Files.exists(workDir.resolve("a.txt")));
+            assertEquals(CloneStrategy.BLOBLESS, svc.getStats(workDir).strategy());
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Contract:
+     * The MIRROR strategy can't be selected without a mirror store.
+     */
+    @Test
+    void mirrorStrategyRequiresMirrorStore() {
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), null);
+        assertEquals(CloneStrategy.FULL, svc.getStrategy("any"));
+        assertThrows(IllegalArgumentException.class, () -> svc.setDefaultStrategy(CloneStrategy.MIRROR));
+    }
+
+    /**
+     * Contract:
+     * With sparse paths set, checkout() shall only write the configured directories, the directories declared
+     * in the .ci-inputs file of the commit and the files in the repository root.
+     * 
+     * Expected behavior:
+     * Given sparse path ci-server and a commit declaring tools as input, the workspace shall contain ci-server,
+     * tools and the README, but not docs. This holds for the mirror and the shallow strategy.
+     */
+    @Test
+    void sparseCheckoutWritesOnlyDeclaredPaths() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        repo.commit("ci-server/pom.xml", "<project/>");
+        repo.commit("docs/manual.md", "docs");
+        repo.commit("tools/build.sh", "echo");
+        String sha = repo.commit(GitCheckoutService.INPUTS_FILE, "# extra inputs\ntools/\n");
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), new WorkspaceReaper());
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+        svc.setSparsePaths(List.of("ci-server"));
+
+        for (CloneStrategy strategy : List.of(CloneStrategy.MIRROR, CloneStrategy.SHALLOW)) {
+            svc.setDefaultStrategy(strategy);
+            Path workDir = svc.checkout(repo.fileUrl(), "main", sha);
+            try {
+                assertEquals(sha, run(List.of("git", "rev-parse", "HEAD"), workDir).trim());
+                assertTrue(Files.exists(workDir.resolve("ci-server/pom.xml")), strategy + ": ci-server shall exist");
+                assertTrue(Files.exists(workDir.resolve("tools/build.sh")), strategy + ": declared input shall exist");
+                assertTrue(Files.exists(workDir.resolve("README")), strategy + ": root files shall exist");
+                assertFalse(Files.exists(workDir.resolve("docs")), strategy + ": docs shall not be checked out");
+            } finally {
+                deleteRecursively(workDir);
+            }
+        }
+    }
+
+    /**
+     * Contract:
+     * With a workspace pool, a released workspace shall be reused for the next build of the same branch,
+     * reset to the new commit, with untracked files removed and ignored build outputs kept.
+     * 
+     * Expected behavior:
+     * The second checkout returns the same directory with HEAD at the new commit. A file in the ignored target
+     * directory survives, an untracked file does not.
+     */
+    @Test
+    void pooledWorkspaceIsResetAndKeepsBuildOutputs() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        repo.commit(".gitignore", "target/\n");
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), new WorkspaceReaper());
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+        svc.setWorkspacePool(new WorkspacePool(tempDir.resolve("workspaces"), 2));
+
+        Path first = svc.checkout(repo.url(), "main", null);
+        Files.createDirectories(first.resolve("target"));
+        Files.writeString(first.resolve("target/App.class"), "compiled");
+        Files.writeString(first.resolve("scratch.txt"), "untracked");
+        svc.release(first);
+        assertTrue(Files.exists(first), "Pooled workspace shall be kept after release");
+
+        String next = repo.commit("a.txt", "a");
+        Path second = svc.checkout(repo.url(), "main", next);
+        assertEquals(first, second);
+        assertEquals(next, run(List.of("git", "rev-parse", "HEAD"), second).trim());
+        assertTrue(Files.exists(second.resolve("a.txt")));
+        assertTrue(Files.exists(second.resolve("target/App.class")), "Ignored build outputs shall be kept");
+        assertFalse(Files.exists(second.resolve("scratch.txt")), "Untracked files shall be removed");
+
+        Path other = svc.checkout(repo.url(), "main", next);
+        assertNotEquals(second, other, "A leased workspace shall not be handed out twice");
+    }
+
+    /**
+     * Contract:
+     * With a pristine cache, a second workspace of the same tree shall be copied from the pristine checkout
+     * and be indistinguishable from a normal worktree: right commit, same sparse files, clean status.
+     * 
+     * Expected behavior:
+     * Two checkouts of one commit with sparse path ci-server create a single pristine checkout, or none where the
+     * file system doesn't support reflinks. Both workspaces contain ci-server/pom.xml but not docs/, HEAD is the commit and git status is empty.
+     */
+    @Test
+    void workspacesAreCopiedFromPristineCheckout() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        repo.commit("ci-server/pom.xml", "<project/>");
+        String sha = repo.commit("docs/guide.md", "guide");
+        RepositoryMirrors mirrors = new RepositoryMirrors(tempDir.resolve("mirrors"), new WorkspaceReaper());
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+        PristineCache pristines = new PristineCache(tempDir.resolve("pristine"), 2);
+        svc.setPristineCache(pristines);
+        svc.setSparsePaths(List.of("ci-server"));
+
+        Path first = svc.checkout(repo.url(), "main", sha);
+        Path second = svc.checkout(repo.url(), "main", sha);
+        try {
+            assertEquals(pristines.isSupported() ? 1 : 0, pristines.size());
+            for (Path ws : List.of(first, second)) {
+                assertEquals(sha, run(List.of("git", "rev-parse", "HEAD"), ws).trim());
+                assertEquals("<project/>", Files.readString(ws.resolve("ci-server/pom.xml")));
+                assertFalse(Files.exists(ws.resolve("docs")));
+                assertEquals("", run(List.of("git", "status", "--porcelain"), ws).trim());
+            }
+        } finally {
+            svc.release(first);
+            svc.release(second);
+        }
+    }
+}
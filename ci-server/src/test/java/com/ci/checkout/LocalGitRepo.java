@@ -0,0 +1,93 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test fixture: a local bare repository with a working clone used to push commits to it,
+ * so checkouts can be tested without network access.
+ */
+class LocalGitRepo {
+    final Path work;
+    final Path bare;
+
+    private LocalGitRepo(Path work, Path bare) {
+        this.work = work;
+        this.bare = bare;
+    }
+
+    /**
+     * Creates a bare repository with one commit on branch main.
+     * @param dir directory to create the repositories in
+     * @return the fixture
+     */
+    static LocalGitRepo create(Path dir) throws IOException, InterruptedException {
+        Path work = dir.resolve("work");
+        Path bare = dir.resolve("origin.git");
+        Files.createDirectories(dir);
+        git(dir, "init", "--quiet", "-b", "main", work.toString());
+        git(dir, "init", "--quiet", "--bare", bare.toString());
+        git(work, "remote", "add", "origin", bare.toString());
+        LocalGitRepo repo = new LocalGitRepo(work, bare);
+        repo.commit("README", "hello");
+        return repo;
+    }
+
+    /**
+     * Returns the URL to clone the bare repository from.
+     */
+    String url() {
+        return bare.toString();
+    }
+
+    /**
+     * Returns a file:// URL, which makes git use the network protocol instead of a local copy,
+     * with partial clone filters enabled on the server side.
+     */
+    String fileUrl() throws IOException, InterruptedException {
+        git(bare, "config", "uploadpack.allowFilter", "true");
+        return bare.toUri().toString();
+    }
+
+    /**
+     * Writes a file, commits it on the current branch and pushes the branch.
+     * @return the SHA of the new commit
+     */
+    String commit(String file, String content) throws IOException, InterruptedException {
+        Path path = work.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        git(work, "add", "-A");
+        git(work, "-c", "user.name=ci", "-c", "user.email=ci@example.com", "commit", "--quiet", "-m", "change " + file);
+        String branch = git(work, "rev-parse", "--abbrev-ref", "HEAD").trim();
+        git(work, "push", "--quiet", "origin", branch);
+        return git(work, "rev-parse", "HEAD").trim();
+    }
+
+    /**
+     * Creates a new branch from the current commit, switches to it and pushes it.
+     */
+    void branch(String name) throws IOException, InterruptedException {
+        git(work, "checkout", "--quiet", "-b", name);
+        git(work, "push", "--quiet", "origin", name);
+    }
+
+    static String git(Path cwd, String... args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("git");
+        cmd.addAll(List.of(args));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(cwd.toFile());
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (p.waitFor() != 0) {
+            throw new RuntimeException("Command failed: " + String.join(" ", cmd) + "\n" + out);
+        }
+        return out;
+    }
+}
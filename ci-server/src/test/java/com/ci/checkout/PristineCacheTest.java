@@ -0,0 +1,139 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PristineCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static PristineCache.Populator writing(AtomicInteger calls, String content) {
+        return dir -> {
+            calls.incrementAndGet();
+            Files.writeString(dir.resolve(".git"), "gitdir: elsewhere");
+            Files.createDirectories(dir.resolve("src"));
+            Files.writeString(dir.resolve("src/Main.java"), content);
+        };
+    }
+
+    /**
+     * Contract:
+     * A pristine checkout shall be created once per key and then served from the cache.
+     * 
+     * Expected behavior:
+     * Leasing the same key twice calls the populator once and returns the same directory.
+     */
+    @Test
+    void pristineCheckoutIsCreatedOncePerKey() throws Exception {
+        PristineCache cache = new PristineCache(tempDir.resolve("pristine"), 2);
+        AtomicInteger calls = new AtomicInteger();
+        Path first = cache.lease("tree", writing(calls, "a"));
+        Path second = cache.lease("tree", writing(calls, "a"));
+        assertEquals(first, second);
+        assertEquals(1, calls.get());
+        assertEquals("a", Files.readString(first.resolve("src/Main.java")));
+    }
+
+    /**
+     * Contract:
+     * Copying a pristine checkout shall reproduce its files in the workspace, except for its .git entry.
+     * 
+     * Expected behavior:
+     * The workspace contains src/Main.java with the same content and keeps its own .git file.
+     */
+    @Test
+    void copyToReproducesFilesWithoutGitEntry() throws Exception {
+        PristineCache cache = new PristineCache(tempDir.resolve("pristine"), 2);
+        Assumptions.assumeTrue(cache.isSupported(), "Reflinks not supported, skipping test");
+        Path pristine = cache.lease("tree", writing(new AtomicInteger(), "class Main {}"));
+        Path workspace = Files.createDirectories(tempDir.resolve("ws"));
+        Files.writeString(workspace.resolve(".git"), "gitdir: mine");
+
+        cache.copyTo(pristine, workspace);
+        assertEquals("class Main {}", Files.readString(workspace.resolve("src/Main.java")));
+        assertEquals("gitdir: mine", Files.readString(workspace.resolve(".git")));
+    }
+
+    /**
+     * Contract:
+     * A workspace shall not share files with its pristine checkout.
+     * 
+     * Expected behavior:
+     * Writing into a reflinked file in place leaves the pristine file unchanged.
+     */
+    @Test
+    void writingIntoCopiedFileLeavesPristineUntouched() throws Exception {
+        PristineCache cache = new PristineCache(tempDir.resolve("pristine"), 2);
+        Assumptions.assumeTrue(cache.isSupported(), "Reflinks not supported, skipping test");
+        Path pristine = cache.lease("tree", writing(new AtomicInteger(), "class Main {}"));
+        Path workspace = Files.createDirectories(tempDir.resolve("ws"));
+
+        cache.copyTo(pristine, workspace);
+        Files.writeString(workspace.resolve("src/Main.java"), "class Changed {}", StandardOpenOption.TRUNCATE_EXISTING);
+        assertEquals("class Main {}", Files.readString(pristine.resolve("src/Main.java")));
+        assertTrue(Files.isWritable(pristine.resolve("src/Main.java")));
+        assertFalse(Files.isSameFile(pristine.resolve("src/Main.java"), workspace.resolve("src/Main.java")));
+    }
+
+    /**
+     * Contract:
+     * A failed creation shall not be cached.
+     * 
+     * Expected behavior:
+     * The first lease throws the populator's exception, the second lease populates again.
+     */
+    @Test
+    void failedCreationIsRetried() throws Exception {
+        PristineCache cache = new PristineCache(tempDir.resolve("pristine"), 2);
+        assertThrows(IOException.class, () -> cache.lease("tree", dir -> {
+            throw new IOException("checkout failed");
+        }));
+        assertEquals(0, cache.size());
+        AtomicInteger calls = new AtomicInteger();
+        cache.lease("tree", writing(calls, "a"));
+        assertEquals(1, calls.get());
+    }
+
+    /**
+     * Contract:
+     * When full, the least recently used pristine checkout that is not leased shall be evicted.
+     * 
+     * Expected behavior:
+     * With capacity 1, a leased checkout survives the creation of a second one. Once both are given back,
+     * the older one is evicted and deleted.
+     */
+    @Test
+    void leastRecentlyUsedIdleCheckoutIsEvicted() throws Exception {
+        PristineCache cache = new PristineCache(tempDir.resolve("pristine"), 1);
+        Path a = cache.lease("a", writing(new AtomicInteger(), "a"));
+        Path b = cache.lease("b", writing(new AtomicInteger(), "b"));
+        assertNotEquals(a, b);
+        assertEquals(2, cache.size(), "Leased checkouts shall not be evicted");
+        assertTrue(Files.exists(a));
+
+        cache.giveBack(a);
+        assertEquals(1, cache.size());
+        assertFalse(Files.exists(a));
+        cache.giveBack(b);
+        assertEquals(1, cache.size());
+        assertTrue(Files.exists(b));
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new PristineCache(tempDir, 0));
+    }
+}
@@ -0,0 +1,232 @@
+package com.ci.checkout;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RepositoryMirrorsTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Mirror store that counts fetches and can hold them until released, to widen race windows.
+     */
+    private static class CountingMirrors extends RepositoryMirrors {
+        final AtomicInteger updates = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        volatile int maxConcurrent;
+        volatile CountDownLatch entered = new CountDownLatch(0);
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile long delayMillis;
+
+        CountingMirrors(Path root) {
+            super(root, new WorkspaceReaper());
+        }
+
+        @Override
+        protected Path update(String repoUrl, Path mirror) throws IOException, InterruptedException {
+            updates.incrementAndGet();
+            maxConcurrent = Math.max(maxConcurrent, concurrent.incrementAndGet());
+            try {
+                CountDownLatch held = gate; // read before signalling, the test may swap the gate afterwards
+                entered.countDown();
+                held.await();
+                Thread.sleep(delayMillis);
+                return super.update(repoUrl, mirror);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+
+    private static boolean isGitAvailable() {
+        try {
+            return new ProcessBuilder("git", "--version").start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Contract:
+     * Many concurrent checkouts of the same repository shall share fetches instead of each fetching.
+     * 
+     * Expected behavior:
+     * 16 checkouts started at the same moment all succeed with HEAD at the requested commit in distinct
+     * workspaces, while only a few fetches run, never two at the same time.
+     */
+    @Test
+    void concurrentCheckoutsOfSameRepositoryShareFetches() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        String sha = repo.commit("a.txt", "a");
+        CountingMirrors mirrors = new CountingMirrors(tempDir.resolve("mirrors"));
+        mirrors.delayMillis = 200;
+        GitCheckoutService svc = new GitCheckoutService(new WorkspaceReaper(), mirrors);
+
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Path>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return svc.checkout(repo.url(), "main", sha);
+            }));
+        }
+        start.countDown();
+
+        Set<Path> workspaces = new HashSet<>();
+        try {
+            for (Future<Path> result : results) {
+                Path ws = result.get(60, TimeUnit.SECONDS);
+                workspaces.add(ws);
+                assertEquals(sha, GitCheckoutService.run(List.of("git", "rev-parse", "HEAD"), ws).trim());
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Path ws : workspaces) {
+                svc.release(ws);
+            }
+        }
+        assertEquals(threads, workspaces.size());
+        assertEquals(1, mirrors.maxConcurrent, "Fetches of one repository shall never overlap");
+        assertTrue(mirrors.updates.get() <= 4, "Expected coalesced fetches, got " + mirrors.updates.get());
+    }
+
+    /**
+     * Contract:
+     * A caller arriving while a fetch is running shall not be answered by that fetch, since it may have
+     * started before the caller's commit was pushed.
+     * 
+     * Expected behavior:
+     * While the first sync is held, a commit is pushed and a second sync started. After releasing the first,
+     * the second returns a mirror that contains the new commit.
+     */
+    @Test
+    void callerArrivingDuringFetchWaitsForNextFetch() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        CountingMirrors mirrors = new CountingMirrors(tempDir.resolve("mirrors"));
+        mirrors.entered = new CountDownLatch(1);
+        mirrors.gate = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Path> first = executor.submit(() -> mirrors.sync(repo.url()).mirror());
+            assertTrue(mirrors.entered.await(10, TimeUnit.SECONDS));
+            String sha = repo.commit("late.txt", "late");
+            Future<Path> second = executor.submit(() -> mirrors.sync(repo.url()).mirror());
+            Thread.sleep(100);
+            assertFalse(second.isDone(), "Second sync shall wait for the running fetch");
+
+            mirrors.gate.countDown();
+            first.get(30, TimeUnit.SECONDS);
+            Path mirror = second.get(30, TimeUnit.SECONDS);
+            GitCheckoutService.run(List.of("git", "cat-file", "-e", sha + "^{commit}"), mirror);
+            assertEquals(2, mirrors.updates.get());
+        } finally {
+            mirrors.gate.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Contract:
+     * The bytes received by a fetch shall be reported only to the caller that ran it.
+     * 
+     * Expected behavior:
+     * The first sync clones and receives bytes, a sync without new commits receives none. While a sync is held,
+     * a commit is pushed and two more syncs start: the held sync fetches the commit and is the only one reporting
+     * bytes, the two others share the next fetch and report none.
+     */
+    @Test
+    void onlyTheCallerRunningAFetchIsToldItsBytes() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo repo = LocalGitRepo.create(tempDir.resolve("repo"));
+        repo.commit("a.txt", "a");
+        CountingMirrors mirrors = new CountingMirrors(tempDir.resolve("mirrors"));
+        assertTrue(mirrors.sync(repo.url()).bytesReceived() > 0, "The clone shall receive bytes");
+        assertEquals(0, mirrors.sync(repo.url()).bytesReceived());
+
+        mirrors.entered = new CountDownLatch(1);
+        mirrors.gate = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<RepositoryMirrors.Synced> held = executor.submit(() -> mirrors.sync(repo.url()));
+            assertTrue(mirrors.entered.await(10, TimeUnit.SECONDS));
+            repo.commit("b.txt", "b");
+            Future<RepositoryMirrors.Synced> second = executor.submit(() -> mirrors.sync(repo.url()));
+            Future<RepositoryMirrors.Synced> third = executor.submit(() -> mirrors.sync(repo.url()));
+            Thread.sleep(100);
+
+            mirrors.gate.countDown();
+            assertTrue(held.get(30, TimeUnit.SECONDS).bytesReceived() > 0, "The held fetch received the commit");
+            assertEquals(0, second.get(30, TimeUnit.SECONDS).bytesReceived());
+            assertEquals(0, third.get(30, TimeUnit.SECONDS).bytesReceived());
+            assertEquals(4, mirrors.updates.get());
+        } finally {
+            mirrors.gate.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Contract:
+     * A fetch of one repository shall not block syncs of another repository.
+     */
+    @Test
+    void differentRepositoriesDoNotWaitForEachOther() throws Exception {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        LocalGitRepo slow = LocalGitRepo.create(tempDir.resolve("slow"));
+        LocalGitRepo fast = LocalGitRepo.create(tempDir.resolve("fast"));
+        CountingMirrors mirrors = new CountingMirrors(tempDir.resolve("mirrors"));
+        mirrors.entered = new CountDownLatch(1);
+        mirrors.gate = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Path> blocked = executor.submit(() -> mirrors.sync(slow.url()).mirror());
+            assertTrue(mirrors.entered.await(10, TimeUnit.SECONDS));
+            mirrors.gate = new CountDownLatch(0);
+            Future<Path> other = executor.submit(() -> mirrors.sync(fast.url()).mirror());
+            assertEquals(mirrors.mirrorPath(fast.url()), other.get(30, TimeUnit.SECONDS));
+            assertFalse(blocked.isDone());
+        } finally {
+            mirrors.gate.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Contract:
+     * A failed fetch shall be reported to its caller and not be cached: the next sync fetches again.
+     */
+    @Test
+    void failedFetchIsRetriedByNextSync() {
+        Assumptions.assumeTrue(isGitAvailable(), "Git not available, skipping test");
+        CountingMirrors mirrors = new CountingMirrors(tempDir.resolve("mirrors"));
+        String url = tempDir.resolve("missing.git").toString();
+        assertThrows(RuntimeException.class, () -> mirrors.sync(url));
+        assertThrows(RuntimeException.class, () -> mirrors.sync(url));
+        assertEquals(2, mirrors.updates.get());
+    }
+}
@@ -0,0 +1,98 @@
+package com.ci.checkout;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorkspacePoolTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Contract:
+     * A workspace shall be leased to one build at a time and only be reused for the same repository and branch.
+     * 
+     * Expected behavior:
+     * A created workspace can't be leased until it is given back. Once given back, it is leased again
+     * for the same branch but not for another branch.
+     */
+    @Test
+    void workspacesAreLeasedExclusivelyPerBranch() throws Exception {
+        WorkspacePool pool = new WorkspacePool(tempDir, 4);
+        Path ws = pool.create("repo", "main");
+        assertNotNull(ws);
+        assertTrue(Files.isDirectory(ws));
+
+        assertNull(pool.lease("repo", "main"), "A leased workspace shall not be leased twice");
+        assertTrue(pool.giveBack(ws));
+        assertNull(pool.lease("repo", "dev"), "Workspaces shall not be shared between branches");
+        assertEquals(ws, pool.lease("repo", "main"));
+        assertNull(pool.lease("repo", "main"));
+    }
+
+    /**
+     * Contract:
+     * When the pool is full, the least recently used idle workspace shall be evicted to make room.
+     * 
+     * Expected behavior:
+     * With capacity 2, after giving back a then b, creating a third workspace evicts a and keeps b.
+     */
+    @Test
+    void leastRecentlyUsedIdleWorkspaceIsEvicted() throws Exception {
+        WorkspacePool pool = new WorkspacePool(tempDir, 2);
+        Path a = pool.create("repo", "a");
+        Path b = pool.create("repo", "b");
+        pool.giveBack(a);
+        pool.giveBack(b);
+
+        Path c = pool.create("repo", "c");
+        assertNotNull(c);
+        assertEquals(2, pool.size());
+        assertFalse(pool.contains(a));
+        assertTrue(pool.contains(b));
+        assertFalse(Files.exists(a), "Evicted workspace shall be deleted");
+    }
+
+    /**
+     * Contract:
+     * Leased workspaces are never evicted. If all workspaces are leased, the pool can't create another one.
+     */
+    @Test
+    void fullPoolOfLeasedWorkspacesReturnsNull() throws Exception {
+        WorkspacePool pool = new WorkspacePool(tempDir, 1);
+        Path a = pool.create("repo", "main");
+        assertNull(pool.create("repo", "main"));
+        assertTrue(Files.exists(a));
+        assertFalse(pool.giveBack(tempDir.resolve("unknown")));
+    }
+
+    /**
+     * Contract:
+     * Discarding a workspace removes it from the pool and deletes it.
+     */
+    @Test
+    void discardDeletesWorkspace() throws Exception {
+        WorkspacePool pool = new WorkspacePool(tempDir, 2);
+        Path a = pool.create("repo", "main");
+        pool.discard(a);
+        assertFalse(pool.contains(a));
+        assertFalse(Files.exists(a));
+        Path b = pool.create("repo", "main");
+        assertNotEquals(a, b);
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new WorkspacePool(tempDir, 0));
+    }
+}
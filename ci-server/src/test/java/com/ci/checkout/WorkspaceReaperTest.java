@@ -0,0 +1,120 @@
+package com.ci.checkout;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorkspaceReaperTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Contract:
+     * reap() shall move the workspace out of the way immediately and delete it in the background.
+     * 
+     * Expected behavior:
+     * Right after reap() returns, the workspace path shall no longer exist. Once the returned future completes,
+     * the trash directory shall be empty.
+     */
+    @Test
+    void reapMovesWorkspaceAndDeletesIt() throws Exception {
+        Path workspace = createWorkspace(WorkspaceReaper.CHECKOUT_PREFIX + "1");
+        WorkspaceReaper reaper = new WorkspaceReaper(tempDir);
+
+        var done = reaper.reap(workspace);
+        assertFalse(Files.exists(workspace), "Workspace shall be moved away immediately");
+
+        done.get(10, TimeUnit.SECONDS);
+        try (var entries = Files.list(reaper.getTrashDir())) {
+            assertTrue(entries.findAny().isEmpty(), "Trash shall be empty after deletion");
+        }
+    }
+
+    /**
+     * Contract:
+     * reap() shall be a no-op for null or missing directories.
+     */
+    @Test
+    void reapIgnoresMissingDirectories() throws Exception {
+        WorkspaceReaper reaper = new WorkspaceReaper(tempDir);
+        reaper.reap(null).get(1, TimeUnit.SECONDS);
+        reaper.reap(tempDir.resolve("missing")).get(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Contract:
+     * Read-only directories, such as git object directories, shall not prevent a workspace from being deleted.
+     */
+    @Test
+    void reapDeletesReadOnlyDirectories() throws Exception {
+        Path workspace = createWorkspace(WorkspaceReaper.CHECKOUT_PREFIX + "ro");
+        Path readOnly = workspace.resolve("target").resolve("classes");
+        assertTrue(readOnly.toFile().setWritable(false));
+        WorkspaceReaper reaper = new WorkspaceReaper(tempDir);
+
+        reaper.reap(workspace).get(10, TimeUnit.SECONDS);
+        try (var entries = Files.list(reaper.getTrashDir())) {
+            assertTrue(entries.findAny().isEmpty(), "Trash shall be empty after deletion");
+        }
+    }
+
+    /**
+     * Contract:
+     * sweepOrphans() shall delete checkout directories left behind by a crash, and nothing else.
+     * 
+     * Expected behavior:
+     * Directories starting with the checkout prefix are deleted, other directories are kept.
+     */
+    @Test
+    void sweepOrphansDeletesOnlyCheckouts() throws Exception {
+        Path orphan = createWorkspace(WorkspaceReaper.CHECKOUT_PREFIX + "orphan");
+        Path other = createWorkspace("something-else");
+        WorkspaceReaper reaper = new WorkspaceReaper(tempDir);
+
+        reaper.sweepOrphans().get(10, TimeUnit.SECONDS);
+
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(other));
+    }
+
+    /**
+     * Contract:
+     * Workspaces shall be created in the reaper's own directory, and sweeping shall not reach outside of it.
+     * 
+     * Expected behavior:
+     * A created workspace is a checkout directory inside the root and is swept, while a checkout directory
+     * next to the root, like one of another server in a shared temporary directory, is kept.
+     */
+    @Test
+    void sweepOrphansStaysInsideItsRoot() throws Exception {
+        Path foreign = createWorkspace(WorkspaceReaper.CHECKOUT_PREFIX + "other-server");
+        WorkspaceReaper reaper = new WorkspaceReaper(tempDir.resolve("checkouts"));
+        Path own = reaper.createWorkspace();
+        assertEquals(reaper.getRoot(), own.getParent());
+        assertTrue(own.getFileName().toString().startsWith(WorkspaceReaper.CHECKOUT_PREFIX));
+
+        reaper.sweepOrphans().get(10, TimeUnit.SECONDS);
+
+        assertFalse(Files.exists(own));
+        assertTrue(Files.exists(foreign));
+    }
+
+    private Path createWorkspace(String name) throws Exception {
+        Path root = tempDir.resolve(name);
+        for (int i = 0; i < 5; i++) {
+            Path dir = Files.createDirectories(root.resolve("module" + i).resolve("src"));
+            Files.writeString(dir.resolve("File.java"), "class File {}");
+        }
+        Path classes = Files.createDirectories(root.resolve("target").resolve("classes"));
+        Files.writeString(classes.resolve("File.class"), "bytes");
+        Files.writeString(root.resolve("pom.xml"), "<project/>");
+        return root;
+    }
+}
@@ -6,14 +6,22 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import com.ci.BuildEntry;
+import com.ci.BuildEvent;
 import com.ci.DbHandler;
+import com.ci.StageTiming;
 import com.ci.checkout.GitCheckoutService;
 
 /**
@@ -54,7 +62,7 @@ public class CIPipelineTest {
         FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
         commandRunner.setExitCode(0);
         CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
-        pipeline.setDbHandler(dbHandler);
+        pipeline.setBuildStore(dbHandler);
 
         pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
 
@@ -63,6 +71,40 @@ public class CIPipelineTest {
         assertEquals("success", statusReporter.statuses.get(1).state);
     }
 
+    /**
+     * Each step of a run is recorded in the timeline of the build, from pending to the result.
+     */
+    @Test
+    void successPath_recordsTimeline() {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        commandRunner.setExitCode(0);
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+
+        List<String> states = dbHandler.selectEvents("abc1234").stream().map(BuildEvent::state).toList();
+        assertEquals(List.of("pending", "checkout", "testing", "success"), states);
+    }
+
+    /**
+     * The checkout, the tests and the whole build are timed per branch, and the timings are stored on flush.
+     */
+    @Test
+    void successPath_recordsStageTimings() {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        commandRunner.setExitCode(0);
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+        pipeline.timings().flush();
+
+        List<String> stages = dbHandler.selectTimings("main", null, null).stream().map(StageTiming::stage).toList();
+        assertEquals(List.of("checkout", "test", "total"), stages);
+        assertTrue(dbHandler.selectTimings("main", null, null).stream().allMatch(timing -> timing.sketch().count() == 1));
+    }
+
     /**
      * When tests fail (non-zero exit code), pipeline posts pending to failure.
      */
@@ -71,7 +113,7 @@ public class CIPipelineTest {
         FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
         commandRunner.setExitCode(1);
         CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
-        pipeline.setDbHandler(dbHandler);
+        pipeline.setBuildStore(dbHandler);
 
         pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
 
@@ -87,7 +129,7 @@ public class CIPipelineTest {
     void exceptionPath_postsError() {
         FailingGitCheckoutService checkoutService = new FailingGitCheckoutService();
         CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
-        pipeline.setDbHandler(dbHandler);
+        pipeline.setBuildStore(dbHandler);
 
         pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
 
@@ -96,8 +138,166 @@ public class CIPipelineTest {
         assertEquals("error", statusReporter.statuses.get(1).state);
     }
 
+    /**
+     * After the build, the whole checkout shall be released, not only the CI context directory inside it.
+     */
+    @Test
+    void releasesCheckoutRootAfterRun() {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+
+        assertEquals(List.of(tempDir), checkoutService.released);
+    }
+
+    /**
+     * Contract:
+     * Warming up a branch resolves the Maven dependencies of its head in the CI context, once per head.
+     * A head that has already been built is not warmed up again.
+     */
+    @Test
+    void warmUpResolvesDependenciesOncePerHead() throws Exception {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        checkoutService.head = "abc1234";
+        pipeline.warmUp("https://github.com/test/repo.git", "main");
+        pipeline.warmUp("https://github.com/test/repo.git", "main");
+        assertEquals(1, commandRunner.commands.stream().filter(cmd -> cmd.contains("dependency:go-offline")).count());
+        assertEquals(List.of(tempDir), checkoutService.released);
+
+        checkoutService.head = "def5678";
+        pipeline.run("https://github.com/test/repo.git", "main", "def5678");
+        pipeline.warmUp("https://github.com/test/repo.git", "main");
+        assertEquals(1, commandRunner.commands.stream().filter(cmd -> cmd.contains("dependency:go-offline")).count());
+        assertTrue(pipeline.isIdle());
+    }
+
+    /**
+     * Contract:
+     * A commit that has been built before is not built again, unless the build is forced, which starts a new attempt.
+     */
+    @Test
+    void rebuildOfShaReusesResultUnlessForced() {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+        assertEquals(1, testRuns());
+        assertEquals(List.of("pending", "success", "success"), states(statusReporter.statuses));
+        assertEquals(1, dbHandler.selectBySha("abc1234").attempt);
+
+        commandRunner.setExitCode(1);
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234", true);
+        assertEquals(2, testRuns());
+        BuildEntry build = dbHandler.selectBySha("abc1234");
+        assertEquals("failure", build.buildResult);
+        assertEquals(2, build.attempt);
+        List<String> attempts = dbHandler.selectEvents("abc1234").stream()
+            .filter(event -> event.state().equals("success") || event.state().equals("failure"))
+            .map(event -> event.attempt() + ":" + event.state()).toList();
+        assertEquals(List.of("1:success", "2:failure"), attempts);
+    }
+
+    /**
+     * Contract:
+     * A commit with the same tree as a commit built before takes its result without running the tests.
+     */
+    @Test
+    void commitWithBuiltTreeReusesResult() {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        checkoutService.tree = "tree1";
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+        pipeline.run("https://github.com/test/repo.git", "revert", "def5678");
+
+        assertEquals(1, testRuns());
+        BuildEntry build = dbHandler.selectBySha("def5678");
+        assertEquals("success", build.buildResult);
+        assertEquals("tree1", build.treeHash);
+        assertTrue(build.buildDescription.contains("abc1234"));
+        assertEquals("success", statusReporter.statuses.get(3).state());
+        assertEquals("def5678", statusReporter.statuses.get(3).sha());
+    }
+
+    /**
+     * Contract:
+     * A commit whose tree is being built waits for that build without holding its worker, then takes its result.
+     */
+    @Test
+    void commitWithRunningTreeAttachesToTheBuild() throws Exception {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        checkoutService.tree = "tree1";
+        commandRunner.blockTests();
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        Thread first = new Thread(() -> pipeline.run("https://github.com/test/repo.git", "main", "abc1234"));
+        first.start();
+        assertTrue(commandRunner.testsStarted.await(10, TimeUnit.SECONDS));
+        pipeline.run("https://github.com/test/repo.git", "main", "abc1234");
+        pipeline.run("https://github.com/test/repo.git", "rebased", "def5678");
+        dbHandler.flush();
+        assertEquals("pending", dbHandler.selectBySha("def5678").buildResult);
+
+        commandRunner.releaseTests.countDown();
+        first.join(10_000);
+        assertEquals(1, testRuns());
+        assertEquals("success", dbHandler.selectBySha("def5678").buildResult);
+        assertTrue(statusReporter.statuses.contains(new RecordingStatusReporter.StatusUpdate(
+            "success", "def5678", "CI success (Same tree as abc1234, result reused)")));
+    }
+
+    /**
+     * Contract:
+     * A commit waiting for the build of its tree is built itself if that build ends with an error.
+     *
+     * Expected behavior:
+     * The error is not reused: the waiting commit runs the tests on the build executor and gets its own result.
+     */
+    @Test
+    void commitWithRunningTreeIsBuiltWhenTheBuildErrs() throws Exception {
+        FakeGitCheckoutService checkoutService = new FakeGitCheckoutService(tempDir);
+        checkoutService.tree = "tree1";
+        commandRunner.blockTests();
+        commandRunner.failTestsOnce();
+        CIPipeline pipeline = new CIPipeline(checkoutService, commandRunner, statusReporter);
+        pipeline.setBuildStore(dbHandler);
+
+        Thread first = new Thread(() -> pipeline.run("https://github.com/test/repo.git", "main", "abc1234"));
+        first.start();
+        assertTrue(commandRunner.testsStarted.await(10, TimeUnit.SECONDS));
+        pipeline.run("https://github.com/test/repo.git", "rebased", "def5678");
+
+        commandRunner.releaseTests.countDown();
+        first.join(10_000);
+        assertEquals("error", dbHandler.selectBySha("abc1234").buildResult);
+        for (int i = 0; i < 500 && !"success".equals(dbHandler.selectBySha("def5678").buildResult); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals("success", dbHandler.selectBySha("def5678").buildResult);
+        assertEquals(2, testRuns());
+        assertTrue(statusReporter.statuses.stream()
+            .noneMatch(update -> update.sha().equals("def5678") && update.description().contains("reused")));
+    }
+
+    private long testRuns() {
+        return commandRunner.commands.stream().filter(cmd -> cmd.contains("test")).count();
+    }
+
+    private static List<String> states(List<RecordingStatusReporter.StatusUpdate> statuses) {
+        return statuses.stream().map(RecordingStatusReporter.StatusUpdate::state).toList();
+    }
+
     static class RecordingStatusReporter implements StatusReporter {
-        final List<StatusUpdate> statuses = new ArrayList<>();
+        final List<StatusUpdate> statuses = new CopyOnWriteArrayList<>();
 
         @Override public void pending(String sha, String desc) { statuses.add(new StatusUpdate("pending", sha, desc)); }
         @Override public void success(String sha, String desc) { statuses.add(new StatusUpdate("success", sha, desc)); }
@@ -109,14 +309,29 @@ public class CIPipelineTest {
 
     static class FakeGitCheckoutService extends GitCheckoutService {
         private final Path fakeDir;
+        final List<Path> released = new ArrayList<>();
+        String head;
+        String tree;
 
         FakeGitCheckoutService(Path fakeDir) { this.fakeDir = fakeDir; }
 
+        @Override
+        public String prefetch(String repoUrl, String branch) { return head; }
+
         @Override
         public Path checkout(String repoUrl, String branch, String sha) {
             try { Files.createFile(fakeDir.resolve("mvnw")); } catch (IOException ignored) {}
             return fakeDir;
         }
+
+        @Override
+        public String treeHash(Path workDir) {
+            if (tree == null) throw new RuntimeException("not a git repository");
+            return tree;
+        }
+
+        @Override
+        public void release(Path workDir) { released.add(workDir); }
     }
 
     static class FailingGitCheckoutService extends GitCheckoutService {
@@ -128,10 +343,35 @@ public class CIPipelineTest {
 
     static class FakeCommandRunner extends CommandRunner {
         private int exitCode = 0;
+        final List<List<String>> commands = new CopyOnWriteArrayList<>();
+        final CountDownLatch testsStarted = new CountDownLatch(1);
+        final CountDownLatch releaseTests = new CountDownLatch(1);
+        private boolean blockTests;
+        private final AtomicBoolean failTests = new AtomicBoolean();
 
         void setExitCode(int exitCode) { this.exitCode = exitCode; }
 
-        @Override public TestResult run(Path cwd, String... cmd) { return new TestResult(exitCode, "Simulated command output"); }
+        // makes the test command wait for releaseTests
+        void blockTests() { this.blockTests = true; }
+
+        // makes the next test command throw, after waiting if blocked
+        void failTestsOnce() { failTests.set(true); }
+
+        @Override public TestResult run(Path cwd, String... cmd) {
+            commands.add(List.of(cmd));
+            if (blockTests && List.of(cmd).contains("test")) {
+                testsStarted.countDown();
+                try {
+                    releaseTests.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (List.of(cmd).contains("test") && failTests.getAndSet(false)) {
+                throw new RuntimeException("Simulated test crash");
+            }
+            return new TestResult(exitCode, "Simulated command output");
+        }
         @Override public void deleteRecursively(Path root) {}
     }
 }
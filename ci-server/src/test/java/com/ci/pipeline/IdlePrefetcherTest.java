@@ -0,0 +1,105 @@
+package com.ci.pipeline;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class IdlePrefetcherTest {
+
+    /**
+     * Contract:
+     * While idle, a pass shall warm up the recently active branches, most recent first, up to the configured maximum.
+     * 
+     * Expected behavior:
+     * With activity on a, b and c and a maximum of 2, c and b are warmed up in that order.
+     */
+    @Test
+    void warmsUpMostRecentlyActiveBranchesFirst() {
+        List<String> warmed = new ArrayList<>();
+        IdlePrefetcher prefetcher = new IdlePrefetcher((repo, branch) -> warmed.add(branch), () -> true, 2, Duration.ofHours(1));
+        prefetcher.recordActivity("repo", "a");
+        prefetcher.recordActivity("repo", "b");
+        prefetcher.recordActivity("repo", "c");
+
+        assertEquals(2, prefetcher.runOnce());
+        assertEquals(List.of("c", "b"), warmed);
+    }
+
+    /**
+     * Contract:
+     * Nothing shall be warmed up while a build is running.
+     */
+    @Test
+    void doesNothingWhileBusy() {
+        List<String> warmed = new ArrayList<>();
+        IdlePrefetcher prefetcher = new IdlePrefetcher((repo, branch) -> warmed.add(branch), () -> false, 5, Duration.ofHours(1));
+        prefetcher.recordActivity("repo", "main");
+
+        assertEquals(0, prefetcher.runOnce());
+        assertTrue(warmed.isEmpty());
+    }
+
+    /**
+     * Contract:
+     * Branches that have not been active within the window shall not be warmed up.
+     */
+    @Test
+    void skipsBranchesOutsideWindow() {
+        List<String> warmed = new ArrayList<>();
+        IdlePrefetcher prefetcher = new IdlePrefetcher((repo, branch) -> warmed.add(branch), () -> true, 5, Duration.ZERO.minusSeconds(1));
+        prefetcher.recordActivity("repo", "main");
+
+        assertEquals(0, prefetcher.runOnce());
+        assertTrue(warmed.isEmpty());
+    }
+
+    /**
+     * Contract:
+     * When real work arrives, the warm-up in progress shall be interrupted immediately and the pass abandoned.
+     * 
+     * Expected behavior:
+     * A warm-up blocked in a sleep is interrupted by yieldNow, the remaining branch is not warmed up,
+     * and the interrupt does not leak out of the pass.
+     */
+    @Test
+    void yieldNowInterruptsWarmUp() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean busy = new AtomicBoolean(false);
+        List<String> warmed = Collections.synchronizedList(new ArrayList<>());
+        IdlePrefetcher prefetcher = new IdlePrefetcher((repo, branch) -> {
+            warmed.add(branch);
+            started.countDown();
+            Thread.sleep(30_000);
+        }, () -> !busy.get(), 5, Duration.ofHours(1));
+        prefetcher.recordActivity("repo", "old");
+        prefetcher.recordActivity("repo", "new");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> pass = executor.submit(() -> {
+                prefetcher.runOnce();
+                return Thread.currentThread().isInterrupted();
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            busy.set(true);
+            prefetcher.yieldNow();
+
+            assertFalse(pass.get(5, TimeUnit.SECONDS), "Interrupt shall not leak out of the pass");
+            assertEquals(List.of("new"), warmed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ci.pipeline;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import com.ci.BuildStore;
+import com.ci.InMemoryBuildStore;
+import com.ci.StageTiming;
+
+public class StageTimingsTest {
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-01-01T10:15:30Z"), ZoneOffset.UTC);
+
+    /**
+     * Contract:
+     * Durations shall be counted in the sketch of their hour, branch and stage, and be readable before they are stored.
+     *
+     * Expected behavior:
+     * Samples recorded at 10:15 are in the 10:00 window, read from memory before the flush and from the store after.
+     */
+    @Test
+    void recordedTimingsAreReadBeforeAndAfterFlush() {
+        InMemoryBuildStore store = new InMemoryBuildStore();
+        StageTimings timings = new StageTimings(() -> store, CLOCK);
+        timings.record("main", StageTimings.TEST, 100);
+        timings.record("main", StageTimings.TEST, 300);
+        timings.record("dev", StageTimings.QUEUE, 5);
+
+        List<StageTiming> pending = timings.select("main", null, null);
+        assertEquals(1, pending.size());
+        assertEquals("2024-01-01 10:00", pending.get(0).window());
+        assertEquals(2, pending.get(0).sketch().count());
+        assertEquals(List.of(), store.selectTimings(null, null, null));
+
+        timings.flush();
+        assertEquals(2, store.selectTimings(null, null, null).size());
+        timings.record("main", StageTimings.TEST, 200);
+        StageTiming merged = timings.select("main", "2024-01-01 10:00", "2024-01-01 11:00").get(0);
+        assertEquals(3, merged.sketch().count());
+        assertEquals(200, merged.sketch().quantile(0.5), 2);
+    }
+
+    /**
+     * Contract:
+     * Samples that fail to be stored shall be kept for the next flush.
+     *
+     * Expected behavior:
+     * A flush into a closed store doesn't throw, and the next flush stores the samples.
+     */
+    @Test
+    void failedFlushKeepsSamples() {
+        InMemoryBuildStore closed = new InMemoryBuildStore();
+        closed.close();
+        InMemoryBuildStore open = new InMemoryBuildStore();
+        AtomicReference<BuildStore> store = new AtomicReference<>(closed);
+        StageTimings timings = new StageTimings(store::get, CLOCK);
+        timings.record("main", StageTimings.TOTAL, 1000);
+
+        timings.flush();
+        store.set(open);
+        assertEquals(1, timings.select(null, null, null).size());
+        timings.flush();
+        assertEquals(1000, open.selectTimings("main", null, null).get(0).sketch().max());
+        assertEquals("2024-01-01 10:00", StageTimings.windowOf(LocalDateTime.now(CLOCK)));
+    }
+
+    /**
+     * Contract:
+     * A flush that stores samples while the sketches are selected shall not count them twice.
+     *
+     * Expected behavior:
+     * A flush started during the read of the store doesn't commit before the sync read copies the unstored samples,
+     * and the async read is repeated after it, so both count the sample once.
+     */
+    @Test
+    void flushDuringSelectIsCountedOnce() throws Exception {
+        AtomicReference<StageTimings> timings = new AtomicReference<>();
+        AtomicBoolean flushOnRead = new AtomicBoolean(true);
+        InMemoryBuildStore store = new InMemoryBuildStore() {
+            @Override
+            public List<StageTiming> selectTimings(String branch, String fromWindow, String toWindow) {
+                if (flushOnRead.getAndSet(false)) {
+                    Thread flush = new Thread(() -> timings.get().flush());
+                    flush.start();
+                    try {
+                        flush.join(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.selectTimings(branch, fromWindow, toWindow);
+            }
+        };
+        timings.set(new StageTimings(() -> store, CLOCK));
+
+        timings.get().record("main", StageTimings.TEST, 100);
+        assertEquals(1, timings.get().select("main", null, null).get(0).sketch().count());
+        timings.get().flush();
+        assertEquals(1, timings.get().select("main", null, null).get(0).sketch().count());
+
+        timings.get().record("main", StageTimings.TEST, 100);
+        flushOnRead.set(true);
+        assertEquals(2, timings.get().selectAsync("main", null, null).get().get(0).sketch().count());
+    }
+}
@@ -0,0 +1,133 @@
+package com.ci.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class ProcessOutputPumpTest {
+
+    /**
+     * Contract:
+     * The pump shall read stdout and stderr separately and tag every line with its stream of origin.
+     * 
+     * Expected behavior:
+     * Given a process writing two lines to stdout and one to stderr, a listener shall receive three lines,
+     * with the stdout lines in order and the stderr line tagged as STDERR.
+     */
+    @Test
+    void linesAreTaggedWithTheirStream() throws Exception {
+        Process p = new ProcessBuilder("sh", "-c", "echo out1; echo err1 >&2; echo out2").start();
+        List<OutputLine> lines = Collections.synchronizedList(new ArrayList<>());
+        ProcessOutputPump.start(p, System.nanoTime(), List.of(lines::add)).await();
+        p.waitFor();
+
+        assertEquals(3, lines.size());
+        List<String> stdout = lines.stream()
+            .filter(l -> l.stream() == OutputLine.Stream.STDOUT)
+            .map(OutputLine::text)
+            .toList();
+        List<String> stderr = lines.stream()
+            .filter(l -> l.stream() == OutputLine.Stream.STDERR)
+            .map(OutputLine::text)
+            .toList();
+        assertEquals(List.of("out1", "out2"), stdout);
+        assertEquals(List.of("err1"), stderr);
+    }
+
+    /**
+     * Contract:
+     * Listeners shall receive every line as it is read, with monotonic timestamps relative to the process start.
+     * 
+     * Expected behavior:
+     * Every listener shall see the lines of a stream in order, and timestamps shall never decrease.
+     */
+    @Test
+    void listenersReceiveTimestampedLines() throws Exception {
+        List<OutputLine> received = Collections.synchronizedList(new ArrayList<>());
+        List<OutputLine> lines = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder("sh", "-c", "echo a; sleep 0.1; echo b; printf c").start();
+        ProcessOutputPump.start(p, start, List.of(received::add, lines::add)).await();
+        p.waitFor();
+
+        assertEquals(lines, received);
+        assertEquals(List.of("a", "b", "c"), lines.stream().map(OutputLine::text).toList());
+        for (int i = 1; i < lines.size(); i++) {
+            assertTrue(lines.get(i).elapsedNanos() >= lines.get(i - 1).elapsedNanos());
+        }
+        assertTrue(lines.get(1).elapsedMillis() >= 100);
+    }
+
+    /**
+     * Contract:
+     * A listener that throws shall be dropped without holding up the output or the other listeners, and a slow
+     * listener shall only hold back the stream it is called for.
+     * 
+     * Expected behavior:
+     * A listener throwing on every line is called once, a listener blocking on stdout lines doesn't keep the
+     * stderr lines from the other listener, and every line still reaches the other listener.
+     */
+    @Test
+    void brokenOrSlowListenersDontStallThePump() throws Exception {
+        AtomicInteger brokenCalls = new AtomicInteger();
+        CountDownLatch stderrSeen = new CountDownLatch(1);
+        List<OutputLine> lines = Collections.synchronizedList(new ArrayList<>());
+        OutputListener broken = line -> {
+            brokenCalls.incrementAndGet();
+            throw new IllegalStateException("viewer gone");
+        };
+        OutputListener slowOnStdout = line -> {
+            if (line.stream() == OutputLine.Stream.STDOUT) {
+                try {
+                    // returns once the stderr line got through while this stdout line is held
+                    stderrSeen.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        OutputListener collecting = line -> {
+            lines.add(line);
+            if (line.stream() == OutputLine.Stream.STDERR) {
+                stderrSeen.countDown();
+            }
+        };
+        Process p = new ProcessBuilder("sh", "-c", "echo out1; sleep 0.1; echo err1 >&2; echo out2").start();
+        long start = System.nanoTime();
+        ProcessOutputPump.start(p, start, List.of(broken, slowOnStdout, collecting)).await();
+        p.waitFor();
+
+        assertEquals(1, brokenCalls.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4), "The stderr line was held back");
+        assertEquals(3, lines.size());
+    }
+
+    /**
+     * Contract:
+     * format() shall prefix a line with its time since the start of the process and, for stderr, its stream.
+     */
+    @Test
+    void formatShowsTimeAndStream() {
+        assertEquals("[+12.345s] Tests run: 3", new OutputLine(OutputLine.Stream.STDOUT, 12_345_000_000L, "Tests run: 3".getBytes()).format());
+        assertEquals("[+0.042s err] warning", new OutputLine(OutputLine.Stream.STDERR, 42_000_000L, "warning".getBytes()).format());
+    }
+
+    /**
+     * Contract:
+     * join() shall combine the lines into newline separated text in arrival order.
+     */
+    @Test
+    void joinCombinesLines() {
+        List<OutputLine> lines = List.of(
+            new OutputLine(OutputLine.Stream.STDOUT, 1, "x".getBytes()),
+            new OutputLine(OutputLine.Stream.STDERR, 2, "y".getBytes()));
+        assertEquals("x\ny\n", OutputLine.join(lines));
+    }
+}
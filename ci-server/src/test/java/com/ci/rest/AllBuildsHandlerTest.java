@@ -3,15 +3,22 @@ package com.ci.rest;
 import java.io.File;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import com.ci.DbHandler;
 import com.ci.Server;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class AllBuildsHandlerTest {
     private Server server;
@@ -81,4 +88,103 @@ public class AllBuildsHandlerTest {
         assert(responseBody.contains("1a25"));
         assert(responseBody.contains("1a26"));
     }
+
+    /**
+     * Contract:
+     * The builds shall be listed in pages of the requested size, newest first, linked by a next page cursor.
+     * 
+     * Expected Behavior:
+     * With limit=2 the first page contains the two newest builds and a link to the page with the oldest one.
+     */
+    @Test
+    void pagesAreLinkedByCursor() throws Exception {
+        String first = get("/builds?limit=2");
+        assertTrue(first.contains("1a26") && first.contains("1a25") && !first.contains("1a24"), first);
+        Matcher next = Pattern.compile("href=\"\\?(after=[^\"]+)\"").matcher(first);
+        assertTrue(next.find(), first);
+
+        String second = get("/builds?" + next.group(1).replace("&amp;", "&"));
+        assertTrue(second.contains("1a24") && !second.contains("1a25"), second);
+        assertFalse(second.contains("Next page"), second);
+    }
+
+    /**
+     * Contract:
+     * The branch parameter shall restrict the list to the builds of that branch.
+     */
+    @Test
+    void branchParameterFiltersBuilds() throws Exception {
+        String body = get("/builds?branch=branch1");
+        assertTrue(body.contains("1a24") && body.contains("1a25") && !body.contains("1a26"), body);
+    }
+
+    /**
+     * Contract:
+     * The build list shall be streamed as UTF-8 HTML with the values of the builds escaped.
+     *
+     * Expected Behavior:
+     * Markup in a branch or description is shown as text, non-ASCII output is encoded in UTF-8,
+     * and the response is chunked instead of announcing its length.
+     */
+    @Test
+    void htmlIsEscapedUtf8AndChunked() throws Exception {
+        try (DbHandler dbHandler = new DbHandler(dbUrl)) {
+            dbHandler.addEntry("1a27", "<b>evil</b>", "failure", "expected \"é\" & got <script>", "2099-01-01 00:00:00");
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/builds?limit=1").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+        String body = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(body.contains("Branch: &lt;b&gt;evil&lt;/b&gt;"), body);
+        assertTrue(body.contains("Description: expected &quot;é&quot; &amp; got &lt;script&gt;"), body);
+        assertFalse(body.contains("<script>"), body);
+    }
+
+    /**
+     * Contract:
+     * An invalid cursor or page size shall be answered with 400 Bad Request.
+     */
+    @Test
+    void invalidPaginationReturns400() throws Exception {
+        assertEquals(400, status("/builds?after=bogus!"));
+        assertEquals(400, status("/builds?limit=many"));
+    }
+
+    /**
+     * Contract:
+     * With from or to, the builds queued within that range shall be returned as a JSON page, latest first.
+     *
+     * Expected behavior:
+     * Today's range holds all builds, the branch parameter filters them, a range in the past is empty,
+     * and an invalid bound is answered with 400 Bad Request.
+     */
+    @Test
+    void timeRangeReturnsJsonPage() throws Exception {
+        JsonNode all = new ObjectMapper().readTree(get("/builds?from=2000-01-01&to=" + (System.currentTimeMillis() + 60_000)));
+        assertEquals(3, all.get("builds").size());
+        assertEquals("1a26", all.get("builds").get(0).get("sha").asText());
+        assertTrue(all.get("builds").get(0).get("queuedAt").isNumber());
+        assertTrue(all.get("nextCursor").isNull());
+
+        JsonNode page = new ObjectMapper().readTree(get("/builds?from=0&branch=branch1&limit=1"));
+        assertEquals(1, page.get("builds").size());
+        assertEquals("1a25", page.get("builds").get(0).get("sha").asText());
+        JsonNode next = new ObjectMapper().readTree(get("/builds?from=0&branch=branch1&limit=1&after=" + page.get("nextCursor").asText()));
+        assertEquals("1a24", next.get("builds").get(0).get("sha").asText());
+
+        assertEquals(0, new ObjectMapper().readTree(get("/builds?to=2000-01-01")).get("builds").size());
+        assertEquals(400, status("/builds?from=soon"));
+    }
+
+    private int status(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        return connection.getResponseCode();
+    }
+
+    private String get(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        return new String(connection.getInputStream().readAllBytes());
+    }
 }
@@ -7,11 +7,14 @@ import java.nio.file.Files;
 
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import com.ci.DbHandler;
 import com.ci.Server;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class BuildByShaHandlerTest {
     private Server server;
@@ -82,6 +85,32 @@ public class BuildByShaHandlerTest {
         assert(!responseBody.contains("1a26"));
     }
 
+    /**
+     * Contract:
+     * GET /builds/{sha}/events returns the timeline of the build.
+     * 
+     * Expected Behavior:
+     * After the build 1a24 went from pending through testing to success, the response is a JSON array
+     * of these states in order, each with the time it was recorded.
+     */
+    @Test
+    void getEventsReturnsTimeline() throws Exception {
+        try (DbHandler dbHandler = new DbHandler(dbUrl)) {
+            dbHandler.addEvent("1a24", "testing");
+            dbHandler.updateEntry("1a24", "branch1", "success", "done");
+        }
+        URL url = new URL("http://localhost:" + port + "/builds/1a24/events");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        assertEquals(200, connection.getResponseCode());
+        JsonNode events = new ObjectMapper().readTree(connection.getInputStream());
+        assertEquals(3, events.size());
+        assertEquals("pending", events.get(0).get("state").asText());
+        assertEquals("testing", events.get(1).get("state").asText());
+        assertEquals("success", events.get(2).get("state").asText());
+        assertTrue(events.get(2).has("recordedAt"));
+    }
+
     /**
      * Contract:
      * BuildByShaHandler accepts only valid paths in the format /builds/{sha}.
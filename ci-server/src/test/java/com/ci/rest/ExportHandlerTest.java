@@ -0,0 +1,82 @@
+package com.ci.rest;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ci.BuildRecord;
+import com.ci.DbHandler;
+import com.ci.Server;
+
+public class ExportHandlerTest {
+    private Server server;
+    private int port;
+    private File tempDbFile;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        DbHandler dbHandler = new DbHandler(tempDbFile.getAbsolutePath());
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1a24", "branch1", "pending", "", "2024-01-01 10:00:00");
+        dbHandler.updateEntry("1a24", "branch1", "success", "all tests passed");
+        dbHandler.addEntry("1a25", "branch2", "error");
+        server = new Server(tempDbFile.getAbsolutePath());
+        server.start(0);
+        port = server.getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        if (tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    /**
+     * Contract:
+     * The ExportHandler should only allow GET requests.
+     *
+     * Expected Behavior:
+     * When a POST request is sent to /builds/export, the server should respond with 405 Method Not Allowed.
+     */
+    @Test
+    void postRequestNotAllowed() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/builds/export").openConnection();
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * Contract:
+     * A GET request to /builds/export should stream every build with its timeline as NDJSON.
+     *
+     * Expected Behavior:
+     * The response is one build record per line, with the output and events of each build.
+     */
+    @Test
+    void exportsEveryBuildAsNdjson() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/builds/export").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/x-ndjson"));
+        String body = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        List<BuildRecord> records = body.lines().map(BuildRecord::fromJson).toList();
+        assertEquals(List.of("1a24", "1a25"), records.stream().map(record -> record.build().sha).sorted().toList());
+        BuildRecord passed = records.stream().filter(record -> record.build().sha.equals("1a24")).findFirst().orElseThrow();
+        assertEquals("all tests passed", passed.build().buildDescription);
+        assertEquals(List.of("pending", "success"), passed.events().stream().map(event -> event.state()).toList());
+    }
+}
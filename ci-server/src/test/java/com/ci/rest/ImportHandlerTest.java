@@ -0,0 +1,110 @@
+package com.ci.rest;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ci.DbHandler;
+import com.ci.Server;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ImportHandlerTest {
+    private Server server;
+    private int port;
+    private File tempDbFile;
+    private DbHandler dbHandler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        dbHandler = new DbHandler(tempDbFile.getAbsolutePath());
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1a24", "branch1", "success");
+        System.setProperty("ci.import.enabled", "true");
+        server = new Server(tempDbFile.getAbsolutePath());
+        server.start(0);
+        port = server.getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        System.clearProperty("ci.import.enabled");
+        if (server != null) {
+            server.stop();
+        }
+        if (tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    private HttpURLConnection post(String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/builds/import").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    /**
+     * Contract:
+     * A POST request to /builds/import should add the builds of an NDJSON body that are not stored yet.
+     *
+     * Expected Behavior:
+     * The server responds with the number of builds imported, skipping the stored SHA, and the builds can be read.
+     */
+    @Test
+    void importsNewBuilds() throws Exception {
+        HttpURLConnection connection = post(
+            "{\"sha\":\"1a24\",\"branch\":\"branch1\",\"buildResult\":\"failure\"}\n" +
+            "{\"sha\":\"1b00\",\"branch\":\"branch2\",\"buildResult\":\"error\",\"buildDescription\":\"crashed\"," +
+            "\"buildDate\":\"2024-01-01 10:00:00\"}\n");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(1, new ObjectMapper().readTree(connection.getInputStream()).get("imported").asInt());
+
+        assertEquals("success", dbHandler.selectBySha("1a24").buildResult);
+        assertNotNull(dbHandler.selectBySha("1b00"));
+        assertEquals("crashed", dbHandler.selectBySha("1b00").buildDescription);
+    }
+
+    /**
+     * Contract:
+     * An invalid NDJSON body should be rejected.
+     *
+     * Expected Behavior:
+     * The server responds with 400 Bad Request naming the invalid line.
+     */
+    @Test
+    void invalidLineIsBadRequest() throws Exception {
+        HttpURLConnection connection = post("{\"sha\":\"1b00\",\"branch\":\"branch2\",\"buildResult\":\"error\"}\n{\"sha\":\"1b01\"}\n");
+        assertEquals(400, connection.getResponseCode());
+        assertEquals("Line 2: ", new String(connection.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).substring(0, 8));
+    }
+
+    /**
+     * Contract:
+     * Imports should only be served when enabled by the system property ci.import.enabled.
+     *
+     * Expected Behavior:
+     * A server started without the property responds to an import with 403 Forbidden.
+     */
+    @Test
+    void importIsDisabledByDefault() throws Exception {
+        server.stop();
+        System.clearProperty("ci.import.enabled");
+        server = new Server(tempDbFile.getAbsolutePath());
+        server.start(0);
+        port = server.getPort();
+        assertEquals(403, post("{}").getResponseCode());
+    }
+}
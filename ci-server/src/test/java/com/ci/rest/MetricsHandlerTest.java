@@ -0,0 +1,75 @@
+package com.ci.rest;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ci.DbHandler;
+import com.ci.Server;
+
+public class MetricsHandlerTest {
+    private Server server;
+    private int port;
+    private File tempDbFile;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        String dbUrl = tempDbFile.getAbsolutePath();
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1a24", "branch1", "success");
+        dbHandler.close();
+        server = new Server(dbUrl);
+        server.start(0);
+        port = server.getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        if (tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    /**
+     * Contract:
+     * The MetricsHandler should only allow GET requests.
+     */
+    @Test
+    void postRequestNotAllowed() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/metrics").openConnection();
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * Contract:
+     * The build cache counters shall be exported.
+     * 
+     * Expected Behavior:
+     * After looking up the same build twice, the first lookup is counted as a miss and the second as a hit.
+     */
+    @Test
+    void exportsBuildCacheCounters() throws Exception {
+        assertEquals(200, ((HttpURLConnection) new URL("http://localhost:" + port + "/builds/1a24").openConnection()).getResponseCode());
+        assertEquals(200, ((HttpURLConnection) new URL("http://localhost:" + port + "/builds/1a24").openConnection()).getResponseCode());
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/metrics").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        String body = new String(connection.getInputStream().readAllBytes());
+        assertTrue(body.contains("\nci_build_cache_hits_total 1\n"), body);
+        assertTrue(body.contains("\nci_build_cache_misses_total 1\n"), body);
+        assertTrue(body.contains("\nci_build_cache_entries 1\n"), body);
+    }
+}
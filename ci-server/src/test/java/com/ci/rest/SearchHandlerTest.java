@@ -0,0 +1,118 @@
+package com.ci.rest;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ci.DbHandler;
+import com.ci.Server;
+
+public class SearchHandlerTest {
+    private Server server;
+    private int port;
+    private File tempDbFile;
+    private String dbUrl;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        dbUrl = tempDbFile.getAbsolutePath();
+        // Initialize the database with test data 
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.addEntry("1a24", "branch1", "failure", "Tests run: 3\nConnection refused by host");
+        dbHandler.addEntry("1a25", "branch1", "success", "Tests run: 3");
+        dbHandler.addEntry("1a26", "branch3", "failure", "Connection refused by host");
+        server = new Server(dbUrl);
+        server.start(0);
+        port = server.getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        if (tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    /**
+     * Contract:
+     * The SearchHandler should only allow GET requests.
+     * 
+     * Expected Behavior:
+     * When a POST request is sent to /builds/search, the server should respond with a 405 Method Not Allowed status code.
+     */
+    @Test
+    void postRequestNotAllowed() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/builds/search?q=error");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * Contract:
+     * A search without the q parameter is not a valid request.
+     * 
+     * Expected Behavior:
+     * The server should respond with 400 Bad Request.
+     */
+    @Test
+    void missingQueryReturns400() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/builds/search");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        assertEquals(400, connection.getResponseCode());
+    }
+
+    /**
+     * Contract:
+     * When a GET request is sent to /builds/search?q=..., the server should respond with the builds
+     * whose output contains every word of the query.
+     * 
+     * Expected Behavior:
+     * Searching for "Connection refused" returns the two failing builds but not the successful one,
+     * a limit of 1 returns only the most recent match together with the cursor of the next page, that cursor
+     * returns the older match, and an invalid cursor is a bad request.
+     */
+    @Test
+    void getRequestReturnsMatchingBuilds() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/builds/search?q=Connection+refused");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        assertEquals(200, connection.getResponseCode());
+        String responseBody = new String(connection.getInputStream().readAllBytes());
+        assertTrue(responseBody.contains("1a24"));
+        assertTrue(!responseBody.contains("1a25"));
+        assertTrue(responseBody.contains("1a26"));
+
+        url = new URL("http://localhost:" + port + "/builds/search?q=Connection+refused&limit=1");
+        connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        responseBody = new String(connection.getInputStream().readAllBytes());
+        assertTrue(responseBody.contains("1a26"));
+        assertTrue(!responseBody.contains("1a24"));
+        String cursor = responseBody.replaceAll(".*\"nextCursor\":\"([^\"]+)\".*", "$1");
+
+        url = new URL("http://localhost:" + port + "/builds/search?q=Connection+refused&limit=1&after=" + cursor);
+        connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        responseBody = new String(connection.getInputStream().readAllBytes());
+        assertTrue(responseBody.contains("1a24"));
+        assertTrue(!responseBody.contains("1a26"));
+
+        url = new URL("http://localhost:" + port + "/builds/search?q=Connection+refused&after=bogus!");
+        connection = (HttpURLConnection) url.openConnection();
+        assertEquals(400, connection.getResponseCode());
+    }
+}
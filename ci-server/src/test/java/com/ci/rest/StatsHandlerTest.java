@@ -0,0 +1,136 @@
+package com.ci.rest;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ci.DbHandler;
+import com.ci.Server;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StatsHandlerTest {
+    private Server server;
+    private int port;
+    private File tempDbFile;
+    private String dbUrl;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        dbUrl = tempDbFile.getAbsolutePath();
+        // Initialize the database with test data
+        DbHandler dbHandler = new DbHandler(dbUrl);
+        dbHandler.createBuildTable();
+        dbHandler.startAttempt("1a24", "branch1");
+        dbHandler.updateEntry("1a24", "branch1", "failure", "Tests run: 3");
+        dbHandler.startAttempt("1a25", "branch1");
+        dbHandler.updateEntry("1a25", "branch1", "success", "Tests run: 3");
+        dbHandler.addEntry("1a26", "branch3", "success", "Tests run: 3");
+        dbHandler.addEntry("1a27", "branch3", "pending", "");
+        dbHandler.close();
+        server = new Server(dbUrl);
+        server.start(0);
+        port = server.getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        if (tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    private JsonNode get(String query) throws Exception {
+        URL url = new URL("http://localhost:" + port + "/stats" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        return new ObjectMapper().readTree(connection.getInputStream());
+    }
+
+    /**
+     * Contract:
+     * The StatsHandler should only allow GET requests.
+     *
+     * Expected Behavior:
+     * When a POST request is sent to /stats, the server should respond with a 405 Method Not Allowed status code.
+     */
+    @Test
+    void postRequestNotAllowed() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/stats");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * Contract:
+     * The StatsHandler should summarize the final results of the builds in total, per branch and per day.
+     *
+     * Expected Behavior:
+     * The three finished builds are counted with a pass rate of 2/3, the pending build isn't, and only the builds
+     * started as attempts have a duration.
+     */
+    @Test
+    void getSummarizesFinalResults() throws Exception {
+        JsonNode body = get("");
+        String today = LocalDate.now(ZoneOffset.UTC).toString();
+
+        JsonNode total = body.get("total");
+        assertEquals(3, total.get("builds").asInt());
+        assertEquals(2, total.get("success").asInt());
+        assertEquals(1, total.get("failure").asInt());
+        assertEquals(0, total.get("error").asInt());
+        assertEquals(2.0 / 3, total.get("passRate").asDouble(), 1e-9);
+        assertTrue(total.get("avgDurationMillis").asLong() >= 0);
+        assertEquals(0.5, body.get("branches").get("branch1").get("passRate").asDouble(), 1e-9);
+        assertTrue(body.get("branches").get("branch3").get("avgDurationMillis").isNull());
+        assertEquals(3, body.get("days").get(today).get("builds").asInt());
+        assertEquals(LocalDate.now(ZoneOffset.UTC).minusDays(StatsHandler.DEFAULT_DAYS - 1).toString(), body.get("from").asText());
+    }
+
+    /**
+     * Contract:
+     * The StatsHandler should filter the statistics by the branch parameter.
+     *
+     * Expected Behavior:
+     * Only the builds of branch3 are counted, and a branch without builds has no pass rate.
+     */
+    @Test
+    void getFiltersByBranch() throws Exception {
+        JsonNode body = get("?branch=branch3&days=1");
+        assertEquals("branch3", body.get("branch").asText());
+        assertEquals(1, body.get("total").get("builds").asInt());
+        assertEquals(1, body.get("branches").size());
+
+        JsonNode none = get("?branch=unknown");
+        assertEquals(0, none.get("total").get("builds").asInt());
+        assertTrue(none.get("total").get("passRate").isNull());
+    }
+
+    /**
+     * Contract:
+     * The StatsHandler should reject a days parameter that is not a number.
+     *
+     * Expected Behavior:
+     * The server responds with 400 Bad Request.
+     */
+    @Test
+    void invalidDaysIsBadRequest() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/stats?days=week");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(400, connection.getResponseCode());
+    }
+}
@@ -0,0 +1,114 @@
+package com.ci.rest;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ci.Server;
+import com.ci.pipeline.CIPipeline;
+import com.ci.pipeline.StageTimings;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TimingsHandlerTest {
+    private Server server;
+    private int port;
+    private File tempDbFile;
+    private CIPipeline pipeline;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        tempDbFile = Files.createTempFile("testdb", ".db").toFile();
+        pipeline = new CIPipeline();
+        server = new Server(pipeline, Executors.newSingleThreadExecutor(), tempDbFile.getAbsolutePath());
+        server.start(0);
+        port = server.getPort();
+        for (long millis = 1; millis <= 100; millis++) {
+            pipeline.timings().record("main", StageTimings.TEST, millis * 1000);
+        }
+        pipeline.timings().record("dev", StageTimings.TEST, 500_000);
+        // half of the samples stored, half still in memory
+        pipeline.timings().flush();
+        pipeline.timings().record("main", StageTimings.CHECKOUT, 2000);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        if (tempDbFile.exists()) {
+            tempDbFile.delete();
+        }
+    }
+
+    private JsonNode get(String query) throws Exception {
+        URL url = new URL("http://localhost:" + port + "/timings" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        return new ObjectMapper().readTree(connection.getInputStream());
+    }
+
+    /**
+     * Contract:
+     * The TimingsHandler should only allow GET requests.
+     *
+     * Expected Behavior:
+     * When a POST request is sent to /timings, the server should respond with a 405 Method Not Allowed status code.
+     */
+    @Test
+    void postRequestNotAllowed() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/timings");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * Contract:
+     * The TimingsHandler should answer the quantiles of each stage, merged from stored and unstored sketches.
+     *
+     * Expected Behavior:
+     * The p50 and p99 of the test durations of main are within 1% of 50 s and 99 s, the checkout recorded after the
+     * flush is counted, stages without samples have a count of 0, and windows=true lists the current hour.
+     */
+    @Test
+    void getAnswersQuantilesPerStage() throws Exception {
+        JsonNode body = get("?branch=main&windows=true");
+        JsonNode test = body.get("stages").get("test");
+        assertEquals("main", body.get("branch").asText());
+        assertEquals(100, test.get("count").asInt());
+        assertEquals(50_000, test.get("p50").asDouble(), 500);
+        assertEquals(99_000, test.get("p99").asDouble(), 990);
+        assertEquals(100_000, test.get("max").asLong());
+        assertEquals(1, body.get("stages").get("checkout").get("count").asInt());
+        assertEquals(0, body.get("stages").get("queue").get("count").asInt());
+        assertEquals(1, body.get("windows").size());
+
+        JsonNode all = get("?hours=1");
+        assertEquals(101, all.get("stages").get("test").get("count").asInt());
+        assertTrue(all.get("windows") == null);
+    }
+
+    /**
+     * Contract:
+     * The TimingsHandler should reject an hours parameter that is not a number.
+     *
+     * Expected Behavior:
+     * The server responds with 400 Bad Request.
+     */
+    @Test
+    void invalidHoursIsBadRequest() throws Exception {
+        URL url = new URL("http://localhost:" + port + "/timings?hours=day");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(400, connection.getResponseCode());
+    }
+}